@@ -7,6 +7,8 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.Parcel;
 import android.os.Parcelable;
 
@@ -25,8 +27,13 @@ import org.fdroid.fdroid.views.appdetails.AppDetails;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Manages the state of APKs that are being installed or that have updates available.
@@ -38,6 +45,11 @@ import java.util.Iterator;
  * As defined in {@link org.fdroid.fdroid.installer.InstallManagerService}, the
  * canonical URL for the APK file to download is used as the unique ID to represent
  * the status of the APK throughout F-Droid.
+ * <p>
+ * This can be used from any thread without blocking.  Everything it hands out is a
+ * copy, and changes are sent together in a {@link #BROADCAST_APPSTATUS_BATCH}
+ * rather than one broadcast each, so that receivers can handle all of the changes
+ * since they last ran at once.
  *
  * @see org.fdroid.fdroid.installer.InstallManagerService
  */
@@ -72,19 +84,19 @@ public final class AppUpdateStatusManager {
      */
     public static final String BROADCAST_APPSTATUS_REMOVED = "org.fdroid.fdroid.installer.appstatus.appchange.remove";
 
-    public static final String EXTRA_APK_URL = "urlstring";
-    public static final String EXTRA_STATUS = "status";
+    /**
+     * Sent once for everything which changed at about the same time, with an
+     * {@link #EXTRA_CHANGES} list of {@link Change}s, in the order they happened.
+     * The {@code BROADCAST_APPSTATUS_*} constants above are the
+     * {@link Change#type types} of change which are in it.  Download progress
+     * which was overtaken by a later change to the same entry is left out.
+     */
+    public static final String BROADCAST_APPSTATUS_BATCH = "org.fdroid.fdroid.installer.appstatus.batch";
 
-    public static final String EXTRA_REASON_FOR_CHANGE = "reason";
+    public static final String EXTRA_CHANGES = "changes";
 
     public static final String REASON_REPO_DISABLED = "repodisabled";
 
-    /**
-     * If this is present and true, then the broadcast has been sent in response to the {@link AppUpdateStatus#status}
-     * changing. In comparison, if it is just the download progress of an app then this should not be true.
-     */
-    public static final String EXTRA_IS_STATUS_UPDATE = "isstatusupdate";
-
     private static final String LOGTAG = "AppUpdateStatusManager";
 
     public enum Status {
@@ -195,10 +207,107 @@ public final class AppUpdateStatusManager {
         }
     }
 
+    /**
+     * A single change to the entries, as sent in {@link #BROADCAST_APPSTATUS_BATCH}.
+     */
+    public static final class Change implements Parcelable {
+        /**
+         * One of {@link #BROADCAST_APPSTATUS_ADDED}, {@link #BROADCAST_APPSTATUS_CHANGED},
+         * {@link #BROADCAST_APPSTATUS_REMOVED} or {@link #BROADCAST_APPSTATUS_LIST_CHANGED}.
+         */
+        public final String type;
+
+        /**
+         * A copy of the entry as it was right after the change, or null for
+         * {@link #BROADCAST_APPSTATUS_LIST_CHANGED}.
+         */
+        @Nullable
+        public final AppUpdateStatus status;
+
+        /**
+         * Whether the {@link AppUpdateStatus#status} changed, rather than just the download progress.
+         */
+        public final boolean isStatusUpdate;
+
+        /**
+         * Only set for {@link #BROADCAST_APPSTATUS_LIST_CHANGED}, e.g. {@link #REASON_REPO_DISABLED}.
+         */
+        @Nullable
+        public final String reason;
+
+        Change(String type, @Nullable AppUpdateStatus status, boolean isStatusUpdate, @Nullable String reason) {
+            this.type = type;
+            this.status = status;
+            this.isStatusUpdate = isStatusUpdate;
+            this.reason = reason;
+        }
+
+        protected Change(Parcel in) {
+            type = in.readString();
+            status = in.readParcelable(getClass().getClassLoader());
+            isStatusUpdate = in.readByte() != 0;
+            reason = in.readString();
+        }
+
+        @Override
+        public void writeToParcel(@NonNull Parcel dest, int flags) {
+            dest.writeString(type);
+            dest.writeParcelable(status, 0);
+            dest.writeByte((byte) (isStatusUpdate ? 1 : 0));
+            dest.writeString(reason);
+        }
+
+        @Override
+        public int describeContents() {
+            return 0;
+        }
+
+        public static final Parcelable.Creator<Change> CREATOR = new Parcelable.Creator<Change>() {
+            @Override
+            public Change createFromParcel(Parcel in) {
+                return new Change(in);
+            }
+
+            @Override
+            public Change[] newArray(int size) {
+                return new Change[size];
+            }
+        };
+
+        /**
+         * A progress update says nothing that a later change to the same entry doesn't.
+         */
+        boolean isSupersededBy(Change later) {
+            return BROADCAST_APPSTATUS_CHANGED.equals(type) && !isStatusUpdate
+                    && BROADCAST_APPSTATUS_CHANGED.equals(later.type)
+                    && status != null && later.status != null
+                    && status.getCanonicalUrl().equals(later.status.getCanonicalUrl());
+        }
+    }
+
+    private interface Mutation {
+        void apply(AppUpdateStatus entry);
+    }
+
     private final Context context;
     private final LocalBroadcastManager localBroadcastManager;
-    private final HashMap<String, AppUpdateStatus> appMapping = new HashMap<>();
-    private boolean isBatchUpdating;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /**
+     * The entries are never changed once they are in here.  Every change puts a changed copy
+     * in place of the old one, see {@link #update(String, Mutation)}, so anything read from
+     * here is a consistent snapshot without any locking.
+     */
+    private final ConcurrentHashMap<String, AppUpdateStatus> entriesByUrl = new ConcurrentHashMap<>();
+
+    /**
+     * The canonical URLs of the entries for each package name, in lower case, since
+     * {@link #getByPackageName(String)} ignores case.
+     */
+    private final ConcurrentHashMap<String, Set<String>> urlsByPackageName = new ConcurrentHashMap<>();
+
+    private final ConcurrentLinkedQueue<Change> pendingChanges = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean sendScheduled = new AtomicBoolean();
 
     private AppUpdateStatusManager(Context context) {
         this.context = context;
@@ -207,11 +316,9 @@ public final class AppUpdateStatusManager {
 
     public void removeAllByRepo(Repo repo) {
         boolean hasRemovedSome = false;
-        Iterator<AppUpdateStatus> it = getAll().iterator();
-        while (it.hasNext()) {
-            AppUpdateStatus status = it.next();
-            if (status.apk.repoId == repo.getId()) {
-                it.remove();
+        for (AppUpdateStatus entry : entriesByUrl.values()) {
+            if (entry.apk.repoId == repo.getId() && entriesByUrl.remove(entry.getCanonicalUrl(), entry)) {
+                getUrlsForPackageName(entry.apk.packageName).remove(entry.getCanonicalUrl());
                 hasRemovedSome = true;
             }
         }
@@ -221,56 +328,102 @@ public final class AppUpdateStatusManager {
         }
     }
 
+    /**
+     * @return A copy of the entry, so changing it has no effect here
+     */
     @Nullable
     public AppUpdateStatus get(String key) {
-        synchronized (appMapping) {
-            return appMapping.get(key);
-        }
+        AppUpdateStatus entry = entriesByUrl.get(key);
+        return entry == null ? null : entry.copy();
     }
 
+    /**
+     * @return Copies of all entries, as they were at the time
+     */
     public Collection<AppUpdateStatus> getAll() {
-        synchronized (appMapping) {
-            return appMapping.values();
+        ArrayList<AppUpdateStatus> returnValues = new ArrayList<>(entriesByUrl.size());
+        for (AppUpdateStatus entry : entriesByUrl.values()) {
+            returnValues.add(entry.copy());
         }
+        return returnValues;
     }
 
     /**
      * Get all entries associated with a package name. There may be several.
      *
      * @param packageName Package name of the app
-     * @return A list of entries, or an empty list
+     * @return Copies of the entries, or an empty list
      */
     public Collection<AppUpdateStatus> getByPackageName(String packageName) {
         ArrayList<AppUpdateStatus> returnValues = new ArrayList<>();
-        synchronized (appMapping) {
-            for (AppUpdateStatus entry : appMapping.values()) {
-                if (entry.apk.packageName.equalsIgnoreCase(packageName)) {
-                    returnValues.add(entry);
-                }
+        for (String url : getUrlsForPackageName(packageName)) {
+            AppUpdateStatus entry = entriesByUrl.get(url);
+            if (entry != null) {
+                returnValues.add(entry.copy());
             }
         }
         return returnValues;
     }
 
-    private void updateApkInternal(@NonNull AppUpdateStatus entry, @NonNull Status status, PendingIntent intent) {
-        Utils.debugLog(LOGTAG, "Update APK " + entry.apk.apkName + " state to " + status.name());
-        boolean isStatusUpdate = entry.status != status;
-        entry.status = status;
-        entry.intent = intent;
-        setEntryContentIntentIfEmpty(entry);
-        notifyChange(entry, isStatusUpdate);
+    private Set<String> getUrlsForPackageName(String packageName) {
+        String key = packageName.toLowerCase(Locale.ENGLISH);
+        Set<String> urls = urlsByPackageName.get(key);
+        if (urls == null) {
+            urls = Collections.newSetFromMap(new ConcurrentHashMap<>());
+            Set<String> existing = urlsByPackageName.putIfAbsent(key, urls);
+            if (existing != null) {
+                urls = existing;
+            }
+        }
+        return urls;
+    }
 
-        if (status == Status.Installed) {
-            InstallManagerService.removePendingInstall(context, entry.getCanonicalUrl());
+    /**
+     * Replace the entry for {@code key} with a copy which has had {@code mutation} applied,
+     * trying again if something else replaced it in the meantime, and queue the change.
+     *
+     * @return The new entry, or null if there is no entry for {@code key}
+     */
+    @Nullable
+    private AppUpdateStatus update(String key, Mutation mutation) {
+        while (true) {
+            AppUpdateStatus current = entriesByUrl.get(key);
+            if (current == null) {
+                return null;
+            }
+            AppUpdateStatus updated = current.copy();
+            mutation.apply(updated);
+            if (entriesByUrl.replace(key, current, updated)) {
+                notifyChange(updated, current.status != updated.status);
+                return updated;
+            }
         }
     }
 
-    private void addApkInternal(@NonNull Apk apk, @NonNull Status status, PendingIntent intent) {
-        Utils.debugLog(LOGTAG, "Add APK " + apk.apkName + " with state " + status.name());
-        AppUpdateStatus entry = createAppEntry(apk, status, intent);
-        setEntryContentIntentIfEmpty(entry);
-        appMapping.put(entry.getCanonicalUrl(), entry);
+    /**
+     * Put a new entry in place, unless another one got there first.
+     *
+     * @return Whether {@code entry} was added
+     */
+    private boolean add(AppUpdateStatus entry) {
+        if (entriesByUrl.putIfAbsent(entry.getCanonicalUrl(), entry) != null) {
+            return false;
+        }
+        getUrlsForPackageName(entry.apk.packageName).add(entry.getCanonicalUrl());
         notifyAdd(entry);
+        return true;
+    }
+
+    private void updateApkInternal(String key, @NonNull Status status, PendingIntent intent) {
+        AppUpdateStatus entry = update(key, e -> {
+            e.status = status;
+            e.intent = intent;
+            setEntryContentIntentIfEmpty(e);
+        });
+        if (entry == null) {
+            return;
+        }
+        Utils.debugLog(LOGTAG, "Update APK " + entry.apk.apkName + " state to " + status.name());
 
         if (status == Status.Installed) {
             InstallManagerService.removePendingInstall(context, entry.getCanonicalUrl());
@@ -278,49 +431,62 @@ public final class AppUpdateStatusManager {
     }
 
     private void notifyChange(String reason) {
-        if (!isBatchUpdating) {
-            Intent intent = new Intent(BROADCAST_APPSTATUS_LIST_CHANGED);
-            intent.putExtra(EXTRA_REASON_FOR_CHANGE, reason);
-            localBroadcastManager.sendBroadcast(intent);
-        }
+        queueChange(new Change(BROADCAST_APPSTATUS_LIST_CHANGED, null, false, reason));
     }
 
     private void notifyAdd(AppUpdateStatus entry) {
-        if (!isBatchUpdating) {
-            Intent broadcastIntent = new Intent(BROADCAST_APPSTATUS_ADDED);
-            broadcastIntent.putExtra(EXTRA_APK_URL, entry.getCanonicalUrl());
-            broadcastIntent.putExtra(EXTRA_STATUS, entry.copy());
-            localBroadcastManager.sendBroadcast(broadcastIntent);
-        }
+        queueChange(new Change(BROADCAST_APPSTATUS_ADDED, entry.copy(), false, null));
     }
 
     private void notifyChange(AppUpdateStatus entry, boolean isStatusUpdate) {
-        if (!isBatchUpdating) {
-            Intent broadcastIntent = new Intent(BROADCAST_APPSTATUS_CHANGED);
-            broadcastIntent.putExtra(EXTRA_APK_URL, entry.getCanonicalUrl());
-            broadcastIntent.putExtra(EXTRA_STATUS, entry.copy());
-            broadcastIntent.putExtra(EXTRA_IS_STATUS_UPDATE, isStatusUpdate);
-            localBroadcastManager.sendBroadcast(broadcastIntent);
-        }
+        queueChange(new Change(BROADCAST_APPSTATUS_CHANGED, entry.copy(), isStatusUpdate, null));
     }
 
     private void notifyRemove(AppUpdateStatus entry) {
-        if (!isBatchUpdating) {
-            Intent broadcastIntent = new Intent(BROADCAST_APPSTATUS_REMOVED);
-            broadcastIntent.putExtra(EXTRA_APK_URL, entry.getCanonicalUrl());
-            broadcastIntent.putExtra(EXTRA_STATUS, entry.copy());
-            localBroadcastManager.sendBroadcast(broadcastIntent);
+        queueChange(new Change(BROADCAST_APPSTATUS_REMOVED, entry.copy(), false, null));
+    }
+
+    /**
+     * Changes are not sent straight away, but all together on the main thread's next turn,
+     * so that everything which changes while handling one event, e.g. the progress of all
+     * running downloads, goes out as one {@link #BROADCAST_APPSTATUS_BATCH}.
+     */
+    private void queueChange(Change change) {
+        pendingChanges.add(change);
+        if (sendScheduled.compareAndSet(false, true)) {
+            handler.post(this::sendChanges);
         }
     }
 
-    private AppUpdateStatus createAppEntry(Apk apk, Status status, PendingIntent intent) {
-        synchronized (appMapping) {
-            ContentResolver resolver = context.getContentResolver();
-            App app = AppProvider.Helper.findSpecificApp(resolver, apk.packageName, apk.repoId);
-            AppUpdateStatus ret = new AppUpdateStatus(app, apk, status, intent);
-            appMapping.put(apk.getCanonicalUrl(), ret);
-            return ret;
+    private void sendChanges() {
+        sendScheduled.set(false);
+        List<Change> changes = new ArrayList<>();
+        Change change;
+        while ((change = pendingChanges.poll()) != null) {
+            changes.add(change);
+        }
+        ArrayList<Change> batch = new ArrayList<>(changes.size());
+        for (int i = 0; i < changes.size(); i++) {
+            boolean superseded = false;
+            for (int j = i + 1; j < changes.size() && !superseded; j++) {
+                superseded = changes.get(i).isSupersededBy(changes.get(j));
+            }
+            if (!superseded) {
+                batch.add(changes.get(i));
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
         }
+        Intent intent = new Intent(BROADCAST_APPSTATUS_BATCH);
+        intent.putParcelableArrayListExtra(EXTRA_CHANGES, batch);
+        localBroadcastManager.sendBroadcast(intent);
+    }
+
+    private AppUpdateStatus createAppEntry(Apk apk, Status status, PendingIntent intent) {
+        ContentResolver resolver = context.getContentResolver();
+        App app = AppProvider.Helper.findSpecificApp(resolver, apk.packageName, apk.repoId);
+        return new AppUpdateStatus(app, apk, status, intent);
     }
 
     /**
@@ -335,37 +501,34 @@ public final class AppUpdateStatusManager {
             return;
         }
 
-        synchronized (appMapping) {
-            AppUpdateStatus entry = appMapping.get(apk.getCanonicalUrl());
-            if (entry != null) {
-                updateApkInternal(entry, status, pendingIntent);
-            } else {
-                addApkInternal(apk, status, pendingIntent);
+        if (!entriesByUrl.containsKey(apk.getCanonicalUrl())) {
+            AppUpdateStatus entry = createAppEntry(apk, status, pendingIntent);
+            setEntryContentIntentIfEmpty(entry);
+            if (add(entry)) {
+                Utils.debugLog(LOGTAG, "Add APK " + apk.apkName + " with state " + status.name());
+                if (status == Status.Installed) {
+                    InstallManagerService.removePendingInstall(context, entry.getCanonicalUrl());
+                }
+                return;
             }
         }
+        updateApkInternal(apk.getCanonicalUrl(), status, pendingIntent);
     }
 
     /**
      * @param pendingIntent Action when notification is clicked. Can be null for default action(s)
      */
     public void updateApk(String key, @NonNull Status status, @Nullable PendingIntent pendingIntent) {
-        synchronized (appMapping) {
-            AppUpdateStatus entry = appMapping.get(key);
-            if (entry != null) {
-                updateApkInternal(entry, status, pendingIntent);
-            }
-        }
+        updateApkInternal(key, status, pendingIntent);
     }
 
     @Nullable
     public Apk getApk(String key) {
-        synchronized (appMapping) {
-            AppUpdateStatus entry = appMapping.get(key);
-            if (entry != null) {
-                return entry.apk;
-            }
-            return null;
+        AppUpdateStatus entry = entriesByUrl.get(key);
+        if (entry != null) {
+            return entry.apk;
         }
+        return null;
     }
 
     /**
@@ -375,56 +538,48 @@ public final class AppUpdateStatusManager {
      * @see org.fdroid.fdroid.installer.InstallManagerService
      */
     public void removeApk(String key) {
-        synchronized (appMapping) {
-            InstallManagerService.removePendingInstall(context, key);
-            AppUpdateStatus entry = appMapping.remove(key);
-            if (entry != null) {
-                Utils.debugLog(LOGTAG, "Remove APK " + entry.apk.apkName);
-                notifyRemove(entry);
-            }
+        InstallManagerService.removePendingInstall(context, key);
+        AppUpdateStatus entry = entriesByUrl.remove(key);
+        if (entry != null) {
+            getUrlsForPackageName(entry.apk.packageName).remove(key);
+            Utils.debugLog(LOGTAG, "Remove APK " + entry.apk.apkName);
+            notifyRemove(entry);
         }
     }
 
     public void updateApkProgress(String key, long max, long current) {
-        synchronized (appMapping) {
-            AppUpdateStatus entry = appMapping.get(key);
-            if (entry != null) {
-                entry.progressMax = max;
-                entry.progressCurrent = current;
-                notifyChange(entry, false);
-            }
-        }
+        update(key, entry -> {
+            entry.progressMax = max;
+            entry.progressCurrent = current;
+        });
     }
 
     /**
      * @param errorText If null, then it is likely because the user cancelled the download.
      */
     public void setDownloadError(String url, @Nullable String errorText) {
-        synchronized (appMapping) {
-            AppUpdateStatus entry = appMapping.get(url);
-            if (entry != null) {
-                entry.status = Status.DownloadInterrupted;
-                entry.errorText = errorText;
-                entry.intent = null;
-                notifyChange(entry, true);
-                removeApk(url);
-            }
+        AppUpdateStatus entry = update(url, e -> {
+            e.status = Status.DownloadInterrupted;
+            e.errorText = errorText;
+            e.intent = null;
+        });
+        if (entry != null) {
+            removeApk(url);
         }
     }
 
     public void setApkError(Apk apk, String errorText) {
-        synchronized (appMapping) {
-            AppUpdateStatus entry = appMapping.get(apk.getCanonicalUrl());
-            if (entry == null) {
-                entry = createAppEntry(apk, Status.InstallError, null);
-            }
+        String key = apk.getCanonicalUrl();
+        if (!entriesByUrl.containsKey(key)) {
+            add(createAppEntry(apk, Status.InstallError, null));
+        }
+        update(key, entry -> {
             entry.status = Status.InstallError;
             entry.errorText = errorText;
             entry.intent = getAppErrorIntent(entry);
-            notifyChange(entry, false);
+        });
 
-            InstallManagerService.removePendingInstall(context, entry.getCanonicalUrl());
-        }
+        InstallManagerService.removePendingInstall(context, key);
     }
 
     /**
@@ -27,7 +27,6 @@ import android.content.res.Configuration;
 import android.os.StrictMode;
 import android.util.Log;
 
-import androidx.collection.LongSparseArray;
 import androidx.multidex.MultiDexApplication;
 
 import com.nostra13.universalimageloader.cache.disc.DiskCache;
@@ -40,8 +39,6 @@ import com.nostra13.universalimageloader.core.ImageLoaderConfiguration;
 import org.fdroid.fdroid.Preferences.Theme;
 import org.fdroid.fdroid.data.AppProvider;
 import org.fdroid.fdroid.data.InstalledAppProviderService;
-import org.fdroid.fdroid.data.Repo;
-import org.fdroid.fdroid.data.RepoProvider;
 import org.fdroid.fdroid.net.ImageLoaderForUIL;
 import org.ligi.tracedroid.TraceDroid;
 
@@ -129,50 +126,6 @@ public class FDroidApp extends MultiDexApplication {
         activity.overridePendingTransition(0, 0);
     }
 
-    public static int getTimeout() {
-        return timeout;
-    }
-
-    public static String getMirror(String urlString, long repoId) throws IOException {
-        return getMirror(urlString, RepoProvider.Helper.findById(getInstance(), repoId));
-    }
-
-    public static String getMirror(String urlString, Repo repo) throws IOException {
-        if (repo.hasMirrors()) {
-            String lastWorkingMirror = lastWorkingMirrorArray.get(repo.getId());
-            if (lastWorkingMirror == null) {
-                lastWorkingMirror = repo.address;
-            }
-            if (numTries <= 0) {
-                if (timeout == 10000) {
-                    timeout = 30000;
-                    numTries = Integer.MAX_VALUE;
-                } else if (timeout == 30000) {
-                    timeout = 60000;
-                    numTries = Integer.MAX_VALUE;
-                } else {
-                    Utils.debugLog(TAG, "Mirrors: Giving up");
-                    throw new IOException("Ran out of mirrors");
-                }
-            }
-            if (numTries == Integer.MAX_VALUE) {
-                numTries = repo.getMirrorCount();
-            }
-            String mirror = repo.getMirror(lastWorkingMirror);
-            if (mirror == null) {
-                throw new IOException("No mirrors available");
-            }
-            String newUrl = urlString.replace(lastWorkingMirror, mirror);
-            Utils.debugLog(TAG, "Trying mirror " + mirror + " after " + lastWorkingMirror + " failed," +
-                    " timeout=" + timeout / 1000 + "s");
-            lastWorkingMirrorArray.put(repo.getId(), mirror);
-            numTries--;
-            return newUrl;
-        } else {
-            throw new IOException("No mirrors available");
-        }
-    }
-
     @Override
     public void onCreate() {
         super.onCreate();
@@ -266,19 +219,6 @@ public class FDroidApp extends MultiDexApplication {
         return instance.imageCacheExecutor;
     }
 
-    private static final LongSparseArray<String> lastWorkingMirrorArray = new LongSparseArray<>(1);
-    private static volatile int numTries = Integer.MAX_VALUE;
-    private static volatile int timeout = 10000;
-
-    public static void resetMirrorVars() {
-        // Reset last working mirror, numtries, and timeout
-        for (int i = 0; i < lastWorkingMirrorArray.size(); i++) {
-            lastWorkingMirrorArray.removeAt(i);
-        }
-        numTries = Integer.MAX_VALUE;
-        timeout = 10000;
-    }
-
     private static boolean useTor;
 
     /**
@@ -20,6 +20,7 @@
 
 package org.fdroid.fdroid;
 
+import com.google.common.base.Charsets;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
 import com.google.common.io.BaseEncoding;
@@ -30,6 +31,9 @@ import java.io.IOException;
 import java.util.Locale;
 
 public class HashingUtils {
+
+    private static final String TAG = "HashingUtils";
+
     /**
      * Checks the file against the provided hash, returning whether it is a match.
      */
@@ -40,6 +44,81 @@ public class HashingUtils {
         if (targetHash == null) {
             return false;
         }
+        HashFunction hashFunction = getHashFunction(hashType);
+        String calculatedHash;
+        try {
+            calculatedHash = Files.asByteSource(file).hash(hashFunction).toString();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return calculatedHash.equals(targetHash.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Same as {@link #isFileMatchingHash(File, String, String)}, except that if a hash was
+     * recorded for {@code file} with {@link #writeHashSidecar(File, String, String)} since it
+     * last changed, that is compared instead of reading the whole file again.
+     * <p>
+     * Anything which can change the file can also change what was recorded about it, so only
+     * use this where a wrong answer will be caught later on, e.g. to decide whether a download
+     * can be skipped when the file will be verified again before it is installed.
+     */
+    public static boolean isFileMatchingRecordedHash(File file, String targetHash, String hashType) {
+        if (targetHash != null && file.exists()) {
+            String recordedHash = readHashSidecar(file, hashType);
+            if (recordedHash != null) {
+                return recordedHash.equals(targetHash.toLowerCase(Locale.ENGLISH));
+            }
+        }
+        return isFileMatchingHash(file, targetHash, hashType);
+    }
+
+    /**
+     * Records the {@code hash} of {@code file}, along with its current size and modification
+     * time, in a file next to it.  If the file is changed after that, the record is ignored.
+     */
+    public static void writeHashSidecar(File file, String hash, String hashType) {
+        String record = hashType + " " + hash.toLowerCase(Locale.ENGLISH) + " "
+                + file.length() + " " + file.lastModified();
+        try {
+            Files.asCharSink(getHashSidecar(file), Charsets.UTF_8).write(record);
+        } catch (IOException e) {
+            Utils.debugLog(TAG, "Could not record hash of " + file + ": " + e.getLocalizedMessage());
+        }
+    }
+
+    public static void deleteHashSidecar(File file) {
+        getHashSidecar(file).delete();
+    }
+
+    /**
+     * @return The recorded hash of {@code file}, or null if there is none for {@code hashType}
+     * which is still up to date.
+     */
+    private static String readHashSidecar(File file, String hashType) {
+        File sidecar = getHashSidecar(file);
+        if (!sidecar.isFile()) {
+            return null;
+        }
+        String[] record;
+        try {
+            record = Files.asCharSource(sidecar, Charsets.UTF_8).read().trim().split(" ");
+        } catch (IOException e) {
+            return null;
+        }
+        if (record.length != 4 || !record[0].equals(hashType)
+                || !record[2].equals(String.valueOf(file.length()))
+                || !record[3].equals(String.valueOf(file.lastModified()))) {
+            return null;
+        }
+        return record[1];
+    }
+
+    private static File getHashSidecar(File file) {
+        return new File(file.getPath() + ".hash");
+    }
+
+    public static HashFunction getHashFunction(String hashType) {
         HashFunction hashFunction;
         switch (hashType) {
             case "sha256":
@@ -60,13 +139,7 @@ public class HashingUtils {
             default:
                 throw new RuntimeException(String.format("HashType %s is unsupported", hashType));
         }
-        String calculatedHash;
-        try {
-            calculatedHash = Files.asByteSource(file).hash(hashFunction).toString();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        return calculatedHash.equals(targetHash.toLowerCase(Locale.ENGLISH));
+        return hashFunction;
     }
 
     public static String hex(byte[] sig) {
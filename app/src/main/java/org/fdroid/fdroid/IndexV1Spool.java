@@ -0,0 +1,100 @@
+package org.fdroid.fdroid;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A temporary, append-only store on disk for raw JSON entries from {@code index-v1.json},
+ * keyed by package name.  {@code index-v1.json} lists all the {@code apps} in one block and
+ * all the {@code packages} in another, so one of the two has to be held somewhere until the
+ * other one is read.  Keeping only the offsets in memory means the heap use of
+ * {@link IndexV1Updater} no longer grows with the size of the index.
+ */
+class IndexV1Spool implements Closeable {
+
+    private final File file;
+    private final OutputStream outputStream;
+    private final Map<String, long[]> offsets = new HashMap<>();
+    private final List<String> keysInOrder = new ArrayList<>();
+
+    private long length;
+    private RandomAccessFile reader;
+
+    IndexV1Spool(File dir) throws IOException {
+        file = File.createTempFile("index-v1-", ".spool", dir);
+        outputStream = new BufferedOutputStream(new FileOutputStream(file));
+    }
+
+    /**
+     * Appends the raw bytes of a single JSON entry.  If a server repeats a key, the last entry
+     * wins, which is the same thing that happens when Jackson reads the whole map at once.
+     */
+    void put(String key, byte[] entry) throws IOException {
+        if (reader != null) {
+            throw new IllegalStateException("Cannot write to " + file + " after reading from it");
+        }
+        outputStream.write(entry);
+        if (offsets.put(key, new long[]{length, entry.length}) == null) {
+            keysInOrder.add(key);
+        }
+        length += entry.length;
+    }
+
+    int size() {
+        return offsets.size();
+    }
+
+    /**
+     * Returns the entry stored for {@code key} and forgets about it, so that it will not be
+     * included in {@link #remainingKeys()}.
+     */
+    @Nullable
+    byte[] take(String key) throws IOException {
+        long[] offset = offsets.remove(key);
+        if (offset == null) {
+            return null;
+        }
+        if (reader == null) {
+            outputStream.close();
+            reader = new RandomAccessFile(file, "r");
+        }
+        byte[] entry = new byte[(int) offset[1]];
+        reader.seek(offset[0]);
+        reader.readFully(entry);
+        return entry;
+    }
+
+    /**
+     * @return the keys which have not been {@link #take(String) taken} yet, in the order
+     * they were originally added.
+     */
+    List<String> remainingKeys() {
+        List<String> remaining = new ArrayList<>(offsets.size());
+        for (String key : keysInOrder) {
+            if (offsets.containsKey(key)) {
+                remaining.add(key);
+            }
+        }
+        return remaining;
+    }
+
+    @Override
+    public void close() {
+        Utils.closeQuietly(outputStream);
+        Utils.closeQuietly(reader);
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+}
@@ -33,7 +33,9 @@ import androidx.annotation.NonNull;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.InjectableValues;
@@ -41,13 +43,16 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 
 import org.fdroid.fdroid.data.Apk;
 import org.fdroid.fdroid.data.App;
+import org.fdroid.fdroid.data.AppProvider;
 import org.fdroid.fdroid.data.Repo;
 import org.fdroid.fdroid.data.RepoPersister;
 import org.fdroid.fdroid.data.RepoProvider;
 import org.fdroid.fdroid.data.Schema;
 import org.fdroid.fdroid.net.Downloader;
 import org.fdroid.fdroid.net.DownloaderFactory;
+import org.fdroid.fdroid.net.MirrorScoreboard;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -93,6 +98,12 @@ public class IndexV1Updater extends IndexUpdater {
     public static final String SIGNED_FILE_NAME = "index-v1.jar";
     public static final String DATA_FILE_NAME = "index-v1.json";
 
+    private static final TypeReference<List<Apk>> APK_LIST_TYPE = new TypeReference<List<Apk>>() {
+    };
+
+    private File downloadedFile;
+    private String downloadedCacheTag;
+
     public IndexV1Updater(@NonNull Context context, @NonNull Repo repo) {
         super(context, repo);
     }
@@ -103,72 +114,57 @@ public class IndexV1Updater extends IndexUpdater {
     }
 
     /**
+     * Downloads and then processes the index in one go, including recalculating the
+     * details of any packages which this repo changed.
+     *
      * @return whether this successfully found an index of this version
      * @throws IndexUpdater.UpdateException
-     * @see org.fdroid.fdroid.net.DownloaderService#handleIntent(android.content.Intent)
+     * @see #download()
+     * @see #processDownload()
      */
     public boolean update() throws IndexUpdater.UpdateException {
+        if (!download()) {
+            return false;
+        }
+        processDownload();
+        AppProvider.Helper.calcStalePackages(context);
+        return true;
+    }
+
+    /**
+     * Only fetches the index file, trying the mirrors if the main address fails.  This does
+     * not touch the database, so {@link UpdateService} runs it for several repos at once.
+     *
+     * @return whether this successfully found an index of this version
+     * @throws IndexUpdater.UpdateException
+     * @see org.fdroid.fdroid.net.DownloaderService#handleIntent(android.content.Intent)
+     */
+    public boolean download() throws IndexUpdater.UpdateException {
+        MirrorScoreboard scoreboard = MirrorScoreboard.get(context);
+        scoreboard.resetFailures(repo);
+        String url = scoreboard.getBestUrl(repo, indexUrl);
         Downloader downloader = null;
         try {
             // read file name from file
-            downloader = DownloaderFactory.create(context, indexUrl);
+            downloader = DownloaderFactory.create(context, url);
             downloader.setCacheTag(repo.lastetag);
             downloader.setListener(downloadListener);
+            downloader.setTimeout(scoreboard.getTimeout(repo, url));
             downloader.download();
             if (downloader.isNotFound()) {
                 return false;
             }
+            scoreboard.recordSuccess(repo, url, downloader);
             hasChanged = downloader.hasChanged();
-
-            if (!hasChanged) {
-                return true;
-            }
-
-            processDownloadedIndex(downloader.outputFile, downloader.getCacheTag());
+            downloadedFile = downloader.outputFile;
+            downloadedCacheTag = downloader.getCacheTag();
         } catch (ConnectException | HttpRetryException | NoRouteToHostException | SocketTimeoutException
                 | SSLHandshakeException | SSLKeyException | SSLPeerUnverifiedException | SSLProtocolException
                 | ProtocolException | UnknownHostException e) {
             // if the above list changes, also change below and in DownloaderService.handleIntent()
             Utils.debugLog(TAG, "Trying to download the index from a mirror");
-            // Mirror logic here, so that the default download code is untouched.
-            String mirrorUrl;
-            String prevMirrorUrl = indexUrl;
-            FDroidApp.resetMirrorVars();
-            int n = repo.getMirrorCount() * 3; // 3 is the number of timeouts we have. 10s, 30s & 60s
-            for (int i = 0; i <= n; i++) {
-                try {
-                    mirrorUrl = FDroidApp.getMirror(prevMirrorUrl, repo);
-                    prevMirrorUrl = mirrorUrl;
-                    downloader = DownloaderFactory.create(context, mirrorUrl);
-                    downloader.setCacheTag(repo.lastetag);
-                    downloader.setListener(downloadListener);
-                    downloader.setTimeout(FDroidApp.getTimeout());
-                    downloader.download();
-                    if (downloader.isNotFound()) {
-                        return false;
-                    }
-                    hasChanged = downloader.hasChanged();
-
-                    if (!hasChanged) {
-                        return true;
-                    }
-
-                    processDownloadedIndex(downloader.outputFile, downloader.getCacheTag());
-                    break;
-                } catch (ConnectException | HttpRetryException | NoRouteToHostException | SocketTimeoutException
-                        | SSLHandshakeException | SSLKeyException | SSLPeerUnverifiedException | SSLProtocolException
-                        | ProtocolException | UnknownHostException e2) {
-                    // We'll just let this try the next mirror
-                    Utils.debugLog(TAG, "Trying next mirror");
-                } catch (IOException e2) {
-                    if (downloader != null) {
-                        downloader.outputFile.delete();
-                    }
-                    throw new IndexUpdater.UpdateException("Error getting index file", e2);
-                } catch (InterruptedException e2) {
-                    // ignored if canceled, the local database just won't be updated
-                }
-            }
+            scoreboard.recordFailure(repo, url);
+            return downloadFromMirror(url);
         } catch (IOException e) {
             if (downloader != null) {
                 downloader.outputFile.delete();
@@ -181,6 +177,66 @@ public class IndexV1Updater extends IndexUpdater {
         return true;
     }
 
+    /**
+     * Works through the mirrors, best first, until one works or
+     * {@link MirrorScoreboard#getNextUrl(Repo, String)} runs out of them.
+     */
+    private boolean downloadFromMirror(String failedUrl) throws IndexUpdater.UpdateException {
+        // Mirror logic here, so that the default download code is untouched.
+        MirrorScoreboard scoreboard = MirrorScoreboard.get(context);
+        Downloader downloader = null;
+        String mirrorUrl = failedUrl;
+        int n = (repo.getMirrorCount() + 1) * 3; // each mirror gets tried with 3 increasing timeouts
+        for (int i = 0; i <= n; i++) {
+            try {
+                mirrorUrl = scoreboard.getNextUrl(repo, mirrorUrl);
+                downloader = DownloaderFactory.create(context, mirrorUrl);
+                downloader.setCacheTag(repo.lastetag);
+                downloader.setListener(downloadListener);
+                downloader.setTimeout(scoreboard.getTimeout(repo, mirrorUrl));
+                downloader.download();
+                if (downloader.isNotFound()) {
+                    return false;
+                }
+                scoreboard.recordSuccess(repo, mirrorUrl, downloader);
+                hasChanged = downloader.hasChanged();
+                downloadedFile = downloader.outputFile;
+                downloadedCacheTag = downloader.getCacheTag();
+                break;
+            } catch (ConnectException | HttpRetryException | NoRouteToHostException | SocketTimeoutException
+                    | SSLHandshakeException | SSLKeyException | SSLPeerUnverifiedException | SSLProtocolException
+                    | ProtocolException | UnknownHostException e2) {
+                // We'll just let this try the next mirror
+                Utils.debugLog(TAG, "Trying next mirror");
+                scoreboard.recordFailure(repo, mirrorUrl);
+            } catch (IOException e2) {
+                if (downloader != null) {
+                    downloader.outputFile.delete();
+                }
+                throw new IndexUpdater.UpdateException("Error getting index file", e2);
+            } catch (InterruptedException e2) {
+                // ignored if canceled, the local database just won't be updated
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the index fetched by {@link #download()} to the database, if it has changed.
+     * Updates share the temporary tables, so this must only ever run for one repo at a time.
+     */
+    public void processDownload() throws IndexUpdater.UpdateException {
+        if (!hasChanged || downloadedFile == null) {
+            return;
+        }
+        try {
+            processDownloadedIndex(downloadedFile, downloadedCacheTag);
+        } catch (IOException e) {
+            downloadedFile.delete();
+            throw new IndexUpdater.UpdateException("Error getting index file", e);
+        }
+    }
+
     public void processDownloadedIndex(File outputFile, String cacheTag)
             throws IOException, IndexUpdater.UpdateException {
         JarFile jarFile = new JarFile(outputFile, true);
@@ -231,33 +287,61 @@ public class IndexV1Updater extends IndexUpdater {
         JsonFactory f = mapper.getFactory();
         JsonParser parser = f.createParser(indexInputStream);
         HashMap<String, Object> repoMap = null;
-        App[] apps = null;
-        Map<String, String[]> requests = null;
-        Map<String, List<Apk>> packages = null;
+        RepoPersister repoPersister = new RepoPersister(context, repo);
 
-        parser.nextToken(); // go into the main object block
-        while (true) {
-            String fieldName = parser.nextFieldName();
-            if (fieldName == null) {
-                break;
-            }
-            switch (fieldName) {
-                case "repo":
-                    repoMap = parseRepo(mapper, parser);
-                    break;
-                case "requests":
-                    // unused, but we always need to consume the whole file.
-                    parseRequests(mapper, parser);
-                    break;
-                case "apps":
-                    apps = parseApps(mapper, parser);
-                    break;
-                case "packages":
-                    packages = parsePackages(mapper, parser);
+        // Whichever of "apps" or "packages" comes first in the file is written to the spool,
+        // then the other one is streamed straight into the database, one app at a time.
+        IndexV1Spool spool = null;
+        boolean appsSpooled = false;
+        try {
+            parser.nextToken(); // go into the main object block
+            while (true) {
+                String fieldName = parser.nextFieldName();
+                if (fieldName == null) {
                     break;
+                }
+                switch (fieldName) {
+                    case "repo":
+                        repoMap = parseRepo(mapper, parser);
+                        verifyTimestamp(repoMap);
+                        break;
+                    case "requests":
+                        // unused, but we always need to consume the whole file.
+                        parseRequests(mapper, parser);
+                        break;
+                    case "apps":
+                        if (spool == null) {
+                            spool = new IndexV1Spool(context.getCacheDir());
+                            appsSpooled = true;
+                            spoolApps(f, parser, spool);
+                        } else {
+                            streamApps(mapper, parser, spool, repoPersister);
+                        }
+                        break;
+                    case "packages":
+                        if (spool == null) {
+                            spool = new IndexV1Spool(context.getCacheDir());
+                            spoolPackages(f, parser, spool);
+                        } else {
+                            streamPackages(mapper, parser, spool, repoPersister);
+                        }
+                        break;
+                }
+            }
+            parser.close(); // ensure resources get cleaned up timely and properly
+
+            if (appsSpooled) {
+                // apps which did not have any entry in "packages"
+                for (String packageName : spool.remainingKeys()) {
+                    App app = mapper.readValue(spool.take(packageName), App.class);
+                    saveApp(repoPersister, app, null, 0, 0);
+                }
+            }
+        } finally {
+            if (spool != null) {
+                spool.close();
             }
         }
-        parser.close(); // ensure resources get cleaned up timely and properly
         profiler.log("Finished processing index-v1.json. Now verifying certificate...");
 
         if (repoMap == null) {
@@ -265,11 +349,6 @@ public class IndexV1Updater extends IndexUpdater {
         }
 
         long timestamp = (Long) repoMap.get("timestamp") / 1000;
-
-        if (repo.timestamp > timestamp) {
-            throw new IndexUpdater.UpdateException("index-v1.jar is older that current index! "
-                    + timestamp + " < " + repo.timestamp);
-        }
         X509Certificate certificate = getSigningCertFromJar(indexEntry);
         verifySigningCertificate(certificate);
 
@@ -287,38 +366,6 @@ public class IndexV1Updater extends IndexUpdater {
         repo.maxage = getIntRepoValue(repoMap, "maxage");
         repo.version = getIntRepoValue(repoMap, "version");
 
-        RepoPersister repoPersister = new RepoPersister(context, repo);
-        if (apps != null && apps.length > 0) {
-            int appCount = 0;
-            for (App app : apps) {
-                appCount++;
-                List<Apk> apks = null;
-                if (packages != null) {
-                    apks = packages.get(app.packageName);
-                }
-
-                if (apks == null) {
-                    Log.i(TAG, "processIndexV1 empty packages");
-                    apks = new ArrayList<>(0);
-                }
-
-                if (apks.size() > 0) {
-                    app.preferredSigner = apks.get(0).sig;
-                    app.isApk = true;
-                    for (Apk apk : apks) {
-                        if (!apk.isApk()) {
-                            app.isApk = false;
-                        }
-                    }
-                }
-
-                if (appCount % 50 == 0) {
-                    notifyProcessingApps(appCount, apps.length);
-                }
-
-                repoPersister.saveToDb(app, apks);
-            }
-        }
         profiler.log("Saved to database, but only a temporary table. Now persisting to database...");
         notifyCommittingToDb();
 
@@ -389,18 +436,148 @@ public class IndexV1Updater extends IndexUpdater {
         mapper.readValue(parser, typeRef);
     }
 
-    private App[] parseApps(ObjectMapper mapper, JsonParser parser) throws IOException {
-        TypeReference<App[]> typeRef = new TypeReference<App[]>() {
-        };
+    /**
+     * Checked as soon as the {@code repo} block is read, so that an index which is older
+     * than the current one is rejected before any of its apps are written to the
+     * temporary tables.
+     */
+    private void verifyTimestamp(Map<String, Object> repoMap) throws UpdateException {
+        long timestamp = (Long) repoMap.get("timestamp") / 1000;
+        if (repo.timestamp > timestamp) {
+            throw new IndexUpdater.UpdateException("index-v1.jar is older that current index! "
+                    + timestamp + " < " + repo.timestamp);
+        }
+    }
+
+    /**
+     * Copies each entry of the {@code apps} array into the spool without instantiating
+     * any {@link App}s.  Only the {@code packageName} is read out, to use as the key.
+     */
+    private void spoolApps(JsonFactory f, JsonParser parser, IndexV1Spool spool) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
         parser.nextToken(); // START_ARRAY
-        return mapper.readValue(parser, typeRef);
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            byte[] entry = copyCurrentStructure(f, parser, buffer);
+            String packageName = readPackageName(f, entry);
+            if (packageName != null) {
+                spool.put(packageName, entry);
+            }
+        }
     }
 
-    private Map<String, List<Apk>> parsePackages(ObjectMapper mapper, JsonParser parser) throws IOException {
-        TypeReference<HashMap<String, List<Apk>>> typeRef = new TypeReference<HashMap<String, List<Apk>>>() {
-        };
+    private void spoolPackages(JsonFactory f, JsonParser parser, IndexV1Spool spool) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
         parser.nextToken(); // START_OBJECT
-        return mapper.readValue(parser, typeRef);
+        while (true) {
+            String packageName = parser.nextFieldName();
+            if (packageName == null) {
+                break;
+            }
+            parser.nextToken(); // START_ARRAY
+            spool.put(packageName, copyCurrentStructure(f, parser, buffer));
+        }
+    }
+
+    /**
+     * Reads the {@code apps} array one {@link App} at a time, matching each one
+     * with its packages that were spooled earlier.
+     */
+    private void streamApps(ObjectMapper mapper, JsonParser parser, IndexV1Spool spool,
+                            RepoPersister repoPersister) throws IOException, UpdateException {
+        int totalApps = spool.size();
+        int appCount = 0;
+        parser.nextToken(); // START_ARRAY
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            App app = mapper.readValue(parser, App.class);
+            byte[] entry = spool.take(app.packageName);
+            List<Apk> apks = entry == null ? null : mapper.readValue(entry, APK_LIST_TYPE);
+            appCount++;
+            saveApp(repoPersister, app, apks, appCount, totalApps);
+        }
+    }
+
+    /**
+     * Reads the {@code packages} object one package at a time, matching each one
+     * with its {@link App} that was spooled earlier.  Packages without an app
+     * entry are ignored.
+     */
+    private void streamPackages(ObjectMapper mapper, JsonParser parser, IndexV1Spool spool,
+                                RepoPersister repoPersister) throws IOException, UpdateException {
+        int totalApps = spool.size();
+        int appCount = 0;
+        parser.nextToken(); // START_OBJECT
+        while (true) {
+            String packageName = parser.nextFieldName();
+            if (packageName == null) {
+                break;
+            }
+            parser.nextToken(); // START_ARRAY
+            List<Apk> apks = mapper.readValue(parser, APK_LIST_TYPE);
+            byte[] entry = spool.take(packageName);
+            if (entry == null) {
+                continue;
+            }
+            App app = mapper.readValue(entry, App.class);
+            appCount++;
+            saveApp(repoPersister, app, apks, appCount, totalApps);
+        }
+    }
+
+    private void saveApp(RepoPersister repoPersister, App app, List<Apk> apks, int appCount, int totalApps)
+            throws UpdateException {
+        if (apks == null) {
+            Log.i(TAG, "processIndexV1 empty packages");
+            apks = new ArrayList<>(0);
+        }
+
+        if (apks.size() > 0) {
+            app.preferredSigner = apks.get(0).sig;
+            app.isApk = true;
+            for (Apk apk : apks) {
+                if (!apk.isApk()) {
+                    app.isApk = false;
+                }
+            }
+        }
+
+        if (totalApps > 0 && appCount % 50 == 0) {
+            notifyProcessingApps(appCount, totalApps);
+        }
+
+        repoPersister.saveToDb(app, apks);
+    }
+
+    private static byte[] copyCurrentStructure(JsonFactory f, JsonParser parser, ByteArrayOutputStream buffer)
+            throws IOException {
+        buffer.reset();
+        JsonGenerator generator = f.createGenerator(buffer);
+        generator.copyCurrentStructure(parser);
+        generator.close();
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Scans the top level of a single app entry for {@code packageName}, skipping
+     * over everything else without parsing it into objects.
+     */
+    private static String readPackageName(JsonFactory f, byte[] entry) throws IOException {
+        JsonParser parser = f.createParser(entry);
+        try {
+            parser.nextToken(); // START_OBJECT
+            while (true) {
+                String fieldName = parser.nextFieldName();
+                if (fieldName == null) {
+                    return null;
+                }
+                if ("packageName".equals(fieldName)) {
+                    return parser.nextTextValue();
+                }
+                parser.nextToken();
+                parser.skipChildren();
+            }
+        } finally {
+            parser.close();
+        }
     }
 
     /**
@@ -54,6 +54,11 @@ import org.fdroid.fdroid.installer.InstallManagerService;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class UpdateService extends IntentService {
 
@@ -80,6 +85,8 @@ public class UpdateService extends IntentService {
     private static final int NOTIFY_ID_UPDATING = 0;
     private static final int NOTIFY_ID_UPDATES_AVAILABLE = 1;
 
+    private static final int MAX_PARALLEL_INDEX_DOWNLOADS = 3;
+
     private static final int FLAG_NET_UNAVAILABLE = 0;
     private static final int FLAG_NET_METERED = 1;
     private static final int FLAG_NET_NO_LIMIT = 2;
@@ -371,6 +378,7 @@ public class UpdateService extends IntentService {
             boolean changes = false;
             boolean singleRepoUpdate = !TextUtils.isEmpty(address);
             final Preferences fdroidPrefs = Preferences.get();
+            List<IndexV1Updater> updaters = new ArrayList<>();
             for (final Repo repo : repos) {
                 if (!repo.inuse) {
                     continue;
@@ -382,28 +390,51 @@ public class UpdateService extends IntentService {
                 if (!singleRepoUpdate && repo.isSwap) {
                     continue;
                 }
+                updaters.add(new IndexV1Updater(getBaseContext(), repo));
+            }
 
-                sendStatus(this, STATUS_INFO, getString(R.string.status_connecting_to_repo, repo.address));
-                IndexV1Updater updater = new IndexV1Updater(getBaseContext(), repo);
-                //setProgressListeners(updater);
-                try {
-                    updater.update();
-                    if (updater.hasChanged()) {
-                        updatedRepos++;
-                        changes = true;
-                    } else {
-                        unchangedRepos++;
-                    }
-                } catch (IndexUpdater.UpdateException e) {
-                    errorRepos++;
-                    repoErrors.add(e.getMessage());
-                    Log.e(TAG, "Error updating repository " + repo.address, e);
+            // All the index files are downloaded in parallel, but only this thread writes them
+            // to the database, in whichever order the downloads finish.
+            ExecutorService downloadExecutor = Executors.newFixedThreadPool(
+                    Math.max(1, Math.min(MAX_PARALLEL_INDEX_DOWNLOADS, updaters.size())));
+            try {
+                CompletionService<IndexDownload> downloads = new ExecutorCompletionService<>(downloadExecutor);
+                for (IndexV1Updater updater : updaters) {
+                    sendStatus(this, STATUS_INFO, getString(R.string.status_connecting_to_repo, updater.repo.address));
+                    downloads.submit(new IndexDownload(updater));
                 }
 
-                // now that downloading the index is done, start downloading updates
-                if (changes && fdroidPrefs.isAutoDownloadEnabled()) {
-                    autoDownloadUpdates(this);
+                for (int i = 0; i < updaters.size(); i++) {
+                    IndexDownload download = downloads.take().get();
+                    IndexV1Updater updater = download.updater;
+                    try {
+                        if (download.error != null) {
+                            throw download.error;
+                        }
+                        updater.processDownload();
+                        if (updater.hasChanged()) {
+                            updatedRepos++;
+                            changes = true;
+                        } else {
+                            unchangedRepos++;
+                        }
+                    } catch (IndexUpdater.UpdateException e) {
+                        errorRepos++;
+                        repoErrors.add(e.getMessage());
+                        Log.e(TAG, "Error updating repository " + updater.repo.address, e);
+                    }
                 }
+            } finally {
+                downloadExecutor.shutdownNow();
+            }
+
+            // Done once for all repos, this also picks up anything left over from an earlier
+            // run which did not make it this far.
+            AppProvider.Helper.calcStalePackages(this);
+
+            // now that downloading the index is done, start downloading updates
+            if (changes && fdroidPrefs.isAutoDownloadEnabled()) {
+                autoDownloadUpdates(this);
             }
 
             if (!changes) {
@@ -443,6 +474,30 @@ public class UpdateService extends IntentService {
         Log.i(TAG, "Updating repo(s) complete, took " + time / 1000 + " seconds to complete.");
     }
 
+    /**
+     * Runs {@link IndexV1Updater#download()} on a worker thread, holding on to any error so
+     * that it can be reported against the right repo once the result is taken.
+     */
+    private static class IndexDownload implements Callable<IndexDownload> {
+        final IndexV1Updater updater;
+        IndexUpdater.UpdateException error;
+
+        IndexDownload(IndexV1Updater updater) {
+            this.updater = updater;
+        }
+
+        @Override
+        public IndexDownload call() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+            try {
+                updater.download();
+            } catch (IndexUpdater.UpdateException e) {
+                error = e;
+            }
+            return this;
+        }
+    }
+
     private void notifyContentProviders() {
         // Note: This is Ap*p* and Ap*k* Provider
         getContentResolver().notifyChange(AppProvider.getContentUri(), null);
@@ -25,7 +25,9 @@ import org.fdroid.fdroid.data.Schema.ApkTable.Cols;
 import java.io.File;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.regex.Pattern;
 /**
  * Represents a single package of an application. This represents one particular
@@ -118,6 +120,38 @@ public class Apk extends ValueObject implements Comparable<Apk>, Parcelable {
      */
     public long appId;
 
+    private static final Map<String, CursorMapping.ColumnReader<Apk>> READERS = new HashMap<>();
+
+    static {
+        READERS.put(Cols.APP_ID, (apk, cursor, i) -> apk.appId = cursor.getLong(i));
+        READERS.put(Cols.HASH, (apk, cursor, i) -> apk.hash = cursor.getString(i));
+        READERS.put(Cols.HASH_TYPE, (apk, cursor, i) -> apk.hashType = cursor.getString(i));
+        READERS.put(Cols.ADDED_DATE, (apk, cursor, i) -> apk.added = Utils.parseDate(cursor.getString(i), null));
+        READERS.put(Cols.FEATURES, (apk, cursor, i) -> apk.features = Utils.parseCommaSeparatedString(cursor.getString(i)));
+        READERS.put(Cols.Package.PACKAGE_NAME, (apk, cursor, i) -> apk.packageName = cursor.getString(i));
+        READERS.put(Cols.IS_COMPATIBLE, (apk, cursor, i) -> apk.compatible = cursor.getInt(i) == 1);
+        READERS.put(Cols.MIN_SDK_VERSION, (apk, cursor, i) -> apk.minSdkVersion = cursor.getInt(i));
+        READERS.put(Cols.TARGET_SDK_VERSION, (apk, cursor, i) -> apk.targetSdkVersion = cursor.getInt(i));
+        READERS.put(Cols.MAX_SDK_VERSION, (apk, cursor, i) -> apk.maxSdkVersion = cursor.getInt(i));
+        READERS.put(Cols.OBB_MAIN_FILE, (apk, cursor, i) -> apk.obbMainFile = cursor.getString(i));
+        READERS.put(Cols.OBB_MAIN_FILE_SHA256, (apk, cursor, i) -> apk.obbMainFileSha256 = cursor.getString(i));
+        READERS.put(Cols.OBB_PATCH_FILE, (apk, cursor, i) -> apk.obbPatchFile = cursor.getString(i));
+        READERS.put(Cols.OBB_PATCH_FILE_SHA256, (apk, cursor, i) -> apk.obbPatchFileSha256 = cursor.getString(i));
+        READERS.put(Cols.NAME, (apk, cursor, i) -> apk.apkName = cursor.getString(i));
+        READERS.put(Cols.REQUESTED_PERMISSIONS, (apk, cursor, i) -> apk.requestedPermissions = apk.convertToRequestedPermissions(cursor.getString(i)));
+        READERS.put(Cols.NATIVE_CODE, (apk, cursor, i) -> apk.nativecode = Utils.parseCommaSeparatedString(cursor.getString(i)));
+        READERS.put(Cols.INCOMPATIBLE_REASONS, (apk, cursor, i) -> apk.incompatibleReasons = Utils.parseCommaSeparatedString(cursor.getString(i)));
+        READERS.put(Cols.REPO_ID, (apk, cursor, i) -> apk.repoId = cursor.getInt(i));
+        READERS.put(Cols.SIGNATURE, (apk, cursor, i) -> apk.sig = cursor.getString(i));
+        READERS.put(Cols.SIZE, (apk, cursor, i) -> apk.size = cursor.getInt(i));
+        READERS.put(Cols.SOURCE_NAME, (apk, cursor, i) -> apk.srcname = cursor.getString(i));
+        READERS.put(Cols.VERSION_NAME, (apk, cursor, i) -> apk.versionName = cursor.getString(i));
+        READERS.put(Cols.VERSION_CODE, (apk, cursor, i) -> apk.versionCode = cursor.getInt(i));
+        READERS.put(Cols.Repo.VERSION, (apk, cursor, i) -> apk.repoVersion = cursor.getInt(i));
+        READERS.put(Cols.Repo.ADDRESS, (apk, cursor, i) -> apk.repoAddress = cursor.getString(i));
+        READERS.put(Cols.AntiFeatures.ANTI_FEATURES, (apk, cursor, i) -> apk.antiFeatures = Utils.parseCommaSeparatedString(cursor.getString(i)));
+    }
+
     public Apk() {
     }
 
@@ -162,94 +196,23 @@ public class Apk extends ValueObject implements Comparable<Apk>, Parcelable {
     }
 
     public Apk(Cursor cursor) {
+        this(cursor, getCursorMapping(cursor));
+    }
 
+    /**
+     * @param mapping Must have come from {@link #getCursorMapping(Cursor)} for this {@code cursor}.
+     */
+    public Apk(Cursor cursor, CursorMapping<Apk> mapping) {
         checkCursorPosition(cursor);
+        mapping.read(this, cursor);
+    }
 
-        for (int i = 0; i < cursor.getColumnCount(); i++) {
-            switch (cursor.getColumnName(i)) {
-                case Cols.APP_ID:
-                    appId = cursor.getLong(i);
-                    break;
-                case Cols.HASH:
-                    hash = cursor.getString(i);
-                    break;
-                case Cols.HASH_TYPE:
-                    hashType = cursor.getString(i);
-                    break;
-                case Cols.ADDED_DATE:
-                    added = Utils.parseDate(cursor.getString(i), null);
-                    break;
-                case Cols.FEATURES:
-                    features = Utils.parseCommaSeparatedString(cursor.getString(i));
-                    break;
-                case Cols.Package.PACKAGE_NAME:
-                    packageName = cursor.getString(i);
-                    break;
-                case Cols.IS_COMPATIBLE:
-                    compatible = cursor.getInt(i) == 1;
-                    break;
-                case Cols.MIN_SDK_VERSION:
-                    minSdkVersion = cursor.getInt(i);
-                    break;
-                case Cols.TARGET_SDK_VERSION:
-                    targetSdkVersion = cursor.getInt(i);
-                    break;
-                case Cols.MAX_SDK_VERSION:
-                    maxSdkVersion = cursor.getInt(i);
-                    break;
-                case Cols.OBB_MAIN_FILE:
-                    obbMainFile = cursor.getString(i);
-                    break;
-                case Cols.OBB_MAIN_FILE_SHA256:
-                    obbMainFileSha256 = cursor.getString(i);
-                    break;
-                case Cols.OBB_PATCH_FILE:
-                    obbPatchFile = cursor.getString(i);
-                    break;
-                case Cols.OBB_PATCH_FILE_SHA256:
-                    obbPatchFileSha256 = cursor.getString(i);
-                    break;
-                case Cols.NAME:
-                    apkName = cursor.getString(i);
-                    break;
-                case Cols.REQUESTED_PERMISSIONS:
-                    requestedPermissions = convertToRequestedPermissions(cursor.getString(i));
-                    break;
-                case Cols.NATIVE_CODE:
-                    nativecode = Utils.parseCommaSeparatedString(cursor.getString(i));
-                    break;
-                case Cols.INCOMPATIBLE_REASONS:
-                    incompatibleReasons = Utils.parseCommaSeparatedString(cursor.getString(i));
-                    break;
-                case Cols.REPO_ID:
-                    repoId = cursor.getInt(i);
-                    break;
-                case Cols.SIGNATURE:
-                    sig = cursor.getString(i);
-                    break;
-                case Cols.SIZE:
-                    size = cursor.getInt(i);
-                    break;
-                case Cols.SOURCE_NAME:
-                    srcname = cursor.getString(i);
-                    break;
-                case Cols.VERSION_NAME:
-                    versionName = cursor.getString(i);
-                    break;
-                case Cols.VERSION_CODE:
-                    versionCode = cursor.getInt(i);
-                    break;
-                case Cols.Repo.VERSION:
-                    repoVersion = cursor.getInt(i);
-                    break;
-                case Cols.Repo.ADDRESS:
-                    repoAddress = cursor.getString(i);
-                    break;
-                case Cols.AntiFeatures.ANTI_FEATURES:
-                    antiFeatures = Utils.parseCommaSeparatedString(cursor.getString(i));
-                    break;
-            }
-        }
+    /**
+     * Works out which columns of {@code cursor} to read into which fields, so that this only
+     * has to be done once however many of its rows are read.
+     */
+    public static CursorMapping<Apk> getCursorMapping(Cursor cursor) {
+        return new CursorMapping<>(cursor, READERS, null);
     }
 
     private void checkRepoAddress() {
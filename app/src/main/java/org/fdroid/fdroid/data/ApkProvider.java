@@ -63,9 +63,10 @@ public class ApkProvider extends FDroidProvider {
             List<Apk> apks = new ArrayList<>(knownApkCount);
             if (cursor != null) {
                 if (knownApkCount > 0) {
+                    CursorMapping<Apk> mapping = Apk.getCursorMapping(cursor);
                     cursor.moveToFirst();
                     while (!cursor.isAfterLast()) {
-                        apks.add(new Apk(cursor));
+                        apks.add(new Apk(cursor, mapping));
                         cursor.moveToNext();
                     }
                 }
@@ -606,7 +607,11 @@ public class ApkProvider extends FDroidProvider {
     }
 
     protected long ensureAntiFeature(String antiFeatureName) {
-        long antiFeatureId = 0;
+        long antiFeatureId = ImportDictionary.ANTI_FEATURES.get(antiFeatureName);
+        if (antiFeatureId > 0) {
+            return antiFeatureId;
+        }
+
         Cursor cursor = db().query(AntiFeatureTable.NAME, new String[]{AntiFeatureTable.Cols.ROW_ID},
                 AntiFeatureTable.Cols.NAME + " = ?", new String[]{antiFeatureName}, null, null, null);
         if (cursor != null) {
@@ -623,6 +628,7 @@ public class ApkProvider extends FDroidProvider {
             antiFeatureId = db().insert(AntiFeatureTable.NAME, null, values);
         }
 
+        ImportDictionary.ANTI_FEATURES.put(antiFeatureName, antiFeatureId);
         return antiFeatureId;
     }
 
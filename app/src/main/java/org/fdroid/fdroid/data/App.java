@@ -43,6 +43,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.Locale;
@@ -222,161 +223,81 @@ public class App extends ValueObject implements Comparable<App>, Parcelable {
         return name.compareToIgnoreCase(app.name);
     }
 
+    private static final Map<String, CursorMapping.ColumnReader<App>> READERS = new HashMap<>();
+
+    static {
+        READERS.put(Cols.ROW_ID, (app, cursor, i) -> app.id = cursor.getLong(i));
+        READERS.put(Cols.REPO_ID, (app, cursor, i) -> app.repoId = cursor.getLong(i));
+        READERS.put(Cols.IS_COMPATIBLE, (app, cursor, i) -> app.compatible = cursor.getInt(i) == 1);
+        READERS.put(Cols.Package.PACKAGE_NAME, (app, cursor, i) -> app.packageName = cursor.getString(i));
+        READERS.put(Cols.NAME, (app, cursor, i) -> app.name = cursor.getString(i));
+        READERS.put(Cols.SUMMARY, (app, cursor, i) -> app.summary = cursor.getString(i));
+        READERS.put(Cols.ICON, (app, cursor, i) -> app.iconFromApk = cursor.getString(i));
+        READERS.put(Cols.DESCRIPTION, (app, cursor, i) -> app.description = cursor.getString(i));
+        READERS.put(Cols.WHATSNEW, (app, cursor, i) -> app.whatsNew = cursor.getString(i));
+        READERS.put(Cols.LICENSE, (app, cursor, i) -> app.license = cursor.getString(i));
+        READERS.put(Cols.AUTHOR_NAME, (app, cursor, i) -> app.authorName = cursor.getString(i));
+        READERS.put(Cols.AUTHOR_EMAIL, (app, cursor, i) -> app.authorEmail = cursor.getString(i));
+        READERS.put(Cols.WEBSITE, (app, cursor, i) -> app.webSite = cursor.getString(i));
+        READERS.put(Cols.ISSUE_TRACKER, (app, cursor, i) -> app.issueTracker = cursor.getString(i));
+        READERS.put(Cols.SOURCE_CODE, (app, cursor, i) -> app.sourceCode = cursor.getString(i));
+        READERS.put(Cols.TRANSLATION, (app, cursor, i) -> app.translation = cursor.getString(i));
+        READERS.put(Cols.VIDEO, (app, cursor, i) -> app.video = cursor.getString(i));
+        READERS.put(Cols.CHANGELOG, (app, cursor, i) -> app.changelog = cursor.getString(i));
+        READERS.put(Cols.DONATE, (app, cursor, i) -> app.donate = cursor.getString(i));
+        READERS.put(Cols.BITCOIN, (app, cursor, i) -> app.bitcoin = cursor.getString(i));
+        READERS.put(Cols.LITECOIN, (app, cursor, i) -> app.litecoin = cursor.getString(i));
+        READERS.put(Cols.FLATTR_ID, (app, cursor, i) -> app.flattrID = cursor.getString(i));
+        READERS.put(Cols.LIBERAPAY, (app, cursor, i) -> app.liberapay = cursor.getString(i));
+        READERS.put(Cols.OPEN_COLLECTIVE, (app, cursor, i) -> app.openCollective = cursor.getString(i));
+        READERS.put(Cols.SuggestedApk.VERSION_NAME, (app, cursor, i) -> app.suggestedVersionName = cursor.getString(i));
+        READERS.put(Cols.PREFERRED_SIGNER, (app, cursor, i) -> app.preferredSigner = cursor.getString(i));
+        READERS.put(Cols.SUGGESTED_VERSION_CODE, (app, cursor, i) -> app.suggestedVersionCode = cursor.getInt(i));
+        READERS.put(Cols.UPSTREAM_VERSION_CODE, (app, cursor, i) -> app.upstreamVersionCode = cursor.getInt(i));
+        READERS.put(Cols.UPSTREAM_VERSION_NAME, (app, cursor, i) -> app.upstreamVersionName = cursor.getString(i));
+        READERS.put(Cols.ADDED, (app, cursor, i) -> app.added = Utils.parseDate(cursor.getString(i), null));
+        READERS.put(Cols.LAST_UPDATED, (app, cursor, i) -> app.lastUpdated = Utils.parseDate(cursor.getString(i), null));
+        READERS.put(Cols.ANTI_FEATURES, (app, cursor, i) -> app.antiFeatures = Utils.parseCommaSeparatedString(cursor.getString(i)));
+        READERS.put(Cols.REQUIREMENTS, (app, cursor, i) -> app.requirements = Utils.parseCommaSeparatedString(cursor.getString(i)));
+        READERS.put(Cols.ICON_URL, (app, cursor, i) -> app.iconUrl = cursor.getString(i));
+        READERS.put(Cols.FEATURE_GRAPHIC, (app, cursor, i) -> app.featureGraphic = cursor.getString(i));
+        READERS.put(Cols.PROMO_GRAPHIC, (app, cursor, i) -> app.promoGraphic = cursor.getString(i));
+        READERS.put(Cols.TV_BANNER, (app, cursor, i) -> app.tvBanner = cursor.getString(i));
+        READERS.put(Cols.PHONE_SCREENSHOTS, (app, cursor, i) -> app.phoneScreenshots = Utils.parseCommaSeparatedString(cursor.getString(i)));
+        READERS.put(Cols.SEVEN_INCH_SCREENSHOTS, (app, cursor, i) -> app.sevenInchScreenshots = Utils.parseCommaSeparatedString(cursor.getString(i)));
+        READERS.put(Cols.TEN_INCH_SCREENSHOTS, (app, cursor, i) -> app.tenInchScreenshots = Utils.parseCommaSeparatedString(cursor.getString(i)));
+        READERS.put(Cols.TV_SCREENSHOTS, (app, cursor, i) -> app.tvScreenshots = Utils.parseCommaSeparatedString(cursor.getString(i)));
+        READERS.put(Cols.WEAR_SCREENSHOTS, (app, cursor, i) -> app.wearScreenshots = Utils.parseCommaSeparatedString(cursor.getString(i)));
+        READERS.put(Cols.IS_APK, (app, cursor, i) -> app.isApk = cursor.getInt(i) == 1);
+        READERS.put(Cols.InstalledApp.VERSION_CODE, (app, cursor, i) -> app.installedVersionCode = cursor.getInt(i));
+        READERS.put(Cols.InstalledApp.VERSION_NAME, (app, cursor, i) -> app.installedVersionName = cursor.getString(i));
+        READERS.put(Cols.InstalledApp.SIGNATURE, (app, cursor, i) -> app.installedSig = cursor.getString(i));
+        READERS.put(Cols.PAGE_KEY, (app, cursor, i) -> {
+            // only used to ask for the next page of a list
+        });
+    }
+
     public App() {
     }
 
-    public App(final Cursor cursor) {
+    public App(Cursor cursor) {
+        this(cursor, getCursorMapping(cursor));
+    }
 
+    /**
+     * @param mapping Must have come from {@link #getCursorMapping(Cursor)} for this {@code cursor}.
+     */
+    public App(Cursor cursor, CursorMapping<App> mapping) {
         checkCursorPosition(cursor);
+        mapping.read(this, cursor);
+    }
 
-        final int cursorColumnCount = cursor.getColumnCount();
-        for (int i = 0; i < cursorColumnCount; i++) {
-            final String n = cursor.getColumnName(i);
-            switch (n) {
-                case Cols.ROW_ID:
-                    id = cursor.getLong(i);
-                    break;
-                case Cols.REPO_ID:
-                    repoId = cursor.getLong(i);
-                    break;
-                case Cols.IS_COMPATIBLE:
-                    compatible = cursor.getInt(i) == 1;
-                    break;
-                case Cols.Package.PACKAGE_NAME:
-                    packageName = cursor.getString(i);
-                    break;
-                case Cols.NAME:
-                    name = cursor.getString(i);
-                    break;
-                case Cols.SUMMARY:
-                    summary = cursor.getString(i);
-                    break;
-                case Cols.ICON:
-                    iconFromApk = cursor.getString(i);
-                    break;
-                case Cols.DESCRIPTION:
-                    description = cursor.getString(i);
-                    break;
-                case Cols.WHATSNEW:
-                    whatsNew = cursor.getString(i);
-                    break;
-                case Cols.LICENSE:
-                    license = cursor.getString(i);
-                    break;
-                case Cols.AUTHOR_NAME:
-                    authorName = cursor.getString(i);
-                    break;
-                case Cols.AUTHOR_EMAIL:
-                    authorEmail = cursor.getString(i);
-                    break;
-                case Cols.WEBSITE:
-                    webSite = cursor.getString(i);
-                    break;
-                case Cols.ISSUE_TRACKER:
-                    issueTracker = cursor.getString(i);
-                    break;
-                case Cols.SOURCE_CODE:
-                    sourceCode = cursor.getString(i);
-                    break;
-                case Cols.TRANSLATION:
-                    translation = cursor.getString(i);
-                    break;
-                case Cols.VIDEO:
-                    video = cursor.getString(i);
-                    break;
-                case Cols.CHANGELOG:
-                    changelog = cursor.getString(i);
-                    break;
-                case Cols.DONATE:
-                    donate = cursor.getString(i);
-                    break;
-                case Cols.BITCOIN:
-                    bitcoin = cursor.getString(i);
-                    break;
-                case Cols.LITECOIN:
-                    litecoin = cursor.getString(i);
-                    break;
-                case Cols.FLATTR_ID:
-                    flattrID = cursor.getString(i);
-                    break;
-                case Cols.LIBERAPAY:
-                    liberapay = cursor.getString(i);
-                    break;
-                case Cols.OPEN_COLLECTIVE:
-                    openCollective = cursor.getString(i);
-                    break;
-                case Cols.SuggestedApk.VERSION_NAME:
-                    suggestedVersionName = cursor.getString(i);
-                    break;
-                case Cols.PREFERRED_SIGNER:
-                    preferredSigner = cursor.getString(i);
-                    break;
-                case Cols.SUGGESTED_VERSION_CODE:
-                    suggestedVersionCode = cursor.getInt(i);
-                    break;
-                case Cols.UPSTREAM_VERSION_CODE:
-                    upstreamVersionCode = cursor.getInt(i);
-                    break;
-                case Cols.UPSTREAM_VERSION_NAME:
-                    upstreamVersionName = cursor.getString(i);
-                    break;
-                case Cols.ADDED:
-                    added = Utils.parseDate(cursor.getString(i), null);
-                    break;
-                case Cols.LAST_UPDATED:
-                    lastUpdated = Utils.parseDate(cursor.getString(i), null);
-                    break;
-                case Cols.ANTI_FEATURES:
-                    antiFeatures = Utils.parseCommaSeparatedString(cursor.getString(i));
-                    break;
-                case Cols.REQUIREMENTS:
-                    requirements = Utils.parseCommaSeparatedString(cursor.getString(i));
-                    break;
-                case Cols.ICON_URL:
-                    iconUrl = cursor.getString(i);
-                    break;
-                case Cols.FEATURE_GRAPHIC:
-                    featureGraphic = cursor.getString(i);
-                    break;
-                case Cols.PROMO_GRAPHIC:
-                    promoGraphic = cursor.getString(i);
-                    break;
-                case Cols.TV_BANNER:
-                    tvBanner = cursor.getString(i);
-                    break;
-                case Cols.PHONE_SCREENSHOTS:
-                    phoneScreenshots = Utils.parseCommaSeparatedString(cursor.getString(i));
-                    break;
-                case Cols.SEVEN_INCH_SCREENSHOTS:
-                    sevenInchScreenshots = Utils.parseCommaSeparatedString(cursor.getString(i));
-                    break;
-                case Cols.TEN_INCH_SCREENSHOTS:
-                    tenInchScreenshots = Utils.parseCommaSeparatedString(cursor.getString(i));
-                    break;
-                case Cols.TV_SCREENSHOTS:
-                    tvScreenshots = Utils.parseCommaSeparatedString(cursor.getString(i));
-                    break;
-                case Cols.WEAR_SCREENSHOTS:
-                    wearScreenshots = Utils.parseCommaSeparatedString(cursor.getString(i));
-                    break;
-                case Cols.IS_APK:
-                    isApk = cursor.getInt(i) == 1;
-                    break;
-                case Cols.InstalledApp.VERSION_CODE:
-                    installedVersionCode = cursor.getInt(i);
-                    break;
-                case Cols.InstalledApp.VERSION_NAME:
-                    installedVersionName = cursor.getString(i);
-                    break;
-                case Cols.InstalledApp.SIGNATURE:
-                    installedSig = cursor.getString(i);
-                    break;
-                case "_id":
-                    break;
-                default:
-                    Log.e(TAG, "Unknown column name " + n);
-            }
-        }
+    /**
+     * Works out which columns of {@code cursor} to read into which fields, so that this only
+     * has to be done once however many of its rows are read.
+     */
+    public static CursorMapping<App> getCursorMapping(Cursor cursor) {
+        return new CursorMapping<>(cursor, READERS, TAG);
     }
 
     /**
@@ -672,7 +593,7 @@ public class App extends ValueObject implements Comparable<App>, Parcelable {
     }
 
     public String getIconUrl(Context context) {
-        Repo repo = RepoProvider.Helper.findById(context, repoId);
+        Repo repo = RepoCache.get(context, repoId);
         if (TextUtils.isEmpty(iconUrl)) {
             if (TextUtils.isEmpty(iconFromApk)){
                 return null;
@@ -697,7 +618,7 @@ public class App extends ValueObject implements Comparable<App>, Parcelable {
         if (TextUtils.isEmpty(featureGraphic)) {
             return null;
         }
-        Repo repo = RepoProvider.Helper.findById(context, repoId);
+        Repo repo = RepoCache.get(context, repoId);
         return repo.address + "/" + packageName + "/" + featureGraphic;
     }
 
@@ -705,7 +626,7 @@ public class App extends ValueObject implements Comparable<App>, Parcelable {
         if (TextUtils.isEmpty(promoGraphic)) {
             return null;
         }
-        Repo repo = RepoProvider.Helper.findById(context, repoId);
+        Repo repo = RepoCache.get(context, repoId);
         return repo.address + "/" + packageName + "/" + promoGraphic;
     }
 
@@ -713,12 +634,12 @@ public class App extends ValueObject implements Comparable<App>, Parcelable {
         if (TextUtils.isEmpty(tvBanner)) {
             return null;
         }
-        Repo repo = RepoProvider.Helper.findById(context, repoId);
+        Repo repo = RepoCache.get(context, repoId);
         return repo.address + "/" + packageName + "/" + tvBanner;
     }
 
     public String[] getAllScreenshots(Context context) {
-        Repo repo = RepoProvider.Helper.findById(context, repoId);
+        Repo repo = RepoCache.get(context, repoId);
         ArrayList<String> list = new ArrayList<>();
         if (phoneScreenshots != null) {
             Collections.addAll(list, phoneScreenshots);
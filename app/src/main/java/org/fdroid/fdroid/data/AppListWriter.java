@@ -0,0 +1,118 @@
+package org.fdroid.fdroid.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+
+import org.fdroid.fdroid.HashingUtils;
+import org.fdroid.fdroid.Utils;
+import org.fdroid.fdroid.data.Schema.AppListTable;
+import org.fdroid.fdroid.data.Schema.AppListTable.Cols;
+
+import java.text.Collator;
+import java.util.Locale;
+
+/**
+ * Copies rows from {@link AppProvider}'s query into {@link AppListTable}, adding the
+ * {@link Cols#SORT_KEY} and {@link Cols#IS_INSTALLED} columns on the way.  SQLite can only
+ * sort by {@code COLLATE LOCALIZED} by comparing each pair of names as it goes, whereas a
+ * {@link java.text.CollationKey} can be stored and indexed like any other value.  The keys are
+ * stored as hex, which sorts the same as the bytes themselves, so that the last key of one page
+ * of a list can be handed back as the {@code String} argument that starts the next one.
+ * <p>
+ * The sort keys are only right for the locale they were made in, which is remembered so that
+ * the whole table can be built again once the locale changes.
+ */
+class AppListWriter {
+
+    private static final String TAG = "AppListWriter";
+
+    private static final String PREFERENCES_FILE = "appList";
+    private static final String PREF_SORT_LOCALE = "sortLocale";
+
+    private final SQLiteDatabase db;
+    private final Collator collator = Collator.getInstance();
+
+    AppListWriter(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * @return Whether the table was last built in the current locale. It never has been when
+     * it was only just created, so this is also how it gets filled in the first time.
+     */
+    static boolean isSortedForCurrentLocale(Context context) {
+        return Locale.getDefault().toString().equals(getPreferences(context).getString(PREF_SORT_LOCALE, null));
+    }
+
+    static void setSortedForCurrentLocale(Context context) {
+        getPreferences(context).edit().putString(PREF_SORT_LOCALE, Locale.getDefault().toString()).apply();
+    }
+
+    /**
+     * Makes the lists be read without the table until it has all been built again, for when it
+     * has been emptied.  The next read of a list starts that in the background.
+     */
+    static void clearSortedLocale(Context context) {
+        getPreferences(context).edit().remove(PREF_SORT_LOCALE).apply();
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFERENCES_FILE, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Inserts or replaces a row for each of {@code apps}, whose columns must be
+     * {@link Cols#ALL} in that order.  This should be run within a transaction.
+     *
+     * @return The number of rows written
+     */
+    int write(Cursor apps) {
+        SQLiteStatement insert = db.compileStatement("INSERT OR REPLACE INTO " + AppListTable.NAME
+                + " (" + TextUtils.join(", ", Cols.ALL) + ", " + Cols.IS_INSTALLED + ", " + Cols.SORT_KEY + ") "
+                + "VALUES (" + FDroidProvider.generateQuestionMarksForInClause(Cols.ALL.length + 2) + ")");
+        int nameIndex = apps.getColumnIndexOrThrow(Cols.NAME);
+        int installedIndex = apps.getColumnIndexOrThrow(Cols.INSTALLED_VERSION_CODE);
+        int count = 0;
+        try {
+            while (apps.moveToNext()) {
+                for (int i = 0; i < Cols.ALL.length; i++) {
+                    bind(insert, i + 1, apps, i);
+                }
+                insert.bindLong(Cols.ALL.length + 1, apps.isNull(installedIndex) ? 0 : 1);
+                String name = apps.getString(nameIndex);
+                byte[] sortKey = collator.getCollationKey(name == null ? "" : name).toByteArray();
+                insert.bindString(Cols.ALL.length + 2, HashingUtils.hex(sortKey));
+                insert.executeInsert();
+                count++;
+            }
+        } finally {
+            insert.close();
+        }
+        Utils.debugLog(TAG, "Wrote " + count + " rows to " + AppListTable.NAME);
+        return count;
+    }
+
+    private static void bind(SQLiteStatement statement, int index, Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_NULL:
+                statement.bindNull(index);
+                break;
+            case Cursor.FIELD_TYPE_INTEGER:
+                statement.bindLong(index, cursor.getLong(column));
+                break;
+            case Cursor.FIELD_TYPE_FLOAT:
+                statement.bindDouble(index, cursor.getDouble(column));
+                break;
+            case Cursor.FIELD_TYPE_BLOB:
+                statement.bindBlob(index, cursor.getBlob(column));
+                break;
+            default:
+                statement.bindString(index, cursor.getString(column));
+                break;
+        }
+    }
+}
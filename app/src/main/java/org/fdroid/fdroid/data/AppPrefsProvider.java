@@ -144,8 +144,9 @@ public class AppPrefsProvider extends FDroidProvider {
     @Override
     public Uri insert(Uri uri, ContentValues values) {
         db().insertOrThrow(getTableName(), null, values);
-        Log.d(TAG, "insert: notifying " + AppProvider.getCanUpdateUri());
-        getContext().getContentResolver().notifyChange(AppProvider.getCanUpdateUri(), null);
+        // Also brings the app's row in the lists up to date before notifying observers of the change
+        Log.d(TAG, "insert: recalculating " + AppProvider.getCanUpdateUri());
+        AppProvider.Helper.calcSuggestedApk(getContext(), values.getAsString(Cols.PACKAGE_NAME));
         return getAppUri(values.getAsString(Cols.PACKAGE_NAME));
     }
 
@@ -157,8 +158,8 @@ public class AppPrefsProvider extends FDroidProvider {
 
         QuerySelection query = new QuerySelection(where, whereArgs).add(querySingle(uri.getLastPathSegment()));
         int count = db().update(getTableName(), values, query.getSelection(), query.getArgs());
-        Log.d(TAG, "update: notifying " + AppProvider.getCanUpdateUri());
-        getContext().getContentResolver().notifyChange(AppProvider.getCanUpdateUri(), null);
+        Log.d(TAG, "update: recalculating " + AppProvider.getCanUpdateUri());
+        AppProvider.Helper.calcSuggestedApk(getContext(), uri.getLastPathSegment());
         return count;
     }
 }
@@ -6,31 +6,43 @@ import android.content.Context;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.CancellationSignal;
 import android.text.TextUtils;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.google.common.collect.ObjectArrays;
+
+import org.fdroid.fdroid.FDroidApp;
 import org.fdroid.fdroid.Preferences;
 import org.fdroid.fdroid.Utils;
 import org.fdroid.fdroid.data.Schema.ApkAntiFeatureJoinTable;
 import org.fdroid.fdroid.data.Schema.ApkTable;
+import org.fdroid.fdroid.data.Schema.AppListTable;
 import org.fdroid.fdroid.data.Schema.AppMetadataTable;
 import org.fdroid.fdroid.data.Schema.AppMetadataTable.Cols;
 import org.fdroid.fdroid.data.Schema.AppPrefsTable;
+import org.fdroid.fdroid.data.Schema.AppSearchTable;
 import org.fdroid.fdroid.data.Schema.CatJoinTable;
 import org.fdroid.fdroid.data.Schema.CategoryTable;
 import org.fdroid.fdroid.data.Schema.InstalledAppTable;
 import org.fdroid.fdroid.data.Schema.PackageTable;
 import org.fdroid.fdroid.data.Schema.RepoTable;
+import org.fdroid.fdroid.data.Schema.StalePackageTable;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Each app has a bunch of metadata that it associates with a package name (such as org.fdroid.fdroid).
@@ -89,9 +101,10 @@ public class AppProvider extends FDroidProvider {
             List<App> apps = new ArrayList<>(knownAppCount);
             if (cursor != null) {
                 if (knownAppCount > 0) {
+                    CursorMapping<App> mapping = App.getCursorMapping(cursor);
                     cursor.moveToFirst();
                     while (!cursor.isAfterLast()) {
-                        apps.add(new App(cursor));
+                        apps.add(new App(cursor, mapping));
                         cursor.moveToNext();
                     }
                 }
@@ -146,6 +159,29 @@ public class AppProvider extends FDroidProvider {
             context.getContentResolver().update(calcSuggestedApksUri(), null, null, null);
         }
 
+        /**
+         * Recalculates the suggested versions of only {@code packageNames}, with a handful of
+         * updates no matter how many of them there are.
+         */
+        static void calcSuggestedApks(Context context, Collection<String> packageNames) {
+            if (packageNames.isEmpty()) {
+                return;
+            }
+            String[] args = packageNames.toArray(new String[packageNames.size()]);
+            context.getContentResolver().update(calcSuggestedApksUri(), null, null, args);
+        }
+
+        /**
+         * Recalculates the details which depend on all repos at once, for every package which
+         * was changed by a repo update since the last time this was called.
+         *
+         * @see Schema.StalePackageTable
+         */
+        public static void calcStalePackages(Context context) {
+            Uri uri = Uri.withAppendedPath(AppProvider.getContentUri(), PATH_CALC_STALE_PACKAGES);
+            context.getContentResolver().update(uri, null, null, null);
+        }
+
         public static List<App> findCanUpdate(Context context, String[] projection) {
             return cursorToList(context.getContentResolver().query(AppProvider.getCanUpdateUri(), projection, null, null, null));
         }
@@ -154,6 +190,36 @@ public class AppProvider extends FDroidProvider {
             Uri uri = Uri.withAppendedPath(AppProvider.getContentUri(), PATH_CALC_PREFERRED_METADATA);
             context.getContentResolver().query(uri, null, null, null, null);
         }
+
+        private static final AtomicBoolean APP_LIST_REBUILD_QUEUED = new AtomicBoolean();
+
+        /**
+         * Builds {@link AppListTable} again on {@link FDroidApp#getDatabaseExecutor()} if it
+         * was not built in the current locale, such as after the locale changed, or when it
+         * was only just created.  Until then, the lists are read the same way as everything
+         * else, without pages.
+         */
+        public static void rebuildAppListIfNeeded(Context context) {
+            if (AppListWriter.isSortedForCurrentLocale(context) || !APP_LIST_REBUILD_QUEUED.compareAndSet(false, true)) {
+                return;
+            }
+            final Context appContext = context.getApplicationContext();
+            FDroidApp.getDatabaseExecutor().execute(() -> {
+                try {
+                    rebuildAppList(appContext);
+                } finally {
+                    APP_LIST_REBUILD_QUEUED.set(false);
+                }
+            });
+        }
+
+        /**
+         * The same as {@link #rebuildAppListIfNeeded(Context)}, but on this thread.
+         */
+        static void rebuildAppList(Context context) {
+            Uri uri = Uri.withAppendedPath(AppProvider.getContentUri(), PATH_CALC_APP_LIST);
+            context.getContentResolver().query(uri, null, null, null, null);
+        }
     }
 
     /**
@@ -390,6 +456,15 @@ public class AppProvider extends FDroidProvider {
                 case Cols._COUNT:
                     appendCountField();
                     break;
+                case AppListTable.Cols.APP_ID:
+                    appendField(Cols.ROW_ID, getTableName(), AppListTable.Cols.APP_ID);
+                    break;
+                case AppListTable.Cols.CAN_UPDATE:
+                    addCanUpdateField();
+                    break;
+                case Cols.PAGE_KEY:
+                    appendField("NULL", null, Cols.PAGE_KEY);
+                    break;
                 default:
                     appendField(field, getTableName());
                     break;
@@ -401,6 +476,12 @@ public class AppProvider extends FDroidProvider {
             appendField("COUNT( DISTINCT " + getTableName() + "." + Cols.ROW_ID + " ) AS " + Cols._COUNT);
         }
 
+        private void addCanUpdateField() {
+            leftJoinToInstalledTable();
+            leftJoinToPrefs();
+            appendField("COALESCE((" + getCanUpdateCondition() + "), 0) AS " + AppListTable.Cols.CAN_UPDATE);
+        }
+
         private void addSuggestedApkVersionField() {
             addSuggestedApkField(
                     ApkTable.Cols.VERSION_NAME,
@@ -464,6 +545,12 @@ public class AppProvider extends FDroidProvider {
     private static final String PATH_CALC_PREFERRED_METADATA = "calcPreferredMetadata";
     private static final String PATH_CALC_SUGGESTED_APKS = "calcNonRepoDetailsFromIndex";
     private static final String PATH_INSTALLED_WITH_KNOWN_VULNS = "installedWithKnownVulns";
+    private static final String PATH_CALC_STALE_PACKAGES = "calcStalePackages";
+    private static final String PATH_CALC_APP_LIST = "calcAppList";
+
+    private static final String QUERY_LIMIT = "limit";
+    private static final String QUERY_AFTER_KEY = "afterKey";
+    private static final String QUERY_AFTER_ID = "afterId";
 
     private static final int CAN_UPDATE = CODE_SINGLE + 1;
     private static final int INSTALLED = CAN_UPDATE + 1;
@@ -478,6 +565,19 @@ public class AppProvider extends FDroidProvider {
     private static final int HIGHEST_PRIORITY = SEARCH_CAN_UPDATE + 1;
     private static final int CALC_PREFERRED_METADATA = HIGHEST_PRIORITY + 1;
     private static final int INSTALLED_WITH_KNOWN_VULNS = CALC_PREFERRED_METADATA + 1;
+    private static final int CALC_STALE_PACKAGES = INSTALLED_WITH_KNOWN_VULNS + 1;
+    private static final int CALC_APP_LIST = CALC_STALE_PACKAGES + 1;
+
+    /**
+     * Well under the 999 arguments which older versions of SQLite allow in one statement.
+     */
+    private static final int MAX_PACKAGES_PER_UPDATE = 500;
+
+    /**
+     * How many packages {@link #rebuildAppList()} writes to {@link AppListTable} in each
+     * transaction, so that the lists which are read in the meantime are not held up for long.
+     */
+    private static final int APP_LIST_REBUILD_CHUNK = 500;
 
     static {
         MATCHER.addURI(getAuthority(), null, CODE_LIST);
@@ -496,6 +596,8 @@ public class AppProvider extends FDroidProvider {
         MATCHER.addURI(getAuthority(), PATH_SPECIFIC_APP + "/#/*", CODE_SINGLE);
         MATCHER.addURI(getAuthority(), PATH_CALC_PREFERRED_METADATA, CALC_PREFERRED_METADATA);
         MATCHER.addURI(getAuthority(), PATH_INSTALLED_WITH_KNOWN_VULNS, INSTALLED_WITH_KNOWN_VULNS);
+        MATCHER.addURI(getAuthority(), PATH_CALC_STALE_PACKAGES, CALC_STALE_PACKAGES);
+        MATCHER.addURI(getAuthority(), PATH_CALC_APP_LIST, CALC_APP_LIST);
     }
 
     public static Uri getContentUri() {
@@ -540,6 +642,26 @@ public class AppProvider extends FDroidProvider {
         return Uri.withAppendedPath(getContentUri(), PATH_CAN_UPDATE);
     }
 
+    /**
+     * @param uri      One of the lists of apps, such as {@link #getContentUri()} or
+     *                 {@link #getCategoryUri(Category)}.
+     * @param limit    The most apps to return.
+     * @param afterKey The {@link Cols#PAGE_KEY} of the last app of the previous page, or null for
+     *                 the first page.
+     * @param afterId  The {@link Cols#ROW_ID} of the last app of the previous page.
+     * @return A uri for the next {@code limit} apps of {@code uri} after the previous page,
+     * or for all of them if the list can not be read a page at a time.
+     */
+    public static Uri getPageUri(Uri uri, int limit, @Nullable String afterKey, long afterId) {
+        Uri.Builder builder = uri.buildUpon()
+                .appendQueryParameter(QUERY_LIMIT, Integer.toString(limit));
+        if (afterKey != null) {
+            builder.appendQueryParameter(QUERY_AFTER_KEY, afterKey)
+                    .appendQueryParameter(QUERY_AFTER_ID, Long.toString(afterId));
+        }
+        return builder.build();
+    }
+
     public static Uri getRepoUri(Repo repo) {
         return getContentUri().buildUpon()
                 .appendPath(PATH_REPO)
@@ -596,6 +718,22 @@ public class AppProvider extends FDroidProvider {
         return builder.build();
     }
 
+    /**
+     * @return A selection to pass along with one of the search URIs so that only the apps with
+     * these {@link Cols#ROW_ID}s are looked at, e.g. the results of an earlier search which the
+     * new query only narrows down.
+     */
+    public static String getRowIdSelection(long[] rowIds) {
+        StringBuilder selection = new StringBuilder(AppMetadataTable.NAME + "." + Cols.ROW_ID + " IN (");
+        for (int i = 0; i < rowIds.length; i++) {
+            if (i > 0) {
+                selection.append(',');
+            }
+            selection.append(rowIds[i]);
+        }
+        return selection.append(')').toString();
+    }
+
     @Override
     protected String getTableName() {
         return AppMetadataTable.NAME;
@@ -628,6 +766,10 @@ public class AppProvider extends FDroidProvider {
     }
 
     private AppQuerySelection queryCanUpdate() {
+        return new AppQuerySelection(getCanUpdateCondition()).requireNaturalInstalledTable().requireLeftJoinPrefs();
+    }
+
+    private String getCanUpdateCondition() {
         final String app = getTableName();
 
         // Need to use COALESCE because the prefs join may not resolve any rows, which means the
@@ -636,9 +778,7 @@ public class AppProvider extends FDroidProvider {
         final String ignoreAll = "COALESCE(prefs." + AppPrefsTable.Cols.IGNORE_ALL_UPDATES + ", 0) != 1";
 
         final String ignore = " (" + ignoreCurrent + " AND " + ignoreAll + ") ";
-        final String where = ignore + " AND " + app + "." + Cols.SUGGESTED_VERSION_CODE + " > installed." + InstalledAppTable.Cols.VERSION_CODE;
-
-        return new AppQuerySelection(where).requireNaturalInstalledTable().requireLeftJoinPrefs();
+        return ignore + " AND " + app + "." + Cols.SUGGESTED_VERSION_CODE + " > installed." + InstalledAppTable.Cols.VERSION_CODE;
     }
 
     private AppQuerySelection queryRepo(long repoId) {
@@ -652,55 +792,59 @@ public class AppProvider extends FDroidProvider {
     }
 
     private AppQuerySelection querySearch(String query) {
-        // Put in a Set to remove duplicates
-        final Set<String> keywordSet = new HashSet<>(Arrays.asList(query.split("\\s")));
-
-        if (keywordSet.size() == 0) {
+        final List<String> terms = getSearchTerms(query);
+        if (terms.size() == 0) {
             return new AppQuerySelection();
         }
 
-        // Surround each keyword in % for wildcard searching
-        final String[] keywords = new String[keywordSet.size()];
-        int iKeyword = 0;
-        for (final String keyword : keywordSet) {
-            keywords[iKeyword] = "%" + keyword + "%";
-            iKeyword++;
+        final String selection = getTableName() + "." + Cols.ROW_ID + " IN (" + searchDocIds("?") + ")";
+        final String[] args = {getSearchMatch(terms, null)};
+        return new AppQuerySelection(selection, args);
+    }
+
+    /**
+     * Splits a search query into the words to look for in {@link AppSearchTable}. ASCII
+     * punctuation and whitespace separate words, as they do for the FTS tokenizer. ASCII letters
+     * are lower cased so that words such as "OR" and "NOT" are not taken to be operators.
+     */
+    static List<String> getSearchTerms(String query) {
+        Set<String> terms = new LinkedHashSet<>();
+        StringBuilder term = new StringBuilder();
+        for (int i = 0; i <= query.length(); i++) {
+            char c = i < query.length() ? query.charAt(i) : ' ';
+            if (c >= 'A' && c <= 'Z') {
+                term.append(Character.toLowerCase(c));
+            } else if (c > 127 || Character.isLetterOrDigit(c)) {
+                term.append(c);
+            } else if (term.length() > 0) {
+                terms.add(term.toString());
+                term.setLength(0);
+            }
         }
+        return new ArrayList<>(terms);
+    }
 
-        final String app = getTableName();
-        final String[] columns = {
-                PackageTable.NAME + "." + PackageTable.Cols.PACKAGE_NAME,
-                app + "." + Cols.NAME,
-                app + "." + Cols.SUMMARY,
-                app + "." + Cols.DESCRIPTION,
-        };
-
-        // Build selection string and fill out keyword arguments
-        final StringBuilder selection = new StringBuilder();
-        final String[] selectionKeywords = new String[columns.length * keywords.length];
-        iKeyword = 0;
-        boolean firstColumn = true;
-        for (final String column : columns) {
-            if (firstColumn) {
-                firstColumn = false;
-            } else {
-                selection.append(" OR ");
+    /**
+     * @return An FTS {@code MATCH} expression which requires each of the {@code terms} to be the
+     * start of a word, in {@code column} if given, otherwise in any column.
+     */
+    private static String getSearchMatch(List<String> terms, @Nullable String column) {
+        StringBuilder match = new StringBuilder();
+        for (String term : terms) {
+            if (match.length() > 0) {
+                match.append(' ');
             }
-            selection.append('(');
-            boolean firstKeyword = true;
-            for (final String keyword : keywords) {
-                if (firstKeyword) {
-                    firstKeyword = false;
-                } else {
-                    selection.append(" AND ");
-                }
-                selection.append(column).append(" LIKE ?");
-                selectionKeywords[iKeyword] = keyword;
-                iKeyword++;
+            if (column != null) {
+                match.append(column).append(':');
             }
-            selection.append(") ");
+            match.append(term).append('*');
         }
-        return new AppQuerySelection(selection.toString(), selectionKeywords);
+        return match.toString();
+    }
+
+    private static String searchDocIds(String match) {
+        return "SELECT " + AppSearchTable.Cols.DOCID + " FROM " + AppSearchTable.NAME
+                + " WHERE " + AppSearchTable.NAME + " MATCH " + match;
     }
 
     protected AppQuerySelection querySingle(String packageName, long repoId) {
@@ -774,6 +918,22 @@ public class AppProvider extends FDroidProvider {
 
     @Override
     public Cursor query(@NonNull Uri uri, String[] projection, String customSelection, String[] selectionArgs, String sortOrder) {
+        return query(uri, projection, customSelection, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * Loaders such as {@link androidx.loader.content.CursorLoader} cancel their
+     * {@code cancellationSignal} when they are restarted, which stops a search for a query the
+     * user has already typed past rather than running it to completion.
+     */
+    @Override
+    public Cursor query(@NonNull Uri uri, String[] projection, String customSelection, String[] selectionArgs,
+                        String sortOrder, @Nullable CancellationSignal cancellationSignal) {
+        Cursor appList = queryAppList(uri, projection, customSelection, sortOrder, cancellationSignal);
+        if (appList != null) {
+            return appList;
+        }
+
         AppQuerySelection selection = new AppQuerySelection(customSelection, selectionArgs);
 
         // It is usually the case that we ask for app(s) for which we don't care what repo is
@@ -789,7 +949,14 @@ public class AppProvider extends FDroidProvider {
         List<String> pathSegments = uri.getPathSegments();
         switch (MATCHER.match(uri)) {
             case CALC_PREFERRED_METADATA:
-                updatePreferredMetadata();
+                updatePreferredMetadata(null);
+                updateAppList(null, null);
+                return null;
+
+            case CALC_APP_LIST:
+                if (rebuildAppList()) {
+                    getContext().getContentResolver().notifyChange(getContentUri(), null);
+                }
                 return null;
 
             case CODE_LIST:
@@ -822,11 +989,11 @@ public class AppProvider extends FDroidProvider {
                 break;
 
             case SEARCH_INSTALLED:
-                selection = querySearch(uri.getLastPathSegment()).add(queryInstalled());
+                selection = selection.add(querySearch(uri.getLastPathSegment())).add(queryInstalled());
                 break;
 
             case SEARCH_CAN_UPDATE:
-                selection = querySearch(uri.getLastPathSegment()).add(queryCanUpdate());
+                selection = selection.add(querySearch(uri.getLastPathSegment())).add(queryCanUpdate());
                 break;
 
             case CATEGORY:
@@ -861,31 +1028,155 @@ public class AppProvider extends FDroidProvider {
             selection = selection.add(queryHighestPriority());
         }
 
-        return runQuery(uri, selection, projection, sortOrder, limit);
+        return runQuery(uri, selection, projection, sortOrder, limit, cancellationSignal);
     }
 
-    private String getSearchSortOrder(String searchTerms) {
-        final String LAST_UPDATED = Schema.AppMetadataTable.NAME + "." + Schema.AppMetadataTable.Cols.LAST_UPDATED + " desc";
-        final String NAME_COL = Schema.AppMetadataTable.NAME + "." + Schema.AppMetadataTable.Cols.NAME;
-        final String SUMMARY_COL = Schema.AppMetadataTable.NAME + "." + Schema.AppMetadataTable.Cols.SUMMARY;
-        final String[] terms = searchTerms.trim().split("\\s+");
-        if (terms.length == 0 || terms[0].equals("")) {
-            return LAST_UPDATED;
+    /**
+     * The fields which can be read from {@link AppListTable} without joining anything else.
+     */
+    private static final Set<String> APP_LIST_FIELDS = new HashSet<>(Arrays.asList(AppListTable.Cols.ALL));
+
+    static {
+        APP_LIST_FIELDS.add(AppListTable.Cols._ID);
+        APP_LIST_FIELDS.add(AppListTable.Cols.ROW_ID);
+        APP_LIST_FIELDS.add(AppListTable.Cols._COUNT);
+        APP_LIST_FIELDS.add(AppListTable.Cols.PAGE_KEY);
+    }
+
+    /**
+     * Reads the main lists of apps straight out of {@link AppListTable}, which already has them
+     * in order, rather than joining and sorting all the tables it was built from.  Anything else,
+     * such as a search, a list from one repo, or a field the table does not have, is left to
+     * {@link #runQuery(Uri, AppQuerySelection, String[], String, int, CancellationSignal)}.
+     * <p>
+     * A page of a list, from {@link #getPageUri(Uri, int, String, long)}, starts after the row
+     * it names by its key in the list's own order rather than by an offset, so each page is a
+     * range scan of the same index no matter how far down the list it is.
+     * <p>
+     * While the table is not sorted for the current locale, this leaves the list to be read the
+     * regular way, and has it built again in the background.
+     *
+     * @return The list, or null if it can not be read from {@link AppListTable}
+     */
+    @Nullable
+    private Cursor queryAppList(Uri uri, String[] projection, String customSelection, String sortOrder,
+                                @Nullable CancellationSignal cancellationSignal) {
+        if (projection == null || customSelection != null || (sortOrder != null && !Cols.NAME.equals(sortOrder))) {
+            return null;
         }
+        for (String field : projection) {
+            if (!APP_LIST_FIELDS.contains(field)) {
+                return null;
+            }
+        }
+
+        String selection = null;
+        String[] args = null;
+        String sortColumn = AppListTable.Cols.SORT_KEY;
+        boolean descending = false;
+        switch (MATCHER.match(uri)) {
+            case CODE_LIST:
+                break;
+
+            case INSTALLED:
+                selection = AppListTable.Cols.IS_INSTALLED + " = 1";
+                break;
+
+            case CAN_UPDATE:
+                selection = AppListTable.Cols.CAN_UPDATE + " = 1";
+                break;
 
-        for (int i = 0; i < terms.length; i++) {
-            terms[i] = DatabaseUtils.sqlEscapeString('%' + terms[i] + '%');
+            case CATEGORY:
+                final String catJoin = getCatJoinTableName();
+                final String cat = CategoryTable.NAME;
+                selection = AppListTable.Cols.APP_ID + " IN (SELECT " + catJoin + "." + CatJoinTable.Cols.APP_METADATA_ID
+                        + " FROM " + catJoin + " JOIN " + cat + " ON (" + cat + "." + CategoryTable.Cols.ROW_ID + " = "
+                        + catJoin + "." + CatJoinTable.Cols.CATEGORY_ID + ")"
+                        + " WHERE " + cat + "." + CategoryTable.Cols.NAME + " = ? COLLATE NOCASE)";
+                args = new String[]{uri.getLastPathSegment()};
+                break;
+
+            case NEWLY_ADDED:
+                selection = AppListTable.Cols.ADDED + " > ?";
+                args = new String[]{Utils.formatDate(Preferences.get().calcMaxHistory(), "")};
+                sortColumn = AppListTable.Cols.ADDED;
+                descending = true;
+                break;
+
+            case RECENTLY_UPDATED:
+                selection = AppListTable.Cols.ADDED + " != " + AppListTable.Cols.LAST_UPDATED
+                        + " AND " + AppListTable.Cols.LAST_UPDATED + " > ?";
+                args = new String[]{Utils.formatDate(Preferences.get().calcMaxHistory(), "")};
+                sortColumn = AppListTable.Cols.LAST_UPDATED;
+                descending = true;
+                break;
+
+            default:
+                return null;
+        }
+
+        if (!AppListWriter.isSortedForCurrentLocale(getContext())) {
+            Helper.rebuildAppListIfNeeded(getContext());
+            return null;
+        }
+
+        String orderBy = sortColumn + (descending ? " DESC, " : ", ") + AppListTable.Cols.APP_ID;
+        List<String> fields = new ArrayList<>(projection.length);
+        for (String field : projection) {
+            if (AppListTable.Cols._COUNT.equals(field)) {
+                fields.add("COUNT(*) AS " + AppListTable.Cols._COUNT);
+                orderBy = null;
+            } else if (AppListTable.Cols.PAGE_KEY.equals(field)) {
+                fields.add(sortColumn + " AS " + AppListTable.Cols.PAGE_KEY);
+            } else {
+                fields.add(field);
+            }
         }
 
-        StringBuilder titleCase = new StringBuilder(NAME_COL + " like " + terms[0]);
-        StringBuilder summaryCase = new StringBuilder(NAME_COL + " like " + terms[0]);
-        for (int i = 1; i < terms.length; i++) {
-            titleCase.append(" and " + NAME_COL + " like ").append(terms[i]);
-            summaryCase.append(" and " + NAME_COL + " like ").append(terms[i]);
+        String limit = null;
+        if (orderBy != null) {
+            limit = uri.getQueryParameter(QUERY_LIMIT);
+            String afterKey = uri.getQueryParameter(QUERY_AFTER_KEY);
+            if (afterKey != null) {
+                // Written so that SQLite can start the index scan at afterKey,
+                // rather than only filtering out the rows before it.
+                String after = sortColumn + (descending ? " <= ?" : " >= ?")
+                        + " AND (" + sortColumn + (descending ? " < ?" : " > ?")
+                        + " OR " + AppListTable.Cols.APP_ID + " > ?)";
+                selection = selection == null ? after : selection + " AND " + after;
+                String[] afterArgs = {afterKey, afterKey, uri.getQueryParameter(QUERY_AFTER_ID)};
+                args = args == null ? afterArgs : ObjectArrays.concat(args, afterArgs, String.class);
+            }
+        }
+
+        String sql = "SELECT " + TextUtils.join(", ", fields) + " FROM " + AppListTable.NAME
+                + (selection == null ? "" : " WHERE " + selection)
+                + (orderBy == null ? "" : " ORDER BY " + orderBy)
+                + (limit == null ? "" : " LIMIT " + Integer.parseInt(limit));
+        Cursor cursor = LoggingQuery.query(db(), sql, args, cancellationSignal);
+        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        return cursor;
+    }
+
+    /**
+     * Apps with every search term in their name come first, then those with every term in their
+     * summary, then the rest of the matches.
+     */
+    private String getSearchSortOrder(String searchTerms) {
+        final String LAST_UPDATED = Schema.AppMetadataTable.NAME + "." + Schema.AppMetadataTable.Cols.LAST_UPDATED + " desc";
+        final String ROW_ID_COL = Schema.AppMetadataTable.NAME + "." + Schema.AppMetadataTable.Cols.ROW_ID;
+        final List<String> terms = getSearchTerms(searchTerms);
+        if (terms.size() == 0) {
+            return LAST_UPDATED;
         }
 
+        String nameMatch = DatabaseUtils.sqlEscapeString(getSearchMatch(terms, AppSearchTable.Cols.NAME));
+        String summaryMatch = DatabaseUtils.sqlEscapeString(getSearchMatch(terms, AppSearchTable.Cols.SUMMARY));
+        String titleCase = ROW_ID_COL + " IN (" + searchDocIds(nameMatch) + ")";
+        String summaryCase = ROW_ID_COL + " IN (" + searchDocIds(summaryMatch) + ")";
+
         return String.format("case when %s then 1 when %s then 2 else 3 end, %s",
-                titleCase.toString(), summaryCase.toString(), LAST_UPDATED);
+                titleCase, summaryCase, LAST_UPDATED);
     }
 
     private AppQuerySelection queryNewlyAdded() {
@@ -907,7 +1198,8 @@ public class AppProvider extends FDroidProvider {
      * Helper method used by both the genuine {@link AppProvider} and the temporary version used
      * by the repo updater ({@link TempAppProvider}).
      */
-    protected Cursor runQuery(Uri uri, AppQuerySelection selection, String[] projection, String sortOrder, int limit) {
+    protected Cursor runQuery(Uri uri, AppQuerySelection selection, String[] projection, String sortOrder, int limit,
+                              @Nullable CancellationSignal cancellationSignal) {
         selection = selection.add(queryExcludeSwap());
 
         if (Cols.NAME.equals(sortOrder)) {
@@ -920,7 +1212,7 @@ public class AppProvider extends FDroidProvider {
         query.addOrderBy(sortOrder);
         query.addLimit(limit);
 
-        Cursor cursor = LoggingQuery.query(db(), query.toString(), query.getArgs());
+        Cursor cursor = LoggingQuery.query(db(), query.toString(), query.getArgs(), cancellationSignal);
         cursor.setNotificationUri(getContext().getContentResolver(), uri);
         return cursor;
     }
@@ -939,6 +1231,13 @@ public class AppProvider extends FDroidProvider {
                 "(SELECT " + Cols.ROW_ID + " FROM " + app + " WHERE " + app + "." + Cols.REPO_ID + " = ?)";
         db().execSQL(query, new String[]{String.valueOf(repoId)});
 
+        if (AppMetadataTable.NAME.equals(app)) {
+            db().execSQL("DELETE FROM " + AppSearchTable.NAME + " WHERE " + AppSearchTable.Cols.DOCID + " IN " +
+                    "(SELECT " + Cols.ROW_ID + " FROM " + app + " WHERE " + app + "." + Cols.REPO_ID + " = ?)",
+                    new String[]{String.valueOf(repoId)});
+            db().delete(AppListTable.NAME, AppListTable.Cols.REPO_ID + " = ?", new String[]{String.valueOf(repoId)});
+        }
+
         AppQuerySelection selection = new AppQuerySelection(where, whereArgs).add(queryRepo(repoId));
         int result = db().delete(getTableName(), selection.getSelection(), selection.getArgs());
 
@@ -1013,30 +1312,57 @@ public class AppProvider extends FDroidProvider {
 
     @Override
     public int update(@NonNull Uri uri, ContentValues values, String where, String[] whereArgs) {
-        if (MATCHER.match(uri) != CALC_SUGGESTED_APKS) {
-            throw new UnsupportedOperationException("Update not supported for " + uri + ".");
+        switch (MATCHER.match(uri)) {
+            case CALC_SUGGESTED_APKS:
+                break;
+            case CALC_STALE_PACKAGES:
+                updateStaleAppDetails();
+                getContext().getContentResolver().notifyChange(getContentUri(), null);
+                return 0;
+            default:
+                throw new UnsupportedOperationException("Update not supported for " + uri + ".");
         }
 
         List<String> segments = uri.getPathSegments();
         if (segments.size() > 1) {
             String packageName = segments.get(1);
             updateSuggestedApk(packageName);
+            updateAppList(getPackageIdFromPackageNameQuery(), new String[]{packageName});
+        } else if (whereArgs != null) {
+            updateSuggestedApks(whereArgs);
+            updateAppList(whereArgs);
         } else {
             updateSuggestedApks();
+            updateAppList(null, null);
         }
         getContext().getContentResolver().notifyChange(getCanUpdateUri(), null);
         return 0;
     }
 
-    protected void updateAllAppDetails() {
-        updatePreferredMetadata();
-        updateCompatibleFlags();
-        updateSuggestedFromUpstream(null);
+    /**
+     * Recalculates the preferred metadata, compatibility and suggested version of each package in
+     * {@link Schema.StalePackageTable}, then empties that table. Packages which no repo has
+     * touched keep the values calculated for them before.
+     */
+    protected void updateStaleAppDetails() {
+        final String stalePackages = "SELECT " + StalePackageTable.Cols.PACKAGE_ID + " FROM " + StalePackageTable.NAME;
+        final SQLiteDatabase db = db();
+        db.beginTransaction();
+        try {
+            updatePreferredMetadata(stalePackages);
+            updateCompatibleFlags(stalePackages);
+            calculateSuggestedVersions(stalePackages, null);
+            updateAppList(stalePackages, null);
+            db.delete(StalePackageTable.NAME, null, null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
     }
 
     /**
      * If the repo hasn't changed, then there are many things which we shouldn't waste time updating
-     * (compared to {@link AppProvider#updateAllAppDetails()}:
+     * (compared to {@link AppProvider#updateStaleAppDetails()}:
      * <p>
      * + The "preferred metadata", as that is calculated based on repo with highest priority, and
      * only takes into account the package name, not specific versions, when figuring this out.
@@ -1051,16 +1377,136 @@ public class AppProvider extends FDroidProvider {
      * {@link android.app.IntentService} as described in https://gitlab.com/fdroid/fdroidclient/issues/520.
      */
     protected void updateSuggestedApks() {
-        updateSuggestedFromUpstream(null);
-        updateSuggestedFromLatest(null);
+        calculateSuggestedVersions(null, null);
     }
 
     protected void updateSuggestedApk(String packageName) {
-        updateSuggestedFromUpstream(packageName);
-        updateSuggestedFromLatest(packageName);
+        calculateSuggestedVersions(getPackageIdFromPackageNameQuery(), new String[]{packageName});
+    }
+
+    /**
+     * The same as {@link #updateSuggestedApks()}, but only for {@code packageNames}.  They are
+     * done {@link #MAX_PACKAGES_PER_UPDATE} at a time, to keep under SQLite's limit on the number
+     * of arguments to a statement.
+     */
+    protected void updateSuggestedApks(String[] packageNames) {
+        for (int i = 0; i < packageNames.length; i += MAX_PACKAGES_PER_UPDATE) {
+            String[] args = Arrays.copyOfRange(packageNames, i,
+                    Math.min(packageNames.length, i + MAX_PACKAGES_PER_UPDATE));
+            calculateSuggestedVersions(getPackageIdsQuery(args.length), args);
+        }
+    }
+
+    /**
+     * @return A subquery selecting the {@link PackageTable.Cols#ROW_ID} of {@code count} package names
+     */
+    private static String getPackageIdsQuery(int count) {
+        return "SELECT " + PackageTable.Cols.ROW_ID + " FROM " + PackageTable.NAME
+                + " WHERE " + PackageTable.Cols.PACKAGE_NAME + " IN (" + generateQuestionMarksForInClause(count) + ")";
+    }
+
+    /**
+     * @param packageIds A subquery selecting the packages to update, or null to update all of them.
+     * @see SuggestedVersionCalculator
+     */
+    private void calculateSuggestedVersions(@Nullable String packageIds, @Nullable String[] args) {
+        new SuggestedVersionCalculator(db(), getTableName(), getApkTableName())
+                .calculate(packageIds, args, Preferences.get().getUnstableUpdates());
     }
 
-    private void updatePreferredMetadata() {
+    /**
+     * Builds the rows of {@link AppListTable} for some packages again from the tables they are
+     * made from, so this needs to run after anything which changes what the lists show.  Only
+     * the real app table has a list, not the temporary one {@link TempAppProvider} fills in
+     * during a repo update.
+     *
+     * @param packageIds A subquery selecting the packages to update, or null to update all of them.
+     */
+    private void updateAppList(@Nullable String packageIds, @Nullable String[] args) {
+        if (!AppMetadataTable.NAME.equals(getTableName())) {
+            return;
+        }
+
+        AppQuerySelection selection = queryHighestPriority().add(queryExcludeSwap());
+        String where = null;
+        if (packageIds != null) {
+            selection = selection.add(new AppQuerySelection(
+                    PackageTable.NAME + "." + PackageTable.Cols.ROW_ID + " IN (" + packageIds + ")", args));
+            where = AppListTable.Cols.PACKAGE_ID + " IN (" + packageIds + ")";
+        }
+
+        Query query = new Query();
+        query.addSelection(selection);
+        query.addFields(AppListTable.Cols.ALL);
+
+        final SQLiteDatabase db = db();
+        Cursor cursor = null;
+        db.beginTransaction();
+        try {
+            db.delete(AppListTable.NAME, where, args);
+            cursor = db.rawQuery(query.toString(), query.getArgs());
+            new AppListWriter(db).write(cursor);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        if (packageIds == null) {
+            AppListWriter.setSortedForCurrentLocale(getContext());
+        }
+    }
+
+    /**
+     * Builds the whole of {@link AppListTable} again if it was not built in the current locale.
+     * Unlike {@link #updateAppList(String, String[])} for all packages, this is done a chunk of
+     * packages per transaction. Nothing reads from the table until it is marked as sorted at
+     * the end, so it doesn't matter that it is only partly filled in along the way.
+     *
+     * @return Whether the table was built again
+     */
+    private boolean rebuildAppList() {
+        if (AppListWriter.isSortedForCurrentLocale(getContext())) {
+            return false;
+        }
+        Locale locale = Locale.getDefault();
+        Utils.debugLog(TAG, "Building " + AppListTable.NAME + " again for " + locale);
+
+        final SQLiteDatabase db = db();
+        db.delete(AppListTable.NAME, null, null);
+        long maxPackageId = DatabaseUtils.longForQuery(db,
+                "SELECT MAX(" + PackageTable.Cols.ROW_ID + ") FROM " + PackageTable.NAME, null);
+        String packageIds = "SELECT " + PackageTable.Cols.ROW_ID + " FROM " + PackageTable.NAME
+                + " WHERE " + PackageTable.Cols.ROW_ID + " > ? AND " + PackageTable.Cols.ROW_ID + " <= ?";
+        for (long after = 0; after < maxPackageId; after += APP_LIST_REBUILD_CHUNK) {
+            updateAppList(packageIds, new String[]{Long.toString(after), Long.toString(after + APP_LIST_REBUILD_CHUNK)});
+        }
+
+        // the sort keys are only right if the locale didn't change again in the meantime
+        if (!locale.equals(Locale.getDefault())) {
+            return false;
+        }
+        AppListWriter.setSortedForCurrentLocale(getContext());
+        return true;
+    }
+
+    /**
+     * The same as {@link #updateAppList(String, String[])} for {@code packageNames}, a chunk at a time.
+     */
+    private void updateAppList(String[] packageNames) {
+        for (int i = 0; i < packageNames.length; i += MAX_PACKAGES_PER_UPDATE) {
+            String[] args = Arrays.copyOfRange(packageNames, i,
+                    Math.min(packageNames.length, i + MAX_PACKAGES_PER_UPDATE));
+            updateAppList(getPackageIdsQuery(args.length), args);
+        }
+    }
+
+    /**
+     * @param packageIds A subquery selecting the packages to update, or null to update all of them.
+     */
+    private void updatePreferredMetadata(@Nullable String packageIds) {
         Utils.debugLog(TAG, "Deciding on which metadata should take priority for each package.");
 
         final String app = getTableName();
@@ -1079,7 +1525,11 @@ public class AppProvider extends FDroidProvider {
                         " JOIN " + RepoTable.NAME + " AS repo ON (metadata." + Cols.REPO_ID + " = repo." + RepoTable.Cols._ID + ") " +
                         " WHERE metadata." + Cols.PACKAGE_ID + " = " + PackageTable.NAME + "." + PackageTable.Cols.ROW_ID +
                         " AND repo." + RepoTable.Cols.PRIORITY + " = (" + highestPriority + ")" +
-                        ");";
+                        ")";
+
+        if (packageIds != null) {
+            updateSql += " WHERE " + PackageTable.Cols.ROW_ID + " IN (" + packageIds + ")";
+        }
 
         db().execSQL(updateSql);
     }
@@ -1087,8 +1537,10 @@ public class AppProvider extends FDroidProvider {
     /**
      * For each app, we want to set the isCompatible flag to 1 if any of the apks we know
      * about are compatible, and 0 otherwise.
+     *
+     * @param packageIds A subquery selecting the packages to update, or null to update all of them.
      */
-    private void updateCompatibleFlags() {
+    private void updateCompatibleFlags(@Nullable String packageIds) {
         Utils.debugLog(TAG, "Calculating whether apps are compatible, based on whether any of their apks are compatible");
 
         final String apk = getApkTableName();
@@ -1098,111 +1550,12 @@ public class AppProvider extends FDroidProvider {
                 "UPDATE " + app + " SET " + Cols.IS_COMPATIBLE + " = ( " +
                         " SELECT TOTAL( " + apk + "." + ApkTable.Cols.IS_COMPATIBLE + ") > 0 " +
                         " FROM " + apk +
-                        " WHERE " + apk + "." + ApkTable.Cols.APP_ID + " = " + app + "." + Cols.ROW_ID + " );";
+                        " WHERE " + apk + "." + ApkTable.Cols.APP_ID + " = " + app + "." + Cols.ROW_ID + " )";
 
-        db().execSQL(updateSql);
-    }
-
-    /**
-     * Look at the upstream version of each app, our goal is to find the apk
-     * with the closest version code to that, without going over.
-     * If the app is not compatible at all (i.e. no versions were compatible)
-     * then we take the highest, otherwise we take the highest compatible version.
-     * If the app is installed, then all apks signed by a different certificate are
-     * ignored for the purpose of this calculation.
-     *
-     * @see #updateSuggestedFromLatest(String)
-     */
-    private void updateSuggestedFromUpstream(@Nullable String packageName) {
-        Utils.debugLog(TAG, "Calculating suggested versions for all NON-INSTALLED apps which specify an upstream version code.");
-
-        final String apk = getApkTableName();
-        final String app = getTableName();
-        final String installed = InstalledAppTable.NAME;
-
-        final boolean unstableUpdates = Preferences.get().getUnstableUpdates();
-        String restrictToStable = unstableUpdates ? "" : (apk + "." + ApkTable.Cols.VERSION_CODE + " <= " + app + "." + Cols.UPSTREAM_VERSION_CODE + " AND ");
-
-        String restrictToApp = "";
-        String[] args = null;
-
-        if (packageName != null) {
-            restrictToApp = " AND " + app + "." + Cols.PACKAGE_ID + " = (" + getPackageIdFromPackageNameQuery() + ") ";
-            args = new String[]{packageName};
-        }
-
-        // The join onto `appForThisApk` is to ensure that the MAX(apk.versionCode) is chosen from
-        // all apps regardless of repo. If we joined directly onto the outer `app` table we are
-        // in the process of updating, then it would be limited to only apks from the same repo.
-        // By adding the extra join, and then joining based on the packageId of this inner app table
-        // and the app table we are updating, we take into account all apks for this app.
-
-        // The check apk.sig = COALESCE(installed.sig, apk.sig) would ideally be better written as:
-        //   `installedSig IS NULL OR installedSig = apk.sig`
-        // however that would require a separate sub query for each `installedSig` which is more
-        // expensive. Using a COALESCE is a less expressive way to write the same thing with only
-        // a single subquery.
-        // Also note that the `installedSig IS NULL` is not because there is a `NULL` entry in the
-        // installed table (this is impossible), but rather because the subselect above returned
-        // zero rows.
-        String updateSql =
-                "UPDATE " + app + " SET " + Cols.SUGGESTED_VERSION_CODE + " = ( " +
-                        " SELECT MAX( " + apk + "." + ApkTable.Cols.VERSION_CODE + " ) " +
-                        " FROM " + apk +
-                        "   JOIN " + app + " AS appForThisApk ON (appForThisApk." + Cols.ROW_ID + " = " + apk + "." + ApkTable.Cols.APP_ID + ") " +
-                        "   LEFT JOIN " + installed + " ON (" + installed + "." + InstalledAppTable.Cols.PACKAGE_ID + " = " + app + "." + Cols.PACKAGE_ID + ") " +
-                        " WHERE " +
-                        app + "." + Cols.PACKAGE_ID + " = appForThisApk." + Cols.PACKAGE_ID + " AND " +
-                        apk + "." + ApkTable.Cols.SIGNATURE + " IS COALESCE(" + installed + "." + InstalledAppTable.Cols.SIGNATURE + ", " + apk + "." + ApkTable.Cols.SIGNATURE + ") AND " +
-                        restrictToStable +
-                        " ( " + app + "." + Cols.IS_COMPATIBLE + " = 0 OR " + apk + "." + Cols.IS_COMPATIBLE + " = 1 ) ) " +
-                        " WHERE " + Cols.UPSTREAM_VERSION_CODE + " > 0 " + restrictToApp;
-
-        LoggingQuery.execSQL(db(), updateSql, args);
-    }
-
-    /**
-     * We set each app's suggested version to the latest available that is
-     * compatible, or the latest available if none are compatible.
-     * <p>
-     * If the suggested version is null, it means that we could not figure it
-     * out from the upstream vercode. In such a case, fall back to the simpler
-     * algorithm as if upstreamVercode was 0.
-     *
-     * @see #updateSuggestedFromUpstream(String)
-     */
-    private void updateSuggestedFromLatest(@Nullable String packageName) {
-        Utils.debugLog(TAG, "Calculating suggested versions for all apps which don't specify an upstream version code.");
-
-        final String apk = getApkTableName();
-        final String app = getTableName();
-        final String installed = InstalledAppTable.NAME;
-
-        final String restrictToApps;
-        final String[] args;
-
-        if (packageName == null) {
-            restrictToApps = " COALESCE(" + Cols.UPSTREAM_VERSION_CODE + ", 0) = 0 OR " + Cols.SUGGESTED_VERSION_CODE + " IS NULL ";
-            args = null;
-        } else {
-            // Don't update an app with an upstream version code, because that would have been updated
-            // by updateSuggestedFromUpdate(packageName).
-            restrictToApps = " COALESCE(" + Cols.UPSTREAM_VERSION_CODE + ", 0) = 0 AND " + app + "." + Cols.PACKAGE_ID + " = (" + getPackageIdFromPackageNameQuery() + ") ";
-            args = new String[]{packageName};
+        if (packageIds != null) {
+            updateSql += " WHERE " + Cols.PACKAGE_ID + " IN (" + packageIds + ")";
         }
 
-        String updateSql =
-                "UPDATE " + app + " SET " + Cols.SUGGESTED_VERSION_CODE + " = ( " +
-                        " SELECT MAX( " + apk + "." + ApkTable.Cols.VERSION_CODE + " ) " +
-                        " FROM " + apk +
-                        "   JOIN " + app + " AS appForThisApk ON (appForThisApk." + Cols.ROW_ID + " = " + apk + "." + ApkTable.Cols.APP_ID + ") " +
-                        "   LEFT JOIN " + installed + " ON (" + installed + "." + InstalledAppTable.Cols.PACKAGE_ID + " = " + app + "." + Cols.PACKAGE_ID + ") " +
-                        " WHERE " +
-                        app + "." + Cols.PACKAGE_ID + " = appForThisApk." + Cols.PACKAGE_ID + " AND " +
-                        apk + "." + ApkTable.Cols.SIGNATURE + " IS COALESCE(" + installed + "." + InstalledAppTable.Cols.SIGNATURE + ", " + apk + "." + ApkTable.Cols.SIGNATURE + ") AND " +
-                        " ( " + app + "." + Cols.IS_COMPATIBLE + " = 0 OR " + apk + "." + ApkTable.Cols.IS_COMPATIBLE + " = 1 ) ) " +
-                        " WHERE " + restrictToApps;
-
-        LoggingQuery.execSQL(db(), updateSql, args);
+        db().execSQL(updateSql);
     }
 }
@@ -16,9 +16,6 @@ import org.fdroid.fdroid.data.Schema.CategoryTable.Cols;
 import org.fdroid.fdroid.data.Schema.PackageTable;
 import org.fdroid.fdroid.R;
 
-import java.util.HashMap;
-import java.util.Locale;
-import java.util.Map;
 import java.util.List;
 import java.util.Collections;
 import java.util.ArrayList;
@@ -29,24 +26,14 @@ public class CategoryProvider extends FDroidProvider {
         private Helper() {
         }
 
-        /**
-         * During repo updates, each app needs to know the ID of each category it belongs to.
-         * This results in lots of database lookups, usually at least one for each app, sometimes more.
-         * To improve performance, this caches the association between categories and their database IDs.
-         * <p>
-         * It can stay around for the entire F-Droid process, even across multiple repo updates, as we
-         * don't actually remove data from the categories table.
-         */
-        private static final Map<String, Long> KNOWN_CATEGORIES = new HashMap<>();
-
         public static long ensureExists(Context context, String category) {
             // Check our in-memory cache to potentially prevent a trip to the database (and hence disk).
-            String lowerCaseCategory = category.toLowerCase(Locale.ENGLISH);
-            if (KNOWN_CATEGORIES.containsKey(lowerCaseCategory)) {
-                return KNOWN_CATEGORIES.get(lowerCaseCategory);
+            long id = ImportDictionary.CATEGORIES.get(category);
+            if (id > 0) {
+                return id;
             }
 
-            long id = getCategoryId(context, category);
+            id = getCategoryId(context, category);
             if (id <= 0) {
                 ContentValues values = new ContentValues(1);
                 values.put(Cols.NAME, category);
@@ -54,7 +41,7 @@ public class CategoryProvider extends FDroidProvider {
                 id = Long.parseLong(uri.getLastPathSegment());
             }
 
-            KNOWN_CATEGORIES.put(lowerCaseCategory, id);
+            ImportDictionary.CATEGORIES.put(category, id);
 
             return id;
         }
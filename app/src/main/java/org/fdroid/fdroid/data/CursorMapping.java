@@ -0,0 +1,55 @@
+package org.fdroid.fdroid.data;
+
+import android.database.Cursor;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.util.Map;
+
+/**
+ * Which field of a value object each column of a particular {@link Cursor} is read into.
+ * <p>
+ * Working this out means comparing the name of every column against every field, which used to
+ * happen again for every row. A mapping is only worked out once per cursor, and can then be
+ * used to read each of its rows with nothing more than one call per column. It must only be used
+ * with the cursor it was made for, or another cursor with exactly the same columns.
+ *
+ * @see App#getCursorMapping(Cursor)
+ * @see Apk#getCursorMapping(Cursor)
+ */
+public final class CursorMapping<T> {
+
+    interface ColumnReader<T> {
+        void read(T target, Cursor cursor, int columnIndex);
+    }
+
+    /**
+     * One reader per column of the cursor, or {@code null} for columns which are not read.
+     */
+    private final ColumnReader<T>[] readers;
+
+    /**
+     * @param logTag Columns which none of the {@code readersByColumn} know about are logged under
+     *               this tag, or not at all if it is {@code null}. {@code _id} is never logged.
+     */
+    @SuppressWarnings("unchecked")
+    CursorMapping(Cursor cursor, Map<String, ColumnReader<T>> readersByColumn, @Nullable String logTag) {
+        String[] columnNames = cursor.getColumnNames();
+        readers = new ColumnReader[columnNames.length];
+        for (int i = 0; i < columnNames.length; i++) {
+            readers[i] = readersByColumn.get(columnNames[i]);
+            if (readers[i] == null && logTag != null && !"_id".equals(columnNames[i])) {
+                Log.e(logTag, "Unknown column name " + columnNames[i]);
+            }
+        }
+    }
+
+    void read(T target, Cursor cursor) {
+        for (int i = 0; i < readers.length; i++) {
+            if (readers[i] != null) {
+                readers[i].read(target, cursor, i);
+            }
+        }
+    }
+}
@@ -28,18 +28,23 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.text.TextUtils;
 
 import org.fdroid.fdroid.R;
 import org.fdroid.fdroid.Utils;
 import org.fdroid.fdroid.data.Schema.AntiFeatureTable;
 import org.fdroid.fdroid.data.Schema.ApkAntiFeatureJoinTable;
 import org.fdroid.fdroid.data.Schema.ApkTable;
+import org.fdroid.fdroid.data.Schema.AppListTable;
 import org.fdroid.fdroid.data.Schema.AppMetadataTable;
 import org.fdroid.fdroid.data.Schema.AppPrefsTable;
+import org.fdroid.fdroid.data.Schema.AppSearchTable;
 import org.fdroid.fdroid.data.Schema.CatJoinTable;
 import org.fdroid.fdroid.data.Schema.InstalledAppTable;
+import org.fdroid.fdroid.data.Schema.InstalledApkHashTable;
 import org.fdroid.fdroid.data.Schema.PackageTable;
 import org.fdroid.fdroid.data.Schema.RepoTable;
+import org.fdroid.fdroid.data.Schema.StalePackageTable;
 
 /**
  * This is basically a singleton used to represent the database at the core
@@ -63,6 +68,35 @@ public class DBHelper extends SQLiteOpenHelper {
             + PackageTable.Cols.PREFERRED_METADATA + " integer"
             + ");";
 
+    private static final String CREATE_TABLE_STALE_PACKAGE = "CREATE TABLE " + StalePackageTable.NAME
+            + " ( "
+            + StalePackageTable.Cols.PACKAGE_ID + " integer primary key"
+            + ");";
+
+    /**
+     * Uses the default "simple" tokenizer, which is available on every Android version. Like the
+     * {@code LIKE} operator, it only folds the case of ASCII characters.
+     */
+    private static final String CREATE_TABLE_APP_SEARCH = "CREATE VIRTUAL TABLE " + AppSearchTable.NAME
+            + " USING fts4 ( "
+            + AppSearchTable.Cols.PACKAGE_NAME + ", "
+            + AppSearchTable.Cols.NAME + ", "
+            + AppSearchTable.Cols.SUMMARY + ", "
+            + AppSearchTable.Cols.DESCRIPTION
+            + ");";
+
+    /**
+     * Indexes rows from {@link AppMetadataTable} (aliased as {@code app}) into
+     * {@link AppSearchTable}. Append a {@code WHERE} clause to choose which ones.
+     */
+    static final String INSERT_APP_SEARCH = "INSERT INTO " + AppSearchTable.NAME + " ("
+            + AppSearchTable.Cols.DOCID + ", " + TextUtils.join(", ", AppSearchTable.Cols.ALL) + ") "
+            + "SELECT app." + AppMetadataTable.Cols.ROW_ID + ", pkg." + PackageTable.Cols.PACKAGE_NAME + ", "
+            + "app." + AppMetadataTable.Cols.NAME + ", app." + AppMetadataTable.Cols.SUMMARY + ", "
+            + "app." + AppMetadataTable.Cols.DESCRIPTION + " "
+            + "FROM " + AppMetadataTable.NAME + " AS app "
+            + "JOIN " + PackageTable.NAME + " AS pkg ON (pkg." + PackageTable.Cols.ROW_ID + " = app." + AppMetadataTable.Cols.PACKAGE_ID + ") ";
+
     private static final String CREATE_TABLE_REPO = "create table "
             + RepoTable.NAME + " ("
             + RepoTable.Cols._ID + " integer primary key, "
@@ -200,6 +234,42 @@ public class DBHelper extends SQLiteOpenHelper {
             + InstalledAppTable.Cols.HASH + " TEXT NOT NULL"
             + " );";
 
+    private static final String CREATE_TABLE_INSTALLED_APK_HASH = "CREATE TABLE " + InstalledApkHashTable.NAME
+            + " ( "
+            + InstalledApkHashTable.Cols.PATH + " TEXT PRIMARY KEY, "
+            + InstalledApkHashTable.Cols.SIZE + " INTEGER NOT NULL, "
+            + InstalledApkHashTable.Cols.LAST_MODIFIED + " INTEGER NOT NULL, "
+            + InstalledApkHashTable.Cols.INODE + " INTEGER NOT NULL, "
+            + InstalledApkHashTable.Cols.HASH_TYPE + " TEXT NOT NULL, "
+            + InstalledApkHashTable.Cols.HASH + " TEXT NOT NULL"
+            + " );";
+
+    private static final String CREATE_TABLE_APP_LIST = "CREATE TABLE " + AppListTable.NAME
+            + " ( "
+            + AppListTable.Cols.APP_ID + " INTEGER PRIMARY KEY, "
+            + AppListTable.Cols.PACKAGE_ID + " INTEGER NOT NULL, "
+            + AppListTable.Cols.REPO_ID + " INTEGER NOT NULL, "
+            + AppListTable.Cols.PACKAGE_NAME + " TEXT NOT NULL, "
+            + AppListTable.Cols.NAME + " TEXT NOT NULL, "
+            + AppListTable.Cols.SUMMARY + " TEXT NOT NULL, "
+            + AppListTable.Cols.LICENSE + " TEXT NOT NULL, "
+            + AppListTable.Cols.ICON + " TEXT, "
+            + AppListTable.Cols.ICON_URL + " TEXT, "
+            + AppListTable.Cols.IS_COMPATIBLE + " INT NOT NULL, "
+            + AppListTable.Cols.REQUIREMENTS + " TEXT, "
+            + AppListTable.Cols.ANTI_FEATURES + " TEXT, "
+            + AppListTable.Cols.IS_APK + " BOOLEAN, "
+            + AppListTable.Cols.ADDED + " TEXT, "
+            + AppListTable.Cols.LAST_UPDATED + " TEXT, "
+            + AppListTable.Cols.SUGGESTED_VERSION_CODE + " TEXT, "
+            + AppListTable.Cols.SUGGESTED_VERSION_NAME + " TEXT, "
+            + AppListTable.Cols.INSTALLED_VERSION_CODE + " INTEGER, "
+            + AppListTable.Cols.INSTALLED_VERSION_NAME + " TEXT, "
+            + AppListTable.Cols.CAN_UPDATE + " INT NOT NULL, "
+            + AppListTable.Cols.IS_INSTALLED + " INT NOT NULL, "
+            + AppListTable.Cols.SORT_KEY + " TEXT NOT NULL"
+            + " );";
+
     private static final String CREATE_TABLE_ANTI_FEATURE = "CREATE TABLE " + AntiFeatureTable.NAME
             + " ( "
             + AntiFeatureTable.Cols.NAME + " TEXT NOT NULL "
@@ -212,7 +282,7 @@ public class DBHelper extends SQLiteOpenHelper {
             + "primary key(" + ApkAntiFeatureJoinTable.Cols.APK_ID + ", " + ApkAntiFeatureJoinTable.Cols.ANTI_FEATURE_ID + ") "
             + " );";
 
-    protected static final int DB_VERSION = 85;
+    protected static final int DB_VERSION = 90;
 
     private final Context context;
 
@@ -238,10 +308,14 @@ public class DBHelper extends SQLiteOpenHelper {
         db.execSQL(CREATE_TABLE_CATEGORY);
         db.execSQL(CREATE_TABLE_CAT_JOIN);
         db.execSQL(CREATE_TABLE_INSTALLED_APP);
+        db.execSQL(CREATE_TABLE_INSTALLED_APK_HASH);
         db.execSQL(CREATE_TABLE_REPO);
         db.execSQL(CREATE_TABLE_APP_PREFS);
         db.execSQL(CREATE_TABLE_ANTI_FEATURE);
         db.execSQL(CREATE_TABLE_APK_ANTI_FEATURE_JOIN);
+        db.execSQL(CREATE_TABLE_STALE_PACKAGE);
+        db.execSQL(CREATE_TABLE_APP_SEARCH);
+        db.execSQL(CREATE_TABLE_APP_LIST);
         ensureIndexes(db);
 
         String[] defaultRepos = context.getResources().getStringArray(R.array.default_repos);
@@ -275,6 +349,11 @@ public class DBHelper extends SQLiteOpenHelper {
         Utils.debugLog(TAG, "Upgrading database from v" + oldVersion + " v" + newVersion);
         addOpenCollective(db, oldVersion);
         addTranslation(db, oldVersion);
+        addStalePackageTable(db, oldVersion);
+        addAppSearchTable(db, oldVersion);
+        addInstalledApkHashTable(db, oldVersion);
+        addAppListTable(db, oldVersion);
+        recreateAppListTableWithTextSortKeys(db, oldVersion);
     }
 
     private void addOpenCollective(SQLiteDatabase db, int oldVersion) {
@@ -302,6 +381,67 @@ public class DBHelper extends SQLiteOpenHelper {
         }
     }
 
+    private void addStalePackageTable(SQLiteDatabase db, int oldVersion) {
+        if (oldVersion >= 86) {
+            return;
+        }
+        if (!tableExists(db, StalePackageTable.NAME)) {
+            Utils.debugLog(TAG, "Creating " + StalePackageTable.NAME + " table in db.");
+            db.execSQL(CREATE_TABLE_STALE_PACKAGE);
+        }
+    }
+
+    private void addAppSearchTable(SQLiteDatabase db, int oldVersion) {
+        if (oldVersion >= 87) {
+            return;
+        }
+        if (!tableExists(db, AppSearchTable.NAME)) {
+            Utils.debugLog(TAG, "Creating " + AppSearchTable.NAME + " table in db.");
+            db.execSQL(CREATE_TABLE_APP_SEARCH);
+            db.execSQL(INSERT_APP_SEARCH);
+        }
+    }
+
+    private void addInstalledApkHashTable(SQLiteDatabase db, int oldVersion) {
+        if (oldVersion >= 88) {
+            return;
+        }
+        if (!tableExists(db, InstalledApkHashTable.NAME)) {
+            Utils.debugLog(TAG, "Creating " + InstalledApkHashTable.NAME + " table in db.");
+            db.execSQL(CREATE_TABLE_INSTALLED_APK_HASH);
+        }
+    }
+
+    /**
+     * Only creates the table, {@link AppProvider} fills it in the first time it is read from.
+     */
+    private void addAppListTable(SQLiteDatabase db, int oldVersion) {
+        if (oldVersion >= 89) {
+            return;
+        }
+        if (!tableExists(db, AppListTable.NAME)) {
+            Utils.debugLog(TAG, "Creating " + AppListTable.NAME + " table in db.");
+            db.execSQL(CREATE_TABLE_APP_LIST);
+            ensureIndexes(db);
+        }
+    }
+
+    /**
+     * {@link AppListTable.Cols#SORT_KEY} used to be stored as a blob, which cannot be compared
+     * with the text that the lists are now paged by.  The table is only a copy of the other
+     * tables, so it is emptied and left to be built again the next time it is read from.
+     */
+    private void recreateAppListTableWithTextSortKeys(SQLiteDatabase db, int oldVersion) {
+        if (oldVersion >= 90) {
+            return;
+        }
+        Utils.debugLog(TAG, "Recreating " + AppListTable.NAME + " table with text sort keys.");
+        db.execSQL("DROP TABLE IF EXISTS " + AppListTable.NAME);
+        db.execSQL(CREATE_TABLE_APP_LIST);
+        ensureIndexes(db);
+        AppListWriter.clearSortedLocale(context);
+    }
+
     /**
      * By clearing the etags stored in the repo table, it means that next time the user updates
      * their repos (either manually or on a scheduled task), they will update regardless of whether
@@ -310,6 +450,7 @@ public class DBHelper extends SQLiteOpenHelper {
     private static void clearRepoEtags(SQLiteDatabase db) {
         Utils.debugLog(TAG, "Clearing repo etags, so next update will not be skipped with \"Repos up to date\".");
         db.execSQL("update " + RepoTable.NAME + " set " + RepoTable.Cols.LAST_ETAG + " = NULL");
+        RepoCache.clear();
     }
 
     /**
@@ -323,6 +464,7 @@ public class DBHelper extends SQLiteOpenHelper {
 
     private static void resetTransient(SQLiteDatabase db) {
         Utils.debugLog(TAG, "Removing all index tables, they will be recreated next time F-Droid updates.");
+        ImportDictionary.invalidateAll();
 
         db.beginTransaction();
         try {
@@ -346,6 +488,18 @@ public class DBHelper extends SQLiteOpenHelper {
                 db.execSQL("DROP TABLE " + ApkAntiFeatureJoinTable.NAME);
             }
 
+            if (tableExists(db, StalePackageTable.NAME)) {
+                db.execSQL("DROP TABLE " + StalePackageTable.NAME);
+            }
+
+            if (tableExists(db, AppSearchTable.NAME)) {
+                db.execSQL("DROP TABLE " + AppSearchTable.NAME);
+            }
+
+            if (tableExists(db, AppListTable.NAME)) {
+                db.execSQL("DROP TABLE " + AppListTable.NAME);
+            }
+
             db.execSQL("DROP TABLE " + AppMetadataTable.NAME);
             db.execSQL("DROP TABLE " + ApkTable.NAME);
 
@@ -356,6 +510,9 @@ public class DBHelper extends SQLiteOpenHelper {
             db.execSQL(CREATE_TABLE_CAT_JOIN);
             db.execSQL(CREATE_TABLE_ANTI_FEATURE);
             db.execSQL(CREATE_TABLE_APK_ANTI_FEATURE_JOIN);
+            db.execSQL(CREATE_TABLE_STALE_PACKAGE);
+            db.execSQL(CREATE_TABLE_APP_SEARCH);
+            db.execSQL(CREATE_TABLE_APP_LIST);
             clearRepoEtags(db);
             ensureIndexes(db);
             db.setTransactionSuccessful();
@@ -403,6 +560,20 @@ public class DBHelper extends SQLiteOpenHelper {
                     InstalledAppTable.Cols.PACKAGE_ID + ", " + InstalledAppTable.Cols.VERSION_CODE + ");");
         }
 
+        if (tableExists(db, AppListTable.NAME)) {
+            Utils.debugLog(TAG, "Ensuring indexes exist for " + AppListTable.NAME);
+            db.execSQL("CREATE INDEX IF NOT EXISTS appList_sortKey ON " + AppListTable.NAME + " ("
+                    + AppListTable.Cols.SORT_KEY + ", " + AppListTable.Cols.APP_ID + ");");
+            db.execSQL("CREATE INDEX IF NOT EXISTS appList_isInstalled_sortKey ON " + AppListTable.NAME + " ("
+                    + AppListTable.Cols.IS_INSTALLED + ", " + AppListTable.Cols.SORT_KEY + ", "
+                    + AppListTable.Cols.APP_ID + ");");
+            db.execSQL("CREATE INDEX IF NOT EXISTS appList_canUpdate_sortKey ON " + AppListTable.NAME + " ("
+                    + AppListTable.Cols.CAN_UPDATE + ", " + AppListTable.Cols.SORT_KEY + ", "
+                    + AppListTable.Cols.APP_ID + ");");
+            db.execSQL("CREATE INDEX IF NOT EXISTS appList_packageId ON " + AppListTable.NAME + " ("
+                    + AppListTable.Cols.PACKAGE_ID + ");");
+        }
+
         Utils.debugLog(TAG, "Ensuring indexes exist for " + RepoTable.NAME);
         db.execSQL("CREATE INDEX IF NOT EXISTS repo_id_isSwap on " + RepoTable.NAME + " (" +
                 RepoTable.Cols._ID + ", " + RepoTable.Cols.IS_SWAP + ");");
@@ -53,12 +53,14 @@ public abstract class FDroidProvider extends ContentProvider {
         ContentProviderResult[] result = null;
         isApplyingBatch = true;
         final SQLiteDatabase db = db();
-        db.beginTransaction();
+        boolean successful = false;
+        ImportDictionary.beginTransaction(db);
         try {
             result = super.applyBatch(operations);
             db.setTransactionSuccessful();
+            successful = true;
         } finally {
-            db.endTransaction();
+            ImportDictionary.endTransaction(db, successful);
             isApplyingBatch = false;
         }
         return result;
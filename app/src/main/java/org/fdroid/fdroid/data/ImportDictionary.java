@@ -0,0 +1,182 @@
+package org.fdroid.fdroid.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.fdroid.fdroid.Utils;
+import org.fdroid.fdroid.data.Schema.AntiFeatureTable;
+import org.fdroid.fdroid.data.Schema.CategoryTable;
+import org.fdroid.fdroid.data.Schema.PackageTable;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * During repo updates, every app needs the ID of its package and of each of its categories,
+ * and every apk needs the ID of each of its anti features. Looking these up one at a time
+ * means tens of thousands of queries for a big repo, while the tables themselves only have a
+ * few thousand rows between them. This keeps the name to ID mapping of each table in memory.
+ * <p>
+ * All three are loaded with a single query each by {@link #warmAll(SQLiteDatabase)} when
+ * {@link TempAppProvider.Helper#init(android.content.Context, long)} sets up an update, and
+ * kept up to date by whoever inserts a new row. They are thrown away when a repo is removed
+ * or the tables are recreated by {@link DBHelper#resetTransient(android.content.Context)}.
+ * <p>
+ * Rows inserted inside {@link #beginTransaction(SQLiteDatabase)} are only added for everyone
+ * once that transaction commits. Until then they are only seen by the thread which inserted
+ * them. If it rolls back, they are dropped, since SQLite hands out the same row IDs again for
+ * the next rows to be inserted.
+ */
+final class ImportDictionary {
+
+    private static final String TAG = "ImportDictionary";
+
+    static final ImportDictionary PACKAGES =
+            new ImportDictionary(PackageTable.NAME, PackageTable.Cols.ROW_ID, PackageTable.Cols.PACKAGE_NAME, false);
+
+    /**
+     * Categories are looked up with {@code COLLATE NOCASE}, so they are keyed by their lower
+     * case name.
+     */
+    static final ImportDictionary CATEGORIES =
+            new ImportDictionary(CategoryTable.NAME, CategoryTable.Cols.ROW_ID, CategoryTable.Cols.NAME, true);
+
+    static final ImportDictionary ANTI_FEATURES =
+            new ImportDictionary(AntiFeatureTable.NAME, AntiFeatureTable.Cols.ROW_ID, AntiFeatureTable.Cols.NAME, false);
+
+    private final String table;
+    private final String idCol;
+    private final String nameCol;
+    private final boolean ignoreCase;
+
+    private final Map<String, Long> ids = new HashMap<>();
+
+    /**
+     * Names added by this thread during its current {@link #beginTransaction(SQLiteDatabase)}.
+     */
+    private final ThreadLocal<Map<String, Long>> uncommitted = new ThreadLocal<Map<String, Long>>() {
+        @Override
+        protected Map<String, Long> initialValue() {
+            return new HashMap<>();
+        }
+    };
+
+    private static final class Transaction {
+        int depth;
+        boolean failed;
+    }
+
+    private static final ThreadLocal<Transaction> TRANSACTION = new ThreadLocal<Transaction>() {
+        @Override
+        protected Transaction initialValue() {
+            return new Transaction();
+        }
+    };
+
+    private ImportDictionary(String table, String idCol, String nameCol, boolean ignoreCase) {
+        this.table = table;
+        this.idCol = idCol;
+        this.nameCol = nameCol;
+        this.ignoreCase = ignoreCase;
+    }
+
+    /**
+     * @return The ID of {@code name}, or 0 if it is not known (which doesn't necessarily mean
+     * that it isn't in the database).
+     */
+    synchronized long get(String name) {
+        String key = key(name);
+        Long id = ids.get(key);
+        if (id == null) {
+            id = uncommitted.get().get(key);
+        }
+        return id == null ? 0 : id;
+    }
+
+    synchronized void put(String name, long id) {
+        if (id <= 0) {
+            return;
+        }
+        if (TRANSACTION.get().depth > 0) {
+            uncommitted.get().put(key(name), id);
+        } else {
+            ids.put(key(name), id);
+        }
+    }
+
+    private synchronized void endTransaction(boolean committed) {
+        Map<String, Long> names = uncommitted.get();
+        if (committed) {
+            ids.putAll(names);
+        }
+        names.clear();
+    }
+
+    synchronized void clear() {
+        ids.clear();
+    }
+
+    private synchronized void load(SQLiteDatabase db) {
+        ids.clear();
+        Cursor cursor = db.query(table, new String[]{idCol, nameCol}, null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                ids.put(key(cursor.getString(1)), cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        Utils.debugLog(TAG, "Loaded " + ids.size() + " names from " + table);
+    }
+
+    private String key(String name) {
+        return ignoreCase ? name.toLowerCase(Locale.ENGLISH) : name;
+    }
+
+    static void warmAll(SQLiteDatabase db) {
+        PACKAGES.load(db);
+        CATEGORIES.load(db);
+        ANTI_FEATURES.load(db);
+    }
+
+    /**
+     * Begins a transaction on {@code db} which may insert new rows into these tables. It has to
+     * be ended with {@link #endTransaction(SQLiteDatabase, boolean)}. These can be nested, and
+     * nothing is added for everyone until the outermost one commits.
+     */
+    static void beginTransaction(SQLiteDatabase db) {
+        db.beginTransaction();
+        TRANSACTION.get().depth++;
+    }
+
+    /**
+     * @param successful Whether {@link SQLiteDatabase#setTransactionSuccessful()} was called.
+     */
+    static void endTransaction(SQLiteDatabase db, boolean successful) {
+        Transaction transaction = TRANSACTION.get();
+        if (!successful) {
+            transaction.failed = true;
+        }
+        try {
+            db.endTransaction();
+        } catch (RuntimeException e) {
+            transaction.failed = true;
+            throw e;
+        } finally {
+            transaction.depth--;
+            if (transaction.depth == 0) {
+                PACKAGES.endTransaction(!transaction.failed);
+                CATEGORIES.endTransaction(!transaction.failed);
+                ANTI_FEATURES.endTransaction(!transaction.failed);
+                transaction.failed = false;
+            }
+        }
+    }
+
+    static void invalidateAll() {
+        PACKAGES.clear();
+        CATEGORIES.clear();
+        ANTI_FEATURES.clear();
+    }
+}
@@ -0,0 +1,308 @@
+package org.fdroid.fdroid.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.os.Process;
+
+import androidx.annotation.Nullable;
+
+import org.fdroid.fdroid.HashingUtils;
+import org.fdroid.fdroid.Utils;
+import org.fdroid.fdroid.data.Schema.InstalledApkHashTable;
+import org.fdroid.fdroid.data.Schema.InstalledApkHashTable.Cols;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Hashes installed APK files, remembering the results in {@link InstalledApkHashTable} so
+ * that each file is only read again once it has changed.  A file counts as changed when its
+ * size, modification time or, from {@code android-21} on, its inode is different from when it
+ * was last hashed.  That catches OTA updates replacing {@code /system} APKs even when they keep
+ * the same zeroed out timestamp, since the new file will be a different inode or size.
+ * <p>
+ * The files which do need hashing are hashed on a few threads at once, reading through
+ * a large direct buffer per thread.
+ */
+class InstalledApkHasher {
+
+    private static final String TAG = "InstalledApkHasher";
+
+    static final String HASH_TYPE = "sha256";
+
+    private static final int MAX_THREADS = 4;
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> BUFFER = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    private final SQLiteDatabase db;
+
+    /**
+     * What each file looked like when it was last hashed, by its path.
+     * Only read from the database once it is first needed, and not at all
+     * when only {@link #hash(File)} is used.
+     */
+    private Map<String, Entry> entries;
+
+    private static final class Entry {
+        final String path;
+        final long size;
+        final long lastModified;
+        final long inode;
+        String hash;
+
+        Entry(File file) {
+            path = file.getAbsolutePath();
+            size = file.length();
+            lastModified = file.lastModified();
+            inode = Build.VERSION.SDK_INT >= 21 ? InstalledApkHasher21.getInode(file) : 0;
+        }
+
+        Entry(Cursor cursor) {
+            path = cursor.getString(0);
+            size = cursor.getLong(1);
+            lastModified = cursor.getLong(2);
+            inode = cursor.getLong(3);
+            hash = HASH_TYPE.equals(cursor.getString(4)) ? cursor.getString(5) : null;
+        }
+
+        boolean isSameFileAs(Entry other) {
+            return size == other.size && lastModified == other.lastModified && inode == other.inode;
+        }
+    }
+
+    InstalledApkHasher(Context context) {
+        db = DBHelper.getInstance(context).getWritableDatabase();
+    }
+
+    private Map<String, Entry> getEntries() {
+        if (entries == null) {
+            entries = new HashMap<>();
+            Cursor cursor = db.query(InstalledApkHashTable.NAME, Cols.ALL, null, null, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    Entry entry = new Entry(cursor);
+                    entries.put(entry.path, entry);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return What {@code path} looked like when it was last hashed, reading only its own row
+     * if the whole table hasn't been read yet.
+     */
+    @Nullable
+    private Entry getEntry(String path) {
+        if (entries != null) {
+            return entries.get(path);
+        }
+        Cursor cursor = db.query(InstalledApkHashTable.NAME, Cols.ALL, Cols.PATH + " = ?",
+                new String[]{path}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? new Entry(cursor) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return Whether {@code apk} is different from when it was last hashed, or was never hashed
+     */
+    boolean hasChanged(File apk) {
+        Entry cached = getEntries().get(apk.getAbsolutePath());
+        return cached == null || cached.hash == null || !cached.isSameFileAs(new Entry(apk));
+    }
+
+    /**
+     * Gets the {@link #HASH_TYPE} hash of a single {@code apk}, such as one which was just
+     * installed, only reading it if it {@link #hasChanged(File) has changed}.
+     *
+     * @return The hash, or null if {@code apk} could not be read
+     */
+    @Nullable
+    String hash(File apk) {
+        Entry current = new Entry(apk);
+        Entry cached = getEntry(current.path);
+        if (cached != null && cached.hash != null && cached.isSameFileAs(current)) {
+            return cached.hash;
+        }
+        current.hash = hashFile(apk);
+        if (current.hash != null) {
+            save(Collections.singletonList(current));
+        }
+        return current.hash;
+    }
+
+    /**
+     * Gets the {@link #HASH_TYPE} hash of each of {@code apks}, only reading the ones which
+     * {@link #hasChanged(File) have changed}.  The new hashes are saved in one transaction.
+     *
+     * @return The hash of each of the {@code apks}, leaving out any which could not be read
+     */
+    Map<File, String> hash(Collection<File> apks) {
+        Map<File, String> hashes = new HashMap<>(apks.size());
+        Map<File, Entry> toHash = new HashMap<>();
+        for (File apk : apks) {
+            Entry current = new Entry(apk);
+            Entry cached = getEntries().get(current.path);
+            if (cached != null && cached.hash != null && cached.isSameFileAs(current)) {
+                hashes.put(apk, cached.hash);
+            } else {
+                toHash.put(apk, current);
+            }
+        }
+        if (toHash.isEmpty()) {
+            return hashes;
+        }
+
+        int threads = Math.max(1, Math.min(MAX_THREADS, Math.min(toHash.size(),
+                Runtime.getRuntime().availableProcessors())));
+        Utils.debugLog(TAG, "Hashing " + toHash.size() + " of " + apks.size() + " APKs on " + threads + " threads");
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, TAG));
+        List<Entry> hashed = new ArrayList<>(toHash.size());
+        try {
+            Map<File, Future<String>> futures = new HashMap<>(toHash.size());
+            for (File apk : toHash.keySet()) {
+                futures.put(apk, executor.submit(() -> hashFile(apk)));
+            }
+            for (Map.Entry<File, Future<String>> future : futures.entrySet()) {
+                String hash = future.getValue().get();
+                if (hash != null) {
+                    Entry entry = toHash.get(future.getKey());
+                    entry.hash = hash;
+                    hashed.add(entry);
+                    hashes.put(future.getKey(), hash);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        save(hashed);
+        return hashes;
+    }
+
+    private void save(List<Entry> hashed) {
+        if (hashed.isEmpty()) {
+            return;
+        }
+        SQLiteStatement insert = db.compileStatement("INSERT OR REPLACE INTO " + InstalledApkHashTable.NAME
+                + " (" + Cols.PATH + ", " + Cols.SIZE + ", " + Cols.LAST_MODIFIED + ", " + Cols.INODE
+                + ", " + Cols.HASH_TYPE + ", " + Cols.HASH + ") VALUES (?, ?, ?, ?, ?, ?)");
+        db.beginTransaction();
+        try {
+            for (Entry entry : hashed) {
+                insert.bindString(1, entry.path);
+                insert.bindLong(2, entry.size);
+                insert.bindLong(3, entry.lastModified);
+                insert.bindLong(4, entry.inode);
+                insert.bindString(5, HASH_TYPE);
+                insert.bindString(6, entry.hash);
+                insert.executeInsert();
+                if (entries != null) {
+                    entries.put(entry.path, entry);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+    }
+
+    /**
+     * Forget about every file apart from {@code apks}, e.g. ones from apps that were
+     * uninstalled or from before an OTA update moved things around.
+     */
+    void retainOnly(Collection<File> apks) {
+        Set<String> paths = new HashSet<>(apks.size());
+        for (File apk : apks) {
+            paths.add(apk.getAbsolutePath());
+        }
+        List<String> stale = new ArrayList<>();
+        for (String path : getEntries().keySet()) {
+            if (!paths.contains(path)) {
+                stale.add(path);
+            }
+        }
+        if (stale.isEmpty()) {
+            return;
+        }
+        db.beginTransaction();
+        try {
+            for (String path : stale) {
+                db.delete(InstalledApkHashTable.NAME, Cols.PATH + " = ?", new String[]{path});
+                getEntries().remove(path);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * The same as {@link Utils#getBinaryHash(File, String)}, but reading straight into
+     * a direct buffer through a {@link FileChannel}.
+     *
+     * @return The hash, or null if {@code apk} could not be read
+     */
+    private static String hashFile(File apk) {
+        FileInputStream input = null;
+        try {
+            MessageDigest md = MessageDigest.getInstance(HASH_TYPE);
+            input = new FileInputStream(apk);
+            FileChannel channel = input.getChannel();
+            ByteBuffer buffer = BUFFER.get();
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                md.update(buffer);
+                buffer.clear();
+            }
+            return HashingUtils.hex(md.digest());
+        } catch (IOException e) {
+            Utils.debugLog(TAG, "Could not hash " + apk + ": " + e.getMessage());
+            return null;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException(e);
+        } finally {
+            Utils.closeQuietly(input);
+        }
+    }
+}
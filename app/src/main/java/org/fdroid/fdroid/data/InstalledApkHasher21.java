@@ -0,0 +1,26 @@
+package org.fdroid.fdroid.data;
+
+import android.annotation.TargetApi;
+import android.system.ErrnoException;
+import android.system.Os;
+
+import java.io.File;
+
+/**
+ * Helper class to prevent {@link VerifyError}s from occurring in {@link InstalledApkHasher}
+ * due to the fact that {@link Os} was only introduced in API 21.
+ */
+@TargetApi(21)
+class InstalledApkHasher21 {
+
+    /**
+     * @return the inode number of {@code file}, or 0 if it could not be found out
+     */
+    static long getInode(File file) {
+        try {
+            return Os.stat(file.getAbsolutePath()).st_ino;
+        } catch (ErrnoException e) {
+            return 0;
+        }
+    }
+}
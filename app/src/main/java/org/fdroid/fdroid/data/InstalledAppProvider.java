@@ -1,14 +1,19 @@
 package org.fdroid.fdroid.data;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.RemoteException;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import android.text.TextUtils;
@@ -18,9 +23,12 @@ import org.fdroid.fdroid.Utils;
 import org.fdroid.fdroid.data.Schema.InstalledAppTable;
 import org.fdroid.fdroid.data.Schema.InstalledAppTable.Cols;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 public class InstalledAppProvider extends FDroidProvider {
 
@@ -56,6 +64,33 @@ public class InstalledAppProvider extends FDroidProvider {
             return cachedInfo;
         }
 
+        /**
+         * Brings this provider in line with the {@link PackageManager} in one transaction.
+         * Each of {@code installed} is inserted, replacing the row for the same package if
+         * there is one, and each of {@code uninstalled} is deleted.  The suggested versions
+         * are then recalculated once for all of the packages involved, rather than after
+         * each change.
+         *
+         * @param installed As given to {@link #insert(Uri, ContentValues)}
+         */
+        static void reconcile(Context context, Collection<ContentValues> installed, Collection<String> uninstalled) {
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>(installed.size() + uninstalled.size());
+            for (ContentValues values : installed) {
+                operations.add(ContentProviderOperation.newInsert(getContentUri()).withValues(values).build());
+            }
+            for (String packageName : uninstalled) {
+                operations.add(ContentProviderOperation.newDelete(getAppUri(packageName)).build());
+            }
+            if (operations.isEmpty()) {
+                return;
+            }
+            try {
+                context.getContentResolver().applyBatch(getAuthority(), operations);
+            } catch (RemoteException | OperationApplicationException e) {
+                Log.e(TAG, "Could not reconcile installed apps", e);
+            }
+        }
+
         @Nullable
         public static InstalledApp findByPackageName(Context context, String packageName) {
             Cursor cursor = context.getContentResolver().query(getAppUri(packageName), Cols.ALL, null, null, null);
@@ -97,6 +132,12 @@ public class InstalledAppProvider extends FDroidProvider {
 
     private static String[] systemSignatures;
 
+    /**
+     * The packages inserted or deleted so far in the batch being applied, see
+     * {@link Helper#reconcile(Context, Collection, Collection)}.
+     */
+    private final Set<String> packagesChangedInBatch = new HashSet<>();
+
     static {
         MATCHER.addURI(getAuthority(), null, CODE_LIST);
         MATCHER.addURI(getAuthority(), PATH_SEARCH + "/*", CODE_SEARCH);
@@ -133,6 +174,22 @@ public class InstalledAppProvider extends FDroidProvider {
         return packageName; // all else fails, return packageName
     }
 
+    /**
+     * The same as {@link #getApplicationLabel(Context, String)}, but without asking the
+     * {@link PackageManager} for an {@link ApplicationInfo} which {@code packageInfo} has already.
+     */
+    public static String getApplicationLabel(Context context, PackageInfo packageInfo) {
+        if (packageInfo.applicationInfo == null) {
+            return getApplicationLabel(context, packageInfo.packageName);
+        }
+        try {
+            return packageInfo.applicationInfo.loadLabel(context.getPackageManager()).toString();
+        } catch (Resources.NotFoundException e) {
+            Utils.debugLog(TAG, "Could not get application label: " + e.getMessage());
+        }
+        return packageInfo.packageName;
+    }
+
     /**
      * Add SQL selection statement to exclude {@link InstalledApp}s that were
      * signed by the platform/shared/media/testkey keys.
@@ -274,7 +331,7 @@ public class InstalledAppProvider extends FDroidProvider {
 
         int count = db().delete(getTableName(), query.getSelection(), query.getArgs());
 
-        AppProvider.Helper.calcSuggestedApk(getContext(), packageName);
+        calcSuggestedApk(packageName);
 
         return count;
     }
@@ -299,11 +356,43 @@ public class InstalledAppProvider extends FDroidProvider {
 
         db().replaceOrThrow(getTableName(), null, values);
 
-        AppProvider.Helper.calcSuggestedApk(getContext(), packageName);
+        calcSuggestedApk(packageName);
 
         return getAppUri(values.getAsString(Cols.Package.NAME));
     }
 
+    private void calcSuggestedApk(String packageName) {
+        if (isApplyingBatch()) {
+            packagesChangedInBatch.add(packageName);
+        } else {
+            AppProvider.Helper.calcSuggestedApk(getContext(), packageName);
+        }
+    }
+
+    /**
+     * Wraps the whole batch, including working out the suggested versions of all the
+     * packages that it changed, in one transaction.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = db();
+        boolean successful = false;
+        ImportDictionary.beginTransaction(db);
+        try {
+            packagesChangedInBatch.clear();
+            ContentProviderResult[] result = super.applyBatch(operations);
+            AppProvider.Helper.calcSuggestedApks(getContext(), packagesChangedInBatch);
+            db.setTransactionSuccessful();
+            successful = true;
+            return result;
+        } finally {
+            packagesChangedInBatch.clear();
+            ImportDictionary.endTransaction(db, successful);
+        }
+    }
+
     /**
      * Update is not supported for {@code InstalledAppProvider}. Instead, use
      * {@link #insert(Uri, ContentValues)}, and it will overwrite the relevant
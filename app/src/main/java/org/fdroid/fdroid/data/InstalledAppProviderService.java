@@ -16,9 +16,10 @@ import org.fdroid.fdroid.Utils;
 import org.fdroid.fdroid.data.Schema.InstalledAppTable;
 
 import java.io.File;
-import java.io.FilenameFilter;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executors;
@@ -52,6 +53,7 @@ public class InstalledAppProviderService extends JobIntentService {
 
     private static final String ACTION_INSERT = "org.fdroid.fdroid.data.action.INSERT";
     private static final String ACTION_DELETE = "org.fdroid.fdroid.data.action.DELETE";
+    private static final String ACTION_COMPARE = "org.fdroid.fdroid.data.action.COMPARE";
 
     private static final String EXTRA_PACKAGE_INFO = "org.fdroid.fdroid.data.extra.PACKAGE_INFO";
 
@@ -122,39 +124,91 @@ public class InstalledAppProviderService extends JobIntentService {
      * {@link Process#THREAD_PRIORITY_LOWEST}.
      * <p>
      * APKs installed in {@code /system} will often have zeroed out timestamps, like
-     * 2008-01-01 (ziptime) or 2009-01-01.  So instead anything older than 2010 every
-     * time since we have no way to know whether an APK wasn't changed as part of an
-     * OTA update.  An OTA update could change the APK without changing the
-     * {@link PackageInfo#versionCode} or {@link PackageInfo#lastUpdateTime}.
+     * 2008-01-01 (ziptime) or 2009-01-01.  An OTA update could change the APK without
+     * changing the {@link PackageInfo#versionCode} or {@link PackageInfo#lastUpdateTime},
+     * so anything older than 2010 is checked against {@link InstalledApkHasher}, which
+     * knows whether the file itself is different from when it was last hashed.
      *
      * @see <a href="https://gitlab.com/fdroid/fdroidclient/issues/819>issue #819</a>
      */
     public static void compareToPackageManager(Context context) {
+        Intent intent = new Intent(context, InstalledAppProviderService.class);
+        intent.setAction(ACTION_COMPARE);
+        enqueueWork(context, intent);
+    }
+
+    /**
+     * Works out everything that needs inserting or deleting, hashes all of the APKs that
+     * need it together, then hands the lot to
+     * {@link InstalledAppProvider.Helper#reconcile(Context, java.util.Collection, java.util.Collection)}.
+     * Since that only finishes once everything is in place, the content observers are
+     * notified straight away, rather than through {@link #notifyChange()}.
+     */
+    @SuppressWarnings("PackageManagerGetSignatures")
+    private void compareToPackageManager() {
         Utils.debugLog(TAG, "Comparing package manager to our installed app cache.");
-        Map<String, Long> cachedInfo = InstalledAppProvider.Helper.all(context);
+        Map<String, Long> cachedInfo = InstalledAppProvider.Helper.all(this);
 
-        List<PackageInfo> packageInfoList = context.getPackageManager()
-                .getInstalledPackages(PackageManager.GET_SIGNATURES);
+        List<PackageInfo> packageInfoList = getPackageManager().getInstalledPackages(PackageManager.GET_SIGNATURES);
         Collections.sort(packageInfoList, new Comparator<PackageInfo>() {
             @Override
             public int compare(PackageInfo o1, PackageInfo o2) {
                 return o1.packageName.compareTo(o2.packageName);
             }
         });
+
+        InstalledApkHasher hasher = new InstalledApkHasher(this);
+        List<File> installedApks = new ArrayList<>(packageInfoList.size());
+        Map<PackageInfo, File> toInsert = new LinkedHashMap<>();
         for (PackageInfo packageInfo : packageInfoList) {
-            if (cachedInfo.containsKey(packageInfo.packageName)) {
-                if (packageInfo.lastUpdateTime < 1262300400000L // 2010-01-01 00:00
-                        || packageInfo.lastUpdateTime > cachedInfo.get(packageInfo.packageName)) {
-                    insert(context, packageInfo);
-                }
-                cachedInfo.remove(packageInfo.packageName);
-            } else {
-                insert(context, packageInfo);
+            File apk = getPathToInstalledApk(packageInfo);
+            if (apk != null) {
+                installedApks.add(apk);
+            }
+            Long lastUpdateTime = cachedInfo.remove(packageInfo.packageName);
+            if (lastUpdateTime == null
+                    || packageInfo.lastUpdateTime > lastUpdateTime
+                    || (packageInfo.lastUpdateTime < 1262300400000L // 2010-01-01 00:00
+                    && (apk == null || hasher.hasChanged(apk)))) {
+                toInsert.put(packageInfo, apk);
             }
         }
 
+        List<File> toHash = new ArrayList<>(toInsert.size());
+        for (File apk : toInsert.values()) {
+            if (apk != null && apk.exists() && apk.canRead()) {
+                toHash.add(apk);
+            }
+        }
+        Map<File, String> hashes = hasher.hash(toHash);
+        hasher.retainOnly(installedApks);
+
+        List<ContentValues> installed = new ArrayList<>(toInsert.size());
+        for (Map.Entry<PackageInfo, File> entry : toInsert.entrySet()) {
+            String hash = hashes.get(entry.getValue());
+            if (hash != null) {
+                installed.add(getContentValues(this, entry.getKey(), InstalledApkHasher.HASH_TYPE, hash));
+            }
+        }
+        Utils.debugLog(TAG, "Reconciling " + installed.size() + " installed and " + cachedInfo.size()
+                + " uninstalled packages.");
+        InstalledAppProvider.Helper.reconcile(this, installed, cachedInfo.keySet());
+
+        AppUpdateStatusManager ausm = AppUpdateStatusManager.getInstance(this);
+        for (PackageInfo packageInfo : toInsert.keySet()) {
+            for (AppUpdateStatusManager.AppUpdateStatus status : ausm.getByPackageName(packageInfo.packageName)) {
+                ausm.updateApk(status.getCanonicalUrl(), AppUpdateStatusManager.Status.Installed, null);
+            }
+        }
         for (String packageName : cachedInfo.keySet()) {
-            delete(context, packageName);
+            for (AppUpdateStatusManager.AppUpdateStatus status : ausm.getByPackageName(packageName)) {
+                ausm.updateApk(status.getCanonicalUrl(), AppUpdateStatusManager.Status.InstallError, null);
+            }
+        }
+        if (!toInsert.isEmpty() || !cachedInfo.isEmpty()) {
+            // this also reaches everything observing a single app within these
+            getContentResolver().notifyChange(AppProvider.getContentUri(), null);
+            getContentResolver().notifyChange(ApkProvider.getContentUri(), null);
         }
     }
 
@@ -178,6 +232,11 @@ public class InstalledAppProviderService extends JobIntentService {
     protected void onHandleWork(@NonNull Intent intent) {
         Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
 
+        if (ACTION_COMPARE.equals(intent.getAction())) {
+            compareToPackageManager();
+            return;
+        }
+
         AppUpdateStatusManager ausm = AppUpdateStatusManager.getInstance(this);
         String packageName = intent.getData().getSchemeSpecificPart();
         final String action = intent.getAction();
@@ -192,14 +251,11 @@ public class InstalledAppProviderService extends JobIntentService {
                     return;
                 }
                 if (apk.exists() && apk.canRead()) {
-                    try {
-                        String hashType = "sha256";
-                        String hash = Utils.getBinaryHash(apk, hashType);
-                        insertAppIntoDb(this, packageInfo, hashType, hash);
-                    } catch (IllegalArgumentException e) {
-                        Utils.debugLog(TAG, e.getMessage());
+                    String hash = new InstalledApkHasher(this).hash(apk);
+                    if (hash == null) {
                         return;
                     }
+                    insertAppIntoDb(this, packageInfo, InstalledApkHasher.HASH_TYPE, hash);
                 }
             }
         } else if (ACTION_DELETE.equals(action)) {
@@ -254,19 +310,23 @@ public class InstalledAppProviderService extends JobIntentService {
     static void insertAppIntoDb(Context context, PackageInfo packageInfo, String hashType, String hash) {
         Log.d(TAG, "insertAppIntoDb " + packageInfo.packageName);
         Uri uri = InstalledAppProvider.getContentUri();
+        context.getContentResolver().insert(uri, getContentValues(context, packageInfo, hashType, hash));
+    }
+
+    private static ContentValues getContentValues(Context context, PackageInfo packageInfo,
+                                                  String hashType, String hash) {
         ContentValues contentValues = new ContentValues();
         contentValues.put(InstalledAppTable.Cols.Package.NAME, packageInfo.packageName);
         contentValues.put(InstalledAppTable.Cols.VERSION_CODE, packageInfo.versionCode);
         contentValues.put(InstalledAppTable.Cols.VERSION_NAME, packageInfo.versionName);
         contentValues.put(InstalledAppTable.Cols.APPLICATION_LABEL,
-                InstalledAppProvider.getApplicationLabel(context, packageInfo.packageName));
+                InstalledAppProvider.getApplicationLabel(context, packageInfo));
         contentValues.put(InstalledAppTable.Cols.SIGNATURE, Utils.getPackageSig(packageInfo));
         contentValues.put(InstalledAppTable.Cols.LAST_UPDATE_TIME, packageInfo.lastUpdateTime);
 
         contentValues.put(InstalledAppTable.Cols.HASH_TYPE, hashType);
         contentValues.put(InstalledAppTable.Cols.HASH, hash);
-
-        context.getContentResolver().insert(uri, contentValues);
+        return contentValues;
     }
 
     static void deleteAppFromDb(Context context, String packageName) {
@@ -3,6 +3,10 @@ package org.fdroid.fdroid.data;
 import android.database.Cursor;
 import android.database.CursorWrapper;
 import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.os.CancellationSignal;
+
+import androidx.annotation.Nullable;
 
 import org.fdroid.fdroid.BuildConfig;
 import org.fdroid.fdroid.Utils;
@@ -43,10 +47,15 @@ final class LoggingQuery {
     private final String query;
     private final String[] queryArgs;
 
-    private LoggingQuery(SQLiteDatabase db, String query, String[] queryArgs) {
+    @Nullable
+    private final CancellationSignal cancellationSignal;
+
+    private LoggingQuery(SQLiteDatabase db, String query, String[] queryArgs,
+                         @Nullable CancellationSignal cancellationSignal) {
         this.db = db;
         this.query = query;
         this.queryArgs = queryArgs;
+        this.cancellationSignal = cancellationSignal;
     }
 
     /**
@@ -56,7 +65,7 @@ final class LoggingQuery {
     private Cursor rawQuery() {
         if (BuildConfig.DEBUG) {
             long startTime = System.currentTimeMillis();
-            Cursor cursor = db.rawQuery(query, queryArgs);
+            Cursor cursor = rawQueryInternal();
             long queryDuration = System.currentTimeMillis() - startTime;
 
             if (queryDuration >= SLOW_QUERY_DURATION) {
@@ -65,6 +74,18 @@ final class LoggingQuery {
 
             return new LogGetCountCursorWrapper(cursor);
         }
+        return rawQueryInternal();
+    }
+
+    /**
+     * The {@link CancellationSignal} is only ever handed to us on Android versions which can
+     * honour it, as that is the only time the framework calls
+     * {@link android.content.ContentProvider#query(android.net.Uri, String[], String, String[], String, CancellationSignal)}.
+     */
+    private Cursor rawQueryInternal() {
+        if (cancellationSignal != null && Build.VERSION.SDK_INT >= 16) {
+            return db.rawQuery(query, queryArgs, cancellationSignal);
+        }
         return db.rawQuery(query, queryArgs);
     }
 
@@ -162,10 +183,20 @@ final class LoggingQuery {
     }
 
     public static Cursor query(SQLiteDatabase db, String query, String[] queryBuilderArgs) {
-        return new LoggingQuery(db, query, queryBuilderArgs).rawQuery();
+        return query(db, query, queryBuilderArgs, null);
+    }
+
+    /**
+     * Same as {@link #query(SQLiteDatabase, String, String[])}, except that the query stops
+     * with an {@link android.os.OperationCanceledException} once {@code cancellationSignal} is
+     * cancelled, e.g. because the user has changed the search query in the meantime.
+     */
+    public static Cursor query(SQLiteDatabase db, String query, String[] queryBuilderArgs,
+                               @Nullable CancellationSignal cancellationSignal) {
+        return new LoggingQuery(db, query, queryBuilderArgs, cancellationSignal).rawQuery();
     }
 
     public static void execSQL(SQLiteDatabase db, String sql, String[] queryArgs) {
-        new LoggingQuery(db, sql, queryArgs).execSQLInternal();
+        new LoggingQuery(db, sql, queryArgs, null).execSQLInternal();
     }
 }
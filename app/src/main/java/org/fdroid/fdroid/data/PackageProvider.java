@@ -17,13 +17,19 @@ public class PackageProvider extends FDroidProvider {
         private Helper() { }
 
         public static long ensureExists(Context context, String packageName) {
-            long id = getPackageId(context, packageName);
+            long id = ImportDictionary.PACKAGES.get(packageName);
+            if (id > 0) {
+                return id;
+            }
+
+            id = getPackageId(context, packageName);
             if (id <= 0) {
                 ContentValues values = new ContentValues(1);
                 values.put(Cols.PACKAGE_NAME, packageName);
                 Uri uri = context.getContentResolver().insert(getContentUri(), values);
                 id = Long.parseLong(uri.getLastPathSegment());
             }
+            ImportDictionary.PACKAGES.put(packageName, id);
             return id;
         }
 
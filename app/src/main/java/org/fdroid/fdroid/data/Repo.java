@@ -28,7 +28,6 @@ import android.database.Cursor;
 import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
-import androidx.annotation.Nullable;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.fdroid.fdroid.FDroidApp;
@@ -39,7 +38,6 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
@@ -376,29 +374,4 @@ public class Repo extends ValueObject{
         }
         return count;
     }
-
-    @Nullable
-    public String getMirror(String lastWorkingMirror) {
-        if (TextUtils.isEmpty(lastWorkingMirror)) {
-            lastWorkingMirror = address;
-        }
-        List<String> shuffledMirrors = getMirrorList();
-        Collections.shuffle(shuffledMirrors);
-        if (shuffledMirrors.size() > 1) {
-            for (String m : shuffledMirrors) {
-                // Return a non default, and not last used mirror
-                if (!m.equals(address) && !m.equals(lastWorkingMirror)) {
-                    if (FDroidApp.isUsingTor()) {
-                        return m;
-                    } else {
-                        // Filter-out onion mirrors for non-tor connections
-                        if (!m.contains(".onion")) {
-                            return m;
-                        }
-                    }
-                }
-            }
-        }
-        return null; // In case we are out of mirrors.
-    }
 }
@@ -0,0 +1,82 @@
+package org.fdroid.fdroid.data;
+
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Finds the repo a URL belongs to by following its path down, one segment at a time, through
+ * a tree built from the addresses of all repos.  This gives the same answer as trying each of
+ * {@link RepoProvider.Helper#getPossibleAddresses(Uri)} in turn, i.e. the repo with the longest
+ * address which the URL is under, without building any strings or {@link Uri}s on the way.
+ * That matters for things like images, where it is done for every icon in a list of apps.
+ * <p>
+ * Empty path segments are ignored, so an address with a trailing slash matches the same URLs
+ * as the one without.
+ */
+final class RepoAddressTrie {
+
+    private static final class Node {
+        final Map<String, Node> children = new HashMap<>();
+        Repo repo;
+    }
+
+    /**
+     * The top of the tree for each server, keyed by {@link #getServerKey(Uri)}.
+     */
+    private final Map<String, Node> servers = new HashMap<>();
+
+    /**
+     * If more than one repo has the same address, the first one added is the one found.
+     */
+    void add(Repo repo) {
+        Uri uri = Uri.parse(repo.address);
+        String key = getServerKey(uri);
+        Node node = servers.get(key);
+        if (node == null) {
+            node = new Node();
+            servers.put(key, node);
+        }
+        for (String segment : uri.getPathSegments()) {
+            Node child = node.children.get(segment);
+            if (child == null) {
+                child = new Node();
+                node.children.put(segment, child);
+            }
+            node = child;
+        }
+        if (node.repo == null) {
+            node.repo = repo;
+        }
+    }
+
+    @Nullable
+    Repo find(Uri uri) {
+        Node node = servers.get(getServerKey(uri));
+        if (node == null) {
+            return null;
+        }
+        Repo found = node.repo;
+        for (String segment : uri.getPathSegments()) {
+            node = node.children.get(segment);
+            if (node == null) {
+                break;
+            }
+            if (node.repo != null) {
+                found = node.repo;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Scheme and host names are not case sensitive, so they are compared in lower case.
+     */
+    private static String getServerKey(Uri uri) {
+        return (uri.getScheme() + "://" + uri.getEncodedAuthority()).toLowerCase(Locale.ENGLISH);
+    }
+}
@@ -0,0 +1,97 @@
+package org.fdroid.fdroid.data;
+
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+
+import org.fdroid.fdroid.Utils;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An in-memory copy of every {@link Repo} in the database, for code which needs to know the
+ * address, version, mirrors or credentials of a repo over and over again, e.g. to build the icon
+ * URL of each row in a list of apps. There are only ever a handful of repos, so the whole table
+ * is read with a single query the first time it is needed.
+ * <p>
+ * {@link RepoProvider} throws the copy away whenever it changes a repo, right before notifying
+ * about the change, so that nothing reads an out of date copy after being notified.
+ * <p>
+ * The same {@link Repo} instances are handed out to every caller, so they must not be modified.
+ * Use {@link RepoProvider.Helper} to get a repo which can be changed.
+ */
+public final class RepoCache {
+
+    private static final String TAG = "RepoCache";
+
+    @Nullable
+    private static Snapshot snapshot;
+
+    /**
+     * Incremented by every {@link #clear()}, so that a copy which was being read from the database
+     * while a repo changed doesn't get kept.
+     */
+    private static int generation;
+
+    private RepoCache() {
+    }
+
+    @Nullable
+    public static Repo get(Context context, long repoId) {
+        return getSnapshot(context).reposById.get(repoId);
+    }
+
+    /**
+     * The in-memory equivalent of {@link RepoProvider.Helper#findByUrl(Context, Uri, String[])}.
+     * This is cheap enough to do for every image that gets downloaded.
+     */
+    @Nullable
+    public static Repo findByUrl(Context context, Uri uri) {
+        return getSnapshot(context).reposByAddress.find(uri);
+    }
+
+    static synchronized void clear() {
+        snapshot = null;
+        generation++;
+    }
+
+    /**
+     * The database is read without holding the lock, because {@link #clear()} can be called
+     * from inside a transaction which would block that read.
+     */
+    private static Snapshot getSnapshot(Context context) {
+        int loadingGeneration;
+        synchronized (RepoCache.class) {
+            if (snapshot != null) {
+                return snapshot;
+            }
+            loadingGeneration = generation;
+        }
+
+        Snapshot loaded = new Snapshot(RepoProvider.Helper.all(context));
+        synchronized (RepoCache.class) {
+            if (generation == loadingGeneration) {
+                snapshot = loaded;
+            }
+        }
+        return loaded;
+    }
+
+    private static final class Snapshot {
+        private final Map<Long, Repo> reposById;
+        private final RepoAddressTrie reposByAddress;
+
+        private Snapshot(List<Repo> repos) {
+            reposById = new HashMap<>(repos.size());
+            reposByAddress = new RepoAddressTrie();
+            for (Repo repo : repos) {
+                reposById.put(repo.getId(), repo);
+                reposByAddress.add(repo);
+            }
+            Utils.debugLog(TAG, "Loaded " + repos.size() + " repos");
+        }
+    }
+}
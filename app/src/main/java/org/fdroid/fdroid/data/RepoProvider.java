@@ -73,24 +73,34 @@ public class RepoProvider extends FDroidProvider {
          */
         @Nullable
         public static Repo findByUrl(Context context, Uri uri, String[] projection) {
+            for (String address : getPossibleAddresses(uri)) {
+                Repo repo = findByAddress(context, address, projection);
+                if (repo != null) {
+                    return repo;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return The addresses of the repos which could serve {@code uri}, from the most
+         * specific one to the least.
+         * @see #findByUrl(Context, Uri, String[])
+         */
+        static List<String> getPossibleAddresses(Uri uri) {
             Uri withoutQuery = uri.buildUpon().query(null).build();
-            Repo repo = findByAddress(context, withoutQuery.toString(), projection);
+            List<String> addresses = new ArrayList<>();
+            addresses.add(withoutQuery.toString());
 
             // Take a copy of this, because the result of getPathSegments() is an AbstractList
             // which doesn't support the remove() operation.
             List<String> pathSegments = new ArrayList<>(withoutQuery.getPathSegments());
-
-            boolean haveTriedWithoutPath = false;
-            while (repo == null && !haveTriedWithoutPath) {
-                if (pathSegments.size() == 0) {
-                    haveTriedWithoutPath = true;
-                } else {
-                    pathSegments.remove(pathSegments.size() - 1);
-                    withoutQuery = withoutQuery.buildUpon().path(TextUtils.join("/", pathSegments)).build();
-                }
-                repo = findByAddress(context, withoutQuery.toString(), projection);
+            while (pathSegments.size() > 0) {
+                pathSegments.remove(pathSegments.size() - 1);
+                withoutQuery = withoutQuery.buildUpon().path(TextUtils.join("/", pathSegments)).build();
+                addresses.add(withoutQuery.toString());
             }
-            return repo;
+            return addresses;
         }
 
         public static Repo findByAddress(Context context, String address) {
@@ -235,6 +245,7 @@ public class RepoProvider extends FDroidProvider {
             ContentResolver resolver = context.getContentResolver();
             Uri uri = RepoProvider.getContentUri(repoId);
             resolver.delete(uri, null, null);
+            ImportDictionary.invalidateAll();
         }
 
         public static void purgeApps(Context context, Repo repo) {
@@ -445,6 +456,7 @@ public class RepoProvider extends FDroidProvider {
 
         long id = db().insertOrThrow(getTableName(), null, values);
         Utils.debugLog(TAG, "Inserted repo. Notifying provider change: '" + uri + "'.");
+        RepoCache.clear();
         getContext().getContentResolver().notifyChange(uri, null);
         return getContentUri(id);
     }
@@ -478,6 +490,7 @@ public class RepoProvider extends FDroidProvider {
 
         int rowsAffected = db().delete(getTableName(), selection.getSelection(), selection.getArgs());
         Utils.debugLog(TAG, "Deleted repo. Notifying provider change: '" + uri + "'.");
+        RepoCache.clear();
         getContext().getContentResolver().notifyChange(uri, null);
         return rowsAffected;
     }
@@ -517,6 +530,7 @@ public class RepoProvider extends FDroidProvider {
         }
 
         Utils.debugLog(TAG, "Updated repo. Notifying provider change: '" + uri + "'.");
+        RepoCache.clear();
         getContext().getContentResolver().notifyChange(uri, null);
         return numRows;
     }
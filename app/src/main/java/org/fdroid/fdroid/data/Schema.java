@@ -42,6 +42,46 @@ public interface Schema {
         }
     }
 
+    /**
+     * Packages whose {@link PackageTable.Cols#PREFERRED_METADATA preferred metadata},
+     * compatibility and suggested version need recalculating, because one of the repos
+     * providing them has changed the metadata or apks. Recalculating only these once all repos
+     * have been updated is much cheaper than going over every package after each repo.
+     */
+    interface StalePackageTable {
+
+        String NAME = "fdroid_stalePackage";
+
+        interface Cols {
+            /**
+             * Foreign key to {@link PackageTable}.
+             */
+            String PACKAGE_ID = "packageId";
+        }
+    }
+
+    /**
+     * Full text index over the searchable text of each row in {@link AppMetadataTable}.
+     * The {@link Cols#DOCID} of each row is the {@link AppMetadataTable.Cols#ROW_ID} it was
+     * built from.
+     */
+    interface AppSearchTable {
+
+        String NAME = "fdroid_appSearch";
+
+        interface Cols {
+            String DOCID = "docid";
+            String PACKAGE_NAME = "packageName";
+            String NAME = "name";
+            String SUMMARY = "summary";
+            String DESCRIPTION = "description";
+
+            String[] ALL = {
+                    PACKAGE_NAME, NAME, SUMMARY, DESCRIPTION,
+            };
+        }
+    }
+
     interface AppPrefsTable {
 
         String NAME = "fdroid_appPrefs";
@@ -160,6 +200,14 @@ public interface Schema {
             String _ID = "rowid as _id";
             String ROW_ID = "rowid";
             String _COUNT = "_count";
+
+            /**
+             * Where a row comes in the list it was read from, to be passed to
+             * {@link AppProvider#getPageUri(android.net.Uri, int, String, long)} along with the
+             * {@link #ROW_ID} of the last row of one page to get the next.  This is null when the
+             * list can not be read a page at a time, in which case it is all there already.
+             */
+            String PAGE_KEY = "pageKey";
             String IS_COMPATIBLE = "compatible";
             String PACKAGE_ID = "packageId";
             String REPO_ID = "repoId";
@@ -401,4 +449,101 @@ public interface Schema {
         }
     }
 
+    /**
+     * The hash of each installed APK file, along with what the file looked like when it was
+     * hashed, so that it only needs hashing again once one of those has changed.  Unlike
+     * {@link InstalledAppTable}, this is keyed by the path to the file.
+     *
+     * @see InstalledApkHasher
+     */
+    interface InstalledApkHashTable {
+
+        String NAME = "fdroid_installedApkHash";
+
+        interface Cols {
+            String PATH = "path";
+            String SIZE = "size";
+            String LAST_MODIFIED = "lastModified";
+            String INODE = "inode";
+            String HASH_TYPE = "hashType";
+            String HASH = "hash";
+
+            String[] ALL = {
+                    PATH, SIZE, LAST_MODIFIED, INODE, HASH_TYPE, HASH,
+            };
+        }
+    }
+
+    /**
+     * What the main app lists show for each app, with the preferred metadata, installed app,
+     * suggested apk and prefs already joined together, so that each list is a scan of one index.
+     * There is one row for each {@link PackageTable.Cols#PREFERRED_METADATA preferred metadata}
+     * row outside of swap repos, keyed by its {@link AppMetadataTable.Cols#ROW_ID}.  Columns are
+     * named the same as {@link AppProvider} names them in its own queries, so the rows can be
+     * read as an {@link App}.
+     *
+     * @see AppListWriter
+     */
+    interface AppListTable {
+
+        String NAME = "fdroid_appList";
+
+        interface Cols {
+            String _ID = AppMetadataTable.Cols._ID;
+            String ROW_ID = AppMetadataTable.Cols.ROW_ID;
+            String _COUNT = AppMetadataTable.Cols._COUNT;
+
+            /**
+             * The {@link AppMetadataTable.Cols#ROW_ID} this row was built from, which is also
+             * the {@link #ROW_ID} of this row.
+             */
+            String APP_ID = "appId";
+            String PACKAGE_ID = AppMetadataTable.Cols.PACKAGE_ID;
+            String REPO_ID = AppMetadataTable.Cols.REPO_ID;
+            String PACKAGE_NAME = AppMetadataTable.Cols.Package.PACKAGE_NAME;
+            String NAME = AppMetadataTable.Cols.NAME;
+            String SUMMARY = AppMetadataTable.Cols.SUMMARY;
+            String LICENSE = AppMetadataTable.Cols.LICENSE;
+            String ICON = AppMetadataTable.Cols.ICON;
+            String ICON_URL = AppMetadataTable.Cols.ICON_URL;
+            String IS_COMPATIBLE = AppMetadataTable.Cols.IS_COMPATIBLE;
+            String REQUIREMENTS = AppMetadataTable.Cols.REQUIREMENTS;
+            String ANTI_FEATURES = AppMetadataTable.Cols.ANTI_FEATURES;
+            String IS_APK = AppMetadataTable.Cols.IS_APK;
+            String ADDED = AppMetadataTable.Cols.ADDED;
+            String LAST_UPDATED = AppMetadataTable.Cols.LAST_UPDATED;
+            String SUGGESTED_VERSION_CODE = AppMetadataTable.Cols.SUGGESTED_VERSION_CODE;
+            String SUGGESTED_VERSION_NAME = AppMetadataTable.Cols.SuggestedApk.VERSION_NAME;
+            String INSTALLED_VERSION_CODE = AppMetadataTable.Cols.InstalledApp.VERSION_CODE;
+            String INSTALLED_VERSION_NAME = AppMetadataTable.Cols.InstalledApp.VERSION_NAME;
+
+            /**
+             * 1 if the installed version is older than the suggested one and the user has not
+             * chosen to ignore that update, otherwise 0.
+             */
+            String CAN_UPDATE = "canUpdate";
+
+            String IS_INSTALLED = "isInstalled";
+
+            /**
+             * The {@link java.text.CollationKey} of {@link #NAME} for the locale the table was
+             * built in, in hex, so sorting by it is the same as sorting by {@code COLLATE LOCALIZED}.
+             */
+            String SORT_KEY = "sortKey";
+
+            String PAGE_KEY = AppMetadataTable.Cols.PAGE_KEY;
+
+            /**
+             * The columns copied from {@link AppProvider}'s own query, in the order they are
+             * inserted in.
+             */
+            String[] ALL = {
+                    APP_ID, PACKAGE_ID, REPO_ID, PACKAGE_NAME, NAME, SUMMARY, LICENSE, ICON,
+                    ICON_URL, IS_COMPATIBLE, REQUIREMENTS, ANTI_FEATURES, IS_APK, ADDED,
+                    LAST_UPDATED, SUGGESTED_VERSION_CODE, SUGGESTED_VERSION_NAME,
+                    INSTALLED_VERSION_CODE, INSTALLED_VERSION_NAME, CAN_UPDATE,
+            };
+        }
+    }
+
 }
@@ -0,0 +1,168 @@
+package org.fdroid.fdroid.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import androidx.annotation.Nullable;
+
+import org.fdroid.fdroid.Utils;
+import org.fdroid.fdroid.data.Schema.ApkTable;
+import org.fdroid.fdroid.data.Schema.AppMetadataTable.Cols;
+import org.fdroid.fdroid.data.Schema.InstalledAppTable;
+
+import java.util.Arrays;
+
+/**
+ * Works out the {@link Cols#SUGGESTED_VERSION_CODE suggested version} of each app in one pass
+ * over its apks, instead of with a correlated subquery per app row in SQL.
+ * <p>
+ * The apks are read once, ordered by package and then newest first, alongside the apps ordered
+ * by package.  For each app, the suggested version is then the first apk of its package which:
+ * <ul>
+ * <li>is signed by the same key as the installed app, if there is one</li>
+ * <li>is compatible, unless none of the app's apks are</li>
+ * <li>is no newer than the app's upstream version code, unless unstable updates are allowed</li>
+ * </ul>
+ * If there is no such apk within the upstream version code, the newest apk meeting the other two
+ * rules is suggested, the same as for an app without an upstream version code.  An app with a
+ * negative upstream version code keeps whatever suggested version it already has.  Only the apps
+ * whose suggested version actually changes are written back, through one prepared statement.
+ */
+class SuggestedVersionCalculator {
+
+    private static final String TAG = "SuggestedVersionCalc";
+
+    private final SQLiteDatabase db;
+    private final String appTable;
+    private final String apkTable;
+
+    private long[] versionCodes = new long[16];
+    private boolean[] signedByInstalled = new boolean[16];
+    private boolean[] compatible = new boolean[16];
+    private int apkCount;
+
+    SuggestedVersionCalculator(SQLiteDatabase db, String appTable, String apkTable) {
+        this.db = db;
+        this.appTable = appTable;
+        this.apkTable = apkTable;
+    }
+
+    /**
+     * @param packageIds A subquery selecting the packages to update, or null to update all of them.
+     * @param args       The arguments to {@code packageIds}, if it has any.
+     * @return The number of apps whose suggested version changed.
+     */
+    int calculate(@Nullable String packageIds, @Nullable String[] args, boolean unstableUpdates) {
+        String installed = InstalledAppTable.NAME;
+        String apksSql = "SELECT app." + Cols.PACKAGE_ID + ", apk." + ApkTable.Cols.VERSION_CODE + ", "
+                + "apk." + ApkTable.Cols.SIGNATURE + ", apk." + ApkTable.Cols.IS_COMPATIBLE + ", "
+                + installed + "." + InstalledAppTable.Cols.SIGNATURE
+                + " FROM " + apkTable + " AS apk"
+                + " JOIN " + appTable + " AS app ON (app." + Cols.ROW_ID + " = apk." + ApkTable.Cols.APP_ID + ")"
+                + " LEFT JOIN " + installed + " ON (" + installed + "." + InstalledAppTable.Cols.PACKAGE_ID
+                + " = app." + Cols.PACKAGE_ID + ")"
+                + (packageIds == null ? "" : " WHERE app." + Cols.PACKAGE_ID + " IN (" + packageIds + ")")
+                + " ORDER BY app." + Cols.PACKAGE_ID + ", apk." + ApkTable.Cols.VERSION_CODE + " DESC";
+        String appsSql = "SELECT " + Cols.ROW_ID + ", " + Cols.PACKAGE_ID + ", " + Cols.UPSTREAM_VERSION_CODE + ", "
+                + Cols.IS_COMPATIBLE + ", " + Cols.SUGGESTED_VERSION_CODE
+                + " FROM " + appTable
+                + (packageIds == null ? "" : " WHERE " + Cols.PACKAGE_ID + " IN (" + packageIds + ")")
+                + " ORDER BY " + Cols.PACKAGE_ID + ", " + Cols.ROW_ID;
+
+        int changed = 0;
+        SQLiteStatement update = db.compileStatement("UPDATE " + appTable + " SET "
+                + Cols.SUGGESTED_VERSION_CODE + " = ? WHERE " + Cols.ROW_ID + " = ?");
+        Cursor apks = null;
+        Cursor apps = null;
+        db.beginTransaction();
+        try {
+            apks = db.rawQuery(apksSql, args);
+            apps = db.rawQuery(appsSql, args);
+            boolean hasApk = apks.moveToFirst();
+            long currentPackageId = -1;
+            while (apps.moveToNext()) {
+                long packageId = apps.getLong(1);
+                if (packageId != currentPackageId) {
+                    currentPackageId = packageId;
+                    while (hasApk && apks.getLong(0) < packageId) {
+                        hasApk = apks.moveToNext();
+                    }
+                    apkCount = 0;
+                    while (hasApk && apks.getLong(0) == packageId) {
+                        addApk(apks);
+                        hasApk = apks.moveToNext();
+                    }
+                }
+
+                String current = apps.getString(4);
+                long upstreamVersionCode = apps.isNull(2) ? 0 : apps.getLong(2);
+                boolean appIsCompatible = apps.getInt(3) != 0;
+                long suggested;
+                if (upstreamVersionCode > 0) {
+                    suggested = findSuggested(appIsCompatible, unstableUpdates ? Long.MAX_VALUE : upstreamVersionCode);
+                    if (suggested == -1) {
+                        suggested = findSuggested(appIsCompatible, Long.MAX_VALUE);
+                    }
+                } else if (upstreamVersionCode == 0 || current == null) {
+                    suggested = findSuggested(appIsCompatible, Long.MAX_VALUE);
+                } else {
+                    // an app with a negative upstream version code keeps the version it was given
+                    continue;
+                }
+
+                String value = suggested == -1 ? null : Long.toString(suggested);
+                if (value == null ? current == null : value.equals(current)) {
+                    continue;
+                }
+                if (value == null) {
+                    update.bindNull(1);
+                } else {
+                    update.bindString(1, value);
+                }
+                update.bindLong(2, apps.getLong(0));
+                update.executeUpdateDelete();
+                changed++;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            if (apks != null) {
+                apks.close();
+            }
+            if (apps != null) {
+                apps.close();
+            }
+            update.close();
+        }
+        Utils.debugLog(TAG, "Changed the suggested version of " + changed + " apps.");
+        return changed;
+    }
+
+    private void addApk(Cursor cursor) {
+        if (apkCount == versionCodes.length) {
+            int length = apkCount * 2;
+            versionCodes = Arrays.copyOf(versionCodes, length);
+            signedByInstalled = Arrays.copyOf(signedByInstalled, length);
+            compatible = Arrays.copyOf(compatible, length);
+        }
+        String installedSig = cursor.getString(4);
+        versionCodes[apkCount] = cursor.getLong(1);
+        signedByInstalled[apkCount] = installedSig == null || installedSig.equals(cursor.getString(2));
+        compatible[apkCount] = cursor.getInt(3) != 0;
+        apkCount++;
+    }
+
+    /**
+     * @return The newest version code of the current package's apks which meets the rules,
+     * or -1 if there is none
+     */
+    private long findSuggested(boolean appIsCompatible, long maxVersionCode) {
+        for (int i = 0; i < apkCount; i++) {
+            if (versionCodes[i] <= maxVersionCode && signedByInstalled[i] && (!appIsCompatible || compatible[i])) {
+                return versionCodes[i];
+            }
+        }
+        return -1;
+    }
+}
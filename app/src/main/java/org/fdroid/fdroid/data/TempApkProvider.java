@@ -7,6 +7,8 @@ import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import androidx.annotation.NonNull;
 
+import com.google.common.collect.ObjectArrays;
+
 import org.fdroid.fdroid.data.Schema.ApkTable;
 import org.fdroid.fdroid.data.Schema.ApkTable.Cols;
 
@@ -20,6 +22,12 @@ public class TempApkProvider extends ApkProvider {
 
     static final String TABLE_TEMP_APK = "temp_" + ApkTable.NAME;
 
+    /**
+     * Unlike apps, apks are not usually copied along with their rowid. It has to be kept when
+     * updating though, because the anti feature join table refers to apks by rowid.
+     */
+    static final String[] COLS_TO_COPY = ObjectArrays.concat(Cols.ROW_ID, Cols.ALL_COLS);
+
     private static final String PATH_INIT = "init";
 
     private static final int CODE_INIT = 10000;
@@ -103,7 +111,7 @@ public class TempApkProvider extends ApkProvider {
 
         String where = ApkTable.NAME + "." + Cols.REPO_ID + " != ?";
         String[] whereArgs = new String[]{Long.toString(repoIdBeingUpdated)};
-        db.execSQL(TempAppProvider.copyData(Cols.ALL_COLS, ApkTable.NAME, memoryDbName + "." + getTableName(), where), whereArgs);
+        db.execSQL(TempAppProvider.copyData(COLS_TO_COPY, ApkTable.NAME, memoryDbName + "." + getTableName(), where), whereArgs);
 
         String antiFeaturesWhere =
                 Schema.ApkAntiFeatureJoinTable.NAME + "." + Schema.ApkAntiFeatureJoinTable.Cols.APK_ID + " IN " +
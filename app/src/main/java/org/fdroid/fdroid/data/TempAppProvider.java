@@ -4,19 +4,27 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.CancellationSignal;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import android.text.TextUtils;
 import android.util.Log;
 
+import org.fdroid.fdroid.Utils;
 import org.fdroid.fdroid.data.Schema.ApkTable;
 import org.fdroid.fdroid.data.Schema.AppMetadataTable;
 import org.fdroid.fdroid.data.Schema.AppMetadataTable.Cols;
+import org.fdroid.fdroid.data.Schema.AppSearchTable;
 import org.fdroid.fdroid.data.Schema.CatJoinTable;
 import org.fdroid.fdroid.data.Schema.PackageTable;
+import org.fdroid.fdroid.data.Schema.StalePackageTable;
 
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -37,6 +45,17 @@ public class TempAppProvider extends AppProvider {
     static final String TABLE_TEMP_APP = "temp_" + AppMetadataTable.NAME;
     static final String TABLE_TEMP_APK_ANTI_FEATURE_JOIN = "temp_" + Schema.ApkAntiFeatureJoinTable.NAME;
     static final String TABLE_TEMP_CAT_JOIN = "temp_" + CatJoinTable.NAME;
+    private static final String TABLE_TEMP_ROW_ID_MAP = "temp_rowIdMap";
+
+    private static final String[] NO_COLS = {};
+    private static final String[] APP_KEY_COLS = {Cols.ROW_ID};
+    private static final String[] APK_KEY_COLS = {ApkTable.Cols.APP_ID, ApkTable.Cols.VERSION_CODE};
+
+    /**
+     * Not known until {@link AppProvider.Helper#calcStalePackages(Context)} runs at the end of the
+     * update, so these are left out when checking whether an app has changed.
+     */
+    private static final String[] APP_DERIVED_COLS = {Cols.IS_COMPATIBLE, Cols.SUGGESTED_VERSION_CODE};
 
     private static final String PATH_INIT = "init";
     private static final String PATH_COMMIT = "commit";
@@ -114,8 +133,9 @@ public class TempAppProvider extends AppProvider {
         }
 
         /**
-         * Saves data from the temp table to the apk table, by removing _EVERYTHING_ from the real
-         * apk table and inserting all of the records from here. The temporary table is then removed.
+         * Saves data from the temp table to the real tables. The first time a repo is committed,
+         * everything is simply copied across. After that, only the apps, apks and joins which
+         * differ from what is already stored get written. The temporary table is then removed.
          */
         public static void commitAppsAndApks(Context context, long repoIdToCommit) {
             Uri uri = getContentUri().buildUpon()
@@ -142,8 +162,14 @@ public class TempAppProvider extends AppProvider {
                 initTable(Long.parseLong(uri.getLastPathSegment()));
                 return null;
             case CODE_COMMIT:
-                updateAllAppDetails();
-                commitTable(Long.parseLong(uri.getLastPathSegment()));
+                long repoIdToCommit = Long.parseLong(uri.getLastPathSegment());
+                boolean incremental = hasAppsInMainTable(repoIdToCommit);
+                if (incremental) {
+                    alignRowIdsWithMainTable(repoIdToCommit);
+                    commitTableIncrementally(repoIdToCommit);
+                } else {
+                    commitTable(repoIdToCommit);
+                }
                 return null;
             default:
                 return super.insert(uri, values);
@@ -156,8 +182,8 @@ public class TempAppProvider extends AppProvider {
     }
 
     @Override
-    public Cursor query(@NonNull Uri uri, String[] projection,
-                        String customSelection, String[] selectionArgs, String sortOrder) {
+    public Cursor query(@NonNull Uri uri, String[] projection, String customSelection, String[] selectionArgs,
+                        String sortOrder, @Nullable CancellationSignal cancellationSignal) {
         AppQuerySelection selection = new AppQuerySelection(customSelection, selectionArgs);
         switch (MATCHER.match(uri)) {
             case APPS:
@@ -166,7 +192,7 @@ public class TempAppProvider extends AppProvider {
                 break;
         }
 
-        return super.runQuery(uri, selection, projection, sortOrder, 0);
+        return super.runQuery(uri, selection, projection, sortOrder, 0, cancellationSignal);
     }
 
     private void ensureTempTableDetached(SQLiteDatabase db) {
@@ -199,12 +225,17 @@ public class TempAppProvider extends AppProvider {
         String[] repoArgs = new String[]{Long.toString(repoIdBeingUpdated)};
         db.execSQL(copyData(Cols.ALL_COLS, mainApp, tempApp, appWhere), repoArgs);
 
-        // TODO: String catWhere = mainCat + "." + CatJoinTable.Cols..Cols.REPO_ID + " != ?";
-        db.execSQL(copyData(CatJoinTable.Cols.ALL_COLS, mainCat, tempCat, null));
+        // The categories of apps in this repo get added again as the new apps are inserted.
+        String catWhere = mainCat + "." + CatJoinTable.Cols.APP_METADATA_ID + " IN " +
+                "(SELECT innerApp." + Cols.ROW_ID + " FROM " + mainApp + " AS innerApp " +
+                "WHERE innerApp." + Cols.REPO_ID + " != ?)";
+        db.execSQL(copyData(CatJoinTable.Cols.ALL_COLS, mainCat, tempCat, catWhere), repoArgs);
 
         db.execSQL("CREATE INDEX IF NOT EXISTS " + DB + ".app_id ON " + getTableName() + " (" + Cols.PACKAGE_ID + ");");
         db.execSQL("CREATE INDEX IF NOT EXISTS " + DB + ".app_upstreamVercode ON " + getTableName() + " (" + Cols.UPSTREAM_VERSION_CODE + ");");
         db.execSQL("CREATE INDEX IF NOT EXISTS " + DB + ".app_compatible ON " + getTableName() + " (" + Cols.IS_COMPATIBLE + ");");
+
+        ImportDictionary.warmAll(db);
     }
 
     /**
@@ -232,11 +263,17 @@ public class TempAppProvider extends AppProvider {
 
             final String[] repoArgs = new String[]{Long.toString(repoIdToCommit)};
 
+            db.execSQL("INSERT OR IGNORE INTO " + StalePackageTable.NAME + " (" + StalePackageTable.Cols.PACKAGE_ID + ") " +
+                    "SELECT " + Cols.PACKAGE_ID + " FROM " + tempApp + " WHERE " + Cols.REPO_ID + " = ?", repoArgs);
+
+            db.execSQL("DELETE FROM " + AppSearchTable.NAME + " WHERE " + AppSearchTable.Cols.DOCID + " IN " +
+                    "(SELECT " + Cols.ROW_ID + " FROM " + AppMetadataTable.NAME + " WHERE " + Cols.REPO_ID + " = ?)", repoArgs);
             db.execSQL("DELETE FROM " + AppMetadataTable.NAME + " WHERE " + Cols.REPO_ID + " = ?", repoArgs);
             db.execSQL(copyData(Cols.ALL_COLS, tempApp, AppMetadataTable.NAME, Cols.REPO_ID + " = ?"), repoArgs);
+            db.execSQL(DBHelper.INSERT_APP_SEARCH + "WHERE app." + Cols.REPO_ID + " = ?", repoArgs);
 
             db.execSQL("DELETE FROM " + ApkTable.NAME + " WHERE " + ApkTable.Cols.REPO_ID + " = ?", repoArgs);
-            db.execSQL(copyData(ApkTable.Cols.ALL_COLS, tempApk, ApkTable.NAME, ApkTable.Cols.REPO_ID + " = ?"), repoArgs);
+            db.execSQL(copyData(TempApkProvider.COLS_TO_COPY, tempApk, ApkTable.NAME, ApkTable.Cols.REPO_ID + " = ?"), repoArgs);
 
             db.execSQL("DELETE FROM " + CatJoinTable.NAME + " WHERE " + getCatRepoWhere(CatJoinTable.NAME), repoArgs);
             db.execSQL(copyData(CatJoinTable.Cols.ALL_COLS, tempCatJoin, CatJoinTable.NAME, getCatRepoWhere(tempCatJoin)), repoArgs);
@@ -262,6 +299,257 @@ public class TempAppProvider extends AppProvider {
         }
     }
 
+    private boolean hasAppsInMainTable(long repoId) {
+        return DatabaseUtils.queryNumEntries(db(), AppMetadataTable.NAME,
+                Cols.REPO_ID + " = ?", new String[]{Long.toString(repoId)}) > 0;
+    }
+
+    /**
+     * Apps get a new rowid when they are inserted into the temp table. Before committing, give
+     * each app which is already in the real table its old rowid back (and point its apks and
+     * categories at it), so that unchanged rows can be compared directly and left alone.
+     * Apps which are new to this repo get numbered from after the largest rowid in the real table.
+     *
+     * Rows are moved via negative rowids so that no two rows ever share a rowid along the way.
+     */
+    private void alignRowIdsWithMainTable(long repoId) {
+        final SQLiteDatabase db = db();
+
+        final String tempApp = DB + "." + TABLE_TEMP_APP;
+        final String tempApk = DB + "." + TempApkProvider.TABLE_TEMP_APK;
+        final String tempCatJoin = DB + "." + TABLE_TEMP_CAT_JOIN;
+        final String rowIdMap = DB + "." + TABLE_TEMP_ROW_ID_MAP;
+
+        final String[] repoArgs = new String[]{Long.toString(repoId)};
+
+        long maxMainRowId = DatabaseUtils.longForQuery(db,
+                "SELECT IFNULL(MAX(" + Cols.ROW_ID + "), 0) FROM " + AppMetadataTable.NAME, null);
+        long minTempRowId = DatabaseUtils.longForQuery(db,
+                "SELECT IFNULL(MIN(" + Cols.ROW_ID + "), 0) FROM " + tempApp + " WHERE " + Cols.REPO_ID + " = ?",
+                repoArgs);
+        long newRowIdOffset = maxMainRowId - minTempRowId + 1;
+
+        db.execSQL("DROP TABLE IF EXISTS " + rowIdMap);
+        db.execSQL("CREATE TABLE " + rowIdMap + " (oldId INTEGER PRIMARY KEY, newId INTEGER NOT NULL)");
+        db.execSQL("INSERT INTO " + rowIdMap + " (oldId, newId) " +
+                "SELECT newApp." + Cols.ROW_ID + ", IFNULL(oldApp." + Cols.ROW_ID + ", newApp." + Cols.ROW_ID + " + " + newRowIdOffset + ") " +
+                "FROM " + tempApp + " AS newApp " +
+                "LEFT JOIN " + AppMetadataTable.NAME + " AS oldApp ON (" +
+                "  oldApp." + Cols.PACKAGE_ID + " = newApp." + Cols.PACKAGE_ID + " AND " +
+                "  oldApp." + Cols.REPO_ID + " = newApp." + Cols.REPO_ID + ") " +
+                "WHERE newApp." + Cols.REPO_ID + " = ?", repoArgs);
+
+        String newIdOfApp = "(SELECT newId FROM " + rowIdMap + " WHERE oldId = -" + TABLE_TEMP_APP + "." + Cols.ROW_ID + ")";
+        db.execSQL("UPDATE " + tempApp + " SET " + Cols.ROW_ID + " = -" + Cols.ROW_ID + " WHERE " + Cols.REPO_ID + " = ?", repoArgs);
+        db.execSQL("UPDATE " + tempApp + " SET " + Cols.ROW_ID + " = " + newIdOfApp + " WHERE " + Cols.ROW_ID + " < 0");
+
+        String newIdOfApk = "(SELECT newId FROM " + rowIdMap + " WHERE oldId = " + TempApkProvider.TABLE_TEMP_APK + "." + ApkTable.Cols.APP_ID + ")";
+        db.execSQL("UPDATE " + tempApk + " SET " + ApkTable.Cols.APP_ID + " = " + newIdOfApk + " " +
+                "WHERE " + ApkTable.Cols.REPO_ID + " = ?", repoArgs);
+
+        String appMetadataId = CatJoinTable.Cols.APP_METADATA_ID;
+        String newIdOfCat = "(SELECT newId FROM " + rowIdMap + " WHERE oldId = " + TABLE_TEMP_CAT_JOIN + "." + appMetadataId + ")";
+        db.execSQL("UPDATE " + tempCatJoin + " SET " + appMetadataId + " = -" + newIdOfCat + " " +
+                "WHERE " + appMetadataId + " IN (SELECT oldId FROM " + rowIdMap + ")");
+        db.execSQL("UPDATE " + tempCatJoin + " SET " + appMetadataId + " = -" + appMetadataId + " WHERE " + appMetadataId + " < 0");
+
+        db.execSQL("DROP TABLE " + rowIdMap);
+    }
+
+    /**
+     * The counterpart to {@link #commitTable(long)} for repos which already have apps in the real
+     * tables. Instead of deleting and re-inserting everything belonging to the repo, each row is
+     * compared against its counterpart in the temp tables, and only those which have been removed,
+     * added or changed are written. Requires {@link #alignRowIdsWithMainTable(long)} to have run.
+     */
+    private void commitTableIncrementally(long repoIdToCommit) {
+        final SQLiteDatabase db = db();
+        try {
+            db.beginTransaction();
+
+            final String mainApp = AppMetadataTable.NAME;
+            final String mainApk = ApkTable.NAME;
+            final String mainCatJoin = CatJoinTable.NAME;
+            final String mainAntiFeatureJoin = Schema.ApkAntiFeatureJoinTable.NAME;
+            final String tempApp = DB + "." + TABLE_TEMP_APP;
+            final String tempApk = DB + "." + TempApkProvider.TABLE_TEMP_APK;
+            final String tempCatJoin = DB + "." + TABLE_TEMP_CAT_JOIN;
+            final String tempAntiFeatureJoin = DB + "." + TABLE_TEMP_APK_ANTI_FEATURE_JOIN;
+
+            final String repoId = Long.toString(repoIdToCommit);
+
+            final String appMetadataId = CatJoinTable.Cols.APP_METADATA_ID;
+            final String categoryId = CatJoinTable.Cols.CATEGORY_ID;
+            final String apkId = Schema.ApkAntiFeatureJoinTable.Cols.APK_ID;
+            final String antiFeatureId = Schema.ApkAntiFeatureJoinTable.Cols.ANTI_FEATURE_ID;
+
+            final String appsInRepo = "SELECT " + Cols.ROW_ID + " FROM %s WHERE " + Cols.REPO_ID + " = ?";
+            final String apksInRepo = "SELECT " + ApkTable.Cols.ROW_ID + " FROM " + mainApk + " WHERE " + ApkTable.Cols.REPO_ID + " = ?";
+            final String appMatches = rowsMatch(APP_KEY_COLS, Cols.ALL_COLS, APP_DERIVED_COLS, mainApp, "newApp");
+            final String apkMatches = rowsMatch(APK_KEY_COLS, ApkTable.Cols.ALL_COLS, NO_COLS, "newApk", mainApk);
+            final String unchangedApk = "SELECT 1 FROM " + tempApk + " AS newApk WHERE " + apkMatches;
+
+            // Every apk in this repo which survives the steps below has an identical row in the
+            // temp table, which is how its anti features get found again.
+            final String newAntiFeatures = "FROM " + mainApk + " " +
+                    "JOIN " + tempApk + " AS newApk ON (" + apkMatches + ") " +
+                    "JOIN " + tempAntiFeatureJoin + " AS newJoin ON (newJoin." + apkId + " = newApk." + ApkTable.Cols.ROW_ID + ")";
+
+            // Anything about to change makes the details calculated across all repos stale.
+            final String markStale = "INSERT OR IGNORE INTO " + StalePackageTable.NAME + " (" + StalePackageTable.Cols.PACKAGE_ID + ") ";
+            int stale = 0;
+
+            stale += execute(db,
+                    markStale + "SELECT " + Cols.PACKAGE_ID + " FROM " + tempApp + " AS newApp " +
+                            "WHERE newApp." + Cols.REPO_ID + " = ? " +
+                            "AND NOT EXISTS (SELECT 1 FROM " + mainApp + " WHERE " + appMatches + ")",
+                    repoId);
+
+            stale += execute(db,
+                    markStale + "SELECT " + Cols.PACKAGE_ID + " FROM " + mainApp + " " +
+                            "WHERE " + Cols.REPO_ID + " = ? " +
+                            "AND " + Cols.ROW_ID + " NOT IN (" + String.format(appsInRepo, tempApp) + ")",
+                    repoId, repoId);
+
+            stale += execute(db,
+                    markStale + "SELECT app." + Cols.PACKAGE_ID + " FROM " + mainApk + " " +
+                            "JOIN " + mainApp + " AS app ON (app." + Cols.ROW_ID + " = " + mainApk + "." + ApkTable.Cols.APP_ID + ") " +
+                            "WHERE " + mainApk + "." + ApkTable.Cols.REPO_ID + " = ? " +
+                            "AND NOT EXISTS (" + unchangedApk + ")",
+                    repoId);
+
+            stale += execute(db,
+                    markStale + "SELECT app." + Cols.PACKAGE_ID + " FROM " + tempApk + " AS newApk " +
+                            "JOIN " + tempApp + " AS app ON (app." + Cols.ROW_ID + " = newApk." + ApkTable.Cols.APP_ID + ") " +
+                            "WHERE newApk." + ApkTable.Cols.REPO_ID + " = ? " +
+                            "AND NOT EXISTS (SELECT 1 FROM " + mainApk + " " +
+                            "  WHERE " + rowsMatch(APK_KEY_COLS, ApkTable.Cols.ALL_COLS, NO_COLS, mainApk, "newApk") + ")",
+                    repoId);
+
+            int changes = 0;
+
+            changes += execute(db,
+                    "DELETE FROM " + mainCatJoin + " " +
+                            "WHERE " + appMetadataId + " IN (" + String.format(appsInRepo, mainApp) + ") " +
+                            "AND NOT EXISTS (SELECT 1 FROM " + tempCatJoin + " AS newCat " +
+                            "  WHERE newCat." + appMetadataId + " = " + mainCatJoin + "." + appMetadataId + " " +
+                            "  AND newCat." + categoryId + " = " + mainCatJoin + "." + categoryId + ")",
+                    repoId);
+
+            // Removed and changed apps drop out of the search index here, and changed and new
+            // apps are indexed again once they have been written.
+            db.execSQL("DELETE FROM " + AppSearchTable.NAME + " WHERE " + AppSearchTable.Cols.DOCID + " IN " +
+                    "(SELECT " + Cols.ROW_ID + " FROM " + mainApp + " WHERE " + Cols.REPO_ID + " = ? " +
+                    "  AND NOT EXISTS (SELECT 1 FROM " + tempApp + " AS newApp WHERE " + appMatches + "))",
+                    new String[]{repoId});
+
+            changes += execute(db,
+                    "DELETE FROM " + mainApp + " " +
+                            "WHERE " + Cols.REPO_ID + " = ? " +
+                            "AND " + Cols.ROW_ID + " NOT IN (" + String.format(appsInRepo, tempApp) + ")",
+                    repoId, repoId);
+
+            // REPLACE keeps the rowid of changed apps, so their apks and categories stay attached.
+            String appCols = TextUtils.join(", ", Cols.ALL_COLS);
+            changes += execute(db,
+                    "INSERT OR REPLACE INTO " + mainApp + " (" + appCols + ") " +
+                            "SELECT " + appCols + " FROM " + tempApp + " AS newApp " +
+                            "WHERE newApp." + Cols.REPO_ID + " = ? " +
+                            "AND NOT EXISTS (SELECT 1 FROM " + mainApp + " " +
+                            "  WHERE " + appMatches + ")",
+                    repoId);
+
+            db.execSQL(DBHelper.INSERT_APP_SEARCH + "WHERE app." + Cols.REPO_ID + " = ? " +
+                    "AND NOT EXISTS (SELECT 1 FROM " + AppSearchTable.NAME + " " +
+                    "  WHERE " + AppSearchTable.Cols.DOCID + " = app." + Cols.ROW_ID + ")",
+                    new String[]{repoId});
+
+            changes += execute(db,
+                    "INSERT OR IGNORE INTO " + mainCatJoin + " (" + appMetadataId + ", " + categoryId + ") " +
+                            "SELECT " + appMetadataId + ", " + categoryId + " FROM " + tempCatJoin + " " +
+                            "WHERE " + appMetadataId + " IN (" + String.format(appsInRepo, tempApp) + ")",
+                    repoId);
+
+            changes += execute(db,
+                    "DELETE FROM " + mainAntiFeatureJoin + " " +
+                            "WHERE " + apkId + " IN (" + apksInRepo + " AND NOT EXISTS (" + unchangedApk + "))",
+                    repoId);
+
+            changes += execute(db,
+                    "DELETE FROM " + mainApk + " " +
+                            "WHERE " + ApkTable.Cols.REPO_ID + " = ? " +
+                            "AND NOT EXISTS (" + unchangedApk + ")",
+                    repoId);
+
+            String apkCols = TextUtils.join(", ", ApkTable.Cols.ALL_COLS);
+            changes += execute(db,
+                    "INSERT INTO " + mainApk + " (" + apkCols + ") " +
+                            "SELECT " + apkCols + " FROM " + tempApk + " AS newApk " +
+                            "WHERE newApk." + ApkTable.Cols.REPO_ID + " = ? " +
+                            "AND NOT EXISTS (SELECT 1 FROM " + mainApk + " " +
+                            "  WHERE " + rowsMatch(APK_KEY_COLS, ApkTable.Cols.ALL_COLS, NO_COLS, mainApk, "newApk") + ")",
+                    repoId);
+
+            changes += execute(db,
+                    "DELETE FROM " + mainAntiFeatureJoin + " " +
+                            "WHERE " + apkId + " IN (" + apksInRepo + ") " +
+                            "AND " + antiFeatureId + " NOT IN (SELECT newJoin." + antiFeatureId + " " + newAntiFeatures + " " +
+                            "  WHERE " + mainApk + "." + ApkTable.Cols.ROW_ID + " = " + mainAntiFeatureJoin + "." + apkId + ")",
+                    repoId);
+
+            changes += execute(db,
+                    "INSERT OR IGNORE INTO " + mainAntiFeatureJoin + " (" + apkId + ", " + antiFeatureId + ") " +
+                            "SELECT " + mainApk + "." + ApkTable.Cols.ROW_ID + ", newJoin." + antiFeatureId + " " + newAntiFeatures + " " +
+                            "WHERE " + mainApk + "." + ApkTable.Cols.REPO_ID + " = ?",
+                    repoId);
+
+            db.setTransactionSuccessful();
+            Utils.debugLog(TAG, "Committed " + changes + " changed rows for repo " + repoIdToCommit
+                    + ", " + stale + " packages need recalculating");
+
+            getContext().getContentResolver().notifyChange(AppProvider.getContentUri(), null);
+            getContext().getContentResolver().notifyChange(ApkProvider.getContentUri(), null);
+            getContext().getContentResolver().notifyChange(CategoryProvider.getContentUri(), null);
+        } finally {
+            db.endTransaction();
+            db.execSQL("DETACH DATABASE " + DB); // Can't be done in a transaction.
+        }
+    }
+
+    /**
+     * Builds a condition which is true when two rows hold identical values in every column apart
+     * from {@code ignoredCols}. The {@code keyCols} are compared with {@code =} so that sqlite can
+     * use an index to find the candidate row, the rest with {@code IS} so that two {@code null}
+     * values count as a match.
+     */
+    private static String rowsMatch(String[] keyCols, String[] cols, String[] ignoredCols, String table, String otherTable) {
+        List<String> keys = Arrays.asList(keyCols);
+        List<String> ignored = Arrays.asList(ignoredCols);
+        StringBuilder sb = new StringBuilder();
+        for (String col : keyCols) {
+            sb.append(table).append('.').append(col).append(" = ").append(otherTable).append('.').append(col).append(" AND ");
+        }
+        for (String col : cols) {
+            if (!keys.contains(col) && !ignored.contains(col)) {
+                sb.append(table).append('.').append(col).append(" IS ").append(otherTable).append('.').append(col).append(" AND ");
+            }
+        }
+        return sb.substring(0, sb.length() - " AND ".length());
+    }
+
+    /**
+     * @return The number of rows which were inserted, updated or deleted.
+     */
+    private static int execute(SQLiteDatabase db, String sql, String... args) {
+        SQLiteStatement statement = db.compileStatement(sql);
+        try {
+            statement.bindAllArgsAsStrings(args);
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
     private String getCatRepoWhere(String categoryTable) {
         String catRepoSubquery =
                 "SELECT DISTINCT innerCatJoin." + CatJoinTable.Cols.ROW_ID + " " +
@@ -0,0 +1,248 @@
+package org.fdroid.fdroid.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+
+import org.fdroid.fdroid.Utils;
+import org.fdroid.fdroid.data.Schema.AntiFeatureTable;
+import org.fdroid.fdroid.data.Schema.ApkAntiFeatureJoinTable;
+import org.fdroid.fdroid.data.Schema.ApkTable;
+import org.fdroid.fdroid.data.Schema.AppMetadataTable;
+import org.fdroid.fdroid.data.Schema.CatJoinTable;
+import org.fdroid.fdroid.data.Schema.PackageTable;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes apps and apks from an index straight into the tables set up by
+ * {@link TempAppProvider.Helper#init(Context, long)}.
+ * <p>
+ * This does the same job as inserting them one at a time through {@link TempAppProvider} and
+ * {@link TempApkProvider}, but with statements which are compiled once and then bound for each
+ * row. The rowid of each new app comes straight back from the insert, so the apks can be joined
+ * to it without querying the apps again afterwards. Package, category and anti feature IDs come
+ * from {@link ImportDictionary} where possible.
+ *
+ * @see AppProvider#insert(android.net.Uri, ContentValues)
+ * @see ApkProvider#insert(android.net.Uri, ContentValues)
+ */
+class TempTableWriter implements Closeable {
+
+    private static final String TAG = "TempTableWriter";
+
+    private static final String[] APP_COLS = withoutRowId(AppMetadataTable.Cols.ALL_COLS);
+    private static final String[] APK_COLS = ApkTable.Cols.ALL_COLS;
+
+    private final Context context;
+    private final SQLiteDatabase db;
+
+    private final SQLiteStatement insertApp;
+    private final SQLiteStatement insertApk;
+    private final SQLiteStatement insertCatJoin;
+    private final SQLiteStatement insertAntiFeatureJoin;
+    private final SQLiteStatement findPackage;
+    private final SQLiteStatement insertPackage;
+    private final SQLiteStatement findAntiFeature;
+    private final SQLiteStatement insertAntiFeature;
+
+    private boolean packagesAdded;
+
+    TempTableWriter(Context context) {
+        this.context = context;
+        db = DBHelper.getInstance(context).getWritableDatabase();
+
+        String tempApp = TempAppProvider.DB + "." + TempAppProvider.TABLE_TEMP_APP;
+        String tempApk = TempAppProvider.DB + "." + TempApkProvider.TABLE_TEMP_APK;
+        String tempCatJoin = TempAppProvider.DB + "." + TempAppProvider.TABLE_TEMP_CAT_JOIN;
+        String tempAntiFeatureJoin = TempAppProvider.DB + "." + TempAppProvider.TABLE_TEMP_APK_ANTI_FEATURE_JOIN;
+
+        insertApp = db.compileStatement(insertInto(tempApp, APP_COLS));
+        insertApk = db.compileStatement(insertInto(tempApk, APK_COLS));
+        insertCatJoin = db.compileStatement(insertInto(tempCatJoin, new String[]{
+                CatJoinTable.Cols.APP_METADATA_ID, CatJoinTable.Cols.CATEGORY_ID,
+        }));
+        insertAntiFeatureJoin = db.compileStatement(insertInto(tempAntiFeatureJoin, new String[]{
+                ApkAntiFeatureJoinTable.Cols.APK_ID, ApkAntiFeatureJoinTable.Cols.ANTI_FEATURE_ID,
+        }));
+        findPackage = db.compileStatement("SELECT " + PackageTable.Cols.ROW_ID + " FROM " + PackageTable.NAME
+                + " WHERE " + PackageTable.Cols.PACKAGE_NAME + " = ?");
+        insertPackage = db.compileStatement(insertInto(PackageTable.NAME, new String[]{
+                PackageTable.Cols.PACKAGE_NAME,
+        }));
+        findAntiFeature = db.compileStatement("SELECT " + AntiFeatureTable.Cols.ROW_ID + " FROM " + AntiFeatureTable.NAME
+                + " WHERE " + AntiFeatureTable.Cols.NAME + " = ?");
+        insertAntiFeature = db.compileStatement(insertInto(AntiFeatureTable.NAME, new String[]{
+                AntiFeatureTable.Cols.NAME,
+        }));
+    }
+
+    /**
+     * Inserts each of the {@code apps}, followed by the apks listed against its package name in
+     * {@code apksByPackageName}, all in one transaction. The apks need to have had their
+     * compatibility worked out already.
+     */
+    void write(List<App> apps, Map<String, List<Apk>> apksByPackageName) {
+        boolean successful = false;
+        ImportDictionary.beginTransaction(db);
+        try {
+            for (App app : apps) {
+                long appId = insertApp(app);
+                List<Apk> apks = apksByPackageName.get(app.packageName);
+                if (apks != null) {
+                    for (Apk apk : apks) {
+                        apk.appId = appId;
+                        insertApk(apk);
+                    }
+                }
+            }
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            ImportDictionary.endTransaction(db, successful);
+        }
+
+        if (packagesAdded) {
+            context.getContentResolver().notifyChange(AppProvider.getCanUpdateUri(), null);
+            packagesAdded = false;
+        }
+    }
+
+    private long insertApp(App app) {
+        ContentValues values = app.toContentValues();
+
+        // the current structure assumes that description is always present and non-null
+        if (values.getAsString(AppMetadataTable.Cols.DESCRIPTION) == null) {
+            values.put(AppMetadataTable.Cols.DESCRIPTION, "");
+        }
+
+        // Trim these to avoid unwanted newlines in the UI
+        trim(values, AppMetadataTable.Cols.SUMMARY);
+        trim(values, AppMetadataTable.Cols.NAME);
+
+        values.put(AppMetadataTable.Cols.PACKAGE_ID, ensurePackage(app.packageName));
+
+        bindAll(insertApp, APP_COLS, values);
+        long appId = insertApp.executeInsert();
+
+        if (app.categories != null) {
+            Set<String> categories = new HashSet<>(Arrays.asList(app.categories));
+            for (String category : categories) {
+                insertCatJoin.bindLong(1, appId);
+                insertCatJoin.bindLong(2, CategoryProvider.Helper.ensureExists(context, category));
+                insertCatJoin.executeInsert();
+            }
+        }
+
+        return appId;
+    }
+
+    private void insertApk(Apk apk) {
+        bindAll(insertApk, APK_COLS, apk.toContentValues());
+        long apkId = insertApk.executeInsert();
+
+        if (apk.antiFeatures != null) {
+            // There is nothing stopping a server repeating an anti feature, but it can only be
+            // in the join table once.
+            Set<String> antiFeatures = new HashSet<>(Arrays.asList(apk.antiFeatures));
+            for (String antiFeature : antiFeatures) {
+                insertAntiFeatureJoin.bindLong(1, apkId);
+                insertAntiFeatureJoin.bindLong(2, ensureAntiFeature(antiFeature));
+                insertAntiFeatureJoin.executeInsert();
+            }
+        }
+    }
+
+    private long ensurePackage(String packageName) {
+        long id = ImportDictionary.PACKAGES.get(packageName);
+        if (id > 0) {
+            return id;
+        }
+
+        id = findId(findPackage, packageName);
+        if (id <= 0) {
+            insertPackage.bindString(1, packageName);
+            id = insertPackage.executeInsert();
+            packagesAdded = true;
+        }
+        ImportDictionary.PACKAGES.put(packageName, id);
+        return id;
+    }
+
+    private long ensureAntiFeature(String antiFeature) {
+        long id = ImportDictionary.ANTI_FEATURES.get(antiFeature);
+        if (id > 0) {
+            return id;
+        }
+
+        id = findId(findAntiFeature, antiFeature);
+        if (id <= 0) {
+            insertAntiFeature.bindString(1, antiFeature);
+            id = insertAntiFeature.executeInsert();
+        }
+        ImportDictionary.ANTI_FEATURES.put(antiFeature, id);
+        return id;
+    }
+
+    private static long findId(SQLiteStatement query, String name) {
+        query.bindString(1, name);
+        try {
+            return query.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return 0;
+        }
+    }
+
+    private static void trim(ContentValues values, String column) {
+        String value = values.getAsString(column);
+        if (value != null) {
+            values.put(column, value.trim());
+        }
+    }
+
+    /**
+     * Binds every one of the {@code cols}, in order, so that nothing is left over from the
+     * row which the statement was last used for.
+     */
+    private static void bindAll(SQLiteStatement statement, String[] cols, ContentValues values) {
+        for (int i = 0; i < cols.length; i++) {
+            DatabaseUtils.bindObjectToProgram(statement, i + 1, values.get(cols[i]));
+        }
+    }
+
+    private static String insertInto(String table, String[] cols) {
+        String[] placeholders = new String[cols.length];
+        Arrays.fill(placeholders, "?");
+        return "INSERT INTO " + table + " (" + TextUtils.join(", ", cols) + ") "
+                + "VALUES (" + TextUtils.join(", ", placeholders) + ")";
+    }
+
+    private static String[] withoutRowId(String[] cols) {
+        List<String> result = new ArrayList<>(Arrays.asList(cols));
+        result.remove(AppMetadataTable.Cols.ROW_ID);
+        return result.toArray(new String[0]);
+    }
+
+    @Override
+    public void close() {
+        Utils.debugLog(TAG, "Closing compiled statements");
+        insertApp.close();
+        insertApk.close();
+        insertCatJoin.close();
+        insertAntiFeatureJoin.close();
+        findPackage.close();
+        insertPackage.close();
+        findAntiFeature.close();
+        insertAntiFeature.close();
+    }
+}
@@ -26,22 +26,38 @@ import android.net.Uri;
 
 import androidx.annotation.Nullable;
 
+import com.google.common.hash.HashingOutputStream;
 import com.google.common.io.Files;
 import com.nostra13.universalimageloader.utils.StorageUtils;
 
 import org.fdroid.fdroid.HashingUtils;
+import org.fdroid.fdroid.Utils;
 import org.fdroid.fdroid.data.Apk;
 import org.fdroid.fdroid.data.App;
 import org.fdroid.fdroid.data.AppProvider;
 import org.fdroid.fdroid.data.SanitizedFile;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class ApkCache {
 
     private static final String CACHE_DIR = "apks";
 
+    /**
+     * Deletes the copies made by {@link #copyApkToFiles(Context, File, String, boolean, String, String)}
+     * once the install should have long finished.  If F-Droid is killed before then,
+     * {@link org.fdroid.fdroid.CleanCacheService} gets rid of them instead.
+     */
+    private static final ScheduledExecutorService CLEANUP_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
     /**
      * Same as {@link #copyApkFromCacheToFiles(Context, File, Apk)}, except it does not need to
      * verify the hash after copying. This is because we are copying from an installed apk, which
@@ -83,30 +99,67 @@ public class ApkCache {
             throws IOException {
         SanitizedFile sanitizedApkFile = new SanitizedFile(context.getFilesDir(), destinationName);
 
-        Files.copy(apkFile, sanitizedApkFile);
-
-        // verify copied file's hash with expected hash from Apk class
-        if (verifyHash && !HashingUtils.isFileMatchingHash(sanitizedApkFile, hash, hashType)) {
-            apkFile.delete();
-            throw new IOException(apkFile + " failed to verify!");
+        if (verifyHash) {
+            // the copy is what gets installed, so it is the copy which gets verified
+            String copiedHash = copyAndHash(apkFile, sanitizedApkFile, hashType);
+            if (hash == null || !copiedHash.equals(hash.toLowerCase(Locale.ENGLISH))) {
+                apkFile.delete();
+                throw new IOException(apkFile + " failed to verify!");
+            }
+        } else {
+            copy(apkFile, sanitizedApkFile);
         }
 
         // 20 minutes after the start of the install process, delete the file
         final File apkToDelete = sanitizedApkFile;
-        new Thread() {
-            @Override
-            public void run() {
-                android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_LOWEST);
-                try {
-                    Thread.sleep(1200000);
-                } catch (InterruptedException ignored) {
-                } finally {
-                    apkToDelete.delete();
+        CLEANUP_EXECUTOR.schedule(apkToDelete::delete, 20, TimeUnit.MINUTES);
+
+        return sanitizedApkFile;
+    }
+
+    /**
+     * Nothing else can change {@code source}, so it is copied by the kernel rather than
+     * through a buffer here.  It is never hard linked instead, since then making the copy
+     * readable for the installer, or writing to {@code source} again, would also change the
+     * other one.
+     */
+    private static void copy(File source, File destination) throws IOException {
+        FileInputStream input = null;
+        FileOutputStream output = null;
+        try {
+            input = new FileInputStream(source);
+            output = new FileOutputStream(destination);
+            FileChannel inputChannel = input.getChannel();
+            FileChannel outputChannel = output.getChannel();
+            long size = inputChannel.size();
+            long position = 0;
+            while (position < size) {
+                long count = inputChannel.transferTo(position, size - position, outputChannel);
+                if (count <= 0) {
+                    throw new IOException(source + " changed while it was being copied");
                 }
+                position += count;
             }
-        }.start();
+        } finally {
+            Utils.closeQuietly(output);
+            Utils.closeQuietly(input);
+        }
+    }
 
-        return sanitizedApkFile;
+    /**
+     * Hashes the bytes as they are written to {@code destination}, rather than reading the
+     * copy back afterwards.  It is still the copy which is hashed, so nothing can swap out
+     * {@code source} between it being checked and it being installed.
+     */
+    private static String copyAndHash(File source, File destination, String hashType) throws IOException {
+        HashingOutputStream output = new HashingOutputStream(HashingUtils.getHashFunction(hashType),
+                new FileOutputStream(destination));
+        try {
+            Files.copy(source, output);
+        } finally {
+            Utils.closeQuietly(output);
+        }
+        return output.hash().toString();
     }
 
     /**
@@ -129,10 +182,12 @@ public class ApkCache {
      * Verifies the size of the file on disk matches, and then hashes the file to compare with what
      * we received from the signed repo (i.e. {@link Apk#hash} and {@link Apk#hashType}).
      * Bails out if the file sizes don't match to prevent having to do the work of hashing the file.
+     * The hash recorded when the file was downloaded is used if there is one, since the file is
+     * verified again by {@link #copyApkFromCacheToFiles(Context, File, Apk)} before it is installed.
      */
     public static boolean apkIsCached(File apkFile, Apk apkToCheck) {
         return apkFile.length() == apkToCheck.size &&
-                HashingUtils.isFileMatchingHash(apkFile, apkToCheck.hash, apkToCheck.hashType);
+                HashingUtils.isFileMatchingRecordedHash(apkFile, apkToCheck.hash, apkToCheck.hashType);
     }
 
     /**
@@ -22,13 +22,13 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
 import androidx.core.app.TaskStackBuilder;
+import androidx.core.util.Pair;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
 import com.google.common.io.Files;
 
 import org.fdroid.fdroid.views.appdetails.AppDetails;
 import org.fdroid.fdroid.AppUpdateStatusManager;
-import org.fdroid.fdroid.FDroidApp;
 import org.fdroid.fdroid.HashingUtils;
 import org.fdroid.fdroid.R;
 import org.fdroid.fdroid.Utils;
@@ -36,13 +36,18 @@ import org.fdroid.fdroid.compat.PackageManagerCompat;
 import org.fdroid.fdroid.data.Apk;
 import org.fdroid.fdroid.data.App;
 import org.fdroid.fdroid.data.AppProvider;
+import org.fdroid.fdroid.data.Repo;
+import org.fdroid.fdroid.data.RepoCache;
 import org.fdroid.fdroid.data.Schema;
 import org.fdroid.fdroid.net.Downloader;
 import org.fdroid.fdroid.net.DownloaderService;
+import org.fdroid.fdroid.net.MirrorScoreboard;
 
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Manages the whole process when a background update triggers an install or the user
@@ -114,6 +119,36 @@ public class InstallManagerService extends Service {
 
     private boolean running = false;
 
+    /**
+     * For each download which is running, the APK whose notification and status
+     * its progress is shown in, which for OBB files is the APK they belong to.
+     * Only used on the main thread, where all of the broadcasts are received.
+     */
+    private final Map<String, Pair<String, NotificationCompat.Builder>> progressTargets = new HashMap<>();
+
+    private final BroadcastReceiver progressReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            String[] urls = intent.getStringArrayExtra(Downloader.EXTRA_URLS);
+            long[] bytesRead = intent.getLongArrayExtra(Downloader.EXTRA_BYTES_READ);
+            long[] totalBytes = intent.getLongArrayExtra(Downloader.EXTRA_TOTAL_BYTES);
+            if (urls == null || bytesRead == null || totalBytes == null) {
+                return;
+            }
+            for (int i = 0; i < urls.length; i++) {
+                Pair<String, NotificationCompat.Builder> target = progressTargets.get(urls[i]);
+                if (target == null) {
+                    continue;
+                }
+                String urlString = target.first;
+                NotificationCompat.Builder builder = target.second;
+                builder.setProgress((int) totalBytes[i], (int) bytesRead[i], false);
+                notificationManager.notify(urlString.hashCode(), builder.build());
+                appUpdateStatusManager.updateApkProgress(urlString, totalBytes[i], bytesRead[i]);
+            }
+        }
+    };
+
     /**
      * This service does not use binding, so no need to implement this method
      */
@@ -130,6 +165,7 @@ public class InstallManagerService extends Service {
         appUpdateStatusManager = AppUpdateStatusManager.getInstance(this);
         running = true;
         pendingInstalls = getPendingInstalls(this);
+        localBroadcastManager.registerReceiver(progressReceiver, DownloaderService.getProgressIntentFilter());
         BroadcastReceiver br = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
@@ -161,6 +197,7 @@ public class InstallManagerService extends Service {
     @Override
     public void onDestroy() {
         running = false;
+        localBroadcastManager.unregisterReceiver(progressReceiver);
         super.onDestroy();
     }
 
@@ -238,14 +275,17 @@ public class InstallManagerService extends Service {
         NotificationCompat.Builder builder = createNotificationBuilder(urlString, apk);
         notificationManager.notify(urlString.hashCode(), builder.build());
 
-        FDroidApp.resetMirrorVars();
-        DownloaderService.setTimeout(FDroidApp.getTimeout());
+        MirrorScoreboard scoreboard = MirrorScoreboard.get(this);
+        Repo repo = RepoCache.get(this, apk.repoId);
+        scoreboard.resetFailures(repo);
+        String mirrorUrlString = scoreboard.getBestUrl(repo, urlString);
 
         appUpdateStatusManager.addApk(apk, AppUpdateStatusManager.Status.Downloading, null);
 
-        registerPackageDownloaderReceivers(urlString, builder);
-        getObb(urlString, apk.getMainObbUrl(), apk.getMainObbFile(), apk.obbMainFileSha256, builder);
-        getObb(urlString, apk.getPatchObbUrl(), apk.getPatchObbFile(), apk.obbPatchFileSha256, builder);
+        String sha256 = Downloader.HASH_TYPE.equalsIgnoreCase(apk.hashType) ? apk.hash : null;
+        registerPackageDownloaderReceivers(urlString, sha256, apk.size, builder);
+        getObb(urlString, apk.repoId, apk.getMainObbUrl(), apk.getMainObbFile(), apk.obbMainFileSha256, builder);
+        getObb(urlString, apk.repoId, apk.getPatchObbUrl(), apk.getPatchObbFile(), apk.obbPatchFileSha256, builder);
 
         File apkFilePath = ApkCache.getApkDownloadPath(this, intent.getData());
         if (apkFilePath == null) {
@@ -255,7 +295,7 @@ public class InstallManagerService extends Service {
         long apkFileSize = apkFilePath.length();
         if (!apkFilePath.exists() || apkFileSize < apk.size) {
             Utils.debugLog(TAG, "download " + urlString + " " + apkFilePath);
-            DownloaderService.queue(this, urlString, apk.repoId, urlString);
+            DownloaderService.queue(this, mirrorUrlString, apk.repoId, urlString, sha256, apk.size);
         } else if (ApkCache.apkIsCached(apkFilePath, apk)) {
             Utils.debugLog(TAG, "skip download, we have it, straight to install " + urlString + " " + apkFilePath);
             sendBroadcast(intent.getData(), Downloader.ACTION_STARTED, apkFilePath);
@@ -263,7 +303,7 @@ public class InstallManagerService extends Service {
         } else {
             Utils.debugLog(TAG, "delete and download again " + urlString + " " + apkFilePath);
             apkFilePath.delete();
-            DownloaderService.queue(this, urlString, apk.repoId, urlString);
+            DownloaderService.queue(this, mirrorUrlString, apk.repoId, urlString, sha256, apk.size);
         }
 
         return START_REDELIVER_INTENT; // if killed before completion, retry Intent
@@ -279,16 +319,19 @@ public class InstallManagerService extends Service {
     /**
      * Check if any OBB files are available, and if so, download and install them. This
      * also deletes any obsolete OBB files, per the spec, since there can be only one
-     * "main" and one "patch" OBB installed at a time.
+     * "main" and one "patch" OBB installed at a time.  OBB files are on the
+     * repo's mirrors just like the APKs, and are often much bigger, so they
+     * are downloaded from the best mirrors the same way.
      *
      * @see <a href="https://developer.android.com/google/play/expansion-files.html">APK Expansion Files</a>
      */
-    private void getObb(final String urlString, String obbUrlString,
+    private void getObb(final String urlString, final long repoId, final String obbUrlString,
                         final File obbDestFile, final String hash,
                         final NotificationCompat.Builder builder) {
         if (obbDestFile == null || obbDestFile.exists() || TextUtils.isEmpty(obbUrlString)) {
             return;
         }
+        final MirrorScoreboard scoreboard = MirrorScoreboard.get(this);
         final BroadcastReceiver downloadReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
@@ -299,15 +342,9 @@ public class InstallManagerService extends Service {
                 String action = intent.getAction();
                 if (Downloader.ACTION_STARTED.equals(action)) {
                     Utils.debugLog(TAG, action + " " + intent);
-                } else if (Downloader.ACTION_PROGRESS.equals(action)) {
-
-                    long bytesRead = intent.getLongExtra(Downloader.EXTRA_BYTES_READ, 0);
-                    long totalBytes = intent.getLongExtra(Downloader.EXTRA_TOTAL_BYTES, 0);
-                    builder.setProgress((int) totalBytes, (int) bytesRead, false);
-                    notificationManager.notify(urlString.hashCode(), builder.build());
-                    appUpdateStatusManager.updateApkProgress(urlString, totalBytes, bytesRead);
                 } else if (Downloader.ACTION_COMPLETE.equals(action)) {
                     localBroadcastManager.unregisterReceiver(this);
+                    progressTargets.remove(obbUrlString);
                     File localFile = new File(intent.getStringExtra(Downloader.EXTRA_DOWNLOAD_PATH));
                     Uri localApkUri = Uri.fromFile(localFile);
                     Utils.debugLog(TAG, "OBB download completed " + intent.getDataString()
@@ -337,14 +374,25 @@ public class InstallManagerService extends Service {
                     }
                 } else if (Downloader.ACTION_INTERRUPTED.equals(action)) {
                     localBroadcastManager.unregisterReceiver(this);
+                    progressTargets.remove(obbUrlString);
                 } else if (Downloader.ACTION_CONNECTION_FAILED.equals(action)) {
-                    DownloaderService.queue(context, urlString, 0, urlString);
+                    try {
+                        String nextUrlString = scoreboard.getNextUrl(RepoCache.get(context, repoId),
+                                intent.getStringExtra(Downloader.EXTRA_MIRROR_URL));
+                        DownloaderService.queue(context, nextUrlString, repoId, obbUrlString, hash, 0);
+                    } catch (IOException e) {
+                        Utils.debugLog(TAG, "Ran out of mirrors for " + obbUrlString);
+                        localBroadcastManager.unregisterReceiver(this);
+                        progressTargets.remove(obbUrlString);
+                    }
                 } else {
                     throw new RuntimeException("intent action not handled!");
                 }
             }
         };
-        DownloaderService.queue(this, obbUrlString, 0, obbUrlString);
+        String mirrorUrlString = scoreboard.getBestUrl(RepoCache.get(this, repoId), obbUrlString);
+        DownloaderService.queue(this, mirrorUrlString, repoId, obbUrlString, hash, 0);
+        progressTargets.put(obbUrlString, new Pair<>(urlString, builder));
         localBroadcastManager.registerReceiver(downloadReceiver,
                 DownloaderService.getIntentFilter(obbUrlString));
     }
@@ -352,8 +400,11 @@ public class InstallManagerService extends Service {
     /**
      * Register a {@link BroadcastReceiver} for tracking download progress for a
      * give {@code urlString}.  There can be multiple of these registered at a time.
+     * {@code sha256} and {@code size} are passed on again if the download has to be
+     * moved to another mirror.
      */
-    private void registerPackageDownloaderReceivers(String urlString, final NotificationCompat.Builder builder) {
+    private void registerPackageDownloaderReceivers(String urlString, final String sha256, final long size,
+                                                    final NotificationCompat.Builder builder) {
 
         BroadcastReceiver downloadReceiver = new BroadcastReceiver() {
             @Override
@@ -376,13 +427,6 @@ public class InstallManagerService extends Service {
                         PendingIntent action = PendingIntent.getService(context, 0, intentObject, 0);
                         appUpdateStatusManager.updateApk(urlString, AppUpdateStatusManager.Status.Downloading, action);
                         break;
-                    case Downloader.ACTION_PROGRESS:
-                        long bytesRead = intent.getLongExtra(Downloader.EXTRA_BYTES_READ, 0);
-                        long totalBytes = intent.getLongExtra(Downloader.EXTRA_TOTAL_BYTES, 0);
-                        builder.setProgress((int) totalBytes, (int) bytesRead, false);
-                        notificationManager.notify(urlString.hashCode(), builder.build());
-                        appUpdateStatusManager.updateApkProgress(urlString, totalBytes, bytesRead);
-                        break;
                     case Downloader.ACTION_COMPLETE:
                         File localFile = new File(intent.getStringExtra(Downloader.EXTRA_DOWNLOAD_PATH));
                         Uri localApkUri = Uri.fromFile(localFile);
@@ -391,6 +435,7 @@ public class InstallManagerService extends Service {
                         appUpdateStatusManager.updateApk(urlString, AppUpdateStatusManager.Status.ReadyToInstall, null);
 
                         localBroadcastManager.unregisterReceiver(this);
+                        progressTargets.remove(urlString);
                         registerInstallReceiver(downloadUri);
 
                         Apk apk = appUpdateStatusManager.getApk(urlString);
@@ -401,16 +446,19 @@ public class InstallManagerService extends Service {
                     case Downloader.ACTION_INTERRUPTED:
                         appUpdateStatusManager.setDownloadError(urlString, intent.getStringExtra(Downloader.EXTRA_ERROR_MESSAGE));
                         localBroadcastManager.unregisterReceiver(this);
+                        progressTargets.remove(urlString);
                         cancelNotification(urlString);
                         break;
                     case Downloader.ACTION_CONNECTION_FAILED:
                         try {
-                            DownloaderService.queue(context, FDroidApp.getMirror(mirrorUrlString, repoId), repoId, urlString);
-                            DownloaderService.setTimeout(FDroidApp.getTimeout());
+                            String nextUrlString = MirrorScoreboard.get(context)
+                                    .getNextUrl(RepoCache.get(context, repoId), mirrorUrlString);
+                            DownloaderService.queue(context, nextUrlString, repoId, urlString, sha256, size);
                         } catch (IOException e) {
                             Toast.makeText(context, "Ran out of mirrors", Toast.LENGTH_SHORT).show();
                             appUpdateStatusManager.setDownloadError(urlString, intent.getStringExtra(Downloader.EXTRA_ERROR_MESSAGE));
                             localBroadcastManager.unregisterReceiver(this);
+                            progressTargets.remove(urlString);
                             cancelNotification(urlString);
                         }
                         break;
@@ -420,6 +468,7 @@ public class InstallManagerService extends Service {
             }
         };
 
+        progressTargets.put(urlString, new Pair<>(urlString, builder));
         localBroadcastManager.registerReceiver(downloadReceiver,
                 DownloaderService.getIntentFilter(urlString));
     }
@@ -4,6 +4,11 @@ import android.net.Uri;
 
 import androidx.annotation.NonNull;
 
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hasher;
+import com.google.common.io.Files;
+
+import org.fdroid.fdroid.HashingUtils;
 import org.fdroid.fdroid.ProgressListener;
 import org.fdroid.fdroid.Utils;
 
@@ -13,20 +18,27 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.ConnectException;
-import java.util.Timer;
-import java.util.TimerTask;
 
 public abstract class Downloader {
 
     private static final String TAG = "Downloader";
 
     public static final String ACTION_STARTED = "org.fdroid.fdroid.net.Downloader.action.STARTED";
+    /**
+     * Sent by {@link DownloaderService} once per {@link ProgressDispatcher} frame, for all of the
+     * downloads which moved since the last one, so it has no data URI to match on. The three
+     * arrays {@link #EXTRA_URLS}, {@link #EXTRA_BYTES_READ} and {@link #EXTRA_TOTAL_BYTES} have
+     * one element per download.
+     *
+     * @see DownloaderService#getProgressIntentFilter()
+     */
     public static final String ACTION_PROGRESS = "org.fdroid.fdroid.net.Downloader.action.PROGRESS";
     public static final String ACTION_INTERRUPTED = "org.fdroid.fdroid.net.Downloader.action.INTERRUPTED";
     public static final String ACTION_CONNECTION_FAILED = "org.fdroid.fdroid.net.Downloader.action.CONNECTION_FAILED";
     public static final String ACTION_COMPLETE = "org.fdroid.fdroid.net.Downloader.action.COMPLETE";
 
     public static final String EXTRA_DOWNLOAD_PATH = "org.fdroid.fdroid.net.Downloader.extra.DOWNLOAD_PATH";
+    public static final String EXTRA_URLS = "org.fdroid.fdroid.net.Downloader.extra.URLS";
     public static final String EXTRA_BYTES_READ = "org.fdroid.fdroid.net.Downloader.extra.BYTES_READ";
     public static final String EXTRA_TOTAL_BYTES = "org.fdroid.fdroid.net.Downloader.extra.TOTAL_BYTES";
     public static final String EXTRA_ERROR_MESSAGE = "org.fdroid.fdroid.net.Downloader.extra.ERROR_MESSAGE";
@@ -34,6 +46,16 @@ public abstract class Downloader {
     public static final String EXTRA_CANONICAL_URL = "org.fdroid.fdroid.net.Downloader.extra.ERROR_CANONICAL_URL";
     public static final String EXTRA_MIRROR_URL = "org.fdroid.fdroid.net.Downloader.extra.ERROR_MIRROR_URL";
 
+    /**
+     * The type of {@link #getHash()}, which is what the index gives for every APK.
+     */
+    public static final String HASH_TYPE = "sha256";
+
+    /**
+     * Below this, how long a download takes is mostly down to how long it takes to connect.
+     */
+    static final long MIN_BYTES_FOR_SPEED = 256 * 1024;
+
     private volatile boolean cancelled = false;
     private volatile long bytesRead;
     private volatile long totalBytes;
@@ -43,13 +65,16 @@ public abstract class Downloader {
     final String urlString;
     String cacheTag;
     boolean notFound;
-
-    private volatile int timeout = 10000;
+    String hash;
 
     /**
-     * For sending download progress, should only be called in {@link #progressTask}
+     * How long it took to get a response from the server, or -1 if that is not known.
      */
-    private final Object syncObject = new Object();
+    long connectMillis = -1;
+    long bytesPerSecond;
+
+    private volatile int timeout = 10000;
+
     private volatile ProgressListener downloaderProgressListener;
 
     protected abstract InputStream getDownloadersInputStream() throws IOException;
@@ -107,8 +132,35 @@ public abstract class Downloader {
         return notFound;
     }
 
+    /**
+     * @return The {@link #HASH_TYPE} hash of {@link #outputFile}, worked out while it was
+     * being downloaded, or null if nothing was downloaded.
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    public long getConnectMillis() {
+        return connectMillis;
+    }
+
+    /**
+     * @return How fast the file was downloaded, or 0 if too little of it was downloaded to tell.
+     */
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
     void downloadFromStream(int bufferSize, boolean resumable) throws IOException, InterruptedException {
         Utils.debugLog(TAG, "Downloading from stream");
+        hash = null;
+        HashingUtils.deleteHashSidecar(outputFile);
+        Hasher hasher = HashingUtils.getHashFunction(HASH_TYPE).newHasher();
+        if (resumable) {
+            // the part which is already there is read this once, so the hash carries on from it
+            Files.asByteSource(outputFile).copyTo(Funnels.asOutputStream(hasher));
+        }
+
         InputStream input = null;
         OutputStream outputStream = new FileOutputStream(outputFile, resumable);
         try {
@@ -118,7 +170,7 @@ public abstract class Downloader {
             // we were interrupted before proceeding to the download.
             throwExceptionIfInterrupted();
 
-            copyInputToOutputStream(input, bufferSize, outputStream);
+            copyInputToOutputStream(input, bufferSize, outputStream, hasher);
         } finally {
             Utils.closeQuietly(outputStream);
             Utils.closeQuietly(input);
@@ -127,6 +179,8 @@ public abstract class Downloader {
         // Even if we have completely downloaded the file, we should probably respect
         // the wishes of the user who wanted to cancel us.
         throwExceptionIfInterrupted();
+
+        hash = hasher.hash().toString();
     }
 
     /**
@@ -137,7 +191,7 @@ public abstract class Downloader {
      *
      * @throws InterruptedException
      */
-    private void throwExceptionIfInterrupted() throws InterruptedException {
+    void throwExceptionIfInterrupted() throws InterruptedException {
         if (cancelled) {
             Utils.debugLog(TAG, "Received interrupt, cancelling download");
             throw new InterruptedException();
@@ -154,22 +208,23 @@ public abstract class Downloader {
     /**
      * This copies the downloaded data from the InputStream to the OutputStream,
      * keeping track of the number of bytes that have flowed through for the
-     * progress counter.
+     * progress counter, and adding them to {@code hasher} so that the file
+     * doesn't have to be read again to get its hash.
      */
-    private void copyInputToOutputStream(InputStream input, int bufferSize, OutputStream output)
+    private void copyInputToOutputStream(InputStream input, int bufferSize, OutputStream output, Hasher hasher)
             throws IOException, InterruptedException {
-        Timer timer = new Timer();
         try {
             bytesRead = 0;
-            totalBytes = totalDownloadSize();
+            bytesPerSecond = 0;
             byte[] buffer = new byte[bufferSize];
 
-            timer.scheduleAtFixedRate(progressTask, 0, 100);
+            startProgressUpdates(totalDownloadSize());
 
             // Getting the total download size could potentially take time, depending on how
             // it is implemented, so we may as well check this before we proceed.
             throwExceptionIfInterrupted();
 
+            long startTime = System.currentTimeMillis();
             while (true) {
 
                 int count;
@@ -184,35 +239,53 @@ public abstract class Downloader {
 
                 if (count == -1) {
                     Utils.debugLog(TAG, "Finished downloading from stream");
+                    long millis = System.currentTimeMillis() - startTime;
+                    if (bytesRead >= MIN_BYTES_FOR_SPEED && millis > 0) {
+                        bytesPerSecond = bytesRead * 1000 / millis;
+                    }
                     break;
                 }
                 bytesRead += count;
                 output.write(buffer, 0, count);
+                hasher.putBytes(buffer, 0, count);
             }
         } finally {
-            synchronized (syncObject) {
-                downloaderProgressListener = null;
-            }
-            timer.cancel();
-            timer.purge();
+            stopProgressUpdates();
             output.flush();
             output.close();
         }
     }
 
     /**
-     * Send progress updates on a timer to avoid flooding receivers with pointless events.
+     * Have the {@link ProgressDispatcher} report the {@link #getBytesRead() progress}
+     * until {@link #stopProgressUpdates()} is called.
      */
-    private final TimerTask progressTask = new TimerTask() {
-        @Override
-        public void run() {
-            synchronized (syncObject) {
-                if (downloaderProgressListener != null) {
-                    downloaderProgressListener.onProgress(urlString, bytesRead, totalBytes);
-                }
-            }
+    void startProgressUpdates(long totalBytes) {
+        this.totalBytes = totalBytes;
+        ProgressDispatcher.register(this);
+    }
+
+    void stopProgressUpdates() {
+        ProgressDispatcher.unregister(this);
+    }
+
+    long getBytesRead() {
+        return bytesRead;
+    }
+
+    long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Called by the {@link ProgressDispatcher}, only when the progress has changed.
+     */
+    void sendProgress(long bytesRead, long totalBytes) {
+        ProgressListener listener = downloaderProgressListener;
+        if (listener != null) {
+            listener.onProgress(urlString, bytesRead, totalBytes);
         }
-    };
+    }
 
     /**
      * Overrides every method in {@link InputStream} and delegates to the wrapped stream.
@@ -3,14 +3,32 @@ package org.fdroid.fdroid.net;
 import android.content.Context;
 import android.net.Uri;
 import org.fdroid.fdroid.data.Repo;
-import org.fdroid.fdroid.data.RepoProvider;
-import org.fdroid.fdroid.data.Schema;
+import org.fdroid.fdroid.data.RepoCache;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 public class DownloaderFactory {
 
+    private static volatile HttpEngine httpEngine = new NetCipherHttpEngine();
+
+    /**
+     * @return What all HTTP connections are opened with, so that they can be kept
+     * alive and reused by whichever download goes to the same server next.
+     */
+    public static HttpEngine getHttpEngine() {
+        return httpEngine;
+    }
+
+    /**
+     * Replace the {@link NetCipherHttpEngine} which is used by default.  This only
+     * affects connections opened afterwards.
+     */
+    public static void setHttpEngine(HttpEngine engine) {
+        httpEngine = engine;
+    }
+
     /**
      * Downloads to a temporary file, which *you must delete yourself when
      * you are done.  It is stored in {@link Context#getCacheDir()} and starts
@@ -29,8 +47,7 @@ public class DownloaderFactory {
         Downloader downloader;
 
         String scheme = uri.getScheme();
-            final String[] projection = {Schema.RepoTable.Cols.USERNAME, Schema.RepoTable.Cols.PASSWORD};
-            Repo repo = RepoProvider.Helper.findByUrl(context, uri, projection);
+            Repo repo = RepoCache.findByUrl(context, uri);
             if (repo == null) {
                 downloader = new HttpDownloader(uri, destFile);
             } else {
@@ -38,4 +55,17 @@ public class DownloaderFactory {
             }
         return downloader;
     }
+
+    /**
+     * Download a file from several mirrors of {@code repo} at once, see {@link SegmentedDownloader}.
+     *
+     * @param mirrorUrls The same file on each of the mirrors, best first, as given by
+     *                   {@link MirrorScoreboard#getUrlsOnAllMirrors(Repo, String)}
+     * @param sha256     The hash from the index, which the file is checked against at the end
+     */
+    public static Downloader createSegmented(Context context, Repo repo, List<String> mirrorUrls,
+                                             File destFile, String sha256) {
+        return new SegmentedDownloader(mirrorUrls, destFile, repo.username, repo.password, sha256,
+                repo, MirrorScoreboard.get(context));
+    }
 }
@@ -22,21 +22,20 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.net.Uri;
-import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.IBinder;
-import android.os.Looper;
-import android.os.Message;
 import android.os.PatternMatcher;
 import android.os.Process;
 import android.text.TextUtils;
 import android.util.Log;
 
+import androidx.annotation.Nullable;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
-import org.fdroid.fdroid.ProgressListener;
+import org.fdroid.fdroid.HashingUtils;
 import org.fdroid.fdroid.R;
 import org.fdroid.fdroid.Utils;
+import org.fdroid.fdroid.data.Repo;
+import org.fdroid.fdroid.data.RepoCache;
 import org.fdroid.fdroid.data.SanitizedFile;
 import org.fdroid.fdroid.installer.ApkCache;
 
@@ -48,6 +47,13 @@ import java.net.NoRouteToHostException;
 import java.net.ProtocolException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.net.ssl.SSLHandshakeException;
 import javax.net.ssl.SSLKeyException;
@@ -69,12 +75,14 @@ import javax.net.ssl.SSLProtocolException;
  * This "work queue processor" pattern is commonly used to offload tasks
  * from an application's main thread.  The DownloaderService class exists to
  * simplify this pattern and take care of the mechanics. DownloaderService
- * will receive the Intents, launch a worker thread, and stop the service as
- * appropriate.
+ * will receive the Intents, run them on worker threads, and stop the service
+ * when nothing is queued or running any more.
  * <p>
- * All requests are handled on a single worker thread -- they may take as
- * long as necessary (and will not block the application's main loop), but
- * only one request will be processed at a time.
+ * Requests may take as long as necessary (and will not block the application's
+ * main loop).  Up to {@link #setMaxDownloads(int, int) a few} of them are
+ * downloaded at the same time, in the order they were queued, but only so many
+ * from any one host, so that one slow mirror can't take up every worker while
+ * requests for other hosts wait behind it.
  * <p>
  * The full URL for the file to download is also used as the unique ID to
  * represent the download itself throughout F-Droid.  This follows the model
@@ -94,22 +102,106 @@ public class DownloaderService extends Service {
     private static final String ACTION_QUEUE = "org.fdroid.fdroid.net.DownloaderService.action.QUEUE";
     private static final String ACTION_CANCEL = "org.fdroid.fdroid.net.DownloaderService.action.CANCEL";
 
-    private volatile Looper serviceLooper;
-    private static volatile ServiceHandler serviceHandler;
-    private static volatile Downloader downloader;
+    private static final String EXTRA_SHA256 = "org.fdroid.fdroid.net.DownloaderService.extra.SHA256";
+    private static final String EXTRA_SIZE = "org.fdroid.fdroid.net.DownloaderService.extra.SIZE";
+
+    public static final int DEFAULT_MAX_DOWNLOADS = 4;
+    public static final int DEFAULT_MAX_DOWNLOADS_PER_HOST = 2;
+
+    /**
+     * Downloads waiting for a worker, in the order they were queued.  This and
+     * {@link #ACTIVE} are only ever touched while holding the lock on
+     * {@code DownloaderService.class}, and are static so that
+     * {@link #isQueuedOrActive(String)} can check them from anywhere.
+     */
+    private static final ArrayDeque<DownloadTask> QUEUED = new ArrayDeque<>();
+    private static final List<DownloadTask> ACTIVE = new ArrayList<>();
+
+    private ExecutorService executor;
     private LocalBroadcastManager localBroadcastManager;
-    private static volatile int timeout;
+    private static volatile int maxDownloads = DEFAULT_MAX_DOWNLOADS;
+    private static volatile int maxDownloadsPerHost = DEFAULT_MAX_DOWNLOADS_PER_HOST;
+
+    /**
+     * The most recent {@code startId} given to {@link #onStartCommand(Intent, int, int)},
+     * which is what has to be passed to {@link #stopSelf(int)} once everything is done.
+     */
+    private int lastStartId;
+
+    /**
+     * A single queued or running download.  It is matched against the URLs passed to
+     * {@link #cancel(Context, String)} and {@link #isQueuedOrActive(String)} by both the
+     * mirror URL it is downloaded from and the canonical URL it is known by elsewhere.
+     * Only one download into each {@link #localFile} may run at a time, since they would
+     * all be appending to the same file.
+     */
+    private final class DownloadTask implements Runnable {
+        final Uri uri;
+        final long repoId;
+        final String originalUrlString;
+        final String sha256;
+        final long size;
+        final String host;
+        final SanitizedFile localFile;
+
+        /**
+         * Only set while holding the lock, so that a {@link #cancel()} which arrives before the
+         * {@link Downloader} was created is still passed on to it.
+         */
+        private Downloader downloader;
+        private boolean cancelled;
+
+        DownloadTask(Intent intent) {
+            uri = intent.getData();
+            repoId = intent.getLongExtra(Downloader.EXTRA_REPO_ID, 0);
+            originalUrlString = intent.getStringExtra(Downloader.EXTRA_CANONICAL_URL);
+            sha256 = intent.getStringExtra(EXTRA_SHA256);
+            size = intent.getLongExtra(EXTRA_SIZE, 0);
+            host = uri.getHost() + ":" + uri.getPort();
+            localFile = ApkCache.getApkDownloadPath(DownloaderService.this,
+                    originalUrlString == null ? uri : Uri.parse(originalUrlString));
+        }
 
-    private final class ServiceHandler extends Handler {
-        ServiceHandler(Looper looper) {
-            super(looper);
+        boolean matches(String urlString) {
+            return TextUtils.equals(urlString, uri.toString()) || TextUtils.equals(urlString, originalUrlString);
+        }
+
+        boolean isSameFileAs(DownloadTask other) {
+            return localFile != null && localFile.equals(other.localFile);
+        }
+
+        void setDownloader(Downloader downloader) {
+            synchronized (DownloaderService.class) {
+                this.downloader = downloader;
+                if (cancelled) {
+                    downloader.cancelDownload();
+                }
+            }
+        }
+
+        /**
+         * Must be called while holding the lock on {@code DownloaderService.class}.
+         */
+        void cancel() {
+            cancelled = true;
+            if (downloader != null) {
+                downloader.cancelDownload();
+            }
         }
 
         @Override
-        public void handleMessage(Message msg) {
-            Utils.debugLog(TAG, "Handling download message with ID of " + msg.what);
-            handleIntent((Intent) msg.obj);
-            stopSelf(msg.arg1);
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            Utils.debugLog(TAG, "Starting download of " + uri);
+            try {
+                handleIntent(this);
+            } finally {
+                synchronized (DownloaderService.class) {
+                    ACTIVE.remove(this);
+                }
+                startQueuedDownloads();
+                stopSelfIfIdle();
+            }
         }
     }
 
@@ -118,18 +210,20 @@ public class DownloaderService extends Service {
         super.onCreate();
         Utils.debugLog(TAG, "Creating downloader service.");
 
-        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
-        thread.start();
-
-        serviceLooper = thread.getLooper();
-        serviceHandler = new ServiceHandler(serviceLooper);
+        // startQueuedDownloads() limits how many of these threads actually get used
+        executor = Executors.newCachedThreadPool();
         localBroadcastManager = LocalBroadcastManager.getInstance(this);
+        ProgressDispatcher.addBatchListener(progressListener);
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         Utils.debugLog(TAG, "Received Intent for downloading: " + intent + " (with a startId of " + startId + ")");
 
+        synchronized (DownloaderService.class) {
+            lastStartId = startId;
+        }
+
         if (intent == null) {
             return START_NOT_STICKY;
         }
@@ -142,25 +236,50 @@ public class DownloaderService extends Service {
 
         if (ACTION_CANCEL.equals(intent.getAction())) {
             Utils.debugLog(TAG, "Cancelling download of " + uriString);
-            int whatToRemove = uriString.hashCode();
-            if (serviceHandler.hasMessages(whatToRemove)) {
-                Utils.debugLog(TAG, "Removing download with ID of " + whatToRemove
-                        + " from service handler, then sending interrupted event.");
-                serviceHandler.removeMessages(whatToRemove);
+            boolean removedFromQueue = false;
+            boolean cancelledActive = false;
+            synchronized (DownloaderService.class) {
+                Iterator<DownloadTask> queued = QUEUED.iterator();
+                while (queued.hasNext()) {
+                    if (queued.next().matches(uriString)) {
+                        queued.remove();
+                        removedFromQueue = true;
+                    }
+                }
+                for (DownloadTask task : ACTIVE) {
+                    if (task.matches(uriString)) {
+                        task.cancel();
+                        cancelledActive = true;
+                    }
+                }
+            }
+            if (removedFromQueue) {
+                Utils.debugLog(TAG, "Removed " + uriString + " from the queue, sending interrupted event.");
                 sendBroadcast(intent.getData(), Downloader.ACTION_INTERRUPTED);
-            } else if (isActive(uriString)) {
-                downloader.cancelDownload();
-            } else {
-                Utils.debugLog(TAG, "ACTION_CANCEL called on something not queued or running"
-                        + " (expected to find message with ID of " + whatToRemove + " in queue).");
+                stopSelfIfIdle();
+            } else if (!cancelledActive) {
+                Utils.debugLog(TAG, "ACTION_CANCEL called on something not queued or running: " + uriString);
             }
         } else if (ACTION_QUEUE.equals(intent.getAction())) {
-            Message msg = serviceHandler.obtainMessage();
-            msg.arg1 = startId;
-            msg.obj = intent;
-            msg.what = uriString.hashCode();
-            serviceHandler.sendMessage(msg);
-            Utils.debugLog(TAG, "Queued download of " + uriString);
+            DownloadTask task = new DownloadTask(intent);
+            boolean alreadyQueued = false;
+            synchronized (DownloaderService.class) {
+                for (DownloadTask queued : QUEUED) {
+                    if (queued.isSameFileAs(task)) {
+                        alreadyQueued = true;
+                        break;
+                    }
+                }
+                if (!alreadyQueued) {
+                    QUEUED.add(task);
+                }
+            }
+            if (alreadyQueued) {
+                Utils.debugLog(TAG, "Already waiting to download " + task.localFile + ", ignoring " + uriString);
+            } else {
+                Utils.debugLog(TAG, "Queued download of " + uriString);
+                startQueuedDownloads();
+            }
         } else {
             Utils.debugLog(TAG, "Received Intent with unknown action: " + intent);
         }
@@ -170,8 +289,101 @@ public class DownloaderService extends Service {
 
     @Override
     public void onDestroy() {
-        Utils.debugLog(TAG, "Destroying downloader service. Will move to background and stop our Looper.");
-        serviceLooper.quit(); //NOPMD - this is copied from IntentService, no super call needed
+        Utils.debugLog(TAG, "Destroying downloader service. Will drop anything still queued.");
+        synchronized (DownloaderService.class) {
+            QUEUED.clear();
+        }
+        ProgressDispatcher.removeBatchListener(progressListener);
+        executor.shutdown(); //NOPMD - this is modelled on IntentService, no super call needed
+    }
+
+    /**
+     * Sends a single {@link Downloader#ACTION_PROGRESS} for all of the downloads of this
+     * service which moved in a {@link ProgressDispatcher} frame, leaving out any others,
+     * like index updates.  They are listed by the same URL as all their other broadcasts.
+     */
+    private final ProgressDispatcher.BatchListener progressListener = batch -> {
+        List<String> urls = new ArrayList<>(batch.size());
+        long[] bytesRead = new long[batch.size()];
+        long[] totalBytes = new long[batch.size()];
+        synchronized (DownloaderService.class) {
+            for (ProgressDispatcher.Progress progress : batch) {
+                for (DownloadTask task : ACTIVE) {
+                    if (task.downloader == progress.downloader) {
+                        bytesRead[urls.size()] = progress.bytesRead;
+                        totalBytes[urls.size()] = progress.totalBytes;
+                        urls.add(task.originalUrlString == null ? task.uri.toString() : task.originalUrlString);
+                        break;
+                    }
+                }
+            }
+        }
+        if (urls.isEmpty()) {
+            return;
+        }
+        Intent intent = new Intent(Downloader.ACTION_PROGRESS);
+        intent.putExtra(Downloader.EXTRA_URLS, urls.toArray(new String[0]));
+        intent.putExtra(Downloader.EXTRA_BYTES_READ, Arrays.copyOf(bytesRead, urls.size()));
+        intent.putExtra(Downloader.EXTRA_TOTAL_BYTES, Arrays.copyOf(totalBytes, urls.size()));
+        localBroadcastManager.sendBroadcast(intent);
+    };
+
+    /**
+     * Hands queued downloads to the {@link #executor} until either {@link #maxDownloads}
+     * are running, or everything left in the queue is for a host which already has
+     * {@link #maxDownloadsPerHost} running, or is going into a file which is already
+     * being downloaded.  Those stay in the queue, in order, until one of the downloads
+     * from their host, or into their file, finishes.  A second download of the same
+     * file, such as the retry after {@link Downloader#ACTION_CONNECTION_FAILED}, then
+     * carries on from wherever the first one got to.
+     */
+    private void startQueuedDownloads() {
+        synchronized (DownloaderService.class) {
+            if (executor.isShutdown()) {
+                return;
+            }
+            Iterator<DownloadTask> queued = QUEUED.iterator();
+            while (queued.hasNext() && ACTIVE.size() < maxDownloads) {
+                DownloadTask task = queued.next();
+                if (countActive(task.host) < maxDownloadsPerHost && !isFileActive(task)) {
+                    queued.remove();
+                    ACTIVE.add(task);
+                    executor.execute(task);
+                }
+            }
+        }
+    }
+
+    private static int countActive(String host) {
+        int count = 0;
+        for (DownloadTask task : ACTIVE) {
+            if (task.host.equals(host)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean isFileActive(DownloadTask task) {
+        for (DownloadTask active : ACTIVE) {
+            if (active.isSameFileAs(task)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Downloads finish in any order, so the service can only be stopped once none are
+     * left.  If another request arrived in the meantime, its newer {@code startId} means
+     * that {@link #stopSelf(int)} won't do anything.
+     */
+    private void stopSelfIfIdle() {
+        synchronized (DownloaderService.class) {
+            if (QUEUED.isEmpty() && ACTIVE.isEmpty()) {
+                stopSelf(lastStartId);
+            }
+        }
     }
 
     /**
@@ -183,47 +395,74 @@ public class DownloaderService extends Service {
     }
 
     /**
-     * This method is invoked on the worker thread with a request to process.
-     * Only one Intent is processed at a time, but the processing happens on a
-     * worker thread that runs independently from other application logic.
-     * So, if this code takes a long time, it will hold up other requests to
-     * the same DownloaderService, but it will not hold up anything else.
+     * This method is invoked on a worker thread with a request to process.
+     * The processing happens on a worker thread that runs independently from
+     * other application logic.  So, if this code takes a long time, it will
+     * hold up other requests for the same host once there are
+     * {@link #maxDownloadsPerHost} of them, but it will not hold up anything else.
      * When all requests have been handled, the DownloaderService stops itself,
      * so you should not ever call {@link #stopSelf}.
      * <p/>
      * Downloads are put into subdirectories based on hostname/port of each repo
      * to prevent files with the same names from conflicting.  Each repo enforces
-     * unique APK file names on the server side.
+     * unique APK file names on the server side.  The canonical URL is used for
+     * this rather than the mirror, so that a download which is moved to another
+     * mirror carries on from where it got to, and is found by
+     * {@link ApkCache#apkIsCached(File, org.fdroid.fdroid.data.Apk)}.
+     * <p/>
+     * How long each mirror takes to connect, how fast it is, and whether it failed
+     * are recorded in the {@link MirrorScoreboard}, which also sets the timeout.
+     * When the hash of the file is known, it is big enough, and the repo has more than
+     * one mirror which works, the file is downloaded from several of them at once by a
+     * {@link SegmentedDownloader}, which keeps the scores for each mirror itself.  If it
+     * turns out that the file can not be split up after all, it is downloaded the plain
+     * way instead.
      *
-     * @param intent The {@link Intent} passed via {@link
-     *               android.content.Context#startService(Intent)}.
+     * @param task The request queued via {@link
+     *             android.content.Context#startService(Intent)}.
      * @see org.fdroid.fdroid.IndexV1Updater#update()
      */
-    private void handleIntent(Intent intent) {
-        final Uri uri = intent.getData();
-        final SanitizedFile localFile = ApkCache.getApkDownloadPath(this, uri);
-        long repoId = intent.getLongExtra(Downloader.EXTRA_REPO_ID, 0);
-        String originalUrlString = intent.getStringExtra(Downloader.EXTRA_CANONICAL_URL);
+    private void handleIntent(DownloadTask task) {
+        final Uri uri = task.uri;
+        long repoId = task.repoId;
+        String originalUrlString = task.originalUrlString;
+        final SanitizedFile localFile = task.localFile;
+        Repo repo = RepoCache.get(this, repoId);
+        MirrorScoreboard scoreboard = MirrorScoreboard.get(this);
         sendBroadcast(uri, Downloader.ACTION_STARTED, localFile, repoId, originalUrlString);
 
+        List<String> mirrorUrls = scoreboard.getUrlsOnAllMirrors(repo, uri.toString());
+        boolean segmented = task.sha256 != null && mirrorUrls.size() > 1
+                && (task.size <= 0 || SegmentedDownloader.isWorthSegmenting(task.size));
+        int timeout = scoreboard.getTimeout(repo, uri.toString());
+
+        Downloader downloader = null;
         try {
-            downloader = DownloaderFactory.create(this, uri, localFile);
-            downloader.setListener(new ProgressListener() {
-                @Override
-                public void onProgress(String urlString, long bytesRead, long totalBytes) {
-                    Intent intent = new Intent(Downloader.ACTION_PROGRESS);
-                    intent.setData(uri);
-                    intent.putExtra(Downloader.EXTRA_BYTES_READ, bytesRead);
-                    intent.putExtra(Downloader.EXTRA_TOTAL_BYTES, totalBytes);
-                    localBroadcastManager.sendBroadcast(intent);
+            if (segmented) {
+                downloader = DownloaderFactory.createSegmented(this, repo, mirrorUrls, localFile, task.sha256);
+                try {
+                    download(task, downloader, timeout);
+                } catch (SegmentedDownloader.CannotSegmentException e) {
+                    Utils.debugLog(TAG, e.getLocalizedMessage() + ", downloading from one mirror instead");
+                    downloader.close();
+                    downloader = null;
+                    segmented = false;
                 }
-            });
-            downloader.setTimeout(timeout);
-            downloader.download();
+            }
+            if (!segmented) {
+                downloader = DownloaderFactory.create(this, uri, localFile);
+                download(task, downloader, timeout);
+            }
             if (downloader.isNotFound()) {
                 sendBroadcast(uri, Downloader.ACTION_INTERRUPTED, localFile, getString(R.string.download_404),
                         repoId, originalUrlString);
             } else {
+                if (!segmented) {
+                    scoreboard.recordSuccess(repo, uri.toString(), downloader);
+                }
+                if (downloader.getHash() != null) {
+                    HashingUtils.writeHashSidecar(localFile, downloader.getHash(), Downloader.HASH_TYPE);
+                }
                 sendBroadcast(uri, Downloader.ACTION_COMPLETE, localFile, repoId, originalUrlString);
             }
         } catch (InterruptedException e) {
@@ -231,8 +470,11 @@ public class DownloaderService extends Service {
         } catch (ConnectException | HttpRetryException | NoRouteToHostException | SocketTimeoutException
                 | SSLHandshakeException | SSLKeyException | SSLPeerUnverifiedException | SSLProtocolException
                 | ProtocolException | UnknownHostException e) {
-            // if the above list of exceptions changes, also change it in IndexV1Updater.update()
+            // if the above list of exceptions changes, also change it in IndexV1Updater.download()
             Log.e(TAG, e.getLocalizedMessage());
+            if (!segmented) {
+                scoreboard.recordFailure(repo, uri.toString());
+            }
             sendBroadcast(uri, Downloader.ACTION_CONNECTION_FAILED, localFile, repoId, originalUrlString);
         } catch (IOException e) {
             e.printStackTrace();
@@ -243,7 +485,13 @@ public class DownloaderService extends Service {
                 downloader.close();
             }
         }
-        downloader = null;
+    }
+
+    private static void download(DownloadTask task, Downloader downloader, int timeout)
+            throws IOException, InterruptedException {
+        task.setDownloader(downloader);
+        downloader.setTimeout(timeout);
+        downloader.download();
     }
 
     private void sendBroadcast(Uri uri, String action) {
@@ -287,6 +535,21 @@ public class DownloaderService extends Service {
      * @see #cancel(Context, String)
      */
     public static void queue(Context context, String mirrorUrlString, long repoId, String urlString) {
+        queue(context, mirrorUrlString, repoId, urlString, null, 0);
+    }
+
+    /**
+     * Add a URL to the download queue, along with the SHA-256 and size the index gives for it.
+     * Knowing the hash means the file can safely be put together from parts downloaded
+     * from different mirrors at the same time, and knowing the size means that files which
+     * are too small for that are not asked about first.
+     *
+     * @param sha256 the hash of the file, or {@code null} if it isn't known
+     * @param size   the size of the file in bytes, or 0 if it isn't known
+     * @see #queue(Context, String, long, String)
+     */
+    public static void queue(Context context, String mirrorUrlString, long repoId, String urlString,
+                             @Nullable String sha256, long size) {
         if (TextUtils.isEmpty(mirrorUrlString)) {
             return;
         }
@@ -296,6 +559,8 @@ public class DownloaderService extends Service {
         intent.setData(Uri.parse(mirrorUrlString));
         intent.putExtra(Downloader.EXTRA_REPO_ID, repoId);
         intent.putExtra(Downloader.EXTRA_CANONICAL_URL, urlString);
+        intent.putExtra(EXTRA_SHA256, sha256);
+        intent.putExtra(EXTRA_SIZE, size);
         context.startService(intent);
     }
 
@@ -328,25 +593,35 @@ public class DownloaderService extends Service {
         if (TextUtils.isEmpty(urlString)) { //NOPMD - suggests unreadable format
             return false;
         }
-        if (serviceHandler == null) {
-            return false; // this service is not even running
+        synchronized (DownloaderService.class) {
+            for (DownloadTask task : QUEUED) {
+                if (task.matches(urlString)) {
+                    return true;
+                }
+            }
+            for (DownloadTask task : ACTIVE) {
+                if (task.matches(urlString)) {
+                    return true;
+                }
+            }
         }
-        return serviceHandler.hasMessages(urlString.hashCode()) || isActive(urlString);
+        return false;
     }
 
     /**
-     * Check if a URL is actively being downloaded.
+     * Set how many downloads can run at the same time, in total and from any one host.
+     * This takes effect the next time a queued download is started, and doesn't stop
+     * anything which is already running.
      */
-    private static boolean isActive(String urlString) {
-        return downloader != null && TextUtils.equals(urlString, downloader.urlString);
-    }
-
-    public static void setTimeout(int ms) {
-        timeout = ms;
+    public static void setMaxDownloads(int total, int perHost) {
+        maxDownloads = Math.max(1, total);
+        maxDownloadsPerHost = Math.max(1, perHost);
     }
 
     /**
      * Get a prepared {@link IntentFilter} for use for matching this service's action events.
+     * Progress is sent for all downloads at once, so it needs
+     * {@link #getProgressIntentFilter()} instead.
      *
      * @param urlString The full file URL to match.
      */
@@ -354,7 +629,6 @@ public class DownloaderService extends Service {
         Uri uri = Uri.parse(urlString);
         IntentFilter intentFilter = new IntentFilter();
         intentFilter.addAction(Downloader.ACTION_STARTED);
-        intentFilter.addAction(Downloader.ACTION_PROGRESS);
         intentFilter.addAction(Downloader.ACTION_COMPLETE);
         intentFilter.addAction(Downloader.ACTION_INTERRUPTED);
         intentFilter.addAction(Downloader.ACTION_CONNECTION_FAILED);
@@ -363,4 +637,11 @@ public class DownloaderService extends Service {
         intentFilter.addDataPath(uri.getPath(), PatternMatcher.PATTERN_LITERAL);
         return intentFilter;
     }
+
+    /**
+     * Get a prepared {@link IntentFilter} for the {@link Downloader#ACTION_PROGRESS} of all downloads.
+     */
+    public static IntentFilter getProgressIntentFilter() {
+        return new IntentFilter(Downloader.ACTION_PROGRESS);
+    }
 }
@@ -40,8 +40,6 @@ import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 
-import info.guardianproject.netcipher.NetCipher;
-
 /**
  * Download files over HTTP, with support for proxies, {@code .onion} addresses,
  * HTTP Basic Auth, etc.  This is not a full HTTP client!  This is only using
@@ -99,20 +97,34 @@ public class HttpDownloader extends Downloader {
      * In order to prevent the {@code etag} from being used as a form of tracking
      * cookie, this code never sends the {@code etag} to the server.  Instead, it
      * uses a {@code HEAD} request to get the {@code etag} from the server, then
-     * only issues a {@code GET} if the {@code etag} has changed.
+     * only issues a {@code GET} if the {@code etag} has changed.  The {@code HEAD}
+     * connection is handed back to be kept alive, so the {@code GET} does not
+     * have to set up a new one, which can take seconds over Tor.
+     * <p>
+     * When there is a {@link #setCacheTag(String) cacheTag} to check, and no
+     * partial file to resume, there is nothing the {@code HEAD} is needed for,
+     * so the {@code GET} is sent straight away, and dropped as soon as its
+     * headers show the {@code etag} is unchanged.
      *
      * @see <a href="http://lucb1e.com/rp/cookielesscookies">Cookieless cookies</a>
      */
     @Override
     public void download() throws IOException, InterruptedException {
+        if (!TextUtils.isEmpty(cacheTag) && outputFile.length() == 0) {
+            downloadIfChanged();
+            return;
+        }
+
         // get the file size from the server
         HttpURLConnection tmpConn = getConnection();
         tmpConn.setRequestMethod("HEAD");
+        long startTime = System.currentTimeMillis();
         String etag = tmpConn.getHeaderField(HEADER_FIELD_ETAG);
+        connectMillis = System.currentTimeMillis() - startTime;
 
         int contentLength = -1;
         int statusCode = tmpConn.getResponseCode();
-        tmpConn.disconnect();
+        release(tmpConn, statusCode);
         newFileAvailableOnServer = false;
         switch (statusCode) {
             case 200:
@@ -146,12 +158,69 @@ public class HttpDownloader extends Downloader {
         cacheTag = connection.getHeaderField(HEADER_FIELD_ETAG);
     }
 
+    /**
+     * Send the {@code GET} without a {@code HEAD} first, and only read the body
+     * if the {@code etag} in the response headers differs from {@link #cacheTag}.
+     * Otherwise the connection is dropped, which throws away whatever part of
+     * the body was already on its way, but saves a whole round trip.
+     */
+    private void downloadIfChanged() throws IOException, InterruptedException {
+        setupConnection(false);
+        long startTime = System.currentTimeMillis();
+        int statusCode = connection.getResponseCode();
+        connectMillis = System.currentTimeMillis() - startTime;
+        newFileAvailableOnServer = false;
+        switch (statusCode) {
+            case 200:
+                String etag = connection.getHeaderField(HEADER_FIELD_ETAG);
+                if (!TextUtils.isEmpty(etag) && etag.equals(cacheTag)) {
+                    Utils.debugLog(TAG, urlString + " is cached, not downloading");
+                    connection.disconnect();
+                    return;
+                }
+                newFileAvailableOnServer = true;
+                break;
+            case 404:
+                notFound = true;
+                connection.disconnect();
+                return;
+            default:
+                Utils.debugLog(TAG, "GET of " + urlString + " returned " + statusCode + ": "
+                        + connection.getResponseMessage());
+        }
+        Utils.debugLog(TAG, "downloading " + urlString + " in a single request");
+        downloadFromStream(8192, false);
+        cacheTag = connection.getHeaderField(HEADER_FIELD_ETAG);
+    }
+
+    /**
+     * Finish with a connection without closing its socket, so that it can be kept alive
+     * and used for the next request to the same server.  {@link HttpURLConnection#disconnect()}
+     * would close it.  A {@code HEAD} response has no body, so this doesn't read anything.
+     */
+    static void release(HttpURLConnection connection, int statusCode) {
+        try {
+            Utils.closeQuietly(statusCode < 400 ? connection.getInputStream() : connection.getErrorStream());
+        } catch (IOException e) {
+            connection.disconnect();
+        }
+    }
+
     private HttpURLConnection getConnection() throws IOException {
-        HttpURLConnection connection;
-        connection = NetCipher.getHttpURLConnection(sourceUrl);
+        return openConnection(sourceUrl, username, password, getTimeout());
+    }
+
+    /**
+     * Set up a connection the way all of F-Droid's HTTP downloads are done, from the
+     * {@link DownloaderFactory#getHttpEngine() shared engine}, and with HTTP Basic Auth
+     * if {@code username} and {@code password} are both given.
+     */
+    static HttpURLConnection openConnection(URL url, String username, String password, int timeout)
+            throws IOException {
+        HttpURLConnection connection = DownloaderFactory.getHttpEngine().openConnection(url);
 
         connection.setRequestProperty("User-Agent", "F-Droid Classic " + BuildConfig.VERSION_NAME);
-        connection.setConnectTimeout(getTimeout());
+        connection.setConnectTimeout(timeout);
 
         if (username != null && password != null) {
             // add authorization header from username / password if set
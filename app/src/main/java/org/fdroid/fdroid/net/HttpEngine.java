@@ -0,0 +1,22 @@
+package org.fdroid.fdroid.net;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Opens the connections for every HTTP download F-Droid makes, from the index
+ * and APKs down to each icon and screenshot.  Having them all come from one
+ * place is what lets them share keep-alive connections and TLS sessions, and
+ * makes sure none of them get around the proxy or Tor settings.
+ *
+ * @see DownloaderFactory#setHttpEngine(HttpEngine)
+ */
+public interface HttpEngine {
+
+    /**
+     * @return A new connection to {@code url}, which has not been connected yet,
+     * so request headers can still be set on it
+     */
+    HttpURLConnection openConnection(URL url) throws IOException;
+}
@@ -1,22 +1,38 @@
 package org.fdroid.fdroid.net;
 
 import android.content.Context;
+import android.net.Uri;
 
+import com.nostra13.universalimageloader.core.assist.ContentLengthInputStream;
 import com.nostra13.universalimageloader.core.download.BaseImageDownloader;
 
+import org.fdroid.fdroid.data.Repo;
+import org.fdroid.fdroid.data.RepoCache;
+
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
 
 /**
  * Class used by the Universal Image Loader library (UIL) to fetch images for
  * displaying in F-Droid.  A custom subclass is needed since F-Droid's
  * {@link HttpDownloader} provides support for Tor, proxying, and automatic
- * mirror failover.
+ * mirror failover.  Going through it also means that icons and screenshots use
+ * the same {@link HttpEngine} as everything else, so the hundreds of them in
+ * a list share keep-alive connections and TLS sessions.
+ * <p>
+ * Images don't go through a whole {@link Downloader}, since UIL saves the stream
+ * into its own disk cache as it reads it, so there is no file to download to.
+ * The repo credentials are looked up in the {@link RepoCache}, not the database.
  *
  * @see org.fdroid.fdroid.FDroidApp#onCreate()  for where this is setup
  */
 public class ImageLoaderForUIL implements com.nostra13.universalimageloader.core.download.ImageDownloader {
 
+    private static final int BUFFER_SIZE = 32 * 1024;
+
     private final Context context;
 
     public ImageLoaderForUIL(Context context) {
@@ -28,8 +44,23 @@ public class ImageLoaderForUIL implements com.nostra13.universalimageloader.core
         switch (Scheme.ofUri(imageUri)) {
             case HTTP:
             case HTTPS:
-                return DownloaderFactory.create(context, imageUri).getInputStream();
+                return getStreamFromNetwork(imageUri);
         }
         return new BaseImageDownloader(context).getStream(imageUri, extra);
     }
+
+    private InputStream getStreamFromNetwork(String imageUri) throws IOException {
+        Repo repo = RepoCache.findByUrl(context, Uri.parse(imageUri));
+        HttpURLConnection connection = HttpDownloader.openConnection(new URL(imageUri),
+                repo == null ? null : repo.username, repo == null ? null : repo.password,
+                MirrorScoreboard.get(context).getTimeout(repo, imageUri));
+        connection.setReadTimeout(BaseImageDownloader.DEFAULT_HTTP_READ_TIMEOUT);
+        int statusCode = connection.getResponseCode();
+        if (statusCode != 200) {
+            connection.disconnect();
+            throw new IOException(imageUri + " returned " + statusCode + ": " + connection.getResponseMessage());
+        }
+        return new ContentLengthInputStream(new BufferedInputStream(connection.getInputStream(), BUFFER_SIZE),
+                connection.getContentLength());
+    }
 }
@@ -0,0 +1,368 @@
+package org.fdroid.fdroid.net;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.Nullable;
+
+import org.fdroid.fdroid.FDroidApp;
+import org.fdroid.fdroid.Utils;
+import org.fdroid.fdroid.data.Repo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of how well each mirror of each repo has worked: how long it takes to connect,
+ * how fast it sends data, and how often it fails.  Downloads start on the mirror which is
+ * expected to be quickest, and move on to the next best one when a connection fails.
+ * <p>
+ * Connect times, throughput and failure rates are kept across runs in their own
+ * {@link SharedPreferences} file.  Older results count for less and less as new ones come in,
+ * so a mirror which had a bad day is not avoided forever.  How many times in a row a mirror
+ * has just failed is only kept in memory, and is what the timeout for that mirror is based on.
+ * It is reset for a whole repo with {@link #resetFailures(Repo)} when the user starts
+ * something new, and for a single mirror whenever it works.
+ */
+public final class MirrorScoreboard {
+
+    private static final String TAG = "MirrorScoreboard";
+
+    private static final String PREFERENCES_FILE = "mirror-scores";
+
+    public static final int MIN_TIMEOUT = 10000;
+    public static final int MAX_TIMEOUT = 60000;
+
+    /**
+     * Once every mirror of a repo has failed this many times in a row, give up.
+     */
+    private static final int MAX_FAILURES_IN_A_ROW = 3;
+
+    /**
+     * How much each new result counts for in the running averages.
+     */
+    private static final double NEW_RESULT_WEIGHT = 0.3;
+
+    /**
+     * Mirrors are compared by how long they would be expected to take to send a file of
+     * this size, which is roughly an average APK.
+     */
+    private static final double TYPICAL_DOWNLOAD_BYTES = 5 * 1024 * 1024;
+
+    /**
+     * Assumed for mirrors which haven't been used yet.  These are on the optimistic side,
+     * so that new mirrors get tried instead of sticking with the first one which worked.
+     */
+    private static final double DEFAULT_CONNECT_MILLIS = 500;
+    private static final double DEFAULT_BYTES_PER_SECOND = 1024 * 1024;
+
+    private static MirrorScoreboard instance;
+
+    private final SharedPreferences preferences;
+    private final Map<String, Score> scores = new HashMap<>();
+
+    public static synchronized MirrorScoreboard get(Context context) {
+        if (instance == null) {
+            instance = new MirrorScoreboard(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private MirrorScoreboard(Context context) {
+        preferences = context.getSharedPreferences(PREFERENCES_FILE, Context.MODE_PRIVATE);
+        for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+            Score score = Score.fromString(String.valueOf(entry.getValue()));
+            if (score != null) {
+                scores.put(entry.getKey(), score);
+            }
+        }
+        Utils.debugLog(TAG, "Loaded scores for " + scores.size() + " mirrors");
+    }
+
+    /**
+     * @return {@code urlString} moved to the best mirror of {@code repo}, or unchanged if the
+     * repo has no mirrors, or it isn't on any of them.
+     */
+    public synchronized String getBestUrl(@Nullable Repo repo, String urlString) {
+        String current = findMirror(repo, urlString);
+        if (current == null || !repo.hasMirrors()) {
+            return urlString;
+        }
+        String best = getBestMirror(repo, null);
+        return best == null ? urlString : moveToMirror(urlString, current, best);
+    }
+
+    /**
+     * @return {@code urlString} moved to each mirror of {@code repo} which hasn't failed too
+     * often in a row, the one expected to be quickest first.  This is empty if the repo has
+     * no mirrors, or {@code urlString} isn't on any of them.
+     */
+    public synchronized List<String> getUrlsOnAllMirrors(@Nullable Repo repo, String urlString) {
+        List<String> urls = new ArrayList<>();
+        String current = findMirror(repo, urlString);
+        if (current == null || !repo.hasMirrors()) {
+            return urls;
+        }
+        List<String> mirrors = new ArrayList<>();
+        for (String mirror : getMirrors(repo)) {
+            if (getScore(repo, mirror).failuresInARow < MAX_FAILURES_IN_A_ROW) {
+                mirrors.add(mirror);
+            }
+        }
+        Collections.sort(mirrors, (a, b) ->
+                Double.compare(getScore(repo, a).getExpectedMillis(), getScore(repo, b).getExpectedMillis()));
+        for (String mirror : mirrors) {
+            urls.add(moveToMirror(urlString, current, mirror));
+        }
+        return urls;
+    }
+
+    /**
+     * Called after {@code urlString} failed, and had that recorded with
+     * {@link #recordFailure(Repo, String)}.
+     *
+     * @return {@code urlString} moved to the best other mirror of {@code repo}, or to the
+     * same one again if it is the only one which hasn't failed too often yet.
+     * @throws IOException if every mirror has failed too many times in a row
+     */
+    public synchronized String getNextUrl(@Nullable Repo repo, String urlString) throws IOException {
+        String current = findMirror(repo, urlString);
+        if (current == null || !repo.hasMirrors()) {
+            throw new IOException("No mirrors available");
+        }
+        String next = getBestMirror(repo, current);
+        if (next == null && getScore(repo, current).failuresInARow < MAX_FAILURES_IN_A_ROW) {
+            next = current;
+        }
+        if (next == null) {
+            Utils.debugLog(TAG, "Mirrors: Giving up");
+            throw new IOException("Ran out of mirrors");
+        }
+        Utils.debugLog(TAG, "Trying mirror " + next + " after " + current + " failed");
+        return moveToMirror(urlString, current, next);
+    }
+
+    /**
+     * How long to wait to connect to the mirror {@code urlString} is on.  This is a generous
+     * multiple of how long it usually takes, and gets longer each time in a row that the
+     * mirror fails, in case it is just slow rather than down.
+     */
+    public synchronized int getTimeout(@Nullable Repo repo, String urlString) {
+        String mirror = findMirror(repo, urlString);
+        if (mirror == null) {
+            return MIN_TIMEOUT;
+        }
+        Score score = getScore(repo, mirror);
+        double timeout = score.connectMillis > 0 ? score.connectMillis * 8 : MIN_TIMEOUT;
+        timeout = Math.max(MIN_TIMEOUT, timeout) * (1 + 2 * score.failuresInARow);
+        return (int) Math.min(MAX_TIMEOUT, timeout);
+    }
+
+    public void recordSuccess(@Nullable Repo repo, String urlString, Downloader downloader) {
+        recordSuccess(repo, urlString, downloader.getConnectMillis(), downloader.getBytesPerSecond());
+    }
+
+    /**
+     * @param connectMillis  How long the mirror took to respond, or -1 if that is not known
+     * @param bytesPerSecond How fast it sent data, or 0 if that is not known
+     */
+    public synchronized void recordSuccess(@Nullable Repo repo, String urlString,
+                                           long connectMillis, long bytesPerSecond) {
+        String mirror = findMirror(repo, urlString);
+        if (mirror == null) {
+            return;
+        }
+        Score score = getScore(repo, mirror);
+        score.failuresInARow = 0;
+        score.successes = decay(score.successes) + 1;
+        score.failures = decay(score.failures);
+        if (connectMillis >= 0) {
+            score.connectMillis = average(score.connectMillis, connectMillis);
+        }
+        if (bytesPerSecond > 0) {
+            score.bytesPerSecond = average(score.bytesPerSecond, bytesPerSecond);
+        }
+        save(repo, mirror, score);
+    }
+
+    public synchronized void recordFailure(@Nullable Repo repo, String urlString) {
+        String mirror = findMirror(repo, urlString);
+        if (mirror == null) {
+            return;
+        }
+        Score score = getScore(repo, mirror);
+        score.failuresInARow++;
+        score.successes = decay(score.successes);
+        score.failures = decay(score.failures) + 1;
+        save(repo, mirror, score);
+    }
+
+    /**
+     * Forget how many times in a row the mirrors of {@code repo} have failed, so that all
+     * of them get tried again with the shortest timeout.
+     */
+    public synchronized void resetFailures(@Nullable Repo repo) {
+        if (repo == null) {
+            return;
+        }
+        for (String mirror : getMirrors(repo)) {
+            getScore(repo, mirror).failuresInARow = 0;
+        }
+    }
+
+    /**
+     * @return The mirror of {@code repo} which is expected to be quickest, not counting
+     * {@code exclude} or any which have failed too often in a row, or null if there is none.
+     * Mirrors which are expected to be just as quick are picked in the order of
+     * {@link #getMirrors(Repo)}.
+     */
+    @Nullable
+    private String getBestMirror(Repo repo, @Nullable String exclude) {
+        String best = null;
+        double bestMillis = Double.MAX_VALUE;
+        for (String mirror : getMirrors(repo)) {
+            Score score = getScore(repo, mirror);
+            if (mirror.equals(exclude) || score.failuresInARow >= MAX_FAILURES_IN_A_ROW) {
+                continue;
+            }
+            double millis = score.getExpectedMillis();
+            if (millis < bestMillis) {
+                best = mirror;
+                bestMillis = millis;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * The canonical address of {@code repo} followed by all of its mirrors, leaving out
+     * {@code .onion} addresses unless Tor is being used.  Trailing slashes are removed so
+     * that URLs can be moved between mirrors however their addresses were written.
+     */
+    private static List<String> getMirrors(Repo repo) {
+        List<String> all = new ArrayList<>();
+        all.add(repo.address);
+        all.addAll(repo.getMirrorList());
+        Set<String> usable = new LinkedHashSet<>();
+        for (String mirror : all) {
+            if (FDroidApp.isUsingTor() || !mirror.contains(".onion")) {
+                usable.add(mirror.endsWith("/") ? mirror.substring(0, mirror.length() - 1) : mirror);
+            }
+        }
+        return new ArrayList<>(usable);
+    }
+
+    /**
+     * @return The address of the mirror of {@code repo} which {@code urlString} is on, or null
+     * if it isn't on any of them.  If more than one matches, the longest one is the right one.
+     */
+    @Nullable
+    private static String findMirror(@Nullable Repo repo, String urlString) {
+        if (repo == null || urlString == null) {
+            return null;
+        }
+        String found = null;
+        for (String mirror : getMirrors(repo)) {
+            if (isOnMirror(urlString, mirror) && (found == null || mirror.length() > found.length())) {
+                found = mirror;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * The mirror has to be a whole number of path segments of {@code urlString}, so that
+     * {@code https://example.org/repo2/app.apk} is not taken to be on {@code https://example.org/repo}.
+     */
+    private static boolean isOnMirror(String urlString, String mirror) {
+        if (!urlString.startsWith(mirror)) {
+            return false;
+        }
+        return mirror.endsWith("/")
+                || urlString.length() == mirror.length()
+                || urlString.charAt(mirror.length()) == '/';
+    }
+
+    private static String moveToMirror(String urlString, String from, String to) {
+        return to + urlString.substring(from.length());
+    }
+
+    private Score getScore(Repo repo, String mirror) {
+        String key = repo.getId() + " " + mirror;
+        Score score = scores.get(key);
+        if (score == null) {
+            score = new Score();
+            scores.put(key, score);
+        }
+        return score;
+    }
+
+    private void save(Repo repo, String mirror, Score score) {
+        preferences.edit().putString(repo.getId() + " " + mirror, score.toString()).apply();
+    }
+
+    private static double decay(double count) {
+        return count * (1 - NEW_RESULT_WEIGHT);
+    }
+
+    private static double average(double average, double newResult) {
+        if (average <= 0) {
+            return newResult;
+        }
+        return average * (1 - NEW_RESULT_WEIGHT) + newResult * NEW_RESULT_WEIGHT;
+    }
+
+    private static final class Score {
+        double connectMillis = -1;
+        double bytesPerSecond = -1;
+        double successes;
+        double failures;
+
+        /**
+         * Not saved, see {@link #resetFailures(Repo)}.
+         */
+        int failuresInARow;
+
+        /**
+         * How long a typical download is expected to take, allowing for having to try again
+         * after a failure.
+         */
+        double getExpectedMillis() {
+            double connect = connectMillis > 0 ? connectMillis : DEFAULT_CONNECT_MILLIS;
+            double speed = bytesPerSecond > 0 ? bytesPerSecond : DEFAULT_BYTES_PER_SECOND;
+            double successRate = (successes + 1) / (successes + failures + 2);
+            return (connect + TYPICAL_DOWNLOAD_BYTES * 1000 / speed) / successRate;
+        }
+
+        @Nullable
+        static Score fromString(String value) {
+            String[] parts = value.split(" ");
+            if (parts.length != 4) {
+                return null;
+            }
+            try {
+                Score score = new Score();
+                score.connectMillis = Double.parseDouble(parts[0]);
+                score.bytesPerSecond = Double.parseDouble(parts[1]);
+                score.successes = Double.parseDouble(parts[2]);
+                score.failures = Double.parseDouble(parts[3]);
+                return score;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ENGLISH, "%.0f %.0f %.3f %.3f",
+                    connectMillis, bytesPerSecond, successes, failures);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.fdroid.fdroid.net;
+
+import android.os.Build;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URL;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+import info.guardianproject.netcipher.NetCipher;
+
+/**
+ * The {@link HttpEngine} used unless something else is set, which follows the
+ * proxy and Tor settings given to {@link NetCipher}, and only allows TLS.
+ * <p>
+ * {@link NetCipher#getHttpURLConnection(URL)} makes a new {@link SSLSocketFactory},
+ * with its own {@link javax.net.ssl.SSLContext}, for every connection.  The
+ * platform only puts connections into the same keep-alive pool when they use the
+ * same socket factory, and TLS sessions are only cached per {@code SSLContext},
+ * so that way every request needs a new connection and a full TLS handshake.
+ * Here, one socket factory is made and then used for everything.
+ * <p>
+ * Before {@link Build.VERSION_CODES#JELLY_BEAN}, {@link NetCipher} also sets a strict
+ * hostname verifier from the legacy Apache HTTP classes, which are not in the SDK this is
+ * built against, so on those versions each connection is left to {@link NetCipher}.
+ */
+public class NetCipherHttpEngine implements HttpEngine {
+
+    /**
+     * {@code .onion} addresses only work via Tor, so they always go through Orbot,
+     * the same as {@link NetCipher} does it.
+     */
+    private static final Proxy ORBOT_HTTP_PROXY = new Proxy(Proxy.Type.HTTP,
+            new InetSocketAddress("127.0.0.1", 8118));
+
+    private SSLSocketFactory socketFactory;
+
+    @Override
+    public HttpURLConnection openConnection(URL url) throws IOException {
+        if (Build.VERSION.SDK_INT < 16) {
+            return NetCipher.getHttpURLConnection(url);
+        }
+        Proxy proxy = url.getHost().endsWith(".onion") ? ORBOT_HTTP_PROXY : NetCipher.getProxy();
+        HttpURLConnection connection;
+        if (proxy == null) {
+            connection = (HttpURLConnection) url.openConnection();
+        } else {
+            connection = (HttpURLConnection) url.openConnection(proxy);
+        }
+        if (connection instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) connection).setSSLSocketFactory(getSocketFactory());
+        }
+        return connection;
+    }
+
+    private synchronized SSLSocketFactory getSocketFactory() {
+        if (socketFactory == null) {
+            socketFactory = NetCipher.getTlsOnlySocketFactory();
+        }
+        return socketFactory;
+    }
+}
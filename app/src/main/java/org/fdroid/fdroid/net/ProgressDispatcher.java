@@ -0,0 +1,118 @@
+package org.fdroid.fdroid.net;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports the progress of every running {@link Downloader} from one shared thread.
+ * Once per {@link #FRAME_MILLIS frame}, it looks at how far each download has got, and
+ * passes on all of the ones which moved since the last frame together in one batch.
+ * This replaces a {@link java.util.Timer}, and so a thread, per download, which each
+ * sent updates on their own, even when nothing had changed.
+ * <p>
+ * Each download's own {@link org.fdroid.fdroid.ProgressListener} is still called, and a
+ * {@link BatchListener} gets the whole batch, e.g. so that {@link DownloaderService}
+ * can send one broadcast per frame, whatever the number of downloads.
+ * <p>
+ * Progress is sampled and delivered while holding the lock on this class, so once
+ * {@link #unregister(Downloader)} returns, nothing more will be reported for that download.
+ * Listeners must therefore be quick, and must not wait for another download to finish.
+ */
+public final class ProgressDispatcher {
+
+    static final long FRAME_MILLIS = 100;
+
+    public interface BatchListener {
+        /**
+         * Called on the dispatcher's thread, with every download which moved since the last frame.
+         */
+        void onProgress(List<Progress> batch);
+    }
+
+    public static final class Progress {
+        public final Downloader downloader;
+        public final long bytesRead;
+        public final long totalBytes;
+
+        Progress(Downloader downloader, long bytesRead, long totalBytes) {
+            this.downloader = downloader;
+            this.bytesRead = bytesRead;
+            this.totalBytes = totalBytes;
+        }
+    }
+
+    /**
+     * Each registered download, with how much of it had been read when it was last reported.
+     */
+    private static final Map<Downloader, Long> ACTIVE = new LinkedHashMap<>();
+    private static final List<BatchListener> LISTENERS = new CopyOnWriteArrayList<>();
+
+    private static ScheduledExecutorService executor;
+    private static ScheduledFuture<?> frames;
+
+    private ProgressDispatcher() {
+    }
+
+    public static void addBatchListener(BatchListener listener) {
+        LISTENERS.add(listener);
+    }
+
+    public static void removeBatchListener(BatchListener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    /**
+     * Start reporting the progress of {@code downloader}.  The thread is only started,
+     * or kept running, while there is something to report.
+     */
+    static synchronized void register(Downloader downloader) {
+        ACTIVE.put(downloader, -1L);
+        if (frames == null) {
+            if (executor == null) {
+                executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "ProgressDispatcher");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            frames = executor.scheduleAtFixedRate(ProgressDispatcher::dispatchFrame,
+                    0, FRAME_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    static synchronized void unregister(Downloader downloader) {
+        ACTIVE.remove(downloader);
+        if (ACTIVE.isEmpty() && frames != null) {
+            frames.cancel(false);
+            frames = null;
+        }
+    }
+
+    private static synchronized void dispatchFrame() {
+        List<Progress> batch = new ArrayList<>();
+        for (Map.Entry<Downloader, Long> entry : ACTIVE.entrySet()) {
+            Downloader downloader = entry.getKey();
+            long bytesRead = downloader.getBytesRead();
+            if (bytesRead != entry.getValue()) {
+                entry.setValue(bytesRead);
+                batch.add(new Progress(downloader, bytesRead, downloader.getTotalBytes()));
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        for (Progress progress : batch) {
+            progress.downloader.sendProgress(progress.bytesRead, progress.totalBytes);
+        }
+        for (BatchListener listener : LISTENERS) {
+            listener.onProgress(batch);
+        }
+    }
+}
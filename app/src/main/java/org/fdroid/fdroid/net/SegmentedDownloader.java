@@ -0,0 +1,406 @@
+package org.fdroid.fdroid.net;
+
+import android.net.Uri;
+
+import com.google.common.io.Files;
+
+import org.fdroid.fdroid.HashingUtils;
+import org.fdroid.fdroid.Utils;
+import org.fdroid.fdroid.data.Repo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads a single file from several mirrors of a repo at the same time.  The file is
+ * split into segments, which are requested with the HTTP {@code Range} header, and written
+ * straight to where they belong in a file which is given its full size up front.  Each mirror
+ * takes the next segment as soon as it has finished the last one, so the faster mirrors end
+ * up sending most of the file, and a mirror which fails leaves whatever it had not sent yet
+ * for the others to finish.
+ * <p>
+ * Since the parts come from different servers, and are not written in order, the finished
+ * file is always checked against the SHA-256 from the index before it is moved to
+ * {@link #outputFile}.  Until then it is kept next to it with a {@code .part} suffix, so a
+ * half finished file with holes in it is never mistaken for the start of a download that
+ * {@link HttpDownloader} could resume.
+ *
+ * @see DownloaderFactory#createSegmented(android.content.Context, Repo, List, File, String)
+ */
+public class SegmentedDownloader extends Downloader {
+    private static final String TAG = "SegmentedDownloader";
+
+    /**
+     * Every segment means another request, so they are never made smaller than this.
+     * Files which are not at least twice this size are downloaded from a single mirror.
+     */
+    static final long MIN_SEGMENT_BYTES = 1024 * 1024;
+
+    /**
+     * How many mirrors are used at most for one download.
+     */
+    static final int MAX_MIRRORS = 4;
+
+    /**
+     * Each mirror would get this many segments if they were all as fast as each other.
+     * Having more segments than mirrors is what lets the faster ones take on more of them.
+     */
+    private static final int SEGMENTS_PER_MIRROR = 4;
+
+    /**
+     * Thrown when the file turns out not to be one that can be split up, either because it is
+     * too small or because a mirror does not answer {@code Range} requests.  The file should
+     * then be downloaded from one mirror by a plain {@link HttpDownloader} instead.
+     */
+    public static class CannotSegmentException extends IOException {
+        CannotSegmentException(String message) {
+            super(message);
+        }
+    }
+
+    private final List<String> mirrorUrls;
+    private final String username;
+    private final String password;
+    private final String sha256;
+    private final Repo repo;
+    private final MirrorScoreboard scoreboard;
+
+    private final AtomicLong downloaded = new AtomicLong();
+    private long contentLength = -1;
+    private boolean downloadedNewFile;
+
+    /**
+     * The part of the file from {@code start} up to, but not including, {@code end}.
+     * Only one thread works on a segment at a time, moving {@code start} along as the
+     * data is written.
+     */
+    private static final class Segment {
+        long start;
+        final long end;
+
+        Segment(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * @param mirrorUrls The same file on each mirror to download it from, best first
+     * @param sha256     The hash the index gives for the file
+     */
+    SegmentedDownloader(List<String> mirrorUrls, File destFile, String username, String password,
+                        String sha256, Repo repo, MirrorScoreboard scoreboard) {
+        super(Uri.parse(mirrorUrls.get(0)), destFile);
+        this.mirrorUrls = new ArrayList<>(mirrorUrls.subList(0, Math.min(MAX_MIRRORS, mirrorUrls.size())));
+        this.username = username;
+        this.password = password;
+        this.sha256 = sha256;
+        this.repo = repo;
+        this.scoreboard = scoreboard;
+    }
+
+    /**
+     * @param size How big the file is, if it is known
+     * @return Whether a file of {@code size} bytes is big enough to have more than one segment
+     */
+    public static boolean isWorthSegmenting(long size) {
+        return size >= 2 * MIN_SEGMENT_BYTES;
+    }
+
+    @Override
+    protected InputStream getDownloadersInputStream() throws IOException {
+        throw new IOException("Segmented downloads can only be saved to a file");
+    }
+
+    /**
+     * @throws CannotSegmentException Before anything has been written, if the file is too
+     *                                small to split up or its size is not given, and part way
+     *                                through, if a mirror sends the whole file back instead of
+     *                                the range asked for
+     */
+    @Override
+    public void download() throws IOException, InterruptedException {
+        hash = null;
+        downloadedNewFile = false;
+        contentLength = getContentLength();
+        if (notFound) {
+            return;
+        }
+        if (!isWorthSegmenting(contentLength)) {
+            throw new CannotSegmentException(urlString + " is only " + contentLength + " bytes");
+        }
+
+        long fileLength = outputFile.length();
+        if (fileLength > contentLength) {
+            outputFile.delete();
+        } else if (fileLength == contentLength && outputFile.isFile()) {
+            return; // already have it!
+        }
+
+        HashingUtils.deleteHashSidecar(outputFile);
+        File partFile = new File(outputFile.getPath() + ".part");
+        partFile.delete();
+        // a file left in place by HttpDownloader is only ever the start of this one, so keep that part
+        long alreadyDownloaded = 0;
+        if (outputFile.isFile() && outputFile.renameTo(partFile)) {
+            alreadyDownloaded = partFile.length();
+        }
+        outputFile.delete();
+
+        boolean verified = false;
+        RandomAccessFile file = new RandomAccessFile(partFile, "rw");
+        try {
+            file.setLength(contentLength);
+            downloadSegments(file.getChannel(), alreadyDownloaded);
+            file.close();
+
+            // Even if we have completely downloaded the file, we should probably respect
+            // the wishes of the user who wanted to cancel us.
+            throwExceptionIfInterrupted();
+
+            String downloadedHash = Files.asByteSource(partFile)
+                    .hash(HashingUtils.getHashFunction(HASH_TYPE)).toString();
+            if (!sha256.equalsIgnoreCase(downloadedHash)) {
+                throw new IOException(urlString + " did not match the hash from the index");
+            }
+            if (!partFile.renameTo(outputFile)) {
+                throw new IOException("Could not move " + partFile + " to " + outputFile);
+            }
+            hash = downloadedHash;
+            downloadedNewFile = true;
+            verified = true;
+        } finally {
+            Utils.closeQuietly(file);
+            if (!verified) {
+                partFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Ask the best mirror how big the file is.  Unlike a plain download, this has to
+     * be known before anything is fetched, since that is what the segments are made from.
+     */
+    private long getContentLength() throws IOException {
+        HttpURLConnection connection = HttpDownloader.openConnection(new URL(urlString),
+                username, password, getTimeout());
+        connection.setRequestMethod("HEAD");
+        long startTime = System.currentTimeMillis();
+        int statusCode = connection.getResponseCode();
+        connectMillis = System.currentTimeMillis() - startTime;
+        HttpDownloader.release(connection, statusCode);
+        switch (statusCode) {
+            case 200:
+                // getContentLength() is an int, and getContentLengthLong() needs API 24
+                long length = -1;
+                String header = connection.getHeaderField("Content-Length");
+                if (header != null) {
+                    try {
+                        length = Long.parseLong(header.trim());
+                    } catch (NumberFormatException e) {
+                        // treated the same as not being given at all
+                    }
+                }
+                if (length <= 0) {
+                    throw new CannotSegmentException(urlString + " did not give its size");
+                }
+                return length;
+            case 404:
+                notFound = true;
+                return -1;
+            default:
+                throw new IOException("HEAD check of " + urlString + " returned " + statusCode + ": "
+                        + connection.getResponseMessage());
+        }
+    }
+
+    /**
+     * Split what is left of the file after {@code start} into segments, and have one thread
+     * per mirror work through them.  If a mirror fails, the rest of its segment goes back to
+     * be picked up by another one, and once all of the threads are done, any segments which
+     * are left are shared out again among the mirrors that still work.
+     *
+     * @throws IOException The last error, if every mirror failed before the file was complete
+     */
+    private void downloadSegments(final FileChannel channel, long start) throws IOException, InterruptedException {
+        final Queue<Segment> pending = new ConcurrentLinkedQueue<>();
+        long segmentBytes = Math.max(MIN_SEGMENT_BYTES,
+                (contentLength - start) / (mirrorUrls.size() * SEGMENTS_PER_MIRROR) + 1);
+        for (long offset = start; offset < contentLength; offset += segmentBytes) {
+            pending.add(new Segment(offset, Math.min(contentLength, offset + segmentBytes)));
+        }
+        List<String> working = new ArrayList<>(mirrorUrls.subList(0, Math.min(mirrorUrls.size(), pending.size())));
+        Utils.debugLog(TAG, "Downloading " + urlString + " in " + pending.size() + " segments from "
+                + working.size() + " mirrors");
+
+        downloaded.set(start);
+        bytesPerSecond = 0;
+        startProgressUpdates(contentLength);
+        ExecutorService executor = Executors.newFixedThreadPool(working.size());
+        try {
+            long startTime = System.currentTimeMillis();
+            IOException lastFailure = null;
+            while (!pending.isEmpty()) {
+                if (working.isEmpty()) {
+                    throw lastFailure;
+                }
+                List<Future<Void>> futures = new ArrayList<>();
+                for (final String mirrorUrl : working) {
+                    futures.add(executor.submit(() -> {
+                        downloadSegmentsFromMirror(mirrorUrl, pending, channel);
+                        return null;
+                    }));
+                }
+                List<String> stillWorking = new ArrayList<>();
+                for (int i = 0; i < futures.size(); i++) {
+                    try {
+                        futures.get(i).get();
+                        stillWorking.add(working.get(i));
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof InterruptedException) {
+                            throw (InterruptedException) cause;
+                        } else if (cause instanceof CannotSegmentException) {
+                            throw (CannotSegmentException) cause;
+                        } else if (cause instanceof IOException) {
+                            Utils.debugLog(TAG, "Giving up on " + working.get(i) + ": " + cause.getLocalizedMessage());
+                            lastFailure = (IOException) cause;
+                        } else {
+                            throw new RuntimeException(cause);
+                        }
+                    }
+                }
+                working = stillWorking;
+            }
+            long millis = System.currentTimeMillis() - startTime;
+            long bytes = contentLength - start;
+            if (bytes >= MIN_BYTES_FOR_SPEED && millis > 0) {
+                bytesPerSecond = bytes * 1000 / millis;
+            }
+        } finally {
+            stopProgressUpdates();
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Keep taking segments and downloading them from {@code mirrorUrl} until there are none
+     * left, then record how well the mirror did in the {@link MirrorScoreboard}.
+     */
+    private void downloadSegmentsFromMirror(String mirrorUrl, Queue<Segment> pending, FileChannel channel)
+            throws IOException, InterruptedException {
+        long startTime = System.currentTimeMillis();
+        long mirrorConnectMillis = -1;
+        long mirrorBytes = 0;
+        Segment segment;
+        while ((segment = pending.poll()) != null) {
+            long segmentStart = segment.start;
+            try {
+                long millis = downloadSegment(mirrorUrl, segment, channel);
+                if (mirrorConnectMillis < 0) {
+                    mirrorConnectMillis = millis;
+                }
+            } catch (CannotSegmentException e) {
+                // the mirror works, it just can not be used for this
+                pending.add(segment);
+                throw e;
+            } catch (IOException e) {
+                pending.add(segment);
+                scoreboard.recordFailure(repo, mirrorUrl);
+                throw e;
+            } finally {
+                mirrorBytes += segment.start - segmentStart;
+            }
+        }
+        if (mirrorConnectMillis >= 0) {
+            long millis = System.currentTimeMillis() - startTime;
+            long mirrorBytesPerSecond = mirrorBytes >= MIN_BYTES_FOR_SPEED && millis > 0
+                    ? mirrorBytes * 1000 / millis : 0;
+            scoreboard.recordSuccess(repo, mirrorUrl, mirrorConnectMillis, mirrorBytesPerSecond);
+        }
+    }
+
+    /**
+     * Download the rest of {@code segment} from {@code mirrorUrl}.  The connection is only
+     * dropped if something went wrong, otherwise it is left to be kept alive for the next
+     * segment from the same mirror.
+     *
+     * @return How long the mirror took to respond
+     */
+    private long downloadSegment(String mirrorUrl, Segment segment, FileChannel channel)
+            throws IOException, InterruptedException {
+        HttpURLConnection connection = HttpDownloader.openConnection(new URL(mirrorUrl),
+                username, password, scoreboard.getTimeout(repo, mirrorUrl));
+        connection.setRequestProperty("Range", "bytes=" + segment.start + "-" + (segment.end - 1));
+        InputStream input = null;
+        boolean complete = false;
+        try {
+            long startTime = System.currentTimeMillis();
+            int statusCode = connection.getResponseCode();
+            long millis = System.currentTimeMillis() - startTime;
+            if (statusCode == 200) {
+                throw new CannotSegmentException(mirrorUrl + " sent the whole file instead of the requested range");
+            } else if (statusCode != 206) {
+                throw new IOException(mirrorUrl + " returned " + statusCode + " instead of the requested range");
+            }
+            input = connection.getInputStream();
+            byte[] buffer = new byte[8192];
+            while (segment.start < segment.end) {
+                int count = input.read(buffer, 0, (int) Math.min(buffer.length, segment.end - segment.start));
+                throwExceptionIfInterrupted();
+                if (count == -1) {
+                    throw new IOException(mirrorUrl + " ended before the requested range did");
+                }
+                ByteBuffer data = ByteBuffer.wrap(buffer, 0, count);
+                while (data.hasRemaining()) {
+                    segment.start += channel.write(data, segment.start);
+                }
+                downloaded.addAndGet(count);
+            }
+            complete = true;
+            return millis;
+        } finally {
+            Utils.closeQuietly(input);
+            if (!complete) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    @Override
+    long getBytesRead() {
+        return downloaded.get();
+    }
+
+    @Override
+    protected long totalDownloadSize() {
+        return contentLength;
+    }
+
+    @Override
+    public boolean hasChanged() {
+        return downloadedNewFile;
+    }
+
+    /**
+     * Each segment closes its own connection, there is nothing left open between them.
+     */
+    @Override
+    protected void close() {
+    }
+}
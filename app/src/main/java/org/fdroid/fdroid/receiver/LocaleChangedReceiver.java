@@ -0,0 +1,25 @@
+package org.fdroid.fdroid.receiver;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+import org.fdroid.fdroid.Utils;
+import org.fdroid.fdroid.data.AppProvider;
+
+/**
+ * Receive {@link Intent#ACTION_LOCALE_CHANGED} to start sorting the lists of apps for the new
+ * locale straight away, rather than when one of them is next read.
+ */
+public class LocaleChangedReceiver extends BroadcastReceiver {
+    private static final String TAG = "LocaleChangedReceiver";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (intent != null && Intent.ACTION_LOCALE_CHANGED.equals(intent.getAction())) {
+            AppProvider.Helper.rebuildAppListIfNeeded(context);
+        } else {
+            Utils.debugLog(TAG, "unsupported Intent " + intent);
+        }
+    }
+}
@@ -15,6 +15,7 @@ import org.fdroid.fdroid.IconLoadingManager;
 import org.fdroid.fdroid.LazyLoadingHelper;
 import org.fdroid.fdroid.R;
 import org.fdroid.fdroid.data.App;
+import org.fdroid.fdroid.data.CursorMapping;
 
 public abstract class AppListAdapter extends CursorAdapter
         implements LazyLoadingHelper.Callbacks<App, AppListAdapter.LazyViewData> {
@@ -24,6 +25,11 @@ public abstract class AppListAdapter extends CursorAdapter
     private LazyLoadingHelper<App, LazyViewData> lazyLoadingHelper;
     private IconLoadingManager iconLoadingManager;
 
+    /**
+     * Worked out again each time the cursor is swapped, rather than for each row that is bound.
+     */
+    private CursorMapping<App> appMapping;
+
     @SuppressLint("RestrictedApi")
     @Override
     public boolean isEmpty() {
@@ -33,6 +39,7 @@ public abstract class AppListAdapter extends CursorAdapter
     AppListAdapter(Context context, Cursor c, int flags) {
         super(context, c, flags);
         init(context);
+        appMapping = c == null ? null : App.getCursorMapping(c);
     }
 
     private void init(Context context) {
@@ -43,6 +50,12 @@ public abstract class AppListAdapter extends CursorAdapter
         iconLoadingManager = IconLoadingManager.getInstance();
     }
 
+    @Override
+    public Cursor swapCursor(Cursor newCursor) {
+        appMapping = newCursor == null ? null : App.getCursorMapping(newCursor);
+        return super.swapCursor(newCursor);
+    }
+
     protected abstract boolean showStatusUpdate();
 
     protected abstract boolean showStatusInstalled();
@@ -85,7 +98,7 @@ public abstract class AppListAdapter extends CursorAdapter
     }
 
     private void setupView(View view, Cursor cursor, ViewHolder holder) {
-        final App app = new App(cursor);
+        final App app = new App(cursor, appMapping);
 
         holder.name.setText(app.name);
         holder.summary.setText(app.summary);
@@ -20,7 +20,7 @@ import org.fdroid.fdroid.data.ApkProvider;
 import org.fdroid.fdroid.data.App;
 import org.fdroid.fdroid.data.InstalledAppProvider;
 import org.fdroid.fdroid.data.Repo;
-import org.fdroid.fdroid.data.RepoProvider;
+import org.fdroid.fdroid.data.RepoCache;
 
 import java.util.List;
 
@@ -105,7 +105,7 @@ class ApkListAdapter extends ArrayAdapter<Apk> {
             holder.versionCode.setText(String.format("(%s)", apk.versionCode));
         }
         holder.status.setText(getInstalledStatus(apk));
-        Repo repo = RepoProvider.Helper.findById(context, apk.repoId);
+        Repo repo = RepoCache.get(context, apk.repoId);
         if (repo != null) {
             holder.repository.setText(String.format(context.getString(R.string.repo_provider), repo.getName()));
         } else {
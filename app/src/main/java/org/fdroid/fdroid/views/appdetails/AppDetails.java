@@ -329,6 +329,7 @@ public class AppDetails extends AppCompatActivity {
             return;
         }
         localBroadcastManager.unregisterReceiver(downloadReceiver);
+        localBroadcastManager.unregisterReceiver(progressReceiver);
     }
 
     private void registerDownloaderReceiver() {
@@ -336,9 +337,31 @@ public class AppDetails extends AppCompatActivity {
             String url = activeDownloadUrlString;
             localBroadcastManager.registerReceiver(downloadReceiver,
                     DownloaderService.getIntentFilter(url));
+            localBroadcastManager.registerReceiver(progressReceiver,
+                    DownloaderService.getProgressIntentFilter());
         }
     }
 
+    /**
+     * Progress comes for all downloads at once, so this picks out the one shown here.
+     */
+    private final BroadcastReceiver progressReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            String[] urls = intent.getStringArrayExtra(Downloader.EXTRA_URLS);
+            long[] bytesRead = intent.getLongArrayExtra(Downloader.EXTRA_BYTES_READ);
+            long[] totalBytes = intent.getLongArrayExtra(Downloader.EXTRA_TOTAL_BYTES);
+            if (urls == null || bytesRead == null || totalBytes == null || headerFragment == null) {
+                return;
+            }
+            for (int i = 0; i < urls.length; i++) {
+                if (urls[i].equals(activeDownloadUrlString)) {
+                    headerFragment.updateProgress(bytesRead[i], totalBytes[i]);
+                }
+            }
+        }
+    };
+
     private final BroadcastReceiver downloadReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
@@ -348,12 +371,6 @@ public class AppDetails extends AppCompatActivity {
                         headerFragment.startProgress();
                     }
                     break;
-                case Downloader.ACTION_PROGRESS:
-                    if (headerFragment != null) {
-                        headerFragment.updateProgress(intent.getLongExtra(Downloader.EXTRA_BYTES_READ, -1),
-                                intent.getLongExtra(Downloader.EXTRA_TOTAL_BYTES, -1));
-                    }
-                    break;
                 case Downloader.ACTION_COMPLETE:
                     // Starts the install process one the download is complete.
                     cleanUpFinishedDownload();
@@ -10,6 +10,8 @@ import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -33,6 +35,7 @@ import org.fdroid.fdroid.R;
 import org.fdroid.fdroid.UpdateService;
 import org.fdroid.fdroid.Utils;
 import org.fdroid.fdroid.data.App;
+import org.fdroid.fdroid.data.AppProvider;
 import org.fdroid.fdroid.data.Schema.AppMetadataTable;
 import org.fdroid.fdroid.receiver.UpdatingReceiver;
 import org.fdroid.fdroid.views.AppListAdapter;
@@ -63,16 +66,58 @@ public abstract class AppListFragment extends ListFragment implements
             AppMetadataTable.Cols.ANTI_FEATURES, // Needed for filtering apps that require anti-features.
             AppMetadataTable.Cols.IS_APK, // If we don't have this checking if an app is installed is super expensive.
             AppMetadataTable.Cols.REPO_ID,
+            AppMetadataTable.Cols.PAGE_KEY, // Where to start the next page from.
     };
 
     private static final String APP_SORT = AppMetadataTable.Cols.NAME;
 
+    /**
+     * How long to wait after the search query last changed before running it, so that typing a
+     * word results in one query rather than one for every character.
+     */
+    private static final long SEARCH_DELAY_MS = 300;
+
+    /**
+     * Passed to {@link #onCreateLoader(int, Bundle)} when the loader is restarted because the
+     * search query was typed into, which is the only time the previous results can be refined.
+     */
+    private static final String ARG_REFINE_SEARCH = "refineSearch";
+
+    /**
+     * The results of a search are only remembered for narrowing down the next one if there are
+     * few enough of them to list in the selection of the next query.
+     */
+    private static final int MAX_REFINABLE_RESULTS = 500;
+
     protected abstract int getLayout();
 
     private AppListAdapter appAdapter;
+    private AppListPager pager;
 
     @Nullable private String searchQuery;
 
+    /**
+     * The query of the loader which was most recently created, whose results are the next to
+     * arrive in {@link #onLoadFinished(Loader, Cursor)}.
+     */
+    @Nullable private String loadingQuery;
+
+    /**
+     * The query which produced {@link #refinableResultIds}.
+     */
+    @Nullable private String refinableQuery;
+    @Nullable private long[] refinableResultIds;
+
+    private final Handler searchHandler = new Handler(Looper.getMainLooper());
+
+    private final Runnable restartSearch = () -> {
+        if (isAdded()) {
+            Bundle args = new Bundle();
+            args.putBoolean(ARG_REFINE_SEARCH, true);
+            LoaderManager.getInstance(this).restartLoader(0, args, this);
+        }
+    };
+
     private BroadcastReceiver receiver;
     private SwipeRefreshLayout pullToRefresh;
 
@@ -142,6 +187,13 @@ public abstract class AppListFragment extends ListFragment implements
         // returns the list view is "called between onCreate and
         // onActivityCreated" according to the docs.
         getListView().setOnItemClickListener(this);
+        getListView().setOnScrollListener(pager);
+    }
+
+    @Override
+    public void onDestroy() {
+        searchHandler.removeCallbacks(restartSearch);
+        super.onDestroy();
     }
 
     @Override
@@ -177,6 +229,7 @@ public abstract class AppListFragment extends ListFragment implements
         super.onCreate(savedInstanceState);
 
         appAdapter = getAppListAdapter();
+        pager = new AppListPager(requireContext(), appAdapter);
 
         if (appAdapter.getCount() == 0) {
             updateEmptyRepos();
@@ -229,20 +282,84 @@ public abstract class AppListFragment extends ListFragment implements
 
     @Override
     public void onLoadFinished(@NonNull Loader<Cursor> loader, Cursor data) {
-        appAdapter.swapCursor(data);
+        pager.onFirstPageLoaded((CursorLoader) loader, data);
+        rememberSearchResults(data);
+    }
+
+    /**
+     * Keeps the IDs of the apps found by a search. If the user then carries on typing, the new
+     * query can only match a subset of these, so it only needs to look at them rather than at
+     * every app in the database.
+     */
+    private void rememberSearchResults(@Nullable Cursor cursor) {
+        refinableQuery = null;
+        refinableResultIds = null;
+        if (cursor == null || TextUtils.isEmpty(loadingQuery) || cursor.getCount() > MAX_REFINABLE_RESULTS) {
+            return;
+        }
+
+        long[] ids = new long[cursor.getCount()];
+        int idIndex = cursor.getColumnIndexOrThrow(AppMetadataTable.Cols._ID);
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            ids[cursor.getPosition()] = cursor.getLong(idIndex);
+        }
+        refinableQuery = loadingQuery;
+        refinableResultIds = ids;
+    }
+
+    /**
+     * Every word of a search must be the start of a word in the app, so adding characters to the
+     * end of the query can only ever remove results, never add new ones.
+     */
+    private boolean isRefinementOfPreviousSearch(@NonNull String query) {
+        return refinableResultIds != null && refinableQuery != null
+                && query.length() > refinableQuery.length() && query.startsWith(refinableQuery);
     }
 
     @Override
     public void onLoaderReset(@NonNull Loader<Cursor> loader) {
-        appAdapter.swapCursor(null);
+        pager.reset();
     }
 
     @NonNull
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        Uri uri = updateSearchStatus() ? getDataUri(searchQuery) : getDataUri();
-        return new CursorLoader(
-                getActivity(), uri, APP_PROJECTION, null, null, APP_SORT);
+        Uri uri;
+        String selection = null;
+        if (updateSearchStatus()) {
+            uri = getDataUri(searchQuery);
+            boolean refineSearch = args != null && args.getBoolean(ARG_REFINE_SEARCH);
+            if (refineSearch && isRefinementOfPreviousSearch(searchQuery)) {
+                selection = AppProvider.getRowIdSelection(refinableResultIds);
+            }
+        } else {
+            uri = getDataUri();
+        }
+        loadingQuery = searchQuery;
+
+        // Restarting the loader cancels the query of the previous one if it is still running.
+        // Only the first page is loaded here, the rest follow as the list is scrolled.
+        return new AppListLoader(
+                getActivity(), pager.getFirstPageUri(uri), APP_PROJECTION, selection, null, APP_SORT);
+    }
+
+    /**
+     * Reads the whole search again when the apps change, rather than only the results of the
+     * search it was refined from, which may now be missing apps which match.
+     */
+    private static class AppListLoader extends CursorLoader {
+
+        AppListLoader(@NonNull Context context, @NonNull Uri uri, @Nullable String[] projection,
+                      @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+            super(context, uri, projection, selection, selectionArgs, sortOrder);
+        }
+
+        @Override
+        public void onContentChanged() {
+            setSelection(null);
+            super.onContentChanged();
+        }
     }
 
     /**
@@ -266,8 +383,11 @@ public abstract class AppListFragment extends ListFragment implements
     public void updateSearchQuery(@Nullable String query) {
         if (!TextUtils.equals(query, searchQuery)) {
             searchQuery = query;
+            searchHandler.removeCallbacks(restartSearch);
             if (isAdded()) {
-                LoaderManager.getInstance(this).restartLoader(0, null, this);
+                // Clearing the search goes straight back to the full list.
+                long delay = TextUtils.isEmpty(query) ? 0 : SEARCH_DELAY_MS;
+                searchHandler.postDelayed(restartSearch, delay);
             }
         }
     }
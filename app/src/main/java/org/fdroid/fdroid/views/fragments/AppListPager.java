@@ -0,0 +1,215 @@
+package org.fdroid.fdroid.views.fragments;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MergeCursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.BaseColumns;
+import android.widget.AbsListView;
+
+import androidx.annotation.Nullable;
+import androidx.cursoradapter.widget.CursorAdapter;
+import androidx.loader.content.CursorLoader;
+
+import org.fdroid.fdroid.FDroidApp;
+import org.fdroid.fdroid.Utils;
+import org.fdroid.fdroid.data.AppProvider;
+import org.fdroid.fdroid.data.Schema.AppMetadataTable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Shows a list of apps from {@link AppProvider} one page at a time, so that it can be drawn as
+ * soon as the first page has been read instead of after the whole list.  The {@link CursorLoader}
+ * only ever asks for the first page, and as the list is scrolled towards the end of what has
+ * been loaded, the next page is read on {@link FDroidApp#getDatabaseExecutor()} and added to the
+ * end of the adapter's cursor with a {@link MergeCursor}.
+ * <p>
+ * Each page starts after the {@link AppMetadataTable.Cols#PAGE_KEY} and id of the last app of
+ * the page before it, see {@link AppProvider#getPageUri(Uri, int, String, long)}.  Lists which
+ * can not be read that way come back whole, with no page key, and then there is nothing more
+ * to load.
+ */
+class AppListPager implements AbsListView.OnScrollListener {
+
+    private static final String TAG = "AppListPager";
+
+    static final int PAGE_SIZE = 100;
+
+    /**
+     * How many rows before the end of what has been loaded to start reading the next page, so
+     * that it is usually there before it is scrolled to.
+     */
+    private static final int PREFETCH_DISTANCE = PAGE_SIZE / 2;
+
+    private final ContentResolver resolver;
+    private final CursorAdapter adapter;
+    private final Executor databaseExecutor;
+    private final Executor mainExecutor;
+
+    @Nullable private CursorLoader loader;
+    @Nullable private Uri listUri;
+
+    /**
+     * The first page, which belongs to the {@link #loader}, followed by the pages read here,
+     * which are closed here.
+     */
+    private final List<Cursor> pages = new ArrayList<>();
+
+    /**
+     * Pages which have been thrown away, but are still in the adapter's cursor until it is
+     * given its next one.
+     */
+    private final List<Cursor> discardedPages = new ArrayList<>();
+
+    /**
+     * Counts up each time the pages are thrown away, so that a page which was still being read
+     * at the time can tell that it is no longer wanted.
+     */
+    private int generation;
+    private int rowCount;
+    private boolean loading;
+    private boolean hasMore;
+
+    AppListPager(Context context, CursorAdapter adapter) {
+        this(context, adapter, FDroidApp.getDatabaseExecutor(), new Handler(Looper.getMainLooper())::post);
+    }
+
+    /**
+     * @param databaseExecutor executor used for reading pages
+     * @param mainExecutor     executor used for adding them to the adapter
+     */
+    AppListPager(Context context, CursorAdapter adapter, Executor databaseExecutor, Executor mainExecutor) {
+        this.resolver = context.getApplicationContext().getContentResolver();
+        this.adapter = adapter;
+        this.databaseExecutor = databaseExecutor;
+        this.mainExecutor = mainExecutor;
+    }
+
+    /**
+     * @return The uri for the loader of a new list, which is only its first page.
+     */
+    Uri getFirstPageUri(Uri listUri) {
+        this.listUri = listUri;
+        return AppProvider.getPageUri(listUri, PAGE_SIZE, null, 0);
+    }
+
+    /**
+     * Shows the first page from the loader, which replaces any that were loaded after it.
+     */
+    void onFirstPageLoaded(CursorLoader loader, @Nullable Cursor firstPage) {
+        this.loader = loader;
+        if (firstPage != null && !pages.isEmpty() && pages.get(0) == firstPage) {
+            // the loader is handing back what it already had, such as after the fragment was
+            // stopped and started again, so the pages after it are still the right ones
+            return;
+        }
+        discardPages();
+        if (firstPage != null) {
+            pages.add(firstPage);
+            rowCount = firstPage.getCount();
+            hasMore = isFullPage(firstPage);
+        }
+        adapter.swapCursor(firstPage);
+        closeDiscardedPages();
+    }
+
+    void reset() {
+        loader = null;
+        discardPages();
+        adapter.swapCursor(null);
+        closeDiscardedPages();
+    }
+
+    private void discardPages() {
+        generation++;
+        loading = false;
+        hasMore = false;
+        rowCount = 0;
+        if (pages.size() > 1) {
+            discardedPages.addAll(pages.subList(1, pages.size()));
+        }
+        pages.clear();
+    }
+
+    private void closeDiscardedPages() {
+        for (Cursor page : discardedPages) {
+            page.close();
+        }
+        discardedPages.clear();
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+        if (hasMore && !loading && firstVisibleItem + visibleItemCount + PREFETCH_DISTANCE >= totalItemCount) {
+            loadNextPage();
+        }
+    }
+
+    private void loadNextPage() {
+        Cursor lastPage = pages.get(pages.size() - 1);
+        if (!lastPage.moveToLast()) {
+            hasMore = false;
+            return;
+        }
+        String afterKey = lastPage.getString(lastPage.getColumnIndexOrThrow(AppMetadataTable.Cols.PAGE_KEY));
+        long afterId = lastPage.getLong(lastPage.getColumnIndexOrThrow(BaseColumns._ID));
+        final Uri pageUri = AppProvider.getPageUri(listUri, PAGE_SIZE, afterKey, afterId);
+        final String[] projection = loader.getProjection();
+        final String sortOrder = loader.getSortOrder();
+        final int pageGeneration = generation;
+        loading = true;
+        databaseExecutor.execute(() -> {
+            Cursor page = resolver.query(pageUri, projection, null, null, sortOrder);
+            if (page != null) {
+                // fills the cursor window here rather than on the main thread
+                page.getCount();
+            }
+            mainExecutor.execute(() -> onPageLoaded(pageGeneration, page));
+        });
+    }
+
+    private void onPageLoaded(int pageGeneration, @Nullable Cursor page) {
+        if (pageGeneration != generation) {
+            if (page != null) {
+                page.close();
+            }
+            return;
+        }
+        loading = false;
+        if (page == null) {
+            hasMore = false;
+            return;
+        }
+
+        pages.add(page);
+        rowCount += page.getCount();
+        hasMore = isFullPage(page);
+        Utils.debugLog(TAG, "Loaded " + page.getCount() + " more apps, " + rowCount + " in total");
+        adapter.swapCursor(new MergeCursor(pages.toArray(new Cursor[0])));
+
+        // When the list changes, the loader reads it again, and should then come back with as
+        // many rows as are being shown rather than jumping back to the first page.
+        loader.setUri(AppProvider.getPageUri(listUri, Math.max(rowCount, PAGE_SIZE), null, 0));
+    }
+
+    /**
+     * @return Whether there may be more of the list after {@code page}. At worst this means
+     * reading one empty page when the list happens to end exactly where a page does.
+     */
+    private static boolean isFullPage(Cursor page) {
+        if (page.getCount() < PAGE_SIZE || !page.moveToLast()) {
+            return false;
+        }
+        return !page.isNull(page.getColumnIndexOrThrow(AppMetadataTable.Cols.PAGE_KEY));
+    }
+}
@@ -0,0 +1,211 @@
+package org.fdroid.fdroid.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.fdroid.fdroid.FDroidApp;
+import org.fdroid.fdroid.TestUtils;
+import org.fdroid.fdroid.data.Schema.ApkTable;
+import org.fdroid.fdroid.data.Schema.AppMetadataTable;
+import org.fdroid.fdroid.data.Schema.AppMetadataTable.Cols;
+import org.fdroid.fdroid.data.Schema.InstalledAppTable;
+import org.fdroid.fdroid.data.Schema.PackageTable;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Checks that the lists read from {@link Schema.AppListTable} hold the same apps as when they
+ * are worked out from all the tables it is built from, and that they stay up to date.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class AppListTableTest {
+
+    private static final String[] LIST_PROJECTION = {
+            Cols._ID, Cols.Package.PACKAGE_NAME, Cols.NAME, Cols.SUGGESTED_VERSION_CODE,
+            Cols.InstalledApp.VERSION_CODE, Cols.SuggestedApk.VERSION_NAME,
+    };
+
+    /**
+     * {@link Cols#DESCRIPTION} is not in {@link Schema.AppListTable}, so asking for it means the
+     * query is answered the old way.
+     */
+    private static final String[] FULL_PROJECTION = {
+            Cols._ID, Cols.Package.PACKAGE_NAME, Cols.NAME, Cols.DESCRIPTION,
+    };
+
+    private Context context;
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        TestUtils.registerContentProvider(AppProvider.getAuthority(), AppProvider.class);
+        TestUtils.registerContentProvider(AppPrefsProvider.getAuthority(), AppPrefsProvider.class);
+        db = DBHelper.getInstance(context).getWritableDatabase();
+
+        insertApp("org.example.banana", "banana", 1);
+        insertApp("org.example.apple", "Apple", 1);
+        insertApp("org.example.cherry", "cherry", 2);
+        insertApp("org.example.apfel", "Äpfel", null);
+        AppProvider.Helper.calcSuggestedApks(context);
+    }
+
+    /**
+     * Adds an app from the first repo with an apk of version 2, which is installed at
+     * {@code installedVersionCode} unless that is null.
+     */
+    private void insertApp(String packageName, String name, Integer installedVersionCode) {
+        ContentValues values = new ContentValues();
+        values.put(PackageTable.Cols.PACKAGE_NAME, packageName);
+        long packageId = db.insert(PackageTable.NAME, null, values);
+
+        values = new ContentValues();
+        values.put(AppMetadataTable.Cols.PACKAGE_ID, packageId);
+        values.put(AppMetadataTable.Cols.REPO_ID, 1);
+        values.put(AppMetadataTable.Cols.NAME, name);
+        values.put(AppMetadataTable.Cols.SUMMARY, "");
+        values.put(AppMetadataTable.Cols.DESCRIPTION, "");
+        values.put(AppMetadataTable.Cols.LICENSE, "GPL-3.0-only");
+        values.put(AppMetadataTable.Cols.IS_COMPATIBLE, 1);
+        long appId = db.insert(AppMetadataTable.NAME, null, values);
+
+        values = new ContentValues();
+        values.put(PackageTable.Cols.PREFERRED_METADATA, appId);
+        db.update(PackageTable.NAME, values, PackageTable.Cols.ROW_ID + " = ?", new String[]{Long.toString(packageId)});
+
+        values = new ContentValues();
+        values.put(ApkTable.Cols.APP_ID, appId);
+        values.put(ApkTable.Cols.REPO_ID, 1);
+        values.put(ApkTable.Cols.HASH, "hash");
+        values.put(ApkTable.Cols.VERSION_CODE, 2);
+        values.put(ApkTable.Cols.VERSION_NAME, "2.0");
+        values.put(ApkTable.Cols.NAME, packageName + ".apk");
+        values.put(ApkTable.Cols.SIZE, 1000);
+        values.put(ApkTable.Cols.SIGNATURE, "sig");
+        values.put(ApkTable.Cols.IS_COMPATIBLE, 1);
+        db.insert(ApkTable.NAME, null, values);
+
+        if (installedVersionCode != null) {
+            values = new ContentValues();
+            values.put(InstalledAppTable.Cols.PACKAGE_ID, packageId);
+            values.put(InstalledAppTable.Cols.VERSION_CODE, installedVersionCode);
+            values.put(InstalledAppTable.Cols.VERSION_NAME, installedVersionCode + ".0");
+            values.put(InstalledAppTable.Cols.APPLICATION_LABEL, name);
+            values.put(InstalledAppTable.Cols.SIGNATURE, "sig");
+            values.put(InstalledAppTable.Cols.HASH_TYPE, "sha256");
+            values.put(InstalledAppTable.Cols.HASH, "hash");
+            db.insert(InstalledAppTable.NAME, null, values);
+        }
+    }
+
+    private List<String> queryPackageNames(Uri uri, String[] projection) {
+        List<String> packageNames = new ArrayList<>();
+        Cursor cursor = context.getContentResolver().query(uri, projection, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                packageNames.add(cursor.getString(cursor.getColumnIndexOrThrow(Cols.Package.PACKAGE_NAME)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return packageNames;
+    }
+
+    @Test
+    public void testSameAppsAsFullQuery() {
+        assertThat(queryPackageNames(AppProvider.getContentUri(), LIST_PROJECTION))
+                .containsExactlyElementsIn(queryPackageNames(AppProvider.getContentUri(), FULL_PROJECTION));
+        assertThat(queryPackageNames(AppProvider.getCanUpdateUri(), LIST_PROJECTION))
+                .containsExactlyElementsIn(queryPackageNames(AppProvider.getCanUpdateUri(), FULL_PROJECTION));
+    }
+
+    @Test
+    public void testListsAreSortedByName() {
+        assertThat(queryPackageNames(AppProvider.getContentUri(), LIST_PROJECTION)).containsExactly(
+                "org.example.apfel", "org.example.apple", "org.example.banana", "org.example.cherry").inOrder();
+        assertThat(queryPackageNames(AppProvider.getInstalledUri(), LIST_PROJECTION)).containsExactly(
+                "org.example.apple", "org.example.banana", "org.example.cherry").inOrder();
+        assertThat(queryPackageNames(AppProvider.getCanUpdateUri(), LIST_PROJECTION)).containsExactly(
+                "org.example.apple", "org.example.banana").inOrder();
+        assertThat(AppProvider.Helper.count(context, AppProvider.getCanUpdateUri())).isEqualTo(2);
+    }
+
+    /**
+     * Reads {@code uri} two apps at a time, each page starting after the last app of the one
+     * before it, until a page comes back short.
+     */
+    private List<String> queryPackageNamesInPages(Uri uri) {
+        String[] projection = {Cols._ID, Cols.Package.PACKAGE_NAME, Cols.PAGE_KEY};
+        List<String> packageNames = new ArrayList<>();
+        String afterKey = null;
+        long afterId = 0;
+        int count;
+        do {
+            Cursor cursor = context.getContentResolver().query(AppProvider.getPageUri(uri, 2, afterKey, afterId),
+                    projection, null, null, null);
+            try {
+                count = cursor.getCount();
+                while (cursor.moveToNext()) {
+                    packageNames.add(cursor.getString(cursor.getColumnIndexOrThrow(Cols.Package.PACKAGE_NAME)));
+                    afterKey = cursor.getString(cursor.getColumnIndexOrThrow(Cols.PAGE_KEY));
+                    afterId = cursor.getLong(cursor.getColumnIndexOrThrow("_id"));
+                }
+            } finally {
+                cursor.close();
+            }
+            assertThat(afterKey).isNotNull();
+        } while (count == 2);
+        return packageNames;
+    }
+
+    @Test
+    public void testPagesFollowOnFromEachOther() {
+        assertThat(queryPackageNamesInPages(AppProvider.getContentUri())).containsExactly(
+                "org.example.apfel", "org.example.apple", "org.example.banana", "org.example.cherry").inOrder();
+        assertThat(queryPackageNamesInPages(AppProvider.getInstalledUri())).containsExactly(
+                "org.example.apple", "org.example.banana", "org.example.cherry").inOrder();
+    }
+
+    /**
+     * Until the table has been built again for a new locale, the lists are read the same way as
+     * everything else, and the first of them starts the rebuild in the background.
+     */
+    @Test
+    public void testListsAreReadWithoutTableUntilRebuilt() throws Exception {
+        AppListWriter.clearSortedLocale(context);
+        db.delete(Schema.AppListTable.NAME, null, null);
+
+        assertThat(queryPackageNames(AppProvider.getContentUri(), LIST_PROJECTION)).containsExactly(
+                "org.example.apfel", "org.example.apple", "org.example.banana", "org.example.cherry");
+
+        // the database executor runs one thing at a time, so this waits for the rebuild
+        FDroidApp.getDatabaseExecutor().submit(() -> { }).get();
+        assertThat(AppListWriter.isSortedForCurrentLocale(context)).isTrue();
+        assertThat(queryPackageNamesInPages(AppProvider.getContentUri())).containsExactly(
+                "org.example.apfel", "org.example.apple", "org.example.banana", "org.example.cherry").inOrder();
+    }
+
+    @Test
+    public void testIgnoredUpdateLeavesUpdatesList() {
+        App app = new App();
+        app.packageName = "org.example.banana";
+        AppPrefsProvider.Helper.update(context, app, new AppPrefs(2, false, false));
+
+        assertThat(queryPackageNames(AppProvider.getCanUpdateUri(), LIST_PROJECTION))
+                .containsExactly("org.example.apple");
+        assertThat(queryPackageNames(AppProvider.getCanUpdateUri(), FULL_PROJECTION))
+                .containsExactly("org.example.apple");
+    }
+}
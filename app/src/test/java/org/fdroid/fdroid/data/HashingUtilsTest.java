@@ -56,4 +56,30 @@ public class HashingUtilsTest {
                 "facb4f2432acdf11178159af6cb17bb253aa25a3a1f5962cf49265250310adfb643f3c121247db7297ebf06d0831971b56ca10e6c34422e3aeb58f4a0439179c",
                 "sha512")).isTrue();
     }
+
+    @Test
+    public void testFileMatchingRecordedHash() throws Exception {
+        byte[] bytes = "F-Droid Classic".getBytes(StandardCharsets.UTF_8);
+        File file = File.createTempFile("hashfile", ".tmp");
+        write(bytes, file);
+        String hash = "533d66dd246976b283514aa74a712862a9bfc493f8cb375ecc86422a6b34f4e8";
+
+        // a recorded hash is trusted as long as the file is unchanged
+        String wrongHash = "0000000000000000000000000000000000000000000000000000000000000000";
+        HashingUtils.writeHashSidecar(file, wrongHash, "sha256");
+        assertThat(HashingUtils.isFileMatchingRecordedHash(file, wrongHash, "sha256")).isTrue();
+        assertThat(HashingUtils.isFileMatchingRecordedHash(file, hash, "sha256")).isFalse();
+
+        // but not for a different type of hash
+        assertThat(HashingUtils.isFileMatchingRecordedHash(file, wrongHash, "sha512")).isFalse();
+
+        // or once the file has changed
+        write("F-Droid".getBytes(StandardCharsets.UTF_8), file);
+        assertThat(HashingUtils.isFileMatchingRecordedHash(file, wrongHash, "sha256")).isFalse();
+
+        write(bytes, file);
+        HashingUtils.deleteHashSidecar(file);
+        assertThat(HashingUtils.isFileMatchingRecordedHash(file, hash, "sha256")).isTrue();
+        assertThat(HashingUtils.isFileMatchingRecordedHash(file, null, "sha256")).isFalse();
+    }
 }
@@ -0,0 +1,97 @@
+package org.fdroid.fdroid.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.fdroid.fdroid.data.Schema.PackageTable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class ImportDictionaryTest {
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() {
+        db = DBHelper.getInstance(ApplicationProvider.getApplicationContext()).getWritableDatabase();
+        ImportDictionary.warmAll(db);
+    }
+
+    @After
+    public void tearDown() {
+        ImportDictionary.invalidateAll();
+    }
+
+    private long insertPackage(String packageName) {
+        ContentValues values = new ContentValues(1);
+        values.put(PackageTable.Cols.PACKAGE_NAME, packageName);
+        long id = db.insert(PackageTable.NAME, null, values);
+        ImportDictionary.PACKAGES.put(packageName, id);
+        return id;
+    }
+
+    @Test
+    public void testCommittedPackagesAreKept() throws Exception {
+        long id;
+        ImportDictionary.beginTransaction(db);
+        try {
+            id = insertPackage("org.example.committed");
+            assertThat(ImportDictionary.PACKAGES.get("org.example.committed")).isEqualTo(id);
+
+            // other threads only see it once it is committed
+            AtomicLong seenElsewhere = new AtomicLong(-1);
+            Thread thread = new Thread(() -> seenElsewhere.set(ImportDictionary.PACKAGES.get("org.example.committed")));
+            thread.start();
+            thread.join();
+            assertThat(seenElsewhere.get()).isEqualTo(0);
+
+            db.setTransactionSuccessful();
+        } finally {
+            ImportDictionary.endTransaction(db, true);
+        }
+        assertThat(ImportDictionary.PACKAGES.get("org.example.committed")).isEqualTo(id);
+    }
+
+    @Test
+    public void testRolledBackPackagesAreDropped() {
+        ImportDictionary.beginTransaction(db);
+        try {
+            insertPackage("org.example.rolledBack");
+        } finally {
+            ImportDictionary.endTransaction(db, false);
+        }
+        assertThat(ImportDictionary.PACKAGES.get("org.example.rolledBack")).isEqualTo(0);
+
+        // SQLite gives the next package the same row ID, which must not be shared with the first
+        long id = insertPackage("org.example.next");
+        assertThat(ImportDictionary.PACKAGES.get("org.example.next")).isEqualTo(id);
+        assertThat(ImportDictionary.PACKAGES.get("org.example.rolledBack")).isEqualTo(0);
+    }
+
+    @Test
+    public void testNestedPackagesWaitForOutermostTransaction() {
+        ImportDictionary.beginTransaction(db);
+        try {
+            ImportDictionary.beginTransaction(db);
+            try {
+                insertPackage("org.example.nested");
+                db.setTransactionSuccessful();
+            } finally {
+                ImportDictionary.endTransaction(db, true);
+            }
+        } finally {
+            ImportDictionary.endTransaction(db, false);
+        }
+        assertThat(ImportDictionary.PACKAGES.get("org.example.nested")).isEqualTo(0);
+    }
+}
@@ -48,9 +48,36 @@ public class IndexUpdaterTest {
         Repo repo = createRepo("F-Droid", "https://f-droid.org/repo", context, FDROID_CERT);
         IndexV1Updater updater = new IndexV1Updater(context, repo);
         updater.processDownloadedIndex(index, "");
+        AppProvider.Helper.calcStalePackages(context);
         assertThat(AppProvider.Helper.all(context.getContentResolver()).size()).isEqualTo(3120);
     }
 
+    @Test
+    public void processSameIndexTwice() throws IOException, IndexUpdater.UpdateException {
+        List<Repo> repos = RepoProvider.Helper.all(context);
+        for (Repo repo : repos) {
+            RepoProvider.Helper.remove(context, repo.getId());
+        }
+        File index = TestUtils.copyResourceToTempFile("index-v1_20200916.jar");
+        Repo repo = createRepo("F-Droid", "https://f-droid.org/repo", context, FDROID_CERT);
+        new IndexV1Updater(context, repo).processDownloadedIndex(index, "");
+        AppProvider.Helper.calcStalePackages(context);
+        List<App> apps = AppProvider.Helper.all(context.getContentResolver());
+        int apkCount = ApkProvider.Helper.findByRepo(context, repo, Schema.ApkTable.Cols.ALL).size();
+
+        repo = RepoProvider.Helper.findById(context, repo.getId());
+        new IndexV1Updater(context, repo).processDownloadedIndex(index, "");
+        AppProvider.Helper.calcStalePackages(context);
+        List<App> appsAfterUpdate = AppProvider.Helper.all(context.getContentResolver());
+
+        assertThat(appsAfterUpdate.size()).isEqualTo(3120);
+        assertThat(ApkProvider.Helper.findByRepo(context, repo, Schema.ApkTable.Cols.ALL)).hasSize(apkCount);
+        for (int i = 0; i < apps.size(); i++) {
+            // Rows which did not change keep their rowid, because they were not written again.
+            assertThat(appsAfterUpdate.get(i).getId()).isEqualTo(apps.get(i).getId());
+        }
+    }
+
     /**
      * Creates a real instance of {@code Repo} by loading it from the database,
      * that ensures it includes the primary key from the database.
@@ -0,0 +1,104 @@
+package org.fdroid.fdroid.data;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.Collections;
+
+import static android.os.Build.VERSION_CODES.LOLLIPOP_MR1;
+import static com.google.common.truth.Truth.assertThat;
+
+@Config(sdk = {LOLLIPOP_MR1})
+@RunWith(RobolectricTestRunner.class)
+public class InstalledApkHasherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] content(int seed) {
+        byte[] bytes = new byte[300 * 1024];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i * seed);
+        }
+        return bytes;
+    }
+
+    private static String sha256(byte[] bytes) {
+        return Hashing.sha256().hashBytes(bytes).toString();
+    }
+
+    @Test
+    public void testOnlyRehashesChangedFiles() throws Exception {
+        Context context = ApplicationProvider.getApplicationContext();
+        File apk = folder.newFile("base.apk");
+        Files.write(content(31), apk);
+        long lastModified = 1230768000000L; // 2009-01-01, like an APK in /system
+        assertThat(apk.setLastModified(lastModified)).isTrue();
+
+        InstalledApkHasher hasher = new InstalledApkHasher(context);
+        assertThat(hasher.hasChanged(apk)).isTrue();
+        assertThat(hasher.hash(Collections.singletonList(apk))).containsExactly(apk, sha256(content(31)));
+
+        // same size and timestamp, so this must come from the table rather than the file
+        Files.write(content(17), apk);
+        assertThat(apk.setLastModified(lastModified)).isTrue();
+        hasher = new InstalledApkHasher(context);
+        assertThat(hasher.hasChanged(apk)).isFalse();
+        assertThat(hasher.hash(Collections.singletonList(apk))).containsExactly(apk, sha256(content(31)));
+
+        assertThat(apk.setLastModified(lastModified + 1000)).isTrue();
+        hasher = new InstalledApkHasher(context);
+        assertThat(hasher.hasChanged(apk)).isTrue();
+        assertThat(hasher.hash(Collections.singletonList(apk))).containsExactly(apk, sha256(content(17)));
+
+        hasher.retainOnly(Collections.<File>emptyList());
+        assertThat(new InstalledApkHasher(context).hasChanged(apk)).isTrue();
+    }
+
+    @Test
+    public void testSingleFileUsesSameTable() throws Exception {
+        Context context = ApplicationProvider.getApplicationContext();
+        File apk = folder.newFile("base.apk");
+        File other = folder.newFile("other.apk");
+        Files.write(content(31), apk);
+        Files.write(content(13), other);
+        long lastModified = 1230768000000L;
+        assertThat(apk.setLastModified(lastModified)).isTrue();
+
+        assertThat(new InstalledApkHasher(context).hash(apk)).isEqualTo(sha256(content(31)));
+        new InstalledApkHasher(context).hash(Collections.singletonList(other));
+
+        // same size and timestamp, so this must come from the table rather than the file
+        Files.write(content(17), apk);
+        assertThat(apk.setLastModified(lastModified)).isTrue();
+        InstalledApkHasher hasher = new InstalledApkHasher(context);
+        assertThat(hasher.hash(apk)).isEqualTo(sha256(content(31)));
+        assertThat(hasher.hash(Collections.singletonList(apk))).containsExactly(apk, sha256(content(31)));
+
+        assertThat(apk.setLastModified(lastModified + 1000)).isTrue();
+        hasher = new InstalledApkHasher(context);
+        assertThat(hasher.hash(apk)).isEqualTo(sha256(content(17)));
+        assertThat(new InstalledApkHasher(context).hasChanged(apk)).isFalse();
+        assertThat(new InstalledApkHasher(context).hasChanged(other)).isFalse();
+    }
+
+    @Test
+    public void testUnreadableFileIsLeftOut() {
+        File missing = new File(folder.getRoot(), "missing.apk");
+        InstalledApkHasher hasher = new InstalledApkHasher(ApplicationProvider.getApplicationContext());
+        assertThat(hasher.hash(Collections.singletonList(missing))).isEmpty();
+        assertThat(hasher.hash(missing)).isNull();
+    }
+}
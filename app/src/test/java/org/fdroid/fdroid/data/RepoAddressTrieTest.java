@@ -0,0 +1,58 @@
+package org.fdroid.fdroid.data;
+
+import android.net.Uri;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class RepoAddressTrieTest {
+
+    private static Repo repo(String address) {
+        Repo repo = new Repo();
+        repo.address = address;
+        return repo;
+    }
+
+    @Test
+    public void testFindsLongestMatchingAddress() {
+        Repo root = repo("https://example.org");
+        Repo fdroid = repo("https://example.org/fdroid/repo");
+        Repo archive = repo("https://example.org/fdroid/archive/");
+        RepoAddressTrie trie = new RepoAddressTrie();
+        trie.add(root);
+        trie.add(fdroid);
+        trie.add(archive);
+
+        assertThat(trie.find(Uri.parse("https://example.org/fdroid/repo/icons/org.fdroid.fdroid.png")))
+                .isSameInstanceAs(fdroid);
+        assertThat(trie.find(Uri.parse("https://example.org/fdroid/repo"))).isSameInstanceAs(fdroid);
+        assertThat(trie.find(Uri.parse("https://example.org/fdroid/archive/app.apk?x=1")))
+                .isSameInstanceAs(archive);
+        assertThat(trie.find(Uri.parse("https://EXAMPLE.org/fdroid/other/app.apk"))).isSameInstanceAs(root);
+    }
+
+    @Test
+    public void testNoMatch() {
+        RepoAddressTrie trie = new RepoAddressTrie();
+        trie.add(repo("https://example.org/fdroid/repo"));
+
+        assertThat(trie.find(Uri.parse("https://example.org/fdroid/icons/a.png"))).isNull();
+        assertThat(trie.find(Uri.parse("http://example.org/fdroid/repo/a.png"))).isNull();
+        assertThat(trie.find(Uri.parse("https://example.org:8443/fdroid/repo/a.png"))).isNull();
+        assertThat(trie.find(Uri.parse("https://example.com/fdroid/repo/a.png"))).isNull();
+    }
+
+    @Test
+    public void testFirstRepoWithSameAddressWins() {
+        Repo first = repo("https://example.org/repo");
+        RepoAddressTrie trie = new RepoAddressTrie();
+        trie.add(first);
+        trie.add(repo("https://example.org/repo"));
+
+        assertThat(trie.find(Uri.parse("https://example.org/repo/a.apk"))).isSameInstanceAs(first);
+    }
+}
@@ -0,0 +1,293 @@
+package org.fdroid.fdroid.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.annotation.Nullable;
+import androidx.test.core.app.ApplicationProvider;
+
+import org.fdroid.fdroid.Preferences;
+import org.fdroid.fdroid.data.Schema.ApkTable;
+import org.fdroid.fdroid.data.Schema.AppMetadataTable;
+import org.fdroid.fdroid.data.Schema.InstalledAppTable;
+import org.fdroid.fdroid.data.Schema.PackageTable;
+import org.fdroid.fdroid.data.Schema.StalePackageTable;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Checks that {@link SuggestedVersionCalculator} comes up with exactly the same suggested
+ * versions as the SQL that {@link AppProvider} used before it, kept in {@link SuggestedVersionSql},
+ * for each of the ways that {@link AppProvider} recalculates them.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SuggestedVersionCalculatorTest {
+
+    private static final String[] SIGNATURES = {"aaaa", "bbbb", null};
+
+    private SQLiteDatabase db;
+    private AppProvider provider;
+
+    @Before
+    public void setUp() {
+        db = DBHelper.getInstance(ApplicationProvider.getApplicationContext()).getWritableDatabase();
+        provider = Robolectric.buildContentProvider(AppProvider.class).create().get();
+    }
+
+    /**
+     * Fills the tables with packages available from one to three repos, each with a random mix
+     * of signatures, compatibility and upstream version codes, some of which are installed.
+     * The packages are named {@code org.example.app0} onwards.
+     */
+    private void insertPackages(int count, long seed) {
+        Random random = new Random(seed);
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < count; i++) {
+                ContentValues values = new ContentValues();
+                values.put(PackageTable.Cols.PACKAGE_NAME, "org.example.app" + i);
+                long packageId = db.insert(PackageTable.NAME, null, values);
+
+                int repos = 1 + random.nextInt(3);
+                for (int repo = 1; repo <= repos; repo++) {
+                    values = new ContentValues();
+                    values.put(AppMetadataTable.Cols.PACKAGE_ID, packageId);
+                    values.put(AppMetadataTable.Cols.REPO_ID, repo);
+                    values.put(AppMetadataTable.Cols.NAME, "App " + i);
+                    values.put(AppMetadataTable.Cols.SUMMARY, "");
+                    values.put(AppMetadataTable.Cols.DESCRIPTION, "");
+                    values.put(AppMetadataTable.Cols.LICENSE, "GPL-3.0-only");
+                    values.put(AppMetadataTable.Cols.IS_COMPATIBLE, random.nextInt(4) == 0 ? 0 : 1);
+                    switch (random.nextInt(5)) {
+                        case 0:
+                            values.putNull(AppMetadataTable.Cols.UPSTREAM_VERSION_CODE);
+                            break;
+                        case 1:
+                            values.put(AppMetadataTable.Cols.UPSTREAM_VERSION_CODE, 0);
+                            break;
+                        case 2:
+                            values.put(AppMetadataTable.Cols.UPSTREAM_VERSION_CODE, -1 - random.nextInt(3));
+                            break;
+                        default:
+                            values.put(AppMetadataTable.Cols.UPSTREAM_VERSION_CODE, 1 + random.nextInt(20));
+                            break;
+                    }
+                    if (random.nextInt(5) == 0) {
+                        values.putNull(AppMetadataTable.Cols.SUGGESTED_VERSION_CODE);
+                    } else {
+                        values.put(AppMetadataTable.Cols.SUGGESTED_VERSION_CODE, random.nextInt(20));
+                    }
+                    long appId = db.insert(AppMetadataTable.NAME, null, values);
+
+                    int apks = random.nextInt(6);
+                    for (int apk = 0; apk < apks; apk++) {
+                        values = new ContentValues();
+                        values.put(ApkTable.Cols.APP_ID, appId);
+                        values.put(ApkTable.Cols.REPO_ID, repo);
+                        values.put(ApkTable.Cols.HASH, "hash");
+                        values.put(ApkTable.Cols.VERSION_CODE, 1 + random.nextInt(20));
+                        values.put(ApkTable.Cols.NAME, "app" + i + ".apk");
+                        values.put(ApkTable.Cols.SIZE, 1000);
+                        values.put(ApkTable.Cols.SIGNATURE, SIGNATURES[random.nextInt(SIGNATURES.length)]);
+                        values.put(ApkTable.Cols.IS_COMPATIBLE, random.nextInt(3) == 0 ? 0 : 1);
+                        db.insert(ApkTable.NAME, null, values);
+                    }
+                }
+
+                if (random.nextInt(3) == 0) {
+                    values = new ContentValues();
+                    values.put(InstalledAppTable.Cols.PACKAGE_ID, packageId);
+                    values.put(InstalledAppTable.Cols.VERSION_CODE, 1);
+                    values.put(InstalledAppTable.Cols.VERSION_NAME, "1");
+                    values.put(InstalledAppTable.Cols.APPLICATION_LABEL, "App " + i);
+                    values.put(InstalledAppTable.Cols.SIGNATURE, SIGNATURES[random.nextInt(2)]);
+                    values.put(InstalledAppTable.Cols.HASH_TYPE, "sha256");
+                    values.put(InstalledAppTable.Cols.HASH, "hash");
+                    db.insert(InstalledAppTable.NAME, null, values);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private Map<Long, String> getSuggestedVersions() {
+        Map<Long, String> suggested = new HashMap<>();
+        Cursor cursor = db.rawQuery("SELECT " + AppMetadataTable.Cols.ROW_ID + ", "
+                + AppMetadataTable.Cols.SUGGESTED_VERSION_CODE + " FROM " + AppMetadataTable.NAME, null);
+        try {
+            while (cursor.moveToNext()) {
+                suggested.put(cursor.getLong(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return suggested;
+    }
+
+    private void setSuggestedVersions(Map<Long, String> suggested) {
+        for (Map.Entry<Long, String> entry : suggested.entrySet()) {
+            ContentValues values = new ContentValues();
+            values.put(AppMetadataTable.Cols.SUGGESTED_VERSION_CODE, entry.getValue());
+            db.update(AppMetadataTable.NAME, values, AppMetadataTable.Cols.ROW_ID + " = ?",
+                    new String[]{Long.toString(entry.getKey())});
+        }
+    }
+
+    /**
+     * Runs {@code calculate}, and the reference SQL restricted to {@code packageIds}, on the same
+     * starting data, and checks that they end up with the same suggested versions.
+     *
+     * @return The suggested versions from before either of them ran
+     */
+    private Map<Long, String> assertSameAsSql(Runnable calculate, @Nullable String packageIds, @Nullable String[] args) {
+        Map<Long, String> before = getSuggestedVersions();
+        SuggestedVersionSql.update(db, packageIds, args, Preferences.get().getUnstableUpdates());
+        Map<Long, String> fromSql = getSuggestedVersions();
+
+        setSuggestedVersions(before);
+        calculate.run();
+        assertThat(getSuggestedVersions()).isEqualTo(fromSql);
+        return before;
+    }
+
+    private static String getPackageIdsQuery(int count) {
+        return "SELECT " + PackageTable.Cols.ROW_ID + " FROM " + PackageTable.NAME + " WHERE "
+                + PackageTable.Cols.PACKAGE_NAME + " IN (" + FDroidProvider.generateQuestionMarksForInClause(count) + ")";
+    }
+
+    @Test
+    public void testSameAsSql() {
+        insertPackages(2000, 20221017);
+        Map<Long, String> before = assertSameAsSql(provider::updateSuggestedApks, null, null);
+        assertThat(getSuggestedVersions()).isNotEqualTo(before);
+    }
+
+    /**
+     * More packages than {@link AppProvider} updates in one statement, so it takes two goes.
+     */
+    @Test
+    public void testSomePackagesSameAsSql() {
+        insertPackages(2000, 20221018);
+        List<String> packageNames = new ArrayList<>();
+        for (int i = 0; i < 2000; i += 3) {
+            packageNames.add("org.example.app" + i);
+        }
+        String[] args = packageNames.toArray(new String[0]);
+        assertSameAsSql(() -> provider.updateSuggestedApks(args), getPackageIdsQuery(args.length), args);
+    }
+
+    @Test
+    public void testSinglePackageSameAsSql() {
+        insertPackages(200, 20221019);
+        for (int i = 0; i < 200; i += 7) {
+            final String packageName = "org.example.app" + i;
+            assertSameAsSql(() -> provider.updateSuggestedApk(packageName), getPackageIdsQuery(1),
+                    new String[]{packageName});
+        }
+    }
+
+    /**
+     * After a repo update, only the packages it touched are recalculated.
+     */
+    @Test
+    public void testStalePackagesSameAsSql() {
+        insertPackages(500, 20221020);
+        List<String> packageNames = new ArrayList<>();
+        for (int i = 0; i < 500; i += 4) {
+            packageNames.add("org.example.app" + i);
+        }
+        String[] args = packageNames.toArray(new String[0]);
+        String packageIds = getPackageIdsQuery(args.length);
+        db.execSQL("INSERT INTO " + StalePackageTable.NAME + " (" + StalePackageTable.Cols.PACKAGE_ID + ") "
+                + packageIds, args);
+
+        // this also recalculates which apps are compatible, which the reference SQL needs to see first
+        Map<Long, String> before = getSuggestedVersions();
+        provider.updateStaleAppDetails();
+        Map<Long, String> fromCalculator = getSuggestedVersions();
+        setSuggestedVersions(before);
+        assertSameAsSql(() -> setSuggestedVersions(fromCalculator), packageIds, args);
+    }
+
+    private void insertApp(String packageName, @Nullable Integer upstreamVersionCode,
+                           @Nullable Integer suggestedVersionCode) {
+        ContentValues values = new ContentValues();
+        values.put(PackageTable.Cols.PACKAGE_NAME, packageName);
+        long packageId = db.insert(PackageTable.NAME, null, values);
+
+        values = new ContentValues();
+        values.put(AppMetadataTable.Cols.PACKAGE_ID, packageId);
+        values.put(AppMetadataTable.Cols.REPO_ID, 1);
+        values.put(AppMetadataTable.Cols.NAME, packageName);
+        values.put(AppMetadataTable.Cols.SUMMARY, "");
+        values.put(AppMetadataTable.Cols.DESCRIPTION, "");
+        values.put(AppMetadataTable.Cols.LICENSE, "GPL-3.0-only");
+        values.put(AppMetadataTable.Cols.IS_COMPATIBLE, 1);
+        values.put(AppMetadataTable.Cols.UPSTREAM_VERSION_CODE, upstreamVersionCode);
+        values.put(AppMetadataTable.Cols.SUGGESTED_VERSION_CODE, suggestedVersionCode);
+        long appId = db.insert(AppMetadataTable.NAME, null, values);
+
+        for (int versionCode = 1; versionCode <= 5; versionCode++) {
+            values = new ContentValues();
+            values.put(ApkTable.Cols.APP_ID, appId);
+            values.put(ApkTable.Cols.REPO_ID, 1);
+            values.put(ApkTable.Cols.HASH, "hash");
+            values.put(ApkTable.Cols.VERSION_CODE, versionCode);
+            values.put(ApkTable.Cols.NAME, packageName + versionCode + ".apk");
+            values.put(ApkTable.Cols.SIZE, 1000);
+            values.put(ApkTable.Cols.SIGNATURE, SIGNATURES[0]);
+            values.put(ApkTable.Cols.IS_COMPATIBLE, 1);
+            db.insert(ApkTable.NAME, null, values);
+        }
+    }
+
+    private String getSuggestedVersion(String packageName) {
+        Cursor cursor = db.rawQuery("SELECT " + AppMetadataTable.Cols.SUGGESTED_VERSION_CODE + " FROM "
+                + AppMetadataTable.NAME + " WHERE " + AppMetadataTable.Cols.PACKAGE_ID + " IN ("
+                + getPackageIdsQuery(1) + ")", new String[]{packageName});
+        try {
+            assertThat(cursor.moveToFirst()).isTrue();
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Each app has apks with version codes 1 to 5.  An unset or zero upstream version code means
+     * the newest, and a negative one means the suggested version is left as it is, unless there
+     * is none yet.
+     */
+    @Test
+    public void testUnsetAndNegativeUpstreamVersionCodes() {
+        insertApp("org.example.unset", null, 1);
+        insertApp("org.example.zero", 0, 1);
+        insertApp("org.example.upstream", 3, 1);
+        insertApp("org.example.tooNew", 10, 1);
+        insertApp("org.example.negative", -1, 2);
+        insertApp("org.example.negativeUnsuggested", -1, null);
+
+        assertSameAsSql(provider::updateSuggestedApks, null, null);
+
+        assertThat(getSuggestedVersion("org.example.unset")).isEqualTo("5");
+        assertThat(getSuggestedVersion("org.example.zero")).isEqualTo("5");
+        assertThat(getSuggestedVersion("org.example.upstream")).isEqualTo("3");
+        assertThat(getSuggestedVersion("org.example.tooNew")).isEqualTo("5");
+        assertThat(getSuggestedVersion("org.example.negative")).isEqualTo("2");
+        assertThat(getSuggestedVersion("org.example.negativeUnsuggested")).isEqualTo("5");
+    }
+}
@@ -0,0 +1,89 @@
+package org.fdroid.fdroid.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.annotation.Nullable;
+
+import org.fdroid.fdroid.data.Schema.ApkTable;
+import org.fdroid.fdroid.data.Schema.AppMetadataTable;
+import org.fdroid.fdroid.data.Schema.AppMetadataTable.Cols;
+import org.fdroid.fdroid.data.Schema.InstalledAppTable;
+
+/**
+ * The SQL which {@link AppProvider} used to work out suggested versions with, before
+ * {@link SuggestedVersionCalculator} replaced it.  It is only kept as a reference to check
+ * the calculator against.
+ */
+final class SuggestedVersionSql {
+
+    private SuggestedVersionSql() {
+    }
+
+    /**
+     * @param packageIds A subquery selecting the packages to update, or null to update all of them.
+     */
+    static void update(SQLiteDatabase db, @Nullable String packageIds, @Nullable String[] args,
+                       boolean unstableUpdates) {
+        String restrictToApps = packageIds == null ? ""
+                : " AND " + AppMetadataTable.NAME + "." + Cols.PACKAGE_ID + " IN (" + packageIds + ") ";
+        updateFromUpstream(db, restrictToApps, args, unstableUpdates);
+        updateFromLatest(db, " ( COALESCE(" + Cols.UPSTREAM_VERSION_CODE + ", 0) = 0 OR "
+                + Cols.SUGGESTED_VERSION_CODE + " IS NULL ) " + restrictToApps, args);
+    }
+
+    /**
+     * Look at the upstream version of each app, our goal is to find the apk
+     * with the closest version code to that, without going over.
+     * If the app is not compatible at all (i.e. no versions were compatible)
+     * then we take the highest, otherwise we take the highest compatible version.
+     * If the app is installed, then all apks signed by a different certificate are
+     * ignored for the purpose of this calculation.
+     */
+    private static void updateFromUpstream(SQLiteDatabase db, String restrictToApps, @Nullable String[] args,
+                                           boolean unstableUpdates) {
+        final String apk = ApkTable.NAME;
+        final String app = AppMetadataTable.NAME;
+        final String installed = InstalledAppTable.NAME;
+
+        String restrictToStable = unstableUpdates ? "" : (apk + "." + ApkTable.Cols.VERSION_CODE + " <= " + app + "." + Cols.UPSTREAM_VERSION_CODE + " AND ");
+
+        String updateSql =
+                "UPDATE " + app + " SET " + Cols.SUGGESTED_VERSION_CODE + " = ( " +
+                        " SELECT MAX( " + apk + "." + ApkTable.Cols.VERSION_CODE + " ) " +
+                        " FROM " + apk +
+                        "   JOIN " + app + " AS appForThisApk ON (appForThisApk." + Cols.ROW_ID + " = " + apk + "." + ApkTable.Cols.APP_ID + ") " +
+                        "   LEFT JOIN " + installed + " ON (" + installed + "." + InstalledAppTable.Cols.PACKAGE_ID + " = " + app + "." + Cols.PACKAGE_ID + ") " +
+                        " WHERE " +
+                        app + "." + Cols.PACKAGE_ID + " = appForThisApk." + Cols.PACKAGE_ID + " AND " +
+                        apk + "." + ApkTable.Cols.SIGNATURE + " IS COALESCE(" + installed + "." + InstalledAppTable.Cols.SIGNATURE + ", " + apk + "." + ApkTable.Cols.SIGNATURE + ") AND " +
+                        restrictToStable +
+                        " ( " + app + "." + Cols.IS_COMPATIBLE + " = 0 OR " + apk + "." + Cols.IS_COMPATIBLE + " = 1 ) ) " +
+                        " WHERE " + Cols.UPSTREAM_VERSION_CODE + " > 0 " + restrictToApps;
+
+        db.execSQL(updateSql, args == null ? new String[0] : args);
+    }
+
+    /**
+     * We set each app's suggested version to the latest available that is
+     * compatible, or the latest available if none are compatible.
+     */
+    private static void updateFromLatest(SQLiteDatabase db, String restrictToApps, @Nullable String[] args) {
+        final String apk = ApkTable.NAME;
+        final String app = AppMetadataTable.NAME;
+        final String installed = InstalledAppTable.NAME;
+
+        String updateSql =
+                "UPDATE " + app + " SET " + Cols.SUGGESTED_VERSION_CODE + " = ( " +
+                        " SELECT MAX( " + apk + "." + ApkTable.Cols.VERSION_CODE + " ) " +
+                        " FROM " + apk +
+                        "   JOIN " + app + " AS appForThisApk ON (appForThisApk." + Cols.ROW_ID + " = " + apk + "." + ApkTable.Cols.APP_ID + ") " +
+                        "   LEFT JOIN " + installed + " ON (" + installed + "." + InstalledAppTable.Cols.PACKAGE_ID + " = " + app + "." + Cols.PACKAGE_ID + ") " +
+                        " WHERE " +
+                        app + "." + Cols.PACKAGE_ID + " = appForThisApk." + Cols.PACKAGE_ID + " AND " +
+                        apk + "." + ApkTable.Cols.SIGNATURE + " IS COALESCE(" + installed + "." + InstalledAppTable.Cols.SIGNATURE + ", " + apk + "." + ApkTable.Cols.SIGNATURE + ") AND " +
+                        " ( " + app + "." + Cols.IS_COMPATIBLE + " = 0 OR " + apk + "." + ApkTable.Cols.IS_COMPATIBLE + " = 1 ) ) " +
+                        " WHERE " + restrictToApps;
+
+        db.execSQL(updateSql, args == null ? new String[0] : args);
+    }
+}
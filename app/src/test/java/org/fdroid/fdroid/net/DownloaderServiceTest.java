@@ -0,0 +1,127 @@
+package org.fdroid.fdroid.net;
+
+import android.app.Application;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.google.common.io.Files;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.fdroid.fdroid.installer.ApkCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.android.controller.ServiceController;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Queues downloads with {@link DownloaderService} from a small HTTP server, which holds on
+ * to each {@code GET} until it is told to send the file.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DownloaderServiceTest {
+
+    private static final byte[] CONTENT = new byte[100 * 1024];
+
+    static {
+        for (int i = 0; i < CONTENT.length; i++) {
+            CONTENT[i] = (byte) (i * 31);
+        }
+    }
+
+    private final AtomicInteger gets = new AtomicInteger();
+    private final CountDownLatch firstGet = new CountDownLatch(1);
+    private final CountDownLatch sendFile = new CountDownLatch(1);
+
+    private Context context;
+    private HttpServer server;
+    private ServiceController<DownloaderService> controller;
+
+    @Before
+    public void setUp() throws IOException {
+        context = ApplicationProvider.getApplicationContext();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        controller = Robolectric.buildService(DownloaderService.class).create();
+    }
+
+    @After
+    public void tearDown() {
+        sendFile.countDown();
+        controller.destroy();
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Content-Length", String.valueOf(CONTENT.length));
+            exchange.sendResponseHeaders(200, -1);
+        } else {
+            gets.incrementAndGet();
+            firstGet.countDown();
+            try {
+                sendFile.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, CONTENT.length);
+            OutputStream body = exchange.getResponseBody();
+            body.write(CONTENT);
+            body.close();
+        }
+        exchange.close();
+    }
+
+    private Intent getQueueIntent(String urlString) {
+        DownloaderService.queue(context, urlString, 0, urlString);
+        return shadowOf((Application) context).getNextStartedService();
+    }
+
+    @Test
+    public void testSameFileIsOnlyDownloadedOnceAtATime() throws Exception {
+        String urlString = "http://127.0.0.1:" + server.getAddress().getPort() + "/org.example.app_1.apk";
+        File apk = ApkCache.getApkDownloadPath(context, Uri.parse(urlString));
+        DownloaderService service = controller.get();
+
+        service.onStartCommand(getQueueIntent(urlString), 0, 1);
+        service.onStartCommand(getQueueIntent(urlString), 0, 2);
+        assertThat(firstGet.await(10, TimeUnit.SECONDS)).isTrue();
+        // e.g. Install tapped again while the first download is still running
+        service.onStartCommand(getQueueIntent(urlString), 0, 3);
+
+        Thread.sleep(500);
+        assertThat(gets.get()).isEqualTo(1);
+        assertThat(DownloaderService.isQueuedOrActive(urlString)).isTrue();
+
+        sendFile.countDown();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (DownloaderService.isQueuedOrActive(urlString) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertThat(DownloaderService.isQueuedOrActive(urlString)).isFalse();
+
+        // the one left waiting found the file already there
+        assertThat(gets.get()).isEqualTo(1);
+        assertThat(Files.toByteArray(apk)).isEqualTo(CONTENT);
+    }
+}
@@ -0,0 +1,181 @@
+package org.fdroid.fdroid.net;
+
+import android.net.Uri;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Runs {@link HttpDownloader}, through the {@link HttpEngine} set in {@link DownloaderFactory},
+ * against a small HTTP server which only knows about one file.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class HttpDownloaderTest {
+
+    private static final String ETAG = "\"5f3a9c\"";
+    private static final byte[] CONTENT = new byte[100 * 1024];
+
+    static {
+        for (int i = 0; i < CONTENT.length; i++) {
+            CONTENT[i] = (byte) (i * 31);
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger openedConnections = new AtomicInteger();
+    private HttpServer server;
+    private HttpEngine defaultEngine;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+
+        defaultEngine = DownloaderFactory.getHttpEngine();
+        DownloaderFactory.setHttpEngine(url -> {
+            openedConnections.incrementAndGet();
+            return defaultEngine.openConnection(url);
+        });
+    }
+
+    @After
+    public void tearDown() {
+        DownloaderFactory.setHttpEngine(defaultEngine);
+        server.stop(0);
+    }
+
+    /**
+     * Answers {@code HEAD} and {@code GET} for {@code /file}, including {@code Range} requests,
+     * and records each one as the method followed by the range asked for, if any.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        requests.add(exchange.getRequestMethod() + (range == null ? "" : " " + range));
+        if (!"/file".equals(exchange.getRequestURI().getPath())) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        int start = 0;
+        int end = CONTENT.length;
+        if (range != null) {
+            String[] parts = range.substring("bytes=".length()).split("-", -1);
+            start = Integer.parseInt(parts[0]);
+            if (!parts[1].isEmpty()) {
+                end = Integer.parseInt(parts[1]) + 1;
+            }
+        }
+        exchange.getResponseHeaders().set("ETag", ETAG);
+        int statusCode = range == null ? 200 : 206;
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Content-Length", String.valueOf(CONTENT.length));
+            exchange.sendResponseHeaders(statusCode, -1);
+        } else {
+            exchange.sendResponseHeaders(statusCode, end - start);
+            OutputStream body = exchange.getResponseBody();
+            body.write(CONTENT, start, end - start);
+            body.close();
+        }
+        exchange.close();
+    }
+
+    private HttpDownloader getDownloader(String path, File destFile) throws IOException {
+        Uri uri = Uri.parse("http://127.0.0.1:" + server.getAddress().getPort() + path);
+        return new HttpDownloader(uri, destFile);
+    }
+
+    private static String sha256(byte[] bytes) {
+        return Hashing.sha256().hashBytes(bytes).toString();
+    }
+
+    @Test
+    public void testDownloadWholeFile() throws Exception {
+        File file = new File(folder.getRoot(), "file");
+        HttpDownloader downloader = getDownloader("/file", file);
+        downloader.download();
+
+        assertThat(downloader.hasChanged()).isTrue();
+        assertThat(downloader.isNotFound()).isFalse();
+        assertThat(Files.toByteArray(file)).isEqualTo(CONTENT);
+        assertThat(downloader.getHash()).isEqualTo(sha256(CONTENT));
+        assertThat(downloader.getCacheTag()).isEqualTo(ETAG);
+        assertThat(requests).containsExactly("HEAD", "GET").inOrder();
+        assertThat(openedConnections.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testResumePartialFile() throws Exception {
+        File file = new File(folder.getRoot(), "file");
+        Files.write(Arrays.copyOf(CONTENT, 1000), file);
+        HttpDownloader downloader = getDownloader("/file", file);
+        downloader.download();
+
+        assertThat(Files.toByteArray(file)).isEqualTo(CONTENT);
+        assertThat(downloader.getHash()).isEqualTo(sha256(CONTENT));
+        assertThat(requests).containsExactly("HEAD", "GET bytes=1000-").inOrder();
+    }
+
+    @Test
+    public void testUnchangedEtagOnlySendsGet() throws Exception {
+        File file = folder.newFile();
+        HttpDownloader downloader = getDownloader("/file", file);
+        downloader.setCacheTag(ETAG);
+        downloader.download();
+
+        assertThat(downloader.hasChanged()).isFalse();
+        assertThat(file.length()).isEqualTo(0);
+        assertThat(downloader.getHash()).isNull();
+        assertThat(requests).containsExactly("GET");
+    }
+
+    @Test
+    public void testChangedEtagDownloadsInOneRequest() throws Exception {
+        File file = folder.newFile();
+        HttpDownloader downloader = getDownloader("/file", file);
+        downloader.setCacheTag("\"0ld\"");
+        downloader.download();
+
+        assertThat(downloader.hasChanged()).isTrue();
+        assertThat(Files.toByteArray(file)).isEqualTo(CONTENT);
+        assertThat(downloader.getCacheTag()).isEqualTo(ETAG);
+        assertThat(requests).containsExactly("GET");
+        assertThat(openedConnections.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testNotFound() throws Exception {
+        File file = new File(folder.getRoot(), "missing");
+        HttpDownloader downloader = getDownloader("/missing", file);
+        downloader.download();
+
+        assertThat(downloader.isNotFound()).isTrue();
+        assertThat(downloader.hasChanged()).isFalse();
+        assertThat(file.exists()).isFalse();
+    }
+}
@@ -0,0 +1,46 @@
+package org.fdroid.fdroid.net;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.fdroid.fdroid.data.Repo;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class MirrorScoreboardTest {
+
+    private static final String ADDRESS = "https://example.org/repo";
+    private static final String MIRROR = "https://mirror.example.com/fdroid/repo";
+
+    private MirrorScoreboard scoreboard;
+    private Repo repo;
+
+    @Before
+    public void setUp() {
+        scoreboard = MirrorScoreboard.get(ApplicationProvider.getApplicationContext());
+        repo = new Repo();
+        repo.address = ADDRESS;
+        repo.mirrors = new String[]{ADDRESS, MIRROR + "/"};
+    }
+
+    @Test
+    public void movesUrlsToEachMirror() {
+        assertThat(scoreboard.getUrlsOnAllMirrors(repo, ADDRESS + "/app.apk"))
+                .containsExactly(ADDRESS + "/app.apk", MIRROR + "/app.apk");
+        assertThat(scoreboard.getUrlsOnAllMirrors(repo, MIRROR + "/index-v1.jar"))
+                .containsExactly(ADDRESS + "/index-v1.jar", MIRROR + "/index-v1.jar");
+    }
+
+    @Test
+    public void onlyMatchesWholePathSegments() {
+        assertThat(scoreboard.getUrlsOnAllMirrors(repo, "https://example.org/repo2/app.apk")).isEmpty();
+        assertThat(scoreboard.getBestUrl(repo, "https://example.org/repo2/app.apk"))
+                .isEqualTo("https://example.org/repo2/app.apk");
+        assertThat(scoreboard.getUrlsOnAllMirrors(repo, "https://mirror.example.com/fdroid/repository/app.apk"))
+                .isEmpty();
+    }
+}
@@ -0,0 +1,294 @@
+package org.fdroid.fdroid.views.fragments;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.BaseColumns;
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.cursoradapter.widget.CursorAdapter;
+import androidx.loader.content.CursorLoader;
+import androidx.test.core.app.ApplicationProvider;
+
+import org.fdroid.fdroid.TestUtils;
+import org.fdroid.fdroid.data.Schema.AppMetadataTable;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class AppListPagerTest {
+
+    private static final String AUTHORITY = "org.fdroid.fdroid.test.pages";
+    private static final String[] PROJECTION = {BaseColumns._ID, AppMetadataTable.Cols.PAGE_KEY};
+
+    private final Deque<Runnable> databaseTasks = new ArrayDeque<>();
+    private final Deque<Runnable> mainTasks = new ArrayDeque<>();
+
+    private Context context;
+    private CursorAdapter adapter;
+    private AppListPager pager;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        TestUtils.registerContentProvider(AUTHORITY, PagedAppsProvider.class);
+        adapter = new TestCursorAdapter(context);
+        pager = new AppListPager(context, adapter, databaseTasks::add, mainTasks::add);
+    }
+
+    /**
+     * A list of {@code count} apps, with ids from 0, which can be read a page at a time.
+     */
+    private static Uri getListUri(int count) {
+        return Uri.parse("content://" + AUTHORITY + "/apps/" + count);
+    }
+
+    /**
+     * A list of {@code count} apps which always comes back whole, without a page key.
+     */
+    private static Uri getWholeListUri(int count) {
+        return Uri.parse("content://" + AUTHORITY + "/whole/" + count);
+    }
+
+    private CursorLoader createLoader(Uri listUri) {
+        return new CursorLoader(context, pager.getFirstPageUri(listUri), PROJECTION, null, null, null);
+    }
+
+    /**
+     * Reads the loader's uri and hands the result to the pager, as the loader would.
+     */
+    private Cursor load(CursorLoader loader) {
+        Cursor cursor = loader.loadInBackground();
+        pager.onFirstPageLoaded(loader, cursor);
+        return cursor;
+    }
+
+    private void scrollToEnd() {
+        int count = adapter.getCount();
+        pager.onScroll(null, Math.max(0, count - 10), Math.min(count, 10), count);
+    }
+
+    private static int runTasks(Deque<Runnable> tasks) {
+        int count = 0;
+        while (!tasks.isEmpty()) {
+            tasks.removeFirst().run();
+            count++;
+        }
+        return count;
+    }
+
+    private void assertShowsApps(int count) {
+        assertThat(adapter.getCount()).isEqualTo(count);
+        Cursor cursor = adapter.getCursor();
+        for (int i = 0; i < count; i++) {
+            assertThat(cursor.moveToPosition(i)).isTrue();
+            assertThat(cursor.getLong(cursor.getColumnIndexOrThrow(BaseColumns._ID))).isEqualTo(i);
+        }
+    }
+
+    @Test
+    public void appendsPagesWhenScrolledNearTheEnd() {
+        load(createLoader(getListUri(250)));
+        assertShowsApps(AppListPager.PAGE_SIZE);
+
+        pager.onScroll(null, 0, 10, adapter.getCount());
+        assertThat(databaseTasks).isEmpty();
+
+        scrollToEnd();
+        assertThat(databaseTasks).hasSize(1);
+        // already reading the next page, so scrolling more does not read it twice
+        scrollToEnd();
+        assertThat(runTasks(databaseTasks)).isEqualTo(1);
+        runTasks(mainTasks);
+        assertShowsApps(200);
+
+        scrollToEnd();
+        runTasks(databaseTasks);
+        runTasks(mainTasks);
+        assertShowsApps(250);
+
+        // the last page was not full, so that is the end of the list
+        scrollToEnd();
+        assertThat(databaseTasks).isEmpty();
+    }
+
+    @Test
+    public void readsOneEmptyPageWhenTheListEndsOnAPage() {
+        load(createLoader(getListUri(200)));
+        scrollToEnd();
+        runTasks(databaseTasks);
+        runTasks(mainTasks);
+        assertShowsApps(200);
+
+        scrollToEnd();
+        runTasks(databaseTasks);
+        runTasks(mainTasks);
+        assertShowsApps(200);
+
+        scrollToEnd();
+        assertThat(databaseTasks).isEmpty();
+    }
+
+    @Test
+    public void doesNotPageListsWithoutPageKeys() {
+        load(createLoader(getWholeListUri(250)));
+        assertShowsApps(250);
+
+        scrollToEnd();
+        assertThat(databaseTasks).isEmpty();
+    }
+
+    @Test
+    public void discardsPagesOfAnOldQuery() {
+        CursorLoader loader = createLoader(getListUri(250));
+        load(loader);
+        scrollToEnd();
+        runTasks(databaseTasks);
+
+        // the query changes while that page is on its way to the main thread
+        loader.setUri(pager.getFirstPageUri(getListUri(120)));
+        Cursor newFirstPage = load(loader);
+        runTasks(mainTasks);
+
+        assertThat(adapter.getCursor()).isSameInstanceAs(newFirstPage);
+        assertShowsApps(AppListPager.PAGE_SIZE);
+
+        // and the next page is now read from the new list
+        scrollToEnd();
+        runTasks(databaseTasks);
+        runTasks(mainTasks);
+        assertShowsApps(120);
+    }
+
+    @Test
+    public void discardsPagesAfterReset() {
+        load(createLoader(getListUri(250)));
+        scrollToEnd();
+        runTasks(databaseTasks);
+
+        pager.reset();
+        runTasks(mainTasks);
+
+        assertThat(adapter.getCursor()).isNull();
+    }
+
+    @Test
+    public void keepsPagesWhenTheLoaderRedeliversTheFirstPage() {
+        CursorLoader loader = createLoader(getListUri(250));
+        Cursor firstPage = load(loader);
+        scrollToEnd();
+        runTasks(databaseTasks);
+        runTasks(mainTasks);
+        assertShowsApps(200);
+
+        pager.onFirstPageLoaded(loader, firstPage);
+        assertShowsApps(200);
+    }
+
+    /**
+     * When the list changes, the loader reads it again with as many rows as were shown, and
+     * more pages can then be read after those.
+     */
+    @Test
+    public void reloadsAsManyRowsAsWereShown() {
+        CursorLoader loader = createLoader(getListUri(350));
+        assertThat(loader.getUri().getQueryParameter("limit")).isEqualTo(String.valueOf(AppListPager.PAGE_SIZE));
+
+        load(loader);
+        scrollToEnd();
+        runTasks(databaseTasks);
+        runTasks(mainTasks);
+        assertThat(loader.getUri().getQueryParameter("limit")).isEqualTo("200");
+        assertThat(loader.getUri().getQueryParameter("afterKey")).isNull();
+
+        load(loader);
+        assertShowsApps(200);
+
+        scrollToEnd();
+        runTasks(databaseTasks);
+        runTasks(mainTasks);
+        assertShowsApps(300);
+        assertThat(loader.getUri().getQueryParameter("limit")).isEqualTo("300");
+    }
+
+    private static class TestCursorAdapter extends CursorAdapter {
+        TestCursorAdapter(Context context) {
+            super(context, null, 0);
+        }
+
+        @Override
+        public View newView(Context context, Cursor cursor, ViewGroup parent) {
+            return new View(context);
+        }
+
+        @Override
+        public void bindView(View view, Context context, Cursor cursor) {
+        }
+    }
+
+    /**
+     * Serves the lists of {@link #getListUri(int)} and {@link #getWholeListUri(int)}, sorted by
+     * id, using the same paging query parameters as {@link org.fdroid.fdroid.data.AppProvider}.
+     */
+    public static class PagedAppsProvider extends ContentProvider {
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Nullable
+        @Override
+        public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
+                            @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+            boolean whole = "whole".equals(uri.getPathSegments().get(0));
+            int count = Integer.parseInt(uri.getLastPathSegment());
+            String limit = uri.getQueryParameter("limit");
+            String afterId = uri.getQueryParameter("afterId");
+
+            int start = whole || afterId == null ? 0 : Integer.parseInt(afterId) + 1;
+            int end = whole || limit == null ? count : Math.min(count, start + Integer.parseInt(limit));
+            MatrixCursor cursor = new MatrixCursor(PROJECTION);
+            for (int id = start; id < end; id++) {
+                cursor.addRow(new Object[]{id, whole ? null : String.format("%05d", id)});
+            }
+            return cursor;
+        }
+
+        @Nullable
+        @Override
+        public String getType(@NonNull Uri uri) {
+            return null;
+        }
+
+        @Nullable
+        @Override
+        public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection,
+                          @Nullable String[] selectionArgs) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}